@@ -24,8 +24,10 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
 
+import net.openid.appauth.AppAuthConfiguration;
 import net.openid.appauth.AuthorizationServiceConfiguration;
 import net.openid.appauth.AuthorizationServiceConfiguration.RetrieveConfigurationCallback;
+import net.openid.appauth.DiscoveryCache;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -58,6 +60,12 @@ class IdentityProvider {
 
     public static final List<IdentityProvider> PROVIDERS = Arrays.asList(EXAMPLE_PROVIDER);
 
+    /**
+     * Discovery documents are cached across application launches, so that login does not
+     * have to wait for discovery after the first launch.
+     */
+    private static AppAuthConfiguration sDiscoveryConfiguration;
+
     public static List<IdentityProvider> getEnabledProviders(Context context) {
         ArrayList<IdentityProvider> providers = new ArrayList<>();
         for (IdentityProvider provider : PROVIDERS) {
@@ -252,7 +260,10 @@ class IdentityProvider {
                                RetrieveConfigurationCallback callback) {
         readConfiguration(context);
         if (getDiscoveryEndpoint() != null) {
-            AuthorizationServiceConfiguration.fetchFromUrl(mDiscoveryEndpoint, callback);
+            AuthorizationServiceConfiguration.fetchFromUrl(
+                    mDiscoveryEndpoint,
+                    callback,
+                    getDiscoveryConfiguration(context));
         } else {
             AuthorizationServiceConfiguration config =
                     new AuthorizationServiceConfiguration(mAuthEndpoint, mTokenEndpoint,
@@ -261,6 +272,16 @@ class IdentityProvider {
         }
     }
 
+    private static synchronized AppAuthConfiguration getDiscoveryConfiguration(
+            Context context) {
+        if (sDiscoveryConfiguration == null) {
+            sDiscoveryConfiguration = new AppAuthConfiguration.Builder()
+                    .setDiscoveryCache(new DiscoveryCache(context.getApplicationContext(), true))
+                    .build();
+        }
+        return sDiscoveryConfiguration;
+    }
+
     private static boolean isSpecified(int value) {
         return value != NOT_SPECIFIED;
     }
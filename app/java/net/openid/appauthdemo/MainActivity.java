@@ -15,11 +15,13 @@
 package net.openid.appauthdemo;
 
 import android.annotation.TargetApi;
+import android.app.PendingIntent;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.ColorRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.customtabs.CustomTabsIntent;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Base64;
 import android.util.Log;
@@ -189,7 +191,7 @@ public class MainActivity extends AppCompatActivity {
 
         String state = generateRandomState();
 
-        AuthorizationRequest authRequest = new AuthorizationRequest.Builder(
+        final AuthorizationRequest authRequest = new AuthorizationRequest.Builder(
                 serviceConfig,
                 idp.getClientId(),
                 ResponseTypeValues.CODE,
@@ -198,17 +200,26 @@ public class MainActivity extends AppCompatActivity {
                 .setLoginHint(loginHint)
                 .build();
 
-        Log.d(TAG, "Making auth request to " + serviceConfig.authorizationEndpoint);
-        mAuthService.performAuthorizationRequest(
+        final PendingIntent postAuthorizationIntent = TokenActivity.createPostAuthorizationIntent(
+                this,
                 authRequest,
-                TokenActivity.createPostAuthorizationIntent(
-                        this,
-                        authRequest,
-                        serviceConfig.discoveryDoc,
-                        authState),
-                mAuthService.createCustomTabsIntentBuilder()
-                        .setToolbarColor(getColorCompat(R.color.colorAccent))
-                        .build());
+                serviceConfig.discoveryDoc,
+                authState);
+
+        // the builder is delivered once the browser is connected, without blocking the UI
+        Log.d(TAG, "Making auth request to " + serviceConfig.authorizationEndpoint);
+        mAuthService.createCustomTabsIntentBuilder(
+                new AuthorizationService.CustomTabsIntentBuilderCallback() {
+                    @Override
+                    public void onCustomTabsIntentBuilderCreated(
+                            @NonNull CustomTabsIntent.Builder builder) {
+                        mAuthService.performAuthorizationRequest(
+                                authRequest,
+                                postAuthorizationIntent,
+                                builder.setToolbarColor(getColorCompat(R.color.colorAccent))
+                                        .build());
+                    }
+                });
     }
 
     private void makeRegistrationRequest(
@@ -17,12 +17,8 @@ package net.openid.appauthdemo;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -38,27 +34,27 @@ import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
 
+import net.openid.appauth.AppAuthConfiguration;
 import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthStateStore;
 import net.openid.appauth.AuthorizationException;
 import net.openid.appauth.AuthorizationRequest;
 import net.openid.appauth.AuthorizationResponse;
 import net.openid.appauth.AuthorizationService;
+import net.openid.appauth.AuthorizationServiceConfiguration;
 import net.openid.appauth.AuthorizationServiceDiscovery;
 import net.openid.appauth.ClientAuthentication;
 import net.openid.appauth.ClientSecretBasic;
 import net.openid.appauth.TokenRequest;
 import net.openid.appauth.TokenResponse;
+import net.openid.appauth.UserInfoCache;
+import net.openid.appauth.UserInfoRequest;
+import net.openid.appauth.UserInfoResponse;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.File;
 import java.text.DateFormat;
 import java.util.Date;
 
@@ -73,9 +69,8 @@ public class TokenActivity extends AppCompatActivity {
     private static final int LOGOUT_CALLBACK_INTENT_CONSTANT = 12345;
 
     // constants for saving state on disk
-    private static final String FILE_SAVED_APP_STATE = "savedAppState";
+    private static final String FILE_AUTH_STATE_JOURNAL = "authState.journal";
     private static final String KEY_DISCOVERY_DOC_JSON = "discoveryDocInJson";
-    private static final String KEY_AUTH_STATE_JSON = "authStateInJson";
     private static final String KEY_AUTH_MODE_STRING = "authModeAsString";
     private static final String KEY_REFRESH_TIMESTAMP = "refreshTimestamp";
 
@@ -87,9 +82,12 @@ public class TokenActivity extends AppCompatActivity {
     private static final String EXTRA_AUTH_SERVICE_DISCOVERY = "authServiceDiscovery";
     private static final String EXTRA_AUTH_STATE = "authState";
 
-    private static final int BUFFER_SIZE = 1024;
+    // shared by all instances of the activity, so that userinfo is not fetched each time the
+    // activity is created
+    private static final UserInfoCache USER_INFO_CACHE = new UserInfoCache();
 
     private AuthState mAuthState;
+    private AuthStateStore mAuthStateStore;
     private AuthorizationService mAuthService;
     private JSONObject mUserInfoJson;
     private IdentityProvider mIdentityProvider;
@@ -100,7 +98,10 @@ public class TokenActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_token);
 
-        mAuthService = new AuthorizationService(this);
+        mAuthService = new AuthorizationService(this, new AppAuthConfiguration.Builder()
+                .setUserInfoCache(USER_INFO_CACHE)
+                .build());
+        mAuthStateStore = new AuthStateStore(new File(getFilesDir(), FILE_AUTH_STATE_JOURNAL));
 
         mIdentityProvider = IdentityProvider.getEnabledProviders(TokenActivity.this).get(0);
         if (savedInstanceState != null) {
@@ -181,7 +182,7 @@ public class TokenActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
         Log.d(TAG, "onStop()");
-        saveAuthState(true);
+        saveAuthState();
     }
 
     @Override
@@ -195,21 +196,11 @@ public class TokenActivity extends AppCompatActivity {
     }
 
 
-    // save AuthState internal state to permanent storage
-    private void saveAuthState(boolean immediately) {
-        Log.d(TAG, "saveAuthState(): mAuthState.len=" + (mAuthState != null
-                ? mAuthState.jsonSerializeString().length() : "0"));
+    // save AuthState internal state to permanent storage; after a token refresh, only the
+    // refreshed tokens are written
+    private void saveAuthState() {
         if (mAuthState != null) {
-            SharedPreferences appPrefs = getSharedPreferences(FILE_SAVED_APP_STATE, MODE_PRIVATE);
-            if (immediately) {
-                appPrefs.edit()
-                        .putString(KEY_AUTH_STATE_JSON, mAuthState.jsonSerializeString())
-                        .apply();
-            } else {
-                appPrefs.edit()
-                        .putString(KEY_AUTH_STATE_JSON, mAuthState.jsonSerializeString())
-                        .apply();
-            }
+            mAuthStateStore.save(mAuthState);
         }
     }
 
@@ -225,6 +216,7 @@ public class TokenActivity extends AppCompatActivity {
             performTokenValidation(tokenResponse);
         } else {
             mAuthState.update(tokenResponse, authException);
+            saveAuthState();
             showSnackbar((tokenResponse != null)
                     ? R.string.exchange_complete
                     : R.string.refresh_failed);
@@ -287,13 +279,7 @@ public class TokenActivity extends AppCompatActivity {
             viewProfileButton.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    new AsyncTask<Void, Void, Void>() {
-                        @Override
-                        protected Void doInBackground(Void... params) {
-                            fetchUserInfo();
-                            return null;
-                        }
-                    }.execute();
+                    fetchUserInfo();
                 }
             });
         }
@@ -391,6 +377,7 @@ public class TokenActivity extends AppCompatActivity {
                                                                           ex) {
                         if (isTokenValid) {
                             mAuthState.update(mTokenResponse, ex);
+                            saveAuthState();
                             showSnackbar((mTokenResponse != null)
                                     ? R.string.exchange_complete
                                     : R.string.refresh_failed);
@@ -404,65 +391,38 @@ public class TokenActivity extends AppCompatActivity {
     }
 
 
+    @MainThread
     private void fetchUserInfo() {
-        if (mAuthState.getAuthorizationServiceConfiguration() == null) {
-            Log.e(TAG, "Cannot make userInfo request without service configuration");
+        AuthorizationServiceDiscovery discoveryDoc = getDiscoveryDocFromIntent(getIntent());
+        if (discoveryDoc == null || discoveryDoc.getUserinfoEndpoint() == null) {
+            Log.e(TAG, "Cannot make userInfo request without a userinfo endpoint");
+            return;
         }
 
-        mAuthState.performActionWithFreshTokens(mAuthService, new AuthState.AuthStateAction() {
-            @Override
-            public void execute(String accessToken, String idToken, AuthorizationException ex) {
-                if (ex != null) {
-                    Log.e(TAG, "Token refresh failed when fetching user info");
-                    return;
-                }
-
-                AuthorizationServiceDiscovery discoveryDoc = getDiscoveryDocFromIntent(getIntent());
-                if (discoveryDoc == null) {
-                    throw new IllegalStateException("no available discovery doc");
-                }
-
-                URL userInfoEndpoint;
-                try {
-                    userInfoEndpoint = new URL(discoveryDoc.getUserinfoEndpoint().toString());
-                } catch (MalformedURLException urlEx) {
-                    Log.e(TAG, "Failed to construct user info endpoint URL", urlEx);
-                    return;
-                }
-
-                InputStream userInfoResponse = null;
-                try {
-                    HttpURLConnection conn = (HttpURLConnection) userInfoEndpoint.openConnection();
-                    conn.setRequestProperty("Authorization", "Bearer " + accessToken);
-                    conn.setInstanceFollowRedirects(false);
-                    userInfoResponse = conn.getInputStream();
-                    String response = readStream(userInfoResponse);
-                    updateUserInfo(new JSONObject(response));
-                } catch (IOException ioEx) {
-                    Log.e(TAG, "Network error when querying userinfo endpoint", ioEx);
-                } catch (JSONException jsonEx) {
-                    Log.e(TAG, "Failed to parse userinfo response");
-                } finally {
-                    if (userInfoResponse != null) {
-                        try {
-                            userInfoResponse.close();
-                        } catch (IOException ioEx) {
-                            Log.e(TAG, "Failed to close userinfo response stream", ioEx);
+        // the request is performed off the main thread, and the access token is refreshed
+        // and the request replayed if the token has been revoked. Claims fetched recently are
+        // provided from the cache, so returning to this activity does not repeat the request.
+        mAuthService.performUserInfoRequest(
+                mAuthState,
+                new UserInfoRequest.Builder(new AuthorizationServiceConfiguration(discoveryDoc))
+                        .build(),
+                new AuthorizationService.UserInfoResponseCallback() {
+                    @Override
+                    public void onUserInfoRequestCompleted(
+                            @Nullable UserInfoResponse response,
+                            @Nullable AuthorizationException ex) {
+                        // the tokens may have been refreshed to perform the request, whether
+                        // or not it succeeded
+                        saveAuthState();
+                        if (response == null) {
+                            Log.e(TAG, "Failed to query userinfo endpoint", ex);
+                            return;
                         }
-                    }
-                }
-            }
-        });
-    }
 
-    private void updateUserInfo(final JSONObject jsonObject) {
-        new Handler(Looper.getMainLooper()).post(new Runnable() {
-            @Override
-            public void run() {
-                mUserInfoJson = jsonObject;
-                refreshUi();
-            }
-        });
+                        mUserInfoJson = response.claims;
+                        refreshUi();
+                    }
+                });
     }
 
     @MainThread
@@ -473,17 +433,6 @@ public class TokenActivity extends AppCompatActivity {
                 .show();
     }
 
-    private static String readStream(InputStream stream) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(stream));
-        char[] buffer = new char[BUFFER_SIZE];
-        StringBuilder sb = new StringBuilder();
-        int readCount;
-        while ((readCount = br.read(buffer)) != -1) {
-            sb.append(buffer, 0, readCount);
-        }
-        return sb.toString();
-    }
-
     static PendingIntent createPostAuthorizationIntent(
             @NonNull Context context,
             @NonNull AuthorizationRequest request,
@@ -15,12 +15,15 @@
 package net.openid.appauth;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import net.openid.appauth.browser.AnyBrowserMatcher;
 import net.openid.appauth.browser.BrowserMatcher;
 import net.openid.appauth.connectivity.ConnectionBuilder;
 import net.openid.appauth.connectivity.DefaultConnectionBuilder;
 
+import java.util.concurrent.Executor;
+
 /**
  * Defines configuration properties that control the behavior of the AppAuth library, independent
  * of the OAuth2 specific details that are described.
@@ -40,11 +43,41 @@ public class AppAuthConfiguration {
     @NonNull
     private final ConnectionBuilder mConnectionBuilder;
 
+    @NonNull
+    private final Executor mNetworkExecutor;
+
+    @NonNull
+    private final Executor mCallbackExecutor;
+
+    @Nullable
+    private final DiscoveryCache mDiscoveryCache;
+
+    @Nullable
+    private final IntrospectionCache mIntrospectionCache;
+
+    @Nullable
+    private final UserInfoCache mUserInfoCache;
+
+    @NonNull
+    private final RetryPolicy mRetryPolicy;
+
     private AppAuthConfiguration(
             @NonNull BrowserMatcher browserMatcher,
-            @NonNull ConnectionBuilder connectionBuilder) {
+            @NonNull ConnectionBuilder connectionBuilder,
+            @NonNull Executor networkExecutor,
+            @NonNull Executor callbackExecutor,
+            @Nullable DiscoveryCache discoveryCache,
+            @Nullable IntrospectionCache introspectionCache,
+            @Nullable UserInfoCache userInfoCache,
+            @NonNull RetryPolicy retryPolicy) {
         mBrowserMatcher = browserMatcher;
         mConnectionBuilder = connectionBuilder;
+        mNetworkExecutor = networkExecutor;
+        mCallbackExecutor = callbackExecutor;
+        mDiscoveryCache = discoveryCache;
+        mIntrospectionCache = introspectionCache;
+        mUserInfoCache = userInfoCache;
+        mRetryPolicy = retryPolicy;
     }
 
     /**
@@ -64,6 +97,54 @@ public class AppAuthConfiguration {
         return mConnectionBuilder;
     }
 
+    /**
+     * The executor on which blocking network operations, such as token requests, are performed.
+     */
+    @NonNull
+    public Executor getNetworkExecutor() {
+        return mNetworkExecutor;
+    }
+
+    /**
+     * The executor on which the results of network operations are delivered to callbacks.
+     */
+    @NonNull
+    public Executor getCallbackExecutor() {
+        return mCallbackExecutor;
+    }
+
+    /**
+     * The cache used when retrieving OpenID Connect discovery documents, if any.
+     */
+    @Nullable
+    public DiscoveryCache getDiscoveryCache() {
+        return mDiscoveryCache;
+    }
+
+    /**
+     * The cache used for the results of token introspection requests, if any.
+     */
+    @Nullable
+    public IntrospectionCache getIntrospectionCache() {
+        return mIntrospectionCache;
+    }
+
+    /**
+     * The cache used for the results of userinfo requests, if any.
+     */
+    @Nullable
+    public UserInfoCache getUserInfoCache() {
+        return mUserInfoCache;
+    }
+
+    /**
+     * The policy controlling how failed token and registration requests are retried.
+     */
+    @NonNull
+    public RetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
     /**
      * Creates {@link AppAuthConfiguration} instances.
      */
@@ -71,6 +152,12 @@ public class AppAuthConfiguration {
 
         private BrowserMatcher mBrowserMatcher = AnyBrowserMatcher.INSTANCE;
         private ConnectionBuilder mConnectionBuilder = DefaultConnectionBuilder.INSTANCE;
+        private Executor mNetworkExecutor = DefaultExecutors.networkExecutor();
+        private Executor mCallbackExecutor = DefaultExecutors.mainThreadExecutor();
+        private DiscoveryCache mDiscoveryCache;
+        private IntrospectionCache mIntrospectionCache;
+        private UserInfoCache mUserInfoCache;
+        private RetryPolicy mRetryPolicy = RetryPolicy.NONE;
 
         /**
          * Specify the browser matcher to use, which controls the browsers that can be used
@@ -94,12 +181,90 @@ public class AppAuthConfiguration {
             return this;
         }
 
+        /**
+         * Specify the executor on which blocking network operations are performed. By default,
+         * a small, bounded pool of threads shared by all services is used, so that requests to
+         * different endpoints proceed in parallel and do not queue behind unrelated
+         * {@link android.os.AsyncTask AsyncTasks} of the application.
+         */
+        @NonNull
+        public Builder setNetworkExecutor(@NonNull Executor networkExecutor) {
+            Preconditions.checkNotNull(networkExecutor, "networkExecutor cannot be null");
+            mNetworkExecutor = networkExecutor;
+            return this;
+        }
+
+        /**
+         * Specify the executor on which the results of network operations are delivered to
+         * callbacks. By default, callbacks are invoked on the main thread.
+         */
+        @NonNull
+        public Builder setCallbackExecutor(@NonNull Executor callbackExecutor) {
+            Preconditions.checkNotNull(callbackExecutor, "callbackExecutor cannot be null");
+            mCallbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * Specify the cache to use when retrieving OpenID Connect discovery documents via
+         * {@link AuthorizationServiceConfiguration#fetchFromUrl(android.net.Uri,
+         * AuthorizationServiceConfiguration.RetrieveConfigurationCallback,
+         * AppAuthConfiguration) fetchFromUrl}. By default, discovery documents are not cached.
+         */
+        @NonNull
+        public Builder setDiscoveryCache(@Nullable DiscoveryCache discoveryCache) {
+            mDiscoveryCache = discoveryCache;
+            return this;
+        }
+
+        /**
+         * Specify the cache to use for the results of
+         * {@link AuthorizationService#performTokenIntrospection token introspection} requests.
+         * By default, results are not cached.
+         */
+        @NonNull
+        public Builder setIntrospectionCache(@Nullable IntrospectionCache introspectionCache) {
+            mIntrospectionCache = introspectionCache;
+            return this;
+        }
+
+        /**
+         * Specify the cache to use for the results of
+         * {@link AuthorizationService#performUserInfoRequest userinfo} requests. By default,
+         * results are not cached.
+         */
+        @NonNull
+        public Builder setUserInfoCache(@Nullable UserInfoCache userInfoCache) {
+            mUserInfoCache = userInfoCache;
+            return this;
+        }
+
+        /**
+         * Specify the policy controlling how failed token and registration requests are
+         * retried, and when requests to a failing endpoint are rejected without being
+         * attempted. By default, requests are attempted once, and never rejected.
+         */
+        @NonNull
+        public Builder setRetryPolicy(@NonNull RetryPolicy retryPolicy) {
+            Preconditions.checkNotNull(retryPolicy, "retryPolicy cannot be null");
+            mRetryPolicy = retryPolicy;
+            return this;
+        }
+
         /**
          * Creates the instance from the configured properties.
          */
         @NonNull
         public AppAuthConfiguration build() {
-            return new AppAuthConfiguration(mBrowserMatcher, mConnectionBuilder);
+            return new AppAuthConfiguration(
+                    mBrowserMatcher,
+                    mConnectionBuilder,
+                    mNetworkExecutor,
+                    mCallbackExecutor,
+                    mDiscoveryCache,
+                    mIntrospectionCache,
+                    mUserInfoCache,
+                    mRetryPolicy);
         }
 
 
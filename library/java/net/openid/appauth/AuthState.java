@@ -15,6 +15,7 @@
 package net.openid.appauth;
 
 import static net.openid.appauth.AuthorizationException.AuthorizationRequestErrors;
+import static net.openid.appauth.AuthorizationException.GeneralErrors;
 import static net.openid.appauth.Preconditions.checkArgument;
 import static net.openid.appauth.Preconditions.checkNotEmpty;
 import static net.openid.appauth.Preconditions.checkNotNull;
@@ -26,7 +27,10 @@ import android.support.annotation.VisibleForTesting;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -70,8 +74,39 @@ public class AuthState {
     @Nullable
     private AuthorizationException mAuthorizationException;
 
+    /*
+     * When the state is deserialized lazily, the responses are retained in their serialized form
+     * until first accessed; the corresponding fields above are null until then.
+     */
+    @Nullable
+    private LazyResponse<AuthorizationResponse> mLazyAuthorizationResponse;
+
+    @Nullable
+    private LazyResponse<TokenResponse> mLazyTokenResponse;
+
+    @Nullable
+    private LazyResponse<RegistrationResponse> mLazyRegistrationResponse;
+
+    /**
+     * The claims of the current ID token, retained for as long as the ID token is unchanged.
+     */
+    @Nullable
+    private volatile IdToken mIdTokenClaims;
+
     private boolean mNeedsTokenRefreshOverride;
 
+    /**
+     * The actions awaiting the result of an in-flight token refresh, or {@code null} if no
+     * refresh is currently in progress.
+     */
+    @Nullable
+    private List<AuthStateAction> mPendingActions;
+
+    private final Object mPendingActionsSyncObject = new Object();
+
+    @Nullable
+    private TokenRefreshScheduler mTokenRefreshScheduler;
+
     /**
      * Nonce value to be stored in order to validate ID token.
      */
@@ -150,6 +185,11 @@ public class AuthState {
      */
     @Nullable
     public AuthorizationResponse getLastAuthorizationResponse() {
+        LazyResponse<AuthorizationResponse> lazyResponse = mLazyAuthorizationResponse;
+        if (lazyResponse != null) {
+            mLastAuthorizationResponse = lazyResponse.get();
+            mLazyAuthorizationResponse = null;
+        }
         return mLastAuthorizationResponse;
     }
 
@@ -164,6 +204,11 @@ public class AuthState {
      */
     @Nullable
     public TokenResponse getLastTokenResponse() {
+        LazyResponse<TokenResponse> lazyResponse = mLazyTokenResponse;
+        if (lazyResponse != null) {
+            mLastTokenResponse = lazyResponse.get();
+            mLazyTokenResponse = null;
+        }
         return mLastTokenResponse;
     }
 
@@ -178,6 +223,11 @@ public class AuthState {
      */
     @Nullable
     public RegistrationResponse getLastRegistrationResponse() {
+        LazyResponse<RegistrationResponse> lazyResponse = mLazyRegistrationResponse;
+        if (lazyResponse != null) {
+            mLastRegistrationResponse = lazyResponse.get();
+            mLazyRegistrationResponse = null;
+        }
         return mLastRegistrationResponse;
     }
 
@@ -186,8 +236,9 @@ public class AuthState {
      */
     @Nullable
     public AuthorizationServiceConfiguration getAuthorizationServiceConfiguration() {
-        if (mLastAuthorizationResponse != null) {
-            return mLastAuthorizationResponse.request.configuration;
+        AuthorizationResponse authResponse = getLastAuthorizationResponse();
+        if (authResponse != null) {
+            return authResponse.request.configuration;
         }
         return null;
     }
@@ -204,15 +255,12 @@ public class AuthState {
             return null;
         }
 
-        if (mLastTokenResponse != null && mLastTokenResponse.accessToken != null) {
-            return mLastTokenResponse.accessToken;
+        TokenFields tokenResponseFields = getTokenResponseFields();
+        if (tokenResponseFields.getAccessToken() != null) {
+            return tokenResponseFields.getAccessToken();
         }
 
-        if (mLastAuthorizationResponse != null) {
-            return mLastAuthorizationResponse.accessToken;
-        }
-
-        return null;
+        return getAuthorizationResponseFields().getAccessToken();
     }
 
     /**
@@ -225,12 +273,14 @@ public class AuthState {
             return null;
         }
 
-        if (mLastTokenResponse != null && mLastTokenResponse.accessToken != null) {
-            return mLastTokenResponse.accessTokenExpirationTime;
+        TokenFields tokenResponseFields = getTokenResponseFields();
+        if (tokenResponseFields.getAccessToken() != null) {
+            return tokenResponseFields.getAccessTokenExpirationTime();
         }
 
-        if (mLastAuthorizationResponse != null && mLastAuthorizationResponse.accessToken != null) {
-            return mLastAuthorizationResponse.accessTokenExpirationTime;
+        TokenFields authResponseFields = getAuthorizationResponseFields();
+        if (authResponseFields.getAccessToken() != null) {
+            return authResponseFields.getAccessTokenExpirationTime();
         }
 
         return null;
@@ -245,23 +295,85 @@ public class AuthState {
             return null;
         }
 
-        if (mLastTokenResponse != null && mLastTokenResponse.idToken != null) {
-            return mLastTokenResponse.idToken;
+        TokenFields tokenResponseFields = getTokenResponseFields();
+        if (tokenResponseFields.getIdToken() != null) {
+            return tokenResponseFields.getIdToken();
         }
 
-        if (mLastAuthorizationResponse != null) {
-            return mLastAuthorizationResponse.idToken;
+        return getAuthorizationResponseFields().getIdToken();
+    }
+
+    /**
+     * Parses the current {@link #getIdToken() ID token}, if available. The parsed claims are
+     * retained until the ID token changes, so repeated calls do not parse the token again.
+     * @throws JSONException if the ID token is malformed.
+     */
+    @Nullable
+    public IdToken getIdTokenClaims() throws JSONException {
+        String idToken = getIdToken();
+        if (idToken == null) {
+            return null;
         }
 
-        return null;
+        IdToken claims = mIdTokenClaims;
+        if (claims != null && claims.token.equals(idToken)) {
+            return claims;
+        }
+
+        // share the claims with the token response, if it has already been constructed
+        TokenResponse tokenResponse = mLastTokenResponse;
+        if (tokenResponse != null && idToken.equals(tokenResponse.idToken)) {
+            claims = tokenResponse.getIdTokenClaims();
+        } else {
+            claims = IdToken.parse(idToken);
+        }
+        mIdTokenClaims = claims;
+        return claims;
+    }
+
+    @NonNull
+    private TokenFields getTokenResponseFields() {
+        LazyResponse<TokenResponse> lazyResponse = mLazyTokenResponse;
+        if (lazyResponse != null) {
+            return lazyResponse.getFields();
+        }
+
+        TokenResponse response = mLastTokenResponse;
+        if (response == null) {
+            return TokenFields.NONE;
+        }
+
+        return new TokenFields(
+                response.accessToken,
+                response.accessTokenExpirationTime,
+                response.idToken);
+    }
+
+    @NonNull
+    private TokenFields getAuthorizationResponseFields() {
+        LazyResponse<AuthorizationResponse> lazyResponse = mLazyAuthorizationResponse;
+        if (lazyResponse != null) {
+            return lazyResponse.getFields();
+        }
+
+        AuthorizationResponse response = mLastAuthorizationResponse;
+        if (response == null) {
+            return TokenFields.NONE;
+        }
+
+        return new TokenFields(
+                response.accessToken,
+                response.accessTokenExpirationTime,
+                response.idToken);
     }
 
     /**
      * The current client secret, if available.
      */
     public String getClientSecret() {
-        if (mLastRegistrationResponse != null) {
-            return mLastRegistrationResponse.clientSecret;
+        RegistrationResponse regResponse = getLastRegistrationResponse();
+        if (regResponse != null) {
+            return regResponse.clientSecret;
         }
 
         return null;
@@ -274,8 +386,9 @@ public class AuthState {
      */
     @Nullable
     public Long getClientSecretExpirationTime() {
-        if (mLastRegistrationResponse != null) {
-            return mLastRegistrationResponse.clientSecretExpiresAt;
+        RegistrationResponse regResponse = getLastRegistrationResponse();
+        if (regResponse != null) {
+            return regResponse.clientSecretExpiresAt;
         }
 
         return null;
@@ -369,7 +482,9 @@ public class AuthState {
         // the last token response and refresh token are now stale, as they are associated with
         // any previous authorization response
         mLastAuthorizationResponse = authResponse;
+        mLazyAuthorizationResponse = null;
         mLastTokenResponse = null;
+        mLazyTokenResponse = null;
         mRefreshToken = null;
         mAuthorizationException = null;
 
@@ -407,6 +522,7 @@ public class AuthState {
         }
 
         mLastTokenResponse = tokenResponse;
+        mLazyTokenResponse = null;
         if (tokenResponse.scope != null) {
             mScope = tokenResponse.scope;
         }
@@ -420,11 +536,14 @@ public class AuthState {
      */
     public void update(@Nullable RegistrationResponse regResponse) {
         mLastRegistrationResponse = regResponse;
+        mLazyRegistrationResponse = null;
         /* a new client registration will have a new client id, so invalidate the current session */
         mRefreshToken = null;
         mScope = null;
         mLastAuthorizationResponse = null;
+        mLazyAuthorizationResponse = null;
         mLastTokenResponse = null;
+        mLazyTokenResponse = null;
         mAuthorizationException = null;
     }
 
@@ -441,6 +560,12 @@ public class AuthState {
      * Ensures that a non-expired access token is available before invoking the provided action.
      * If a token refresh is required, the provided additional parameters will be included in this
      * refresh request.
+     *
+     * <p>If a token refresh is already in progress for this authorization state, no additional
+     * request is made: the action is instead invoked with the result of the in-flight refresh,
+     * and the provided additional parameters are ignored. If the refresh is cancelled, because
+     * the service is {@link AuthorizationService#dispose() disposed}, the action is invoked
+     * with {@link AuthorizationException.GeneralErrors#NETWORK_ERROR}.
      */
     public void performActionWithFreshTokens(
             @NonNull AuthorizationService service,
@@ -478,21 +603,112 @@ public class AuthState {
             return;
         }
 
-        service.performTokenRequest(createTokenRefreshRequest(refreshTokenAdditionalParams),
-                new AuthorizationService.TokenResponseCallback() {
-                    @Override
-                    public void onTokenRequestCompleted(
-                            @Nullable TokenResponse response,
-                            @Nullable AuthorizationException ex) {
-                        update(response, ex);
-                        if (ex == null) {
-                            mNeedsTokenRefreshOverride = false;
-                            action.execute(getAccessToken(), getIdToken(), null);
-                        } else {
-                            action.execute(null, null, ex);
+        // only one refresh is performed at a time: actions which arrive while a refresh is in
+        // flight are queued, and receive the result of that refresh
+        synchronized (mPendingActionsSyncObject) {
+            if (mPendingActions != null) {
+                mPendingActions.add(action);
+                return;
+            }
+
+            mPendingActions = new ArrayList<>();
+            mPendingActions.add(action);
+        }
+
+        try {
+            service.performTokenRequest(createTokenRefreshRequest(refreshTokenAdditionalParams),
+                    new AuthorizationService.TokenResponseCallback() {
+                        @Override
+                        public void onTokenRequestCompleted(
+                                @Nullable TokenResponse response,
+                                @Nullable AuthorizationException ex) {
+                            update(response, ex);
+                            if (ex == null) {
+                                mNeedsTokenRefreshOverride = false;
+                                dispatchPendingActions(getAccessToken(), getIdToken(), null);
+                            } else {
+                                dispatchPendingActions(null, null, ex);
+                            }
                         }
-                    }
-                });
+                    },
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            // the callback is never invoked for a cancelled refresh, such as
+                            // when the service is disposed, so the queued actions must be
+                            // released here for a later refresh to be possible
+                            dispatchPendingActions(null, null,
+                                    AuthorizationException.fromTemplate(
+                                            GeneralErrors.NETWORK_ERROR,
+                                            new InterruptedIOException(
+                                                    "Token refresh was cancelled")));
+                        }
+                    });
+        } catch (RuntimeException ex) {
+            // the refresh could not be started, so no queued action will ever be dispatched
+            synchronized (mPendingActionsSyncObject) {
+                mPendingActions = null;
+            }
+            throw ex;
+        }
+    }
+
+    private void dispatchPendingActions(
+            @Nullable String accessToken,
+            @Nullable String idToken,
+            @Nullable AuthorizationException ex) {
+        List<AuthStateAction> actions;
+        synchronized (mPendingActionsSyncObject) {
+            actions = mPendingActions;
+            mPendingActions = null;
+        }
+
+        if (actions == null) {
+            return;
+        }
+
+        for (AuthStateAction action : actions) {
+            action.execute(accessToken, idToken, ex);
+        }
+    }
+
+    /**
+     * Starts refreshing the access token in the background, shortly before it expires, so that
+     * fresh tokens are usually already available when an action is performed. Refreshes are
+     * performed using the provided service, and stop when it is
+     * {@link AuthorizationService#dispose() disposed}, when
+     * {@link #stopProactiveTokenRefresh()} is called, or when the refresh token is rejected.
+     * Any previously started proactive refresh for this state is stopped.
+     */
+    public void startProactiveTokenRefresh(@NonNull AuthorizationService service) {
+        startProactiveTokenRefresh(service, SystemClock.INSTANCE);
+    }
+
+    @VisibleForTesting
+    void startProactiveTokenRefresh(
+            @NonNull AuthorizationService service,
+            @NonNull Clock clock) {
+        checkNotNull(service, "service cannot be null");
+        checkNotNull(clock, "clock cannot be null");
+        startProactiveTokenRefresh(new TokenRefreshScheduler(service, this, clock));
+    }
+
+    @VisibleForTesting
+    void startProactiveTokenRefresh(@NonNull TokenRefreshScheduler scheduler) {
+        stopProactiveTokenRefresh();
+        mTokenRefreshScheduler = scheduler;
+        scheduler.start();
+    }
+
+    /**
+     * Stops any proactive token refresh previously started via
+     * {@link #startProactiveTokenRefresh(AuthorizationService)}.
+     */
+    public void stopProactiveTokenRefresh() {
+        if (mTokenRefreshScheduler != null) {
+            mTokenRefreshScheduler.cancel();
+            mTokenRefreshScheduler = null;
+        }
     }
 
     /**
@@ -511,21 +727,67 @@ public class AuthState {
         if (mRefreshToken == null) {
             throw new IllegalStateException("No refresh token available for refresh request");
         }
-        if (mLastAuthorizationResponse == null) {
+        AuthorizationResponse authResponse = getLastAuthorizationResponse();
+        if (authResponse == null) {
             throw new IllegalStateException(
                     "No authorization configuration available for refresh request");
         }
 
         return new TokenRequest.Builder(
-                mLastAuthorizationResponse.request.configuration,
-                mLastAuthorizationResponse.request.clientId)
+                authResponse.request.configuration,
+                authResponse.request.clientId)
                 .setGrantType(GrantTypeValues.REFRESH_TOKEN)
-                .setScope(mLastAuthorizationResponse.request.scope)
+                .setScope(authResponse.request.scope)
                 .setRefreshToken(mRefreshToken)
                 .setAdditionalParameters(additionalParameters)
                 .build();
     }
 
+    /**
+     * Creates requests to revoke the current refresh and access tokens, in that order, as the
+     * revocation of a refresh token may also revoke the access tokens issued with it. The list
+     * is empty if there are no tokens to be revoked.
+     *
+     * @throws IllegalStateException if there is no authorization configuration, or it does not
+     *     provide a revocation endpoint.
+     * @see TokenRevocationQueue#signOut
+     */
+    @NonNull
+    public List<RevocationRequest> createRevocationRequests() {
+        String accessToken = getTokenResponseFields().getAccessToken();
+        if (accessToken == null) {
+            accessToken = getAuthorizationResponseFields().getAccessToken();
+        }
+        if (mRefreshToken == null && accessToken == null) {
+            return Collections.emptyList();
+        }
+
+        AuthorizationResponse authResponse = getLastAuthorizationResponse();
+        if (authResponse == null) {
+            throw new IllegalStateException(
+                    "No authorization configuration available for revocation request");
+        }
+
+        List<RevocationRequest> requests = new ArrayList<>(2);
+        if (mRefreshToken != null) {
+            requests.add(new RevocationRequest.Builder(
+                    authResponse.request.configuration,
+                    authResponse.request.clientId,
+                    mRefreshToken)
+                    .setTokenTypeHint(RevocationRequest.TOKEN_TYPE_HINT_REFRESH_TOKEN)
+                    .build());
+        }
+        if (accessToken != null) {
+            requests.add(new RevocationRequest.Builder(
+                    authResponse.request.configuration,
+                    authResponse.request.clientId,
+                    accessToken)
+                    .setTokenTypeHint(RevocationRequest.TOKEN_TYPE_HINT_ACCESS_TOKEN)
+                    .build());
+        }
+        return requests;
+    }
+
     /**
      * Produces a JSON representation of the authorization state for persistent storage or local
      * transmission (e.g. between activities).
@@ -539,19 +801,31 @@ public class AuthState {
             JsonUtil.put(json, KEY_AUTHORIZATION_EXCEPTION, mAuthorizationException.toJson());
         }
 
-        if (mLastAuthorizationResponse != null) {
+        // responses which have not been materialized are written in their original form
+        LazyResponse<AuthorizationResponse> lazyAuthResponse = mLazyAuthorizationResponse;
+        if (lazyAuthResponse != null) {
+            JsonUtil.put(json, KEY_LAST_AUTHORIZATION_RESPONSE, lazyAuthResponse.getJson());
+        } else if (mLastAuthorizationResponse != null) {
             JsonUtil.put(
                     json,
                     KEY_LAST_AUTHORIZATION_RESPONSE,
                     mLastAuthorizationResponse.jsonSerialize());
         }
-        if (mLastTokenResponse != null) {
+
+        LazyResponse<TokenResponse> lazyTokenResponse = mLazyTokenResponse;
+        if (lazyTokenResponse != null) {
+            JsonUtil.put(json, KEY_LAST_TOKEN_RESPONSE, lazyTokenResponse.getJson());
+        } else if (mLastTokenResponse != null) {
             JsonUtil.put(
                     json,
                     KEY_LAST_TOKEN_RESPONSE,
                     mLastTokenResponse.jsonSerialize());
         }
-        if (mLastRegistrationResponse != null) {
+
+        LazyResponse<RegistrationResponse> lazyRegResponse = mLazyRegistrationResponse;
+        if (lazyRegResponse != null) {
+            JsonUtil.put(json, KEY_LAST_REGISTRATION_RESPONSE, lazyRegResponse.getJson());
+        } else if (mLastRegistrationResponse != null) {
             JsonUtil.put(
                     json,
                     KEY_LAST_REGISTRATION_RESPONSE,
@@ -611,6 +885,74 @@ public class AuthState {
         return jsonDeserialize(new JSONObject(jsonStr));
     }
 
+    /**
+     * Reads an authorization state instance from a JSON string representation produced by
+     * {@link #jsonSerialize()}, deferring the construction of the contained authorization, token
+     * and registration responses until they are first accessed. The current tokens, their
+     * expiration time, the refresh token and the scope are available without constructing the
+     * responses, which makes restoring a previously authorized state considerably cheaper when
+     * only these are needed, as is typically the case on application start.
+     *
+     * <p>Unlike {@link #jsonDeserialize(JSONObject)}, the structure of the responses is not fully
+     * validated by this method. If a response is malformed, an {@link IllegalStateException} is
+     * thrown when it is first accessed.
+     *
+     * @throws JSONException if the provided JSON does not match the expected structure.
+     */
+    public static AuthState jsonDeserializeLazily(@NonNull JSONObject json) throws JSONException {
+        checkNotNull(json, "json cannot be null");
+
+        AuthState state = new AuthState();
+        state.mRefreshToken = JsonUtil.getStringIfDefined(json, KEY_REFRESH_TOKEN);
+        state.mScope = JsonUtil.getStringIfDefined(json, KEY_SCOPE);
+        if (json.has(KEY_AUTHORIZATION_EXCEPTION)) {
+            state.mAuthorizationException = AuthorizationException.fromJson(
+                    json.getJSONObject(KEY_AUTHORIZATION_EXCEPTION));
+        }
+        if (json.has(KEY_LAST_AUTHORIZATION_RESPONSE)) {
+            state.mLazyAuthorizationResponse = new LazyResponse<AuthorizationResponse>(
+                    json.getJSONObject(KEY_LAST_AUTHORIZATION_RESPONSE)) {
+                @Override
+                AuthorizationResponse parse(@NonNull JSONObject serialized) throws JSONException {
+                    return AuthorizationResponse.jsonDeserialize(serialized);
+                }
+            };
+        }
+        if (json.has(KEY_LAST_TOKEN_RESPONSE)) {
+            state.mLazyTokenResponse = new LazyResponse<TokenResponse>(
+                    json.getJSONObject(KEY_LAST_TOKEN_RESPONSE)) {
+                @Override
+                TokenResponse parse(@NonNull JSONObject serialized) throws JSONException {
+                    return TokenResponse.jsonDeserialize(serialized);
+                }
+            };
+        }
+        if (json.has(KEY_LAST_REGISTRATION_RESPONSE)) {
+            state.mLazyRegistrationResponse = new LazyResponse<RegistrationResponse>(
+                    json.getJSONObject(KEY_LAST_REGISTRATION_RESPONSE)) {
+                @Override
+                RegistrationResponse parse(@NonNull JSONObject serialized) throws JSONException {
+                    return RegistrationResponse.jsonDeserialize(serialized);
+                }
+            };
+        }
+
+        return state;
+    }
+
+    /**
+     * Reads an authorization state instance from a JSON string representation produced by
+     * {@link #jsonSerializeString()}, deferring the construction of the contained responses
+     * until they are first accessed. This method is just a convenience wrapper for
+     * {@link #jsonDeserializeLazily(JSONObject)}, converting the JSON string to its JSON object
+     * form.
+     * @throws JSONException if the provided JSON does not match the expected structure.
+     */
+    public static AuthState jsonDeserializeLazily(@NonNull String jsonStr) throws JSONException {
+        checkNotEmpty(jsonStr, "jsonStr cannot be null or empty");
+        return jsonDeserializeLazily(new JSONObject(jsonStr));
+    }
+
     /**
      * Interface for actions executed in the context of fresh (non-expired) tokens.
      * @see #performActionWithFreshTokens(AuthorizationService, AuthStateAction)
@@ -636,17 +978,18 @@ public class AuthState {
      */
     public ClientAuthentication getClientAuthentication() throws
             ClientAuthentication.UnsupportedAuthenticationMethod {
+        RegistrationResponse regResponse = getLastRegistrationResponse();
         if (getClientSecret() == null) {
             /* Without client credentials, or unspecified 'token_endpoint_auth_method',
              * we can never authenticate */
             return NoClientAuthentication.INSTANCE;
-        } else if (mLastRegistrationResponse.tokenEndpointAuthMethod == null) {
+        } else if (regResponse.tokenEndpointAuthMethod == null) {
             /* 'token_endpoint_auth_method': "If omitted, the default is client_secret_basic",
              * "OpenID Connect Dynamic Client Registration 1.0", Section 2 */
             return new ClientSecretBasic(getClientSecret());
         }
 
-        switch (mLastRegistrationResponse.tokenEndpointAuthMethod) {
+        switch (regResponse.tokenEndpointAuthMethod) {
             case ClientSecretBasic.NAME:
                 return new ClientSecretBasic(getClientSecret());
             case ClientSecretPost.NAME:
@@ -655,8 +998,101 @@ public class AuthState {
                 return NoClientAuthentication.INSTANCE;
             default:
                 throw new ClientAuthentication.UnsupportedAuthenticationMethod(
-                        mLastRegistrationResponse.tokenEndpointAuthMethod);
+                        regResponse.tokenEndpointAuthMethod);
+
+        }
+    }
+
+    /**
+     * The fields of an authorization or token response which determine the current tokens.
+     */
+    private static final class TokenFields {
+
+        static final TokenFields NONE = new TokenFields(null, null, null);
+
+        @Nullable
+        private final String mAccessToken;
+
+        @Nullable
+        private final Long mAccessTokenExpirationTime;
+
+        @Nullable
+        private final String mIdToken;
+
+        TokenFields(
+                @Nullable String accessToken,
+                @Nullable Long accessTokenExpirationTime,
+                @Nullable String idToken) {
+            mAccessToken = accessToken;
+            mAccessTokenExpirationTime = accessTokenExpirationTime;
+            mIdToken = idToken;
+        }
+
+        @Nullable
+        String getAccessToken() {
+            return mAccessToken;
+        }
+
+        @Nullable
+        Long getAccessTokenExpirationTime() {
+            return mAccessTokenExpirationTime;
+        }
+
+        @Nullable
+        String getIdToken() {
+            return mIdToken;
+        }
+    }
+
+    /**
+     * A response in its serialized form, which is constructed on first access. The fields which
+     * determine the current tokens are read when the response is deserialized, as these are
+     * needed far more frequently than the response itself. Authorization and token responses
+     * are serialized with the same keys for these fields.
+     */
+    private abstract static class LazyResponse<T> {
+
+        @NonNull
+        private final JSONObject mJson;
 
+        @NonNull
+        private final TokenFields mFields;
+
+        @Nullable
+        private T mResponse;
+
+        LazyResponse(@NonNull JSONObject json) throws JSONException {
+            mJson = json;
+            mFields = new TokenFields(
+                    JsonUtil.getStringIfDefined(json, TokenResponse.KEY_ACCESS_TOKEN),
+                    JsonUtil.getLongIfDefined(json, TokenResponse.KEY_EXPIRES_AT),
+                    JsonUtil.getStringIfDefined(json, TokenResponse.KEY_ID_TOKEN));
+        }
+
+        @NonNull
+        JSONObject getJson() {
+            return mJson;
+        }
+
+        @NonNull
+        TokenFields getFields() {
+            return mFields;
         }
+
+        @NonNull
+        synchronized T get() {
+            if (mResponse == null) {
+                try {
+                    mResponse = parse(mJson);
+                } catch (JSONException ex) {
+                    throw new IllegalStateException("Malformed serialized response", ex);
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalStateException("Malformed serialized response", ex);
+                }
+            }
+            return mResponse;
+        }
+
+        abstract T parse(@NonNull JSONObject serialized) throws JSONException;
     }
 }
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of {@link AuthState}, as an alternative to
+ * {@link AuthState#jsonSerialize()}. The JSON representation repeats the configuration of the
+ * authorization service, including any discovery document, in each of the requests it contains,
+ * and repeats the same keys and values (e.g. the client ID) throughout. The binary encoding
+ * instead stores each distinct string and configuration once, in tables which are referenced
+ * by index. Any state which can be represented as JSON can be encoded.
+ *
+ * <p>The encoding consists of:
+ * <ul>
+ * <li>A header: the {@link #MAGIC magic number}, the {@link #VERSION format version}, and the
+ * length of the remainder of the encoding.</li>
+ * <li>The string table: the number of strings, followed by the length and UTF-8 bytes of
+ * each.</li>
+ * <li>The configuration table: the number of configurations, followed by the value of each.</li>
+ * <li>The value of the state.</li>
+ * </ul>
+ *
+ * <p>Values are tagged with their type; strings, configurations and object keys are written
+ * as indices into the tables. Integers (lengths, counts, indices and numeric values) are
+ * written as variable-length quantities.
+ */
+public final class AuthStateCodec {
+
+    /**
+     * The first bytes of every encoded state, "AASB".
+     */
+    @VisibleForTesting
+    static final int MAGIC = 0x41415342;
+
+    /**
+     * The version of the encoding produced by {@link #encode(AuthState)}.
+     */
+    @VisibleForTesting
+    static final int VERSION = 1;
+
+    /**
+     * The key under which requests contain the configuration of the authorization service.
+     */
+    private static final String KEY_CONFIGURATION = "configuration";
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_ARRAY = 6;
+    private static final int TAG_OBJECT = 7;
+    private static final int TAG_CONFIGURATION = 8;
+
+    private static final int VARINT_VALUE_BITS = 7;
+    private static final int VARINT_VALUE_MASK = 0x7F;
+    private static final int VARINT_CONTINUATION = 0x80;
+    private static final int VARINT_MAX_SHIFT = 63;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private AuthStateCodec() {
+        throw new IllegalStateException("This type is not intended to be instantiated");
+    }
+
+    /**
+     * Encodes the authorization state.
+     */
+    @NonNull
+    public static byte[] encode(@NonNull AuthState state) {
+        checkNotNull(state, "state cannot be null");
+        try {
+            return new Encoder().encode(state.jsonSerialize());
+        } catch (IOException ex) {
+            // only thrown by the underlying stream, which is in memory
+            throw new IllegalStateException("Unable to encode authorization state", ex);
+        }
+    }
+
+    /**
+     * Decodes an authorization state produced by {@link #encode(AuthState)}.
+     *
+     * @throws IOException if the encoding is malformed, truncated, or of an unsupported version.
+     */
+    @NonNull
+    public static AuthState decode(@NonNull byte[] encoded) throws IOException {
+        checkNotNull(encoded, "encoded cannot be null");
+        Object value = new Decoder(encoded).decode();
+        if (!(value instanceof JSONObject)) {
+            throw new IOException("Encoded value is not an authorization state");
+        }
+
+        try {
+            return AuthState.jsonDeserialize((JSONObject) value);
+        } catch (JSONException ex) {
+            throw new IOException("Encoded value is not a valid authorization state", ex);
+        }
+    }
+
+    private static final class Encoder {
+        private final Map<String, Integer> mStringIndices = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+        private final Map<String, Integer> mConfigurationIndices = new HashMap<>();
+        private final ByteArrayOutputStream mConfigurations = new ByteArrayOutputStream();
+        private final DataOutputStream mConfigurationsOut = new DataOutputStream(mConfigurations);
+        private boolean mWritingConfiguration;
+
+        byte[] encode(@NonNull JSONObject root) throws IOException {
+            ByteArrayOutputStream rootBytes = new ByteArrayOutputStream();
+            writeValue(new DataOutputStream(rootBytes), root);
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            writeVarLong(out, mStrings.size());
+            for (String str : mStrings) {
+                byte[] bytes = str.getBytes(UTF_8);
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+            }
+            writeVarLong(out, mConfigurationIndices.size());
+            mConfigurations.writeTo(out);
+            rootBytes.writeTo(out);
+
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(encoded);
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            header.writeInt(body.size());
+            body.writeTo(encoded);
+            return encoded.toByteArray();
+        }
+
+        private void writeValue(
+                @NonNull DataOutputStream out,
+                Object value) throws IOException {
+            if (value == null || value == JSONObject.NULL) {
+                out.writeByte(TAG_NULL);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Integer || value instanceof Long) {
+                out.writeByte(TAG_LONG);
+                writeVarLong(out, zigZag(((Number) value).longValue()));
+            } else if (value instanceof Number) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                out.writeByte(TAG_ARRAY);
+                writeVarLong(out, array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    writeValue(out, array.opt(i));
+                }
+            } else if (value instanceof JSONObject) {
+                JSONObject object = (JSONObject) value;
+                out.writeByte(TAG_OBJECT);
+                writeVarLong(out, object.length());
+                Iterator<String> keys = object.keys();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    writeVarLong(out, internString(key));
+                    Object child = object.opt(key);
+                    if (KEY_CONFIGURATION.equals(key)
+                            && child instanceof JSONObject
+                            && !mWritingConfiguration) {
+                        out.writeByte(TAG_CONFIGURATION);
+                        writeVarLong(out, internConfiguration((JSONObject) child));
+                    } else {
+                        writeValue(out, child);
+                    }
+                }
+            } else {
+                out.writeByte(TAG_STRING);
+                writeVarLong(out, internString(value.toString()));
+            }
+        }
+
+        private int internString(@NonNull String str) {
+            Integer index = mStringIndices.get(str);
+            if (index == null) {
+                index = mStrings.size();
+                mStrings.add(str);
+                mStringIndices.put(str, index);
+            }
+            return index;
+        }
+
+        private int internConfiguration(@NonNull JSONObject configuration) throws IOException {
+            String key = configuration.toString();
+            Integer index = mConfigurationIndices.get(key);
+            if (index == null) {
+                index = mConfigurationIndices.size();
+                mConfigurationIndices.put(key, index);
+                mWritingConfiguration = true;
+                writeValue(mConfigurationsOut, configuration);
+                mWritingConfiguration = false;
+            }
+            return index;
+        }
+    }
+
+    private static final class Decoder {
+        private final DataInputStream mIn;
+        private final int mLength;
+        private String[] mStrings;
+        private Object[] mConfigurations;
+
+        Decoder(@NonNull byte[] encoded) {
+            mIn = new DataInputStream(new ByteArrayInputStream(encoded));
+            mLength = encoded.length;
+        }
+
+        Object decode() throws IOException {
+            try {
+                if (mIn.readInt() != MAGIC) {
+                    throw new IOException("Not an encoded authorization state");
+                }
+                int version = mIn.readUnsignedByte();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported encoding version " + version);
+                }
+                if (mIn.readInt() != mIn.available()) {
+                    throw new IOException("Encoded length does not match");
+                }
+
+                mStrings = new String[readCount()];
+                for (int i = 0; i < mStrings.length; i++) {
+                    byte[] bytes = new byte[readCount()];
+                    mIn.readFully(bytes);
+                    mStrings[i] = new String(bytes, UTF_8);
+                }
+
+                mConfigurations = new Object[readCount()];
+                for (int i = 0; i < mConfigurations.length; i++) {
+                    mConfigurations[i] = readValue();
+                }
+
+                Object root = readValue();
+                if (mIn.available() > 0) {
+                    throw new IOException("Unexpected data after encoded value");
+                }
+                return root;
+            } catch (EOFException ex) {
+                throw new IOException("Encoding is truncated", ex);
+            } catch (JSONException ex) {
+                throw new IOException("Encoding is malformed", ex);
+            }
+        }
+
+        private Object readValue() throws IOException, JSONException {
+            int tag = mIn.readUnsignedByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return JSONObject.NULL;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_LONG:
+                    return unZigZag(readVarLong(mIn));
+                case TAG_DOUBLE:
+                    return mIn.readDouble();
+                case TAG_STRING:
+                    return mStrings[readIndex(mStrings.length)];
+                case TAG_CONFIGURATION:
+                    return mConfigurations[readIndex(mConfigurations.length)];
+                case TAG_ARRAY:
+                    int arrayLength = readCount();
+                    JSONArray array = new JSONArray();
+                    for (int i = 0; i < arrayLength; i++) {
+                        array.put(readValue());
+                    }
+                    return array;
+                case TAG_OBJECT:
+                    int objectLength = readCount();
+                    JSONObject object = new JSONObject();
+                    for (int i = 0; i < objectLength; i++) {
+                        String key = mStrings[readIndex(mStrings.length)];
+                        object.put(key, readValue());
+                    }
+                    return object;
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+
+        /*
+         * Counts cannot exceed the length of the encoding, as every counted item occupies at
+         * least one byte; this avoids allocating arbitrarily large arrays for malformed input.
+         */
+        private int readCount() throws IOException {
+            long count = readVarLong(mIn);
+            if (count < 0 || count > mLength) {
+                throw new IOException("Invalid length " + count);
+            }
+            return (int) count;
+        }
+
+        private int readIndex(int tableSize) throws IOException {
+            long index = readVarLong(mIn);
+            if (index < 0 || index >= tableSize) {
+                throw new IOException("Invalid table index " + index);
+            }
+            return (int) index;
+        }
+    }
+
+    private static void writeVarLong(@NonNull DataOutputStream out, long value)
+            throws IOException {
+        while ((value & ~VARINT_VALUE_MASK) != 0) {
+            out.writeByte((int) (value & VARINT_VALUE_MASK) | VARINT_CONTINUATION);
+            value >>>= VARINT_VALUE_BITS;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(@NonNull DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift <= VARINT_MAX_SHIFT; shift += VARINT_VALUE_BITS) {
+            int nextByte = in.readUnsignedByte();
+            value |= (long) (nextByte & VARINT_VALUE_MASK) << shift;
+            if ((nextByte & VARINT_CONTINUATION) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> VARINT_MAX_SHIFT);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+
+import org.json.JSONException;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe collection of authorization states for multiple accounts, which may belong to
+ * different authorization servers and clients. Each account is identified by an
+ * {@link AccountKey}, formed from the issuer, client ID and subject of the account.
+ *
+ * <p>Lookups do not block. Each account is additionally associated with one of a fixed number
+ * of locks, which callers that read and modify the state of an account from multiple threads
+ * can synchronize on (see {@link #getLock(AccountKey)}). Operations on different accounts
+ * therefore rarely contend with each other.
+ *
+ * <p>The access tokens of all accounts can be refreshed together with
+ * {@link #refreshAll(AuthorizationService, int, RefreshCallback) refreshAll}, which limits the
+ * number of refresh requests that are in flight at once.
+ */
+public final class AuthStateRegistry {
+
+    /**
+     * The default number of locks shared between the accounts in the registry.
+     */
+    public static final int DEFAULT_LOCK_STRIPES = 16;
+
+    private static final int PRIME_HASH_FACTOR = 31;
+
+    private static final int HASH_SPREAD_SHIFT = 16;
+
+    @NonNull
+    private final ConcurrentHashMap<AccountKey, AuthState> mStates = new ConcurrentHashMap<>();
+
+    @NonNull
+    private final Object[] mLocks;
+
+    @NonNull
+    private final Clock mClock;
+
+    /**
+     * Creates an empty registry, with the {@link #DEFAULT_LOCK_STRIPES default} number of locks.
+     */
+    public AuthStateRegistry() {
+        this(DEFAULT_LOCK_STRIPES);
+    }
+
+    /**
+     * Creates an empty registry, with the specified number of locks. More locks reduce
+     * contention between operations on different accounts.
+     */
+    public AuthStateRegistry(int lockStripes) {
+        this(lockStripes, SystemClock.INSTANCE);
+    }
+
+    @VisibleForTesting
+    AuthStateRegistry(int lockStripes, @NonNull Clock clock) {
+        checkArgument(lockStripes > 0, "lockStripes must be positive");
+        mLocks = new Object[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            mLocks[i] = new Object();
+        }
+        mClock = checkNotNull(clock, "clock cannot be null");
+    }
+
+    /**
+     * Returns the authorization state of the specified account, or {@code null} if the account
+     * is not in the registry.
+     */
+    @Nullable
+    public AuthState get(@NonNull AccountKey key) {
+        checkNotNull(key, "key cannot be null");
+        return mStates.get(key);
+    }
+
+    /**
+     * Adds or replaces the authorization state of the specified account. Any proactive token
+     * refresh of a replaced state is stopped.
+     *
+     * @return the replaced authorization state, or {@code null} if the account was not
+     *     previously in the registry.
+     */
+    @Nullable
+    public AuthState put(@NonNull AccountKey key, @NonNull AuthState state) {
+        checkNotNull(key, "key cannot be null");
+        checkNotNull(state, "state cannot be null");
+        AuthState previous;
+        synchronized (getLock(key)) {
+            previous = mStates.put(key, state);
+        }
+        if (previous != null && previous != state) {
+            previous.stopProactiveTokenRefresh();
+        }
+        return previous;
+    }
+
+    /**
+     * Adds or replaces an authorization state, using the account key
+     * {@link AccountKey#fromAuthState(AuthState) derived} from it.
+     *
+     * @return the key of the account.
+     * @throws IllegalArgumentException if the state does not identify an account.
+     */
+    @NonNull
+    public AccountKey put(@NonNull AuthState state) {
+        checkNotNull(state, "state cannot be null");
+        AccountKey key = AccountKey.fromAuthState(state);
+        checkArgument(key != null, "state does not contain an ID token identifying the account");
+        put(key, state);
+        return key;
+    }
+
+    /**
+     * Removes the authorization state of the specified account. Any proactive token refresh of
+     * the removed state is stopped.
+     *
+     * @return the removed authorization state, or {@code null} if the account was not in
+     *     the registry.
+     */
+    @Nullable
+    public AuthState remove(@NonNull AccountKey key) {
+        checkNotNull(key, "key cannot be null");
+        AuthState removed;
+        synchronized (getLock(key)) {
+            removed = mStates.remove(key);
+        }
+        if (removed != null) {
+            removed.stopProactiveTokenRefresh();
+        }
+        return removed;
+    }
+
+    /**
+     * Returns a snapshot of the accounts currently in the registry.
+     */
+    @NonNull
+    public Set<AccountKey> getAccounts() {
+        return Collections.unmodifiableSet(new HashSet<>(mStates.keySet()));
+    }
+
+    /**
+     * The number of accounts in the registry.
+     */
+    public int size() {
+        return mStates.size();
+    }
+
+    /**
+     * Returns the lock associated with the specified account. The same lock is always returned
+     * for the same account, and may be shared with other accounts. The registry holds this lock
+     * while adding, replacing or removing the state of the account, and while deciding whether
+     * its access token must be refreshed by {@link #refreshAll(AuthorizationService, int,
+     * RefreshCallback) refreshAll}.
+     */
+    @NonNull
+    public Object getLock(@NonNull AccountKey key) {
+        checkNotNull(key, "key cannot be null");
+        // spread the hash bits, as ConcurrentHashMap does, so that keys with similar hash codes
+        // are not all assigned to the same lock
+        int hash = key.hashCode();
+        hash ^= (hash >>> HASH_SPREAD_SHIFT);
+        return mLocks[(hash & Integer.MAX_VALUE) % mLocks.length];
+    }
+
+    /**
+     * Refreshes the access tokens of all accounts which {@link AuthState#getNeedsTokenRefresh()
+     * need a refresh}, using the provided service. At most {@code maxParallelRequests} refresh
+     * requests are performed at once; the remaining accounts are refreshed as earlier requests
+     * complete.
+     *
+     * <p>As with {@link AuthState#performActionWithFreshTokens(AuthorizationService,
+     * AuthState.AuthStateAction) performActionWithFreshTokens}, an account for which a refresh
+     * is already in flight is not refreshed again. The callback is invoked on the thread which
+     * completes the last refresh, or immediately if no account needs to be refreshed.
+     */
+    public void refreshAll(
+            @NonNull AuthorizationService service,
+            int maxParallelRequests,
+            @NonNull RefreshCallback callback) {
+        checkNotNull(service, "service cannot be null");
+        checkArgument(maxParallelRequests > 0, "maxParallelRequests must be positive");
+        checkNotNull(callback, "callback cannot be null");
+
+        Map<AccountKey, AuthState> expiring = new HashMap<>();
+        for (Map.Entry<AccountKey, AuthState> entry : mStates.entrySet()) {
+            synchronized (getLock(entry.getKey())) {
+                if (entry.getValue().getNeedsTokenRefresh(mClock)) {
+                    expiring.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        new BatchRefresh(service, mClock, expiring, maxParallelRequests, callback).startPending();
+    }
+
+    /**
+     * Receives the result of {@link #refreshAll(AuthorizationService, int, RefreshCallback)
+     * refreshAll}.
+     */
+    public interface RefreshCallback {
+
+        /**
+         * Invoked once all refresh requests have completed.
+         *
+         * @param refreshed The accounts whose access tokens were refreshed.
+         * @param failures The accounts whose access tokens could not be refreshed, and the
+         *     reason for each failure.
+         */
+        void onRefreshCompleted(
+                @NonNull Set<AccountKey> refreshed,
+                @NonNull Map<AccountKey, AuthorizationException> failures);
+    }
+
+    /**
+     * Identifies an account in an {@link AuthStateRegistry}.
+     */
+    public static final class AccountKey {
+
+        /**
+         * The issuer of the account.
+         */
+        @NonNull
+        public final String issuer;
+
+        /**
+         * The client ID for which the account was authorized.
+         */
+        @NonNull
+        public final String clientId;
+
+        /**
+         * The subject identifier of the account, which is unique for the issuer.
+         */
+        @NonNull
+        public final String subject;
+
+        /**
+         * Creates an account key from its constituent values.
+         */
+        public AccountKey(
+                @NonNull String issuer,
+                @NonNull String clientId,
+                @NonNull String subject) {
+            this.issuer = checkNotNull(issuer, "issuer cannot be null");
+            this.clientId = checkNotNull(clientId, "clientId cannot be null");
+            this.subject = checkNotNull(subject, "subject cannot be null");
+        }
+
+        /**
+         * Derives the account key of an authorization state, from the issuer and subject claims
+         * of its ID token, and the client ID of its last authorization or registration response.
+         *
+         * @return the account key, or {@code null} if the state does not contain an ID token
+         *     with these claims, or its client ID is not known.
+         */
+        @Nullable
+        public static AccountKey fromAuthState(@NonNull AuthState state) {
+            checkNotNull(state, "state cannot be null");
+            String clientId = null;
+            if (state.getLastAuthorizationResponse() != null) {
+                clientId = state.getLastAuthorizationResponse().request.clientId;
+            } else if (state.getLastRegistrationResponse() != null) {
+                clientId = state.getLastRegistrationResponse().clientId;
+            }
+
+            IdToken claims;
+            try {
+                claims = state.getIdTokenClaims();
+            } catch (JSONException ex) {
+                Logger.debugWithStack(ex, "Unable to parse ID token claims");
+                return null;
+            }
+
+            if (clientId == null
+                    || claims == null
+                    || claims.issuer == null
+                    || claims.subject == null) {
+                return null;
+            }
+
+            return new AccountKey(claims.issuer, clientId, claims.subject);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+
+            if (!(obj instanceof AccountKey)) {
+                return false;
+            }
+
+            AccountKey other = (AccountKey) obj;
+            return issuer.equals(other.issuer)
+                    && clientId.equals(other.clientId)
+                    && subject.equals(other.subject);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = issuer.hashCode();
+            result = PRIME_HASH_FACTOR * result + clientId.hashCode();
+            result = PRIME_HASH_FACTOR * result + subject.hashCode();
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "AccountKey{issuer=" + issuer
+                    + ", clientId=" + clientId
+                    + ", subject=" + subject + "}";
+        }
+    }
+
+    /**
+     * Refreshes a set of accounts, starting a new refresh as each in-flight refresh completes.
+     */
+    private static final class BatchRefresh {
+
+        @NonNull
+        private final AuthorizationService mService;
+
+        @NonNull
+        private final Clock mClock;
+
+        private final int mMaxParallelRequests;
+
+        @NonNull
+        private final RefreshCallback mCallback;
+
+        private final Object mLock = new Object();
+
+        @NonNull
+        private final Queue<Map.Entry<AccountKey, AuthState>> mPending;
+
+        @NonNull
+        private final Set<AccountKey> mRefreshed = new HashSet<>();
+
+        @NonNull
+        private final Map<AccountKey, AuthorizationException> mFailures = new HashMap<>();
+
+        private int mInFlight;
+
+        private boolean mStarting;
+
+        private boolean mCompleted;
+
+        BatchRefresh(
+                @NonNull AuthorizationService service,
+                @NonNull Clock clock,
+                @NonNull Map<AccountKey, AuthState> states,
+                int maxParallelRequests,
+                @NonNull RefreshCallback callback) {
+            mService = service;
+            mClock = clock;
+            mPending = new ArrayDeque<>(states.entrySet());
+            mMaxParallelRequests = maxParallelRequests;
+            mCallback = callback;
+        }
+
+        private void onRefreshCompleted(
+                @NonNull AccountKey key,
+                @Nullable AuthorizationException ex) {
+            synchronized (mLock) {
+                mInFlight--;
+                if (ex == null) {
+                    mRefreshed.add(key);
+                } else {
+                    mFailures.put(key, ex);
+                }
+            }
+            startPending();
+        }
+
+        /*
+         * Refreshes may complete synchronously (e.g. when no refresh token is available), so
+         * rather than recursing, a completion which occurs while requests are being started
+         * leaves it to the starting thread to start the next request.
+         */
+        private void startPending() {
+            synchronized (mLock) {
+                if (mStarting) {
+                    return;
+                }
+                mStarting = true;
+            }
+
+            while (true) {
+                Map.Entry<AccountKey, AuthState> next;
+                synchronized (mLock) {
+                    if (mInFlight >= mMaxParallelRequests || mPending.isEmpty()) {
+                        mStarting = false;
+                        if (mInFlight > 0 || !mPending.isEmpty() || mCompleted) {
+                            return;
+                        }
+                        mCompleted = true;
+                        break;
+                    }
+                    next = mPending.poll();
+                    mInFlight++;
+                }
+                refresh(next.getKey(), next.getValue());
+            }
+
+            mCallback.onRefreshCompleted(
+                    Collections.unmodifiableSet(mRefreshed),
+                    Collections.unmodifiableMap(mFailures));
+        }
+
+        private void refresh(@NonNull final AccountKey key, @NonNull AuthState state) {
+            try {
+                state.performActionWithFreshTokens(
+                        mService,
+                        Collections.<String, String>emptyMap(),
+                        mClock,
+                        new AuthState.AuthStateAction() {
+                            @Override
+                            public void execute(
+                                    @Nullable String accessToken,
+                                    @Nullable String idToken,
+                                    @Nullable AuthorizationException ex) {
+                                onRefreshCompleted(key, ex);
+                            }
+                        });
+            } catch (RuntimeException ex) {
+                Logger.errorWithStack(ex, "Unable to refresh tokens of account %s", key);
+                onRefreshCompleted(key, AuthorizationException.fromTemplate(
+                        GeneralErrors.UNEXPECTED_ERROR, ex));
+            }
+        }
+    }
+}
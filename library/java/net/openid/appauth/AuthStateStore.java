@@ -0,0 +1,477 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Persists an {@link AuthState} to a journal file. The first record of the journal is a
+ * complete snapshot of the state; when the only change to a previously saved state is a token
+ * refresh, a small record containing just the refreshed tokens is appended instead of writing
+ * the complete state again. Once enough records have been appended, the journal is compacted
+ * into a single snapshot.
+ *
+ * <p>All reads and writes of the journal are performed in order on a single background thread,
+ * shared by all stores. {@link #save(AuthState)} can therefore be called from the main thread,
+ * and each time the state is updated: unchanged states are not written at all.
+ *
+ * <p>If the application is terminated while a record is being appended, that record is
+ * discarded when the journal is next {@link #load() loaded}, and the state is restored as it
+ * was before the record was written.
+ */
+public final class AuthStateStore {
+
+    /**
+     * The number of token refresh records which are appended to the journal before it is
+     * compacted.
+     */
+    @VisibleForTesting
+    static final int COMPACTION_THRESHOLD = 16;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_STATE = "state";
+    private static final String KEY_RESPONSE = "response";
+
+    private static final String TYPE_SNAPSHOT = "snapshot";
+    private static final String TYPE_REFRESH = "refresh";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] RECORD_SEPARATOR = "\n".getBytes(UTF_8);
+
+    @NonNull
+    private final File mJournalFile;
+
+    @NonNull
+    private final Executor mWriteExecutor;
+
+    /*
+     * The state which the journal will contain once all submitted writes are complete. Only
+     * references are retained, so that saving an unchanged state, or one which has only had its
+     * tokens refreshed, can be detected without serializing it.
+     */
+    private boolean mHasBase;
+    private AuthorizationResponse mBaseAuthResponse;
+    private RegistrationResponse mBaseRegResponse;
+    private TokenResponse mBaseTokenResponse;
+    private AuthorizationException mBaseException;
+    private String mBaseRefreshToken;
+
+    /*
+     * Incremented each time a write is submitted, so that a concurrent load can determine
+     * whether the state it read is still the one the journal will contain.
+     */
+    private int mGeneration;
+
+    // accessed only on the write executor
+    private int mRecordsSinceSnapshot;
+    private boolean mJournalDamaged;
+
+    /**
+     * Creates a store which persists the authorization state to the specified file.
+     */
+    public AuthStateStore(@NonNull File journalFile) {
+        this(journalFile, DefaultExecutors.storageExecutor());
+    }
+
+    @VisibleForTesting
+    AuthStateStore(@NonNull File journalFile, @NonNull Executor writeExecutor) {
+        mJournalFile = checkNotNull(journalFile, "journalFile cannot be null");
+        mWriteExecutor = checkNotNull(writeExecutor, "writeExecutor cannot be null");
+    }
+
+    /**
+     * Reads the authorization state from the journal, after any previously submitted writes
+     * have completed.
+     *
+     * @return the authorization state, or {@code null} if no state has been saved.
+     * @throws IOException if the journal could not be read, or is malformed.
+     */
+    @WorkerThread
+    @Nullable
+    public AuthState load() throws IOException {
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        FutureTask<AuthState> task = new FutureTask<>(new Callable<AuthState>() {
+            @Override
+            public AuthState call() throws IOException {
+                return loadJournal(generation);
+            }
+        });
+        mWriteExecutor.execute(task);
+
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading authorization state");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Unexpected error loading authorization state", ex);
+        }
+    }
+
+    /**
+     * Saves the authorization state in the background. If the state has not changed since it
+     * was last saved or loaded by this store, nothing is written; if only its tokens have been
+     * refreshed, only the refreshed tokens are written.
+     */
+    public void save(@NonNull AuthState state) {
+        checkNotNull(state, "state cannot be null");
+        synchronized (this) {
+            if (isBase(state)) {
+                return;
+            }
+
+            JSONObject refreshRecord = createRefreshRecord(state);
+            final boolean isSnapshot = (refreshRecord == null);
+            final String record = isSnapshot
+                    ? createSnapshotRecord(state)
+                    : refreshRecord.toString();
+            setBase(state);
+            mGeneration++;
+
+            // submitted while holding the lock, so that writes are performed in the same order
+            // as the base state is updated
+            mWriteExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isSnapshot) {
+                        writeSnapshot(record);
+                    } else {
+                        appendRecord(record);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the saved authorization state in the background.
+     */
+    public void clear() {
+        synchronized (this) {
+            setBase(null);
+            mGeneration++;
+            mWriteExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mRecordsSinceSnapshot = 0;
+                    mJournalDamaged = false;
+                    if (mJournalFile.exists() && !mJournalFile.delete()) {
+                        Logger.warn("Unable to delete authorization state journal %s",
+                                mJournalFile);
+                    }
+                }
+            });
+        }
+    }
+
+    @Nullable
+    private AuthState loadJournal(int generation) throws IOException {
+        Journal journal = readJournal();
+        if (journal == null) {
+            return null;
+        }
+
+        mRecordsSinceSnapshot = journal.mRecordCount;
+        if (journal.mIncomplete) {
+            // subsequent records cannot be appended after the incomplete record
+            writeSnapshot(createSnapshotRecord(journal.mState));
+        }
+
+        synchronized (this) {
+            if (mGeneration == generation) {
+                setBase(journal.mState);
+            }
+        }
+        return journal.mState;
+    }
+
+    @Nullable
+    private Journal readJournal() throws IOException {
+        if (!mJournalFile.exists()) {
+            return null;
+        }
+
+        FileInputStream in = new FileInputStream(mJournalFile);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+            String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+
+            Journal journal;
+            try {
+                JSONObject snapshot = new JSONObject(line);
+                if (!TYPE_SNAPSHOT.equals(snapshot.getString(KEY_TYPE))) {
+                    throw new JSONException("Journal does not begin with a snapshot");
+                }
+                journal = new Journal(AuthState.jsonDeserialize(snapshot.getJSONObject(KEY_STATE)));
+            } catch (JSONException ex) {
+                throw new IOException("Malformed authorization state journal", ex);
+            }
+
+            while ((line = reader.readLine()) != null) {
+                try {
+                    applyRefreshRecord(journal.mState, new JSONObject(line));
+                    journal.mRecordCount++;
+                } catch (JSONException ex) {
+                    Logger.warnWithStack(ex, "Discarding incomplete authorization state record");
+                    journal.mIncomplete = true;
+                    break;
+                }
+            }
+            return journal;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+    }
+
+    private void writeSnapshot(@NonNull String record) {
+        File tempFile = new File(mJournalFile.getPath() + TEMP_FILE_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            writeRecord(out, record);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(mJournalFile)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + mJournalFile);
+            }
+            mRecordsSinceSnapshot = 0;
+            mJournalDamaged = false;
+        } catch (IOException ex) {
+            Logger.errorWithStack(ex, "Unable to write authorization state journal %s",
+                    mJournalFile);
+            onWriteFailed();
+            if (!tempFile.delete()) {
+                Logger.debug("Unable to delete %s", tempFile);
+            }
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private void appendRecord(@NonNull String record) {
+        if (mJournalDamaged) {
+            // the base state of this record was not written; a snapshot will follow
+            return;
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mJournalFile, true);
+            writeRecord(out, record);
+            out.close();
+            out = null;
+        } catch (IOException ex) {
+            Logger.errorWithStack(ex, "Unable to append to authorization state journal %s",
+                    mJournalFile);
+            onWriteFailed();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+
+        if (++mRecordsSinceSnapshot >= COMPACTION_THRESHOLD) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        Journal journal;
+        try {
+            journal = readJournal();
+        } catch (IOException ex) {
+            Logger.warnWithStack(ex, "Unable to compact authorization state journal %s",
+                    mJournalFile);
+            return;
+        }
+
+        if (journal != null) {
+            writeSnapshot(createSnapshotRecord(journal.mState));
+        }
+    }
+
+    /*
+     * Records appended after a failed write would not apply to the state in the journal, so
+     * they are discarded until a snapshot is successfully written; the next save is forced
+     * to write one.
+     */
+    private void onWriteFailed() {
+        mJournalDamaged = true;
+        synchronized (this) {
+            setBase(null);
+        }
+    }
+
+    private static void writeRecord(
+            @NonNull FileOutputStream out,
+            @NonNull String record) throws IOException {
+        out.write(record.getBytes(UTF_8));
+        out.write(RECORD_SEPARATOR);
+        out.flush();
+        out.getFD().sync();
+    }
+
+    private static void closeQuietly(@Nullable FileOutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                Logger.debugWithStack(ex, "Unable to close authorization state journal");
+            }
+        }
+    }
+
+    private boolean isBase(@NonNull AuthState state) {
+        return mHasBase
+                && state.getLastAuthorizationResponse() == mBaseAuthResponse
+                && state.getLastRegistrationResponse() == mBaseRegResponse
+                && state.getLastTokenResponse() == mBaseTokenResponse
+                && state.getAuthorizationException() == mBaseException
+                && equal(state.getRefreshToken(), mBaseRefreshToken);
+    }
+
+    private void setBase(@Nullable AuthState state) {
+        mHasBase = (state != null);
+        mBaseAuthResponse = (state != null) ? state.getLastAuthorizationResponse() : null;
+        mBaseRegResponse = (state != null) ? state.getLastRegistrationResponse() : null;
+        mBaseTokenResponse = (state != null) ? state.getLastTokenResponse() : null;
+        mBaseException = (state != null) ? state.getAuthorizationException() : null;
+        mBaseRefreshToken = (state != null) ? state.getRefreshToken() : null;
+    }
+
+    /**
+     * Creates a record describing the difference between the base state and the provided state,
+     * if the only difference is the result of refreshing the tokens of the base state.
+     */
+    @Nullable
+    private JSONObject createRefreshRecord(@NonNull AuthState state) {
+        TokenResponse response = state.getLastTokenResponse();
+        if (!mHasBase
+                || mBaseRefreshToken == null
+                || mBaseException != null
+                || state.getAuthorizationException() != null
+                || state.getLastAuthorizationResponse() == null
+                || state.getLastAuthorizationResponse() != mBaseAuthResponse
+                || state.getLastRegistrationResponse() != mBaseRegResponse
+                || response == null
+                || response.tokenType == null
+                || !GrantTypeValues.REFRESH_TOKEN.equals(response.request.grantType)
+                || !mBaseRefreshToken.equals(response.request.refreshToken)) {
+            return null;
+        }
+
+        // the response is stored in the form in which it was received, without its request,
+        // which is recreated from the base state when the record is applied
+        JSONObject responseJson = JsonUtil.mapToJsonObject(response.additionalParameters);
+        JsonUtil.put(responseJson, TokenResponse.KEY_TOKEN_TYPE, response.tokenType);
+        JsonUtil.putIfNotNull(responseJson, TokenResponse.KEY_ACCESS_TOKEN, response.accessToken);
+        JsonUtil.putIfNotNull(responseJson, TokenResponse.KEY_ID_TOKEN, response.idToken);
+        JsonUtil.putIfNotNull(
+                responseJson,
+                TokenResponse.KEY_REFRESH_TOKEN,
+                response.refreshToken);
+        JsonUtil.putIfNotNull(responseJson, TokenResponse.KEY_SCOPE, response.scope);
+
+        JSONObject record = new JSONObject();
+        JsonUtil.put(record, KEY_TYPE, TYPE_REFRESH);
+        JsonUtil.put(record, KEY_RESPONSE, responseJson);
+        JsonUtil.putIfNotNull(
+                record,
+                TokenResponse.KEY_EXPIRES_AT,
+                response.accessTokenExpirationTime);
+        return record;
+    }
+
+    private static void applyRefreshRecord(
+            @NonNull AuthState state,
+            @NonNull JSONObject record) throws JSONException {
+        if (!TYPE_REFRESH.equals(record.getString(KEY_TYPE))) {
+            throw new JSONException("Unexpected record type " + record.getString(KEY_TYPE));
+        }
+
+        TokenRequest request;
+        try {
+            request = state.createTokenRefreshRequest();
+        } catch (IllegalStateException ex) {
+            throw new JSONException("Refresh record does not apply to the preceding state");
+        }
+
+        TokenResponse response = new TokenResponse.Builder(request)
+                .fromResponseJson(record.getJSONObject(KEY_RESPONSE))
+                .setAccessTokenExpirationTime(
+                        JsonUtil.getLongIfDefined(record, TokenResponse.KEY_EXPIRES_AT))
+                .build();
+        state.update(response, null);
+    }
+
+    @NonNull
+    private static String createSnapshotRecord(@NonNull AuthState state) {
+        JSONObject record = new JSONObject();
+        JsonUtil.put(record, KEY_TYPE, TYPE_SNAPSHOT);
+        JsonUtil.put(record, KEY_STATE, state.jsonSerialize());
+        return record.toString();
+    }
+
+    private static boolean equal(@Nullable String left, @Nullable String right) {
+        return (left == null) ? right == null : left.equals(right);
+    }
+
+    private static final class Journal {
+        @NonNull
+        final AuthState mState;
+        int mRecordCount;
+        boolean mIncomplete;
+
+        Journal(@NonNull AuthState state) {
+            mState = state;
+        }
+    }
+}
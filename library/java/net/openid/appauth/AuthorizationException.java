@@ -199,6 +199,31 @@ public final class AuthorizationException extends Exception {
          */
         public static final AuthorizationException INVALID_REGISTRATION_RESPONSE =
                 generalEx(7, "Invalid registration response");
+
+        /**
+         * Indicates that an ID token could not be validated, e.g. because its signature is
+         * invalid or uses an unsupported algorithm, or the signing key could not be found.
+         */
+        public static final AuthorizationException ID_TOKEN_VALIDATION_ERROR =
+                generalEx(8, "ID token validation error");
+
+        /**
+         * Indicates that a request was not attempted, as recent requests to the same endpoint
+         * have failed and the service is presumed to be unavailable, or that the service
+         * rejected a request as it is receiving too many.
+         *
+         * @see RetryPolicy
+         */
+        public static final AuthorizationException SERVICE_UNAVAILABLE =
+                generalEx(10, "Service unavailable");
+
+        /**
+         * Indicates that a request could not be completed due to an unexpected exception
+         * thrown on the client, such as by a {@link RequestFuture.Continuation} or while
+         * processing a response.
+         */
+        public static final AuthorizationException UNEXPECTED_ERROR =
+                generalEx(11, "Unexpected error");
     }
 
     /**
@@ -21,11 +21,12 @@ import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
 import android.support.customtabs.CustomTabsIntent;
+import android.support.customtabs.CustomTabsSession;
 
 import net.openid.appauth.AuthorizationException.GeneralErrors;
 import net.openid.appauth.AuthorizationException.RegistrationRequestErrors;
@@ -33,18 +34,23 @@ import net.openid.appauth.AuthorizationException.TokenRequestErrors;
 import net.openid.appauth.browser.BrowserDescriptor;
 import net.openid.appauth.browser.BrowserSelector;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.util.Calendar;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -54,6 +60,8 @@ import java.util.Map;
  */
 public class AuthorizationService {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     @VisibleForTesting
     Context mContext;
 
@@ -66,7 +74,13 @@ public class AuthorizationService {
     @Nullable
     private final BrowserDescriptor mBrowser;
 
-    private boolean mDisposed = false;
+    @NonNull
+    private final Set<TokenRefreshScheduler> mTokenRefreshSchedulers = new HashSet<>();
+
+    @NonNull
+    private final Set<NetworkTask<?>> mOutstandingTasks = new HashSet<>();
+
+    private volatile boolean mDisposed = false;
 
     /**
      * Creates an AuthorizationService instance, using the
@@ -114,13 +128,83 @@ public class AuthorizationService {
 
     /**
      * Creates a custom tab builder, that will use a tab session from an existing connection to
-     * a web browser, if available.
+     * a web browser, if available. This does not wait for the connection to be established; if
+     * the service was only just created, use
+     * {@link #createCustomTabsIntentBuilder(CustomTabsIntentBuilderCallback)} to obtain a
+     * builder with a session, and the benefit of a warmed-up browser.
      */
     public CustomTabsIntent.Builder createCustomTabsIntentBuilder() {
         checkNotDisposed();
         return mCustomTabManager.createCustomTabsIntentBuilder();
     }
 
+    /**
+     * Creates a custom tab builder once the connection to the web browser is established,
+     * without blocking the calling thread. The builder is sent to the provided callback on the
+     * callback executor of the service. If the browser cannot be connected to within a short
+     * time, or does not support custom tabs, the builder is provided without a tab session.
+     * The callback is not invoked if the service is disposed first.
+     */
+    public void createCustomTabsIntentBuilder(
+            @NonNull final CustomTabsIntentBuilderCallback callback) {
+        checkNotDisposed();
+        checkNotNull(callback, "callback cannot be null");
+        mCustomTabManager.requestSession(
+                mClientConfiguration.getCallbackExecutor(),
+                new CustomTabManager.SessionCallback() {
+                    @Override
+                    public void onSessionAvailable(@Nullable CustomTabsSession session) {
+                        // the builder cannot be used once the service is disposed
+                        if (!mDisposed) {
+                            callback.onCustomTabsIntentBuilderCreated(
+                                    new CustomTabsIntent.Builder(session));
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Tells the browser that the specified authorization request is likely to be performed, so
+     * that the authorization page can be loaded while the user is still interacting with the
+     * app. This has no effect if a custom tab is not used for authorization.
+     *
+     * <p>The page is only used if the same request object is later passed to
+     * {@link #performAuthorizationRequest(AuthorizationRequest, PendingIntent)
+     * performAuthorizationRequest}, with an intent created by
+     * {@link #createCustomTabsIntentBuilder()}.
+     *
+     * @see #prepareAuthorizationRequest(AuthorizationRequest, List)
+     */
+    public void prepareAuthorizationRequest(@NonNull AuthorizationRequest request) {
+        prepareAuthorizationRequest(request, null);
+    }
+
+    /**
+     * Tells the browser that the specified authorization request is likely to be performed,
+     * followed by other, less likely, requests, such as requests to other providers offered
+     * to the user. The browser may load the pages for all of the requests in advance.
+     *
+     * @see #prepareAuthorizationRequest(AuthorizationRequest)
+     */
+    public void prepareAuthorizationRequest(
+            @NonNull AuthorizationRequest request,
+            @Nullable List<AuthorizationRequest> otherLikelyRequests) {
+        checkNotDisposed();
+        checkNotNull(request, "request cannot be null");
+        if (mBrowser == null || !mBrowser.useCustomTab) {
+            return;
+        }
+
+        List<Uri> otherLikelyUris = null;
+        if (otherLikelyRequests != null) {
+            otherLikelyUris = new ArrayList<>(otherLikelyRequests.size());
+            for (AuthorizationRequest otherRequest : otherLikelyRequests) {
+                otherLikelyUris.add(otherRequest.toUri());
+            }
+        }
+        mCustomTabManager.mayLaunchUrl(request.toUri(), otherLikelyUris);
+    }
+
     /**
      * Sends an authorization request to the authorization service, using a
      * <a href="https://developer.chrome.com/multidevice/android/customtabs">custom tab</a>
@@ -242,71 +326,522 @@ public class AuthorizationService {
     /**
      * Sends a request to the authorization service to exchange a code granted as part of an
      * authorization request for a token. The result of this request will be sent to the provided
-     * callback handler.
+     * callback handler, unless the request is cancelled via the returned handle.
+     */
+    @NonNull
+    public RequestHandle performTokenRequest(
+            @NonNull TokenRequest request,
+            @NonNull TokenResponseCallback callback) {
+        return performTokenRequest(request, NoClientAuthentication.INSTANCE, callback);
+    }
+
+    /**
+     * Sends a request to the authorization service to exchange a code granted as part of an
+     * authorization request for a token. The result of this request will be sent to the provided
+     * callback handler, unless the request is cancelled via the returned handle.
      */
-    public void performTokenRequest(
+    @NonNull
+    public RequestHandle performTokenRequest(
             @NonNull TokenRequest request,
+            @NonNull ClientAuthentication clientAuthentication,
             @NonNull TokenResponseCallback callback) {
+        return performTokenRequest(request, clientAuthentication, callback, null);
+    }
+
+    /**
+     * Sends a token request as {@link #performTokenRequest(TokenRequest, TokenResponseCallback)}
+     * does, additionally running the provided listener on the cancelling thread if the request
+     * is cancelled, such as when the service is disposed. The callback is not invoked for a
+     * cancelled request, so this allows a caller awaiting the result to be released.
+     */
+    @NonNull
+    RequestHandle performTokenRequest(
+            @NonNull TokenRequest request,
+            @NonNull TokenResponseCallback callback,
+            @NonNull Runnable cancellationListener) {
+        checkNotNull(cancellationListener, "cancellationListener cannot be null");
+        return performTokenRequest(
+                request,
+                NoClientAuthentication.INSTANCE,
+                callback,
+                cancellationListener);
+    }
+
+    @NonNull
+    private RequestHandle performTokenRequest(
+            @NonNull TokenRequest request,
+            @NonNull ClientAuthentication clientAuthentication,
+            @NonNull TokenResponseCallback callback,
+            @Nullable Runnable cancellationListener) {
         checkNotDisposed();
         Logger.debug("Initiating code exchange request to %s",
                 request.configuration.tokenEndpoint);
-        new TokenRequestTask(request, NoClientAuthentication.INSTANCE, callback).execute();
+        TokenRequestTask task = new TokenRequestTask(
+                request,
+                clientAuthentication,
+                callback,
+                mClientConfiguration.getCallbackExecutor());
+        task.setCancellationListener(cancellationListener);
+        return execute(task);
     }
 
     /**
      * Sends a request to the authorization service to exchange a code granted as part of an
-     * authorization request for a token. The result of this request will be sent to the provided
-     * callback handler.
+     * authorization request for a token. The returned future completes on the provided
+     * executor, rather than the {@link AppAuthConfiguration#getCallbackExecutor() callback
+     * executor} of the service.
+     */
+    @NonNull
+    public RequestFuture<TokenResponse> performTokenRequest(
+            @NonNull TokenRequest request,
+            @NonNull Executor completionExecutor) {
+        return performTokenRequest(request, NoClientAuthentication.INSTANCE, completionExecutor);
+    }
+
+    /**
+     * Sends a request to the authorization service to exchange a code granted as part of an
+     * authorization request for a token. The returned future completes on the provided
+     * executor, rather than the {@link AppAuthConfiguration#getCallbackExecutor() callback
+     * executor} of the service.
      */
-    public void performTokenRequest(
+    @NonNull
+    public RequestFuture<TokenResponse> performTokenRequest(
             @NonNull TokenRequest request,
             @NonNull ClientAuthentication clientAuthentication,
-            @NonNull TokenResponseCallback callback) {
+            @NonNull Executor completionExecutor) {
         checkNotDisposed();
+        checkNotNull(completionExecutor, "completionExecutor cannot be null");
         Logger.debug("Initiating code exchange request to %s",
                 request.configuration.tokenEndpoint);
-        new TokenRequestTask(request, clientAuthentication, callback)
-                .execute();
+        final RequestFuture<TokenResponse> future = new RequestFuture<>();
+        TokenRequestTask task = new TokenRequestTask(
+                request,
+                clientAuthentication,
+                new TokenResponseCallback() {
+                    @Override
+                    public void onTokenRequestCompleted(
+                            @Nullable TokenResponse response,
+                            @Nullable AuthorizationException ex) {
+                        future.complete(response, ex);
+                    }
+                },
+                completionExecutor);
+        return executeForFuture(task, future);
+    }
+
+    /**
+     * Exchanges a code granted as part of an authorization request for a token, performing the
+     * request on the calling thread and blocking until it completes. This must not be called
+     * on the main thread.
+     *
+     * @throws AuthorizationException if the request fails, or the token endpoint returns
+     *     an error response.
+     */
+    @NonNull
+    @WorkerThread
+    public TokenResponse executeTokenRequest(@NonNull TokenRequest request)
+            throws AuthorizationException {
+        return executeTokenRequest(request, NoClientAuthentication.INSTANCE);
+    }
+
+    /**
+     * Exchanges a code granted as part of an authorization request for a token, performing the
+     * request on the calling thread and blocking until it completes. This must not be called
+     * on the main thread.
+     *
+     * @throws AuthorizationException if the request fails, or the token endpoint returns
+     *     an error response.
+     */
+    @NonNull
+    @WorkerThread
+    public TokenResponse executeTokenRequest(
+            @NonNull TokenRequest request,
+            @NonNull ClientAuthentication clientAuthentication)
+            throws AuthorizationException {
+        checkNotDisposed();
+        Logger.debug("Performing code exchange request to %s",
+                request.configuration.tokenEndpoint);
+        return new TokenRequestTask(
+                request,
+                clientAuthentication,
+                null,
+                mClientConfiguration.getCallbackExecutor())
+                .performRequest();
+    }
+
+    /**
+     * Sends a request to the introspection endpoint of the authorization service to determine
+     * the state of a token. If the service is configured with an
+     * {@link AppAuthConfiguration#getIntrospectionCache() introspection cache} which holds a
+     * valid result for the token, no request is made. The result will be sent to the provided
+     * callback handler, unless the request is cancelled via the returned handle.
+     */
+    @NonNull
+    public RequestHandle performTokenIntrospection(
+            @NonNull IntrospectionRequest request,
+            @NonNull ClientAuthentication clientAuthentication,
+            @NonNull TokenIntrospectionResponseCallback callback) {
+        checkNotDisposed();
+        Logger.debug("Initiating token introspection request to %s",
+                request.introspectionEndpoint);
+        return execute(new IntrospectionRequestTask(
+                request,
+                clientAuthentication,
+                callback));
+    }
+
+    /**
+     * Determines the state of a token from the introspection endpoint of the authorization
+     * service, or from the {@link AppAuthConfiguration#getIntrospectionCache() introspection
+     * cache} of the service, performing any request on the calling thread and blocking until it
+     * completes. This must not be called on the main thread.
+     *
+     * @throws AuthorizationException if the request fails, or the introspection endpoint
+     *     returns an error response.
+     */
+    @NonNull
+    @WorkerThread
+    public IntrospectionResponse executeTokenIntrospection(
+            @NonNull IntrospectionRequest request,
+            @NonNull ClientAuthentication clientAuthentication)
+            throws AuthorizationException {
+        checkNotDisposed();
+        Logger.debug("Performing token introspection request to %s",
+                request.introspectionEndpoint);
+        return new IntrospectionRequestTask(request, clientAuthentication, null)
+                .performRequest();
+    }
+
+    /**
+     * Sends a request to the revocation endpoint of the authorization service to revoke a
+     * token. The result will be sent to the provided callback handler, unless the request is
+     * cancelled via the returned handle. To revoke the tokens of many authorization states
+     * without waiting for the requests to complete, see {@link TokenRevocationQueue}.
+     */
+    @NonNull
+    public RequestHandle performTokenRevocation(
+            @NonNull RevocationRequest request,
+            @NonNull ClientAuthentication clientAuthentication,
+            @NonNull TokenRevocationResponseCallback callback) {
+        checkNotDisposed();
+        Logger.debug("Initiating token revocation request to %s",
+                request.revocationEndpoint);
+        return execute(new RevocationRequestTask(
+                request,
+                clientAuthentication,
+                callback));
+    }
+
+    /**
+     * Revokes a token at the revocation endpoint of the authorization service, performing the
+     * request on the calling thread and blocking until it completes. This must not be called
+     * on the main thread.
+     *
+     * @throws AuthorizationException if the request fails, or the revocation endpoint returns
+     *     an error response.
+     */
+    @WorkerThread
+    public void executeTokenRevocation(
+            @NonNull RevocationRequest request,
+            @NonNull ClientAuthentication clientAuthentication)
+            throws AuthorizationException {
+        checkNotDisposed();
+        Logger.debug("Performing token revocation request to %s",
+                request.revocationEndpoint);
+        new RevocationRequestTask(request, clientAuthentication, null).performRequest();
+    }
+
+    /**
+     * Sends a request for a protected resource, authorized with the access token of the
+     * specified authorization state, which is refreshed first if it has expired. If the
+     * resource server rejects the token, as it would if the token was revoked before it
+     * expired, the token is refreshed and the request is sent once more. Refreshes are
+     * coalesced with any other refresh of the state which is in progress, so concurrent
+     * requests which are rejected for the same token result in a single refresh.
+     *
+     * <p>The request is performed on the network executor of the service. The response will
+     * be sent to the provided callback handler, unless the request is cancelled via the
+     * returned handle.
+     */
+    @NonNull
+    public RequestHandle performAuthenticatedRequest(
+            @NonNull AuthState state,
+            @NonNull ResourceRequest request,
+            @NonNull ResourceResponseCallback callback) {
+        checkNotDisposed();
+        checkNotNull(state, "state cannot be null");
+        checkNotNull(request, "request cannot be null");
+        checkNotNull(callback, "callback cannot be null");
+        Logger.debug("Initiating authenticated request to %s", request.uri);
+        AuthenticatedRequest call = new ResourceCall(state, request, callback);
+        call.sendWithFreshToken();
+        return call;
+    }
+
+    /**
+     * Requests claims about the user from the userinfo endpoint, authorized with the access
+     * token of the specified authorization state as for
+     * {@link #performAuthenticatedRequest performAuthenticatedRequest}. If the subject of the
+     * ID token of the state is known, the claims must be about the same subject.
+     *
+     * <p>If the service is configured with a {@link UserInfoCache}, claims which are still
+     * fresh are provided from the cache without a request, and stale claims are revalidated
+     * with a conditional request. The result will be sent to the provided callback handler,
+     * unless the request is cancelled via the returned handle.
+     */
+    @NonNull
+    public RequestHandle performUserInfoRequest(
+            @NonNull AuthState state,
+            @NonNull UserInfoRequest request,
+            @NonNull UserInfoResponseCallback callback) {
+        checkNotDisposed();
+        checkNotNull(state, "state cannot be null");
+        checkNotNull(request, "request cannot be null");
+        checkNotNull(callback, "callback cannot be null");
+        Logger.debug("Initiating userinfo request to %s", request.userInfoEndpoint);
+        AuthenticatedRequest call = new UserInfoCall(state, request, callback);
+        call.sendWithFreshToken();
+        return call;
     }
 
     /**
-     * Performs ID token validation.
+     * Performs ID token validation. The result will be sent to the provided callback handler,
+     * unless the validation is cancelled via the returned handle.
      */
-    public void performTokenValidation(
+    @NonNull
+    public RequestHandle performTokenValidation(
             @NonNull TokenResponse response,
             @NonNull ClientAuthentication clientAuthentication,
             @NonNull TokenValidationResponseCallback callback) {
         checkNotDisposed();
         Logger.debug("Initiating code exchange request to %s",
                 response.request.configuration.discoveryDoc.getValidateTokenEndpoint());
-        new TokenValidationRequestTask(response, clientAuthentication, callback)
-                .execute();
+        return execute(new TokenValidationRequestTask(response, clientAuthentication, callback));
     }
 
     /**
      * Sends a request to the authorization service to dynamically register a client.
-     * The result of this request will be sent to the provided callback handler.
+     * The result of this request will be sent to the provided callback handler, unless the
+     * request is cancelled via the returned handle.
      */
-    public void performRegistrationRequest(
+    @NonNull
+    public RequestHandle performRegistrationRequest(
             @NonNull RegistrationRequest request,
             @NonNull RegistrationResponseCallback callback) {
         checkNotDisposed();
         Logger.debug("Initiating dynamic client registration %s",
                 request.configuration.registrationEndpoint.toString());
-        new RegistrationRequestTask(request, callback).execute();
+        return execute(new RegistrationRequestTask(
+                request,
+                callback,
+                mClientConfiguration.getCallbackExecutor()));
+    }
+
+    /**
+     * Sends a request to the authorization service to dynamically register a client.
+     * The returned future completes on the provided executor, rather than the
+     * {@link AppAuthConfiguration#getCallbackExecutor() callback executor} of the service.
+     */
+    @NonNull
+    public RequestFuture<RegistrationResponse> performRegistrationRequest(
+            @NonNull RegistrationRequest request,
+            @NonNull Executor completionExecutor) {
+        checkNotDisposed();
+        checkNotNull(completionExecutor, "completionExecutor cannot be null");
+        Logger.debug("Initiating dynamic client registration %s",
+                request.configuration.registrationEndpoint.toString());
+        final RequestFuture<RegistrationResponse> future = new RequestFuture<>();
+        RegistrationRequestTask task = new RegistrationRequestTask(
+                request,
+                new RegistrationResponseCallback() {
+                    @Override
+                    public void onRegistrationRequestCompleted(
+                            @Nullable RegistrationResponse response,
+                            @Nullable AuthorizationException ex) {
+                        future.complete(response, ex);
+                    }
+                },
+                completionExecutor);
+        return executeForFuture(task, future);
+    }
+
+    /**
+     * Dynamically registers a client, performing the request on the calling thread and
+     * blocking until it completes. This must not be called on the main thread.
+     *
+     * @throws AuthorizationException if the request fails, or the registration endpoint
+     *     returns an error response.
+     */
+    @NonNull
+    @WorkerThread
+    public RegistrationResponse executeRegistrationRequest(@NonNull RegistrationRequest request)
+            throws AuthorizationException {
+        checkNotDisposed();
+        Logger.debug("Performing dynamic client registration %s",
+                request.configuration.registrationEndpoint.toString());
+        return new RegistrationRequestTask(
+                request,
+                null,
+                mClientConfiguration.getCallbackExecutor())
+                .performRequest();
     }
 
     /**
      * Disposes state that will not normally be handled by garbage collection. This should be
      * called when the authorization service is no longer required, including when any owning
      * activity is paused or destroyed (i.e. in {@link android.app.Activity#onStop()}).
+     * Any requests still in progress are {@link RequestHandle#cancel() cancelled}. The
+     * connection to the browser is shared with other services in the process, and is retained
+     * for a few seconds after the last service using it is disposed, so that a service created
+     * by the next activity can use the warmed-up browser.
      */
     public void dispose() {
         if (mDisposed) {
             return;
         }
-        mCustomTabManager.unbind();
+        // set first, so that pending session requests delivered by unbind() do not hand out
+        // a builder for this service
         mDisposed = true;
+        mCustomTabManager.unbind();
+        cancelTokenRefreshSchedulers();
+        cancelOutstandingTasks();
+    }
+
+    /**
+     * The configuration with which this service was created.
+     */
+    @NonNull
+    AppAuthConfiguration getClientConfiguration() {
+        return mClientConfiguration;
+    }
+
+    void addTokenRefreshScheduler(@NonNull TokenRefreshScheduler scheduler) {
+        checkNotDisposed();
+        synchronized (mTokenRefreshSchedulers) {
+            mTokenRefreshSchedulers.add(scheduler);
+        }
+    }
+
+    void removeTokenRefreshScheduler(@NonNull TokenRefreshScheduler scheduler) {
+        synchronized (mTokenRefreshSchedulers) {
+            mTokenRefreshSchedulers.remove(scheduler);
+        }
+    }
+
+    private void cancelTokenRefreshSchedulers() {
+        List<TokenRefreshScheduler> schedulers;
+        synchronized (mTokenRefreshSchedulers) {
+            schedulers = new ArrayList<>(mTokenRefreshSchedulers);
+            mTokenRefreshSchedulers.clear();
+        }
+
+        for (TokenRefreshScheduler scheduler : schedulers) {
+            scheduler.cancel();
+        }
+    }
+
+    @NonNull
+    private RequestHandle execute(@NonNull NetworkTask<?> task) {
+        task.execute(mOutstandingTasks);
+        return task;
+    }
+
+    /**
+     * Executes a task which completes the provided future, such that cancelling either the
+     * future or the task (e.g. when the service is disposed) cancels the other.
+     */
+    @NonNull
+    private <T> RequestFuture<T> executeForFuture(
+            @NonNull NetworkTask<?> task,
+            @NonNull final RequestFuture<T> future) {
+        task.setCancellationListener(new Runnable() {
+            @Override
+            public void run() {
+                future.cancel();
+            }
+        });
+        future.setHandle(task);
+        task.execute(mOutstandingTasks);
+        return future;
+    }
+
+    private void cancelOutstandingTasks() {
+        List<NetworkTask<?>> tasks;
+        synchronized (mOutstandingTasks) {
+            tasks = new ArrayList<>(mOutstandingTasks);
+        }
+
+        for (NetworkTask<?> task : tasks) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Sends a form-encoded request to an endpoint of the authorization service, authenticating
+     * the client with the specified method, and returns the connection once a response has
+     * been received.
+     */
+    @NonNull
+    private HttpURLConnection postForm(
+            @NonNull Uri endpoint,
+            @NonNull String clientId,
+            @NonNull Map<String, String> parameters,
+            @NonNull ClientAuthentication clientAuthentication,
+            boolean replayable,
+            @NonNull final NetworkTask<?> task)
+            throws AuthorizationException, IOException {
+        Map<String, String> clientAuthParams = clientAuthentication.getRequestParameters(clientId);
+        if (clientAuthParams != null) {
+            parameters.putAll(clientAuthParams);
+        }
+        final Map<String, String> headers = clientAuthentication.getRequestHeaders(clientId);
+        final FormUrlEncoder body = FormUrlEncoder.forCurrentThread().encode(parameters);
+
+        return mClientConfiguration.getRetryPolicy().execute(
+                endpoint,
+                mClientConfiguration.getConnectionBuilder(),
+                new RetryPolicy.RequestWriter() {
+                    @Override
+                    public void writeRequest(@NonNull HttpURLConnection conn)
+                            throws IOException {
+                        task.onConnectionOpened(conn);
+                        conn.setRequestMethod("POST");
+                        conn.setRequestProperty(
+                                "Content-Type", "application/x-www-form-urlencoded");
+                        conn.setDoOutput(true);
+                        if (headers != null) {
+                            for (Map.Entry<String, String> header : headers.entrySet()) {
+                                conn.setRequestProperty(header.getKey(), header.getValue());
+                            }
+                        }
+
+                        conn.setFixedLengthStreamingMode(body.length());
+                        OutputStream os = conn.getOutputStream();
+                        body.writeTo(os);
+                        os.flush();
+                    }
+                },
+                replayable,
+                task);
+    }
+
+    /**
+     * Converts an OAuth error response from an endpoint of the authorization service into an
+     * exception, if the response is an error response.
+     */
+    @Nullable
+    private static AuthorizationException getErrorResponse(@NonNull JSONObject json) {
+        if (!json.has(AuthorizationException.PARAM_ERROR)) {
+            return null;
+        }
+
+        String error = json.optString(AuthorizationException.PARAM_ERROR);
+        return AuthorizationException.fromOAuthTemplate(
+                TokenRequestErrors.byString(error),
+                error,
+                json.optString(AuthorizationException.PARAM_ERROR_DESCRIPTION, null),
+                UriUtil.parseUriIfAvailable(
+                        json.optString(AuthorizationException.PARAM_ERROR_URI, null)));
     }
 
     private void checkNotDisposed() {
@@ -316,7 +851,7 @@ public class AuthorizationService {
     }
 
     private class TokenRequestTask
-            extends AsyncTask<Void, Void, JSONObject> {
+            extends NetworkTask<TokenResponse> {
         private TokenRequest mRequest;
         private TokenResponseCallback mCallback;
         private ClientAuthentication mClientAuthentication;
@@ -324,44 +859,75 @@ public class AuthorizationService {
         private AuthorizationException mException;
 
         TokenRequestTask(TokenRequest request, @NonNull ClientAuthentication clientAuthentication,
-                         TokenResponseCallback callback) {
+                         TokenResponseCallback callback, @NonNull Executor callbackExecutor) {
+            super(mClientConfiguration.getNetworkExecutor(), callbackExecutor);
             mRequest = request;
             mCallback = callback;
             mClientAuthentication = clientAuthentication;
         }
 
         @Override
-        protected JSONObject doInBackground(Void... voids) {
-            InputStream is = null;
+        protected TokenResponse doInBackground() {
             try {
-                HttpURLConnection conn =
-                        mClientConfiguration.getConnectionBuilder()
-                                .openConnection(mRequest.configuration.tokenEndpoint);
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-                conn.setDoOutput(true);
-
-                Map<String, String> headers = mClientAuthentication
-                        .getRequestHeaders(mRequest.clientId);
-                if (headers != null) {
-                    for (Map.Entry<String, String> header : headers.entrySet()) {
-                        conn.setRequestProperty(header.getKey(), header.getValue());
-                    }
-                }
+                return performRequest();
+            } catch (AuthorizationException ex) {
+                mException = ex;
+                return null;
+            }
+        }
 
+        /**
+         * Performs the token request on the calling thread.
+         */
+        @NonNull
+        TokenResponse performRequest() throws AuthorizationException {
+            InputStream is = null;
+            try {
                 Map<String, String> parameters = mRequest.getRequestParameters();
                 Map<String, String> clientAuthParams = mClientAuthentication
                         .getRequestParameters(mRequest.clientId);
                 if (clientAuthParams != null) {
                     parameters.putAll(clientAuthParams);
                 }
-
-                String queryData = UriUtil.formUrlEncode(parameters);
-                conn.setRequestProperty("Content-Length", String.valueOf(queryData.length()));
-                OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
-
-                wr.write(queryData);
-                wr.flush();
+                final Map<String, String> headers = mClientAuthentication
+                        .getRequestHeaders(mRequest.clientId);
+                final FormUrlEncoder body = FormUrlEncoder.forCurrentThread().encode(parameters);
+
+                // an authorization code may only be used once; if an exchange is received but
+                // its response is lost, a replay would fail and may revoke the issued tokens
+                boolean replayable =
+                        !GrantTypeValues.AUTHORIZATION_CODE.equals(mRequest.grantType);
+
+                HttpURLConnection conn = mClientConfiguration.getRetryPolicy().execute(
+                        mRequest.configuration.tokenEndpoint,
+                        mClientConfiguration.getConnectionBuilder(),
+                        new RetryPolicy.RequestWriter() {
+                            @Override
+                            public void writeRequest(@NonNull HttpURLConnection conn)
+                                    throws IOException {
+                                onConnectionOpened(conn);
+                                conn.setRequestMethod("POST");
+                                conn.setRequestProperty(
+                                        "Content-Type", "application/x-www-form-urlencoded");
+                                conn.setDoOutput(true);
+                                if (headers != null) {
+                                    for (Map.Entry<String, String> header : headers.entrySet()) {
+                                        conn.setRequestProperty(
+                                                header.getKey(), header.getValue());
+                                    }
+                                }
+
+                                // the body is written with an exact length, so that the
+                                // connection streams it rather than buffering it to determine
+                                // the Content-Length itself
+                                conn.setFixedLengthStreamingMode(body.length());
+                                OutputStream os = conn.getOutputStream();
+                                body.writeTo(os);
+                                os.flush();
+                            }
+                        },
+                        replayable,
+                        this);
 
                 if (conn.getResponseCode() >= HttpURLConnection.HTTP_OK
                         && conn.getResponseCode() < HttpURLConnection.HTTP_MULT_CHOICE) {
@@ -369,59 +935,41 @@ public class AuthorizationService {
                 } else {
                     is = conn.getErrorStream();
                 }
-                String response = Utils.readInputStream(is);
-                return new JSONObject(response);
+                if (is == null) {
+                    throw new IOException("No response body from token endpoint");
+                }
+                // an error response, or an unavailable endpoint, is thrown as an
+                // AuthorizationException directly
+                return TokenResponseParser.parse(mRequest, is);
             } catch (IOException ex) {
                 Logger.debugWithStack(ex, "Failed to complete exchange request");
-                mException = AuthorizationException.fromTemplate(
-                        GeneralErrors.NETWORK_ERROR, ex);
+                throw AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR, ex);
             } catch (JSONException ex) {
                 Logger.debugWithStack(ex, "Failed to complete exchange request");
-                mException = AuthorizationException.fromTemplate(
+                throw AuthorizationException.fromTemplate(
                         GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
+            } catch (IllegalArgumentException ex) {
+                Logger.debugWithStack(ex, "Invalid token response");
+                throw AuthorizationException.fromTemplate(
+                        GeneralErrors.TOKEN_RESPONSE_CONSTRUCTION_ERROR, ex);
             } finally {
                 Utils.closeQuietly(is);
             }
+        }
+
+        @Override
+        protected TokenResponse onUnexpectedError(@NonNull AuthorizationException ex) {
+            mException = ex;
             return null;
         }
 
         @Override
-        protected void onPostExecute(JSONObject json) {
+        protected void onPostExecute(TokenResponse response) {
             if (mException != null) {
                 mCallback.onTokenRequestCompleted(null, mException);
                 return;
             }
 
-            if (json.has(AuthorizationException.PARAM_ERROR)) {
-                AuthorizationException ex;
-                try {
-                    String error = json.getString(AuthorizationException.PARAM_ERROR);
-                    ex = AuthorizationException.fromOAuthTemplate(
-                            TokenRequestErrors.byString(error),
-                            error,
-                            json.optString(AuthorizationException.PARAM_ERROR_DESCRIPTION, null),
-                            UriUtil.parseUriIfAvailable(
-                                    json.optString(AuthorizationException.PARAM_ERROR_URI)));
-                } catch (JSONException jsonEx) {
-                    ex = AuthorizationException.fromTemplate(
-                            GeneralErrors.JSON_DESERIALIZATION_ERROR,
-                            jsonEx);
-                }
-                mCallback.onTokenRequestCompleted(null, ex);
-                return;
-            }
-
-            TokenResponse response;
-            try {
-                response = new TokenResponse.Builder(mRequest).fromResponseJson(json).build();
-            } catch (JSONException jsonEx) {
-                mCallback.onTokenRequestCompleted(null,
-                        AuthorizationException.fromTemplate(
-                                GeneralErrors.JSON_DESERIALIZATION_ERROR,
-                                jsonEx));
-                return;
-            }
-
             Logger.debug("Token exchange with %s completed",
                     mRequest.configuration.tokenEndpoint);
             mCallback.onTokenRequestCompleted(response, null);
@@ -430,105 +978,126 @@ public class AuthorizationService {
 
 
     private class TokenValidationRequestTask
-            extends AsyncTask<Void, Void, JSONObject> {
+            extends NetworkTask<Boolean> {
         private TokenResponse mResponse;
         private TokenValidationResponseCallback mCallback;
         private ClientAuthentication mClientAuthentication;
 
+        private IdToken mIdToken;
         private AuthorizationException mException;
 
         TokenValidationRequestTask(TokenResponse request,
                                    @NonNull ClientAuthentication clientAuthentication,
                                    TokenValidationResponseCallback callback) {
+            super(mClientConfiguration.getNetworkExecutor(),
+                    mClientConfiguration.getCallbackExecutor());
             mResponse = request;
             mCallback = callback;
             mClientAuthentication = clientAuthentication;
         }
 
         @Override
-        protected JSONObject doInBackground(Void... voids) {
-            InputStream is = null;
+        protected Boolean doInBackground() {
             try {
-                Uri uri = (mResponse.request.configuration.discoveryDoc.getJwksUri());
-                HttpURLConnection conn =
-                        mClientConfiguration.getConnectionBuilder()
-                                .openConnection(uri);
-                conn.setRequestMethod("GET");
-                // conn.setDoOutput(true);
-
-                is = new BufferedInputStream(conn.getInputStream());
-                // readStream(in);
-                String response = Utils.readInputStream(is);
-                return new JSONObject(response);
+                // the claims are retained by the response, so they are not parsed again by
+                // subsequent consumers
+                mIdToken = mResponse.getIdTokenClaims();
+                if (mIdToken == null) {
+                    Logger.debug("Token response does not contain an ID token");
+                    mException = GeneralErrors.ID_TOKEN_VALIDATION_ERROR;
+                    return false;
+                }
+
+                String algorithm = mIdToken.algorithm;
+                if (!JwsVerifier.isSupportedAlgorithm(algorithm)) {
+                    Logger.debug("Unsupported ID token signature algorithm: %s", algorithm);
+                    mException = GeneralErrors.ID_TOKEN_VALIDATION_ERROR;
+                    return false;
+                }
+
+                // the key set is only retrieved if not already cached, or if the token was
+                // signed with a key that is not in the cached set; the signature itself is
+                // verified locally
+                AuthorizationServiceDiscovery discoveryDoc =
+                        mResponse.request.configuration.discoveryDoc;
+                PublicKey key = JwksCache.INSTANCE.findPublicKey(
+                        discoveryDoc.getIssuer(),
+                        discoveryDoc.getJwksUri(),
+                        mIdToken.keyId,
+                        algorithm,
+                        mClientConfiguration.getConnectionBuilder());
+                if (key == null) {
+                    Logger.debug("No key found to verify ID token signature");
+                    mException = GeneralErrors.ID_TOKEN_VALIDATION_ERROR;
+                    return false;
+                }
+
+                if (!JwsVerifier.verify(mResponse.idToken, algorithm, key)) {
+                    Logger.debug("ID token signature is invalid");
+                    mException = GeneralErrors.ID_TOKEN_VALIDATION_ERROR;
+                    return false;
+                }
+                return true;
             } catch (IOException ex) {
-                Logger.debugWithStack(ex, "Failed to complete exchange request");
+                Logger.debugWithStack(ex, "Failed to retrieve key set");
                 mException = AuthorizationException.fromTemplate(
                         GeneralErrors.NETWORK_ERROR, ex);
             } catch (JSONException ex) {
-                Logger.debugWithStack(ex, "Failed to complete exchange request");
+                Logger.debugWithStack(ex, "Failed to parse ID token or key set");
                 mException = AuthorizationException.fromTemplate(
                         GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
-            } finally {
-                Utils.closeQuietly(is);
+            } catch (GeneralSecurityException ex) {
+                Logger.debugWithStack(ex, "Failed to verify ID token signature");
+                mException = AuthorizationException.fromTemplate(
+                        GeneralErrors.ID_TOKEN_VALIDATION_ERROR, ex);
             }
-            return null;
+            return false;
         }
 
         @Override
-        protected void onPostExecute(JSONObject json) {
-            JSONObject requiredJson = null;
+        protected Boolean onUnexpectedError(@NonNull AuthorizationException ex) {
+            mException = ex;
+            return false;
+        }
 
-            try {
-                String[] split = mResponse.idToken.split("\\.");
-
-                String decodeTokenHeader = Utils.decodeBase64urlNoPadding(split[0]);
-                String decodeTokenBody = Utils.decodeBase64urlNoPadding(split[1]);
-
-                JSONObject jsonObjectHeader = new JSONObject(decodeTokenHeader);
-                JSONObject jsonObjectBody = new JSONObject(decodeTokenBody);
-
-
-                JSONArray jsonArray = json.getJSONArray("keys");
-
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    if (jsonArray.getJSONObject(i).optString("alg")
-                            .contains(jsonObjectHeader.getString("alg"))) {
-                        requiredJson = jsonArray.getJSONObject(i);
-                        break;
-                    }
-                }
-
-                Logger.debug("Token validation with %s completed",
-                        this.mResponse.request.configuration
-                                .discoveryDoc.getValidateTokenEndpoint());
-
-                if (mException != null
-                        || requiredJson == null
-                        || !json.optString("error", "").equals("")
-                        || !jsonObjectHeader.getString("kid").equals(requiredJson.getString("kid"))
-                        || !jsonObjectBody.getString("aud").equals(mResponse.request
-                        .getRequestParameters().get("client_id"))) {
-                    mCallback.onTokenValidationRequestCompleted(false, mException);
-                    return;
-                }
+        @Override
+        protected void onPostExecute(Boolean signatureValid) {
+            Logger.debug("Token validation with %s completed",
+                    this.mResponse.request.configuration
+                            .discoveryDoc.getValidateTokenEndpoint());
 
-                Calendar calendar = Calendar.getInstance();
-                calendar.setTimeInMillis(Long.parseLong(jsonObjectBody.getString("exp"))
-                        * Long.parseLong("1000"));
-                calendar.getTimeInMillis();
+            String clientId = mResponse.request.getRequestParameters().get("client_id");
+            if (!signatureValid || clientId == null || !mIdToken.hasAudience(clientId)) {
+                mCallback.onTokenValidationRequestCompleted(false, mException);
+                return;
+            }
 
-                if ((calendar.getTimeInMillis() > System.currentTimeMillis())
-                        && jsonObjectBody.getString("nonce").equals(AuthState.sNonce)) {
-                    mCallback.onTokenValidationRequestCompleted(true, null);
-                } else {
-                    mCallback.onTokenValidationRequestCompleted(false, mException);
-                }
-            } catch (UnsupportedEncodingException | JSONException e) {
+            if (!mIdToken.isExpired(System.currentTimeMillis())
+                    && mIdToken.nonce != null
+                    && mIdToken.nonce.equals(AuthState.sNonce)) {
+                mCallback.onTokenValidationRequestCompleted(true, null);
+            } else {
                 mCallback.onTokenValidationRequestCompleted(false, mException);
             }
         }
     }
 
+    /**
+     * Callback interface for asynchronously created custom tab builders.
+     *
+     * @see AuthorizationService#createCustomTabsIntentBuilder(CustomTabsIntentBuilderCallback)
+     */
+    public interface CustomTabsIntentBuilderCallback {
+        /**
+         * Invoked with a builder which uses the tab session with the browser, if one could be
+         * established.
+         *
+         * @param builder the custom tab builder, which may be customized before building the
+         *     intent to pass to {@link #performAuthorizationRequest performAuthorizationRequest}.
+         */
+        void onCustomTabsIntentBuilderCreated(@NonNull CustomTabsIntent.Builder builder);
+    }
+
     /**
      * Callback interface for token endpoint requests.
      *
@@ -572,100 +1141,829 @@ public class AuthorizationService {
     }
 
     private class RegistrationRequestTask
-            extends AsyncTask<Void, Void, JSONObject> {
+            extends NetworkTask<RegistrationResponse> {
         private RegistrationRequest mRequest;
         private RegistrationResponseCallback mCallback;
 
         private AuthorizationException mException;
 
         RegistrationRequestTask(RegistrationRequest request,
-                                RegistrationResponseCallback callback) {
+                                RegistrationResponseCallback callback,
+                                @NonNull Executor callbackExecutor) {
+            super(mClientConfiguration.getNetworkExecutor(), callbackExecutor);
             mRequest = request;
             mCallback = callback;
         }
 
         @Override
-        protected JSONObject doInBackground(Void... voids) {
+        protected RegistrationResponse doInBackground() {
+            try {
+                return performRequest();
+            } catch (AuthorizationException ex) {
+                mException = ex;
+                return null;
+            }
+        }
+
+        /**
+         * Performs the registration request on the calling thread.
+         */
+        @NonNull
+        RegistrationResponse performRequest() throws AuthorizationException {
             InputStream is = null;
             String postData = mRequest.toJsonString();
+            JSONObject json;
             try {
-                HttpURLConnection conn =
-                        mClientConfiguration.getConnectionBuilder()
-                                .openConnection(mRequest.configuration.registrationEndpoint);
-                conn.setRequestMethod("POST");
-                conn.setDoOutput(true);
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setRequestProperty("Content-Length", String.valueOf(postData.length()));
-                OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
-                wr.write(postData);
-                wr.flush();
+                final byte[] postBytes = postData.getBytes(UTF_8);
+                HttpURLConnection conn = mClientConfiguration.getRetryPolicy().execute(
+                        mRequest.configuration.registrationEndpoint,
+                        mClientConfiguration.getConnectionBuilder(),
+                        new RetryPolicy.RequestWriter() {
+                            @Override
+                            public void writeRequest(@NonNull HttpURLConnection conn)
+                                    throws IOException {
+                                onConnectionOpened(conn);
+                                conn.setRequestMethod("POST");
+                                conn.setDoOutput(true);
+                                conn.setRequestProperty("Content-Type", "application/json");
+                                conn.setFixedLengthStreamingMode(postBytes.length);
+                                OutputStream os = conn.getOutputStream();
+                                os.write(postBytes);
+                                os.flush();
+                            }
+                        },
+                        true,
+                        this);
 
                 is = conn.getInputStream();
                 String response = Utils.readInputStream(is);
-                return new JSONObject(response);
+                json = new JSONObject(response);
             } catch (IOException ex) {
                 Logger.debugWithStack(ex, "Failed to complete registration request");
-                mException = AuthorizationException.fromTemplate(
-                        GeneralErrors.NETWORK_ERROR, ex);
+                throw AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR, ex);
             } catch (JSONException ex) {
                 Logger.debugWithStack(ex, "Failed to complete registration request");
-                mException = AuthorizationException.fromTemplate(
+                throw AuthorizationException.fromTemplate(
                         GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
             } finally {
                 Utils.closeQuietly(is);
             }
-            return null;
-        }
-
-        @Override
-        protected void onPostExecute(JSONObject json) {
-            if (mException != null) {
-                mCallback.onRegistrationRequestCompleted(null, mException);
-                return;
-            }
 
             if (json.has(AuthorizationException.PARAM_ERROR)) {
-                AuthorizationException ex;
                 try {
                     String error = json.getString(AuthorizationException.PARAM_ERROR);
-                    ex = AuthorizationException.fromOAuthTemplate(
+                    throw AuthorizationException.fromOAuthTemplate(
                             RegistrationRequestErrors.byString(error),
                             error,
                             json.getString(AuthorizationException.PARAM_ERROR_DESCRIPTION),
                             UriUtil.parseUriIfAvailable(
                                     json.getString(AuthorizationException.PARAM_ERROR_URI)));
                 } catch (JSONException jsonEx) {
-                    ex = AuthorizationException.fromTemplate(
+                    throw AuthorizationException.fromTemplate(
                             GeneralErrors.JSON_DESERIALIZATION_ERROR,
                             jsonEx);
                 }
-                mCallback.onRegistrationRequestCompleted(null, ex);
-                return;
             }
 
-            RegistrationResponse response;
             try {
-                response = new RegistrationResponse.Builder(mRequest)
+                return new RegistrationResponse.Builder(mRequest)
                         .fromResponseJson(json).build();
             } catch (JSONException jsonEx) {
-                mCallback.onRegistrationRequestCompleted(null,
-                        AuthorizationException.fromTemplate(
-                                GeneralErrors.JSON_DESERIALIZATION_ERROR,
-                                jsonEx));
-                return;
+                throw AuthorizationException.fromTemplate(
+                        GeneralErrors.JSON_DESERIALIZATION_ERROR,
+                        jsonEx);
             } catch (RegistrationResponse.MissingArgumentException ex) {
                 Logger.errorWithStack(ex, "Malformed registration mResponse");
-                mException = AuthorizationException.fromTemplate(
+                throw AuthorizationException.fromTemplate(
                         GeneralErrors.INVALID_REGISTRATION_RESPONSE,
                         ex);
+            }
+        }
+
+        @Override
+        protected RegistrationResponse onUnexpectedError(@NonNull AuthorizationException ex) {
+            mException = ex;
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(RegistrationResponse response) {
+            if (mException != null) {
+                mCallback.onRegistrationRequestCompleted(null, mException);
                 return;
             }
+
             Logger.debug("Dynamic registration with %s completed",
                     mRequest.configuration.registrationEndpoint);
             mCallback.onRegistrationRequestCompleted(response, null);
         }
     }
 
+    private class IntrospectionRequestTask
+            extends NetworkTask<IntrospectionResponse> {
+        private IntrospectionRequest mRequest;
+        private TokenIntrospectionResponseCallback mCallback;
+        private ClientAuthentication mClientAuthentication;
+
+        private AuthorizationException mException;
+
+        IntrospectionRequestTask(IntrospectionRequest request,
+                                 @NonNull ClientAuthentication clientAuthentication,
+                                 TokenIntrospectionResponseCallback callback) {
+            super(mClientConfiguration.getNetworkExecutor(),
+                    mClientConfiguration.getCallbackExecutor());
+            mRequest = request;
+            mCallback = callback;
+            mClientAuthentication = clientAuthentication;
+        }
+
+        @Override
+        protected IntrospectionResponse doInBackground() {
+            try {
+                return performRequest();
+            } catch (AuthorizationException ex) {
+                mException = ex;
+                return null;
+            }
+        }
+
+        /**
+         * Performs the introspection request on the calling thread, unless a cached result
+         * is available.
+         */
+        @NonNull
+        IntrospectionResponse performRequest() throws AuthorizationException {
+            IntrospectionCache cache = mClientConfiguration.getIntrospectionCache();
+            if (cache != null) {
+                IntrospectionResponse cached = cache.get(mRequest);
+                if (cached != null) {
+                    Logger.debug("Using cached introspection result from %s",
+                            mRequest.introspectionEndpoint);
+                    return cached;
+                }
+            }
+
+            InputStream is = null;
+            JSONObject json;
+            try {
+                // introspection has no side effects, so the request can always be replayed
+                HttpURLConnection conn = postForm(
+                        mRequest.introspectionEndpoint,
+                        mRequest.clientId,
+                        mRequest.getRequestParameters(),
+                        mClientAuthentication,
+                        true,
+                        this);
+
+                if (conn.getResponseCode() >= HttpURLConnection.HTTP_OK
+                        && conn.getResponseCode() < HttpURLConnection.HTTP_MULT_CHOICE) {
+                    is = conn.getInputStream();
+                } else {
+                    is = conn.getErrorStream();
+                }
+                if (is == null) {
+                    throw new IOException("No response body from introspection endpoint");
+                }
+                json = new JSONObject(Utils.readInputStream(is));
+            } catch (IOException ex) {
+                Logger.debugWithStack(ex, "Failed to complete introspection request");
+                throw AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR, ex);
+            } catch (JSONException ex) {
+                Logger.debugWithStack(ex, "Failed to complete introspection request");
+                throw AuthorizationException.fromTemplate(
+                        GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
+            } finally {
+                Utils.closeQuietly(is);
+            }
+
+            AuthorizationException error = getErrorResponse(json);
+            if (error != null) {
+                throw error;
+            }
+
+            IntrospectionResponse response;
+            try {
+                response = new IntrospectionResponse.Builder(mRequest)
+                        .fromResponseJson(json)
+                        .build();
+            } catch (JSONException ex) {
+                Logger.debugWithStack(ex, "Malformed introspection response");
+                throw AuthorizationException.fromTemplate(
+                        GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
+            }
+
+            if (cache != null) {
+                cache.put(response);
+            }
+            return response;
+        }
+
+        @Override
+        protected IntrospectionResponse onUnexpectedError(@NonNull AuthorizationException ex) {
+            mException = ex;
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(IntrospectionResponse response) {
+            if (mException != null) {
+                mCallback.onTokenIntrospectionCompleted(null, mException);
+                return;
+            }
+
+            Logger.debug("Token introspection with %s completed",
+                    mRequest.introspectionEndpoint);
+            mCallback.onTokenIntrospectionCompleted(response, null);
+        }
+    }
+
+    private class RevocationRequestTask
+            extends NetworkTask<Void> {
+        private RevocationRequest mRequest;
+        private TokenRevocationResponseCallback mCallback;
+        private ClientAuthentication mClientAuthentication;
+
+        private AuthorizationException mException;
+
+        RevocationRequestTask(RevocationRequest request,
+                              @NonNull ClientAuthentication clientAuthentication,
+                              TokenRevocationResponseCallback callback) {
+            super(mClientConfiguration.getNetworkExecutor(),
+                    mClientConfiguration.getCallbackExecutor());
+            mRequest = request;
+            mCallback = callback;
+            mClientAuthentication = clientAuthentication;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            try {
+                performRequest();
+            } catch (AuthorizationException ex) {
+                mException = ex;
+            }
+            return null;
+        }
+
+        /**
+         * Performs the revocation request on the calling thread.
+         */
+        void performRequest() throws AuthorizationException {
+            InputStream is = null;
+            int responseCode;
+            String errorBody = null;
+            try {
+                // revoking a token which is already revoked has no further effect, so the
+                // request can always be replayed
+                HttpURLConnection conn = postForm(
+                        mRequest.revocationEndpoint,
+                        mRequest.clientId,
+                        mRequest.getRequestParameters(),
+                        mClientAuthentication,
+                        true,
+                        this);
+
+                responseCode = conn.getResponseCode();
+                if (responseCode >= HttpURLConnection.HTTP_OK
+                        && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
+                    // the content of a successful response is ignored
+                    is = conn.getInputStream();
+                } else {
+                    is = conn.getErrorStream();
+                    if (is != null) {
+                        errorBody = Utils.readInputStream(is);
+                    }
+                }
+            } catch (IOException ex) {
+                Logger.debugWithStack(ex, "Failed to complete revocation request");
+                throw AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR, ex);
+            } finally {
+                Utils.closeQuietly(is);
+            }
+
+            if (responseCode >= HttpURLConnection.HTTP_OK
+                    && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
+                IntrospectionCache cache = mClientConfiguration.getIntrospectionCache();
+                if (cache != null) {
+                    cache.invalidate(mRequest.token);
+                }
+                return;
+            }
+
+            AuthorizationException error = null;
+            if (errorBody != null) {
+                try {
+                    error = getErrorResponse(new JSONObject(errorBody));
+                } catch (JSONException ex) {
+                    Logger.debugWithStack(ex, "Malformed revocation error response");
+                }
+            }
+
+            // the status determines whether the revocation may be retried, regardless of any
+            // OAuth error in the response, which is only retained as the cause
+            if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                throw AuthorizationException.fromTemplate(GeneralErrors.SERVER_ERROR, error);
+            }
+            if (responseCode == RetryPolicy.HTTP_TOO_MANY_REQUESTS) {
+                throw AuthorizationException.fromTemplate(
+                        GeneralErrors.SERVICE_UNAVAILABLE, error);
+            }
+            if (error != null) {
+                throw error;
+            }
+            throw AuthorizationException.fromTemplate(TokenRequestErrors.OTHER, null);
+        }
+
+        @Override
+        protected Void onUnexpectedError(@NonNull AuthorizationException ex) {
+            mException = ex;
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            if (mException != null) {
+                mCallback.onTokenRevocationCompleted(mException);
+                return;
+            }
+
+            Logger.debug("Token revocation with %s completed", mRequest.revocationEndpoint);
+            mCallback.onTokenRevocationCompleted(null);
+        }
+    }
+
+    /**
+     * Obtains a fresh access token for a resource request, sends the request, and replays it
+     * once with a refreshed token if the token is rejected. Subclasses prepare the request for
+     * each token, and deliver the outcome.
+     */
+    private abstract class AuthenticatedRequest implements RequestHandle {
+        private final AuthState mState;
+
+        // accessed only on the callback executor, once the request has been started
+        private boolean mReplayed;
+
+        private boolean mCancelled;
+        private ResourceRequestTask mTask;
+
+        AuthenticatedRequest(@NonNull AuthState state) {
+            mState = state;
+        }
+
+        /**
+         * Produces the request to be sent with the specified access token, or {@code null} if
+         * the outcome has already been delivered without sending a request.
+         */
+        @Nullable
+        abstract ResourceRequest prepareRequest(@NonNull String accessToken);
+
+        abstract void deliverResponse(
+                @NonNull String accessToken,
+                @NonNull ResourceResponse response);
+
+        abstract void deliverFailure(@NonNull AuthorizationException ex);
+
+        @NonNull
+        final AuthState getState() {
+            return mState;
+        }
+
+        void sendWithFreshToken() {
+            mState.performActionWithFreshTokens(AuthorizationService.this,
+                    new AuthState.AuthStateAction() {
+                        @Override
+                        public void execute(
+                                @Nullable String accessToken,
+                                @Nullable String idToken,
+                                @Nullable AuthorizationException ex) {
+                            if (isCancelled()) {
+                                return;
+                            }
+
+                            if (ex != null) {
+                                deliverFailure(ex);
+                                return;
+                            }
+
+                            if (accessToken == null) {
+                                deliverFailure(AuthorizationException.fromTemplate(
+                                        GeneralErrors.TOKEN_RESPONSE_CONSTRUCTION_ERROR,
+                                        new IllegalStateException("No access token available")));
+                                return;
+                            }
+
+                            send(accessToken);
+                        }
+                    });
+        }
+
+        private void send(@NonNull String accessToken) {
+            ResourceRequest request = prepareRequest(accessToken);
+            if (request == null) {
+                return;
+            }
+
+            ResourceRequestTask task = new ResourceRequestTask(request, accessToken, this);
+            synchronized (this) {
+                if (mCancelled || mDisposed) {
+                    return;
+                }
+                mTask = task;
+            }
+            execute(task);
+        }
+
+        void onResponse(
+                @NonNull String accessToken,
+                @Nullable ResourceResponse response,
+                @Nullable AuthorizationException ex) {
+            if (ex != null) {
+                deliverFailure(ex);
+                return;
+            }
+
+            if (response.statusCode == HttpURLConnection.HTTP_UNAUTHORIZED && !mReplayed) {
+                mReplayed = true;
+                Logger.debug("Access token rejected by %s, refreshing", response.request.uri);
+
+                // if another request has already refreshed the rejected token, the new token
+                // is used without refreshing it again
+                if (accessToken.equals(mState.getAccessToken())) {
+                    mState.setNeedsTokenRefresh(true);
+                }
+                sendWithFreshToken();
+                return;
+            }
+
+            deliverResponse(accessToken, response);
+        }
+
+        @Override
+        public void cancel() {
+            ResourceRequestTask task;
+            synchronized (this) {
+                mCancelled = true;
+                task = mTask;
+                mTask = null;
+            }
+
+            if (task != null) {
+                task.cancel();
+            }
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * Sends a caller-provided resource request, delivering the response whatever its status.
+     */
+    private class ResourceCall extends AuthenticatedRequest {
+        private final ResourceRequest mRequest;
+        private final ResourceResponseCallback mCallback;
+
+        ResourceCall(
+                @NonNull AuthState state,
+                @NonNull ResourceRequest request,
+                @NonNull ResourceResponseCallback callback) {
+            super(state);
+            mRequest = request;
+            mCallback = callback;
+        }
+
+        @Override
+        ResourceRequest prepareRequest(@NonNull String accessToken) {
+            return mRequest;
+        }
+
+        @Override
+        void deliverResponse(@NonNull String accessToken, @NonNull ResourceResponse response) {
+            mCallback.onResourceRequestCompleted(response, null);
+        }
+
+        @Override
+        void deliverFailure(@NonNull AuthorizationException ex) {
+            mCallback.onResourceRequestCompleted(null, ex);
+        }
+    }
+
+    /**
+     * Requests the claims about the user from the userinfo endpoint, using the userinfo cache
+     * of the service, if any, to avoid the request or to revalidate the cached claims.
+     */
+    private class UserInfoCall extends AuthenticatedRequest {
+        private final UserInfoRequest mRequest;
+        private final UserInfoResponseCallback mCallback;
+
+        @Nullable
+        private final UserInfoCache mCache;
+
+        // set when the request is prepared, before it is sent
+        private UserInfoCache.Key mKey;
+        private UserInfoCache.Entry mEntry;
+
+        UserInfoCall(
+                @NonNull AuthState state,
+                @NonNull UserInfoRequest request,
+                @NonNull UserInfoResponseCallback callback) {
+            super(state);
+            mRequest = request;
+            mCallback = callback;
+            mCache = mClientConfiguration.getUserInfoCache();
+        }
+
+        @Override
+        ResourceRequest prepareRequest(@NonNull String accessToken) {
+            ResourceRequest.Builder builder =
+                    new ResourceRequest.Builder(mRequest.userInfoEndpoint)
+                            .setHeader("Accept", "application/json");
+            if (mCache == null) {
+                return builder.build();
+            }
+
+            mKey = new UserInfoCache.Key(
+                    mRequest.userInfoEndpoint,
+                    getExpectedSubject(),
+                    accessToken);
+            mEntry = mCache.get(mKey);
+            if (mEntry != null && mCache.isFresh(mEntry)) {
+                Logger.debug("Using cached userinfo response from %s", mRequest.userInfoEndpoint);
+                final UserInfoCache.Entry entry = mEntry;
+                mClientConfiguration.getCallbackExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isCancelled()) {
+                            deliverClaims(entry.getClaims(), true);
+                        }
+                    }
+                });
+                return null;
+            }
+
+            if (mEntry != null && mEntry.getEtag() != null) {
+                builder.setHeader(CacheHeaders.HEADER_IF_NONE_MATCH, mEntry.getEtag());
+            }
+            return builder.build();
+        }
+
+        @Override
+        void deliverResponse(@NonNull String accessToken, @NonNull ResourceResponse response) {
+            String cacheControl = response.getHeader(CacheHeaders.HEADER_CACHE_CONTROL);
+            if (response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && mEntry != null) {
+                String etag = response.getHeader(CacheHeaders.HEADER_ETAG);
+                mCache.put(
+                        mKey,
+                        mEntry.getClaims(),
+                        etag != null ? etag : mEntry.getEtag(),
+                        cacheControl);
+                deliverClaims(mEntry.getClaims(), true);
+                return;
+            }
+
+            if (!response.isSuccessful()) {
+                deliverFailure(AuthorizationException.fromTemplate(
+                        GeneralErrors.SERVER_ERROR,
+                        new IOException("Userinfo endpoint returned status "
+                                + response.statusCode)));
+                return;
+            }
+
+            JSONObject claims;
+            try {
+                claims = new JSONObject(response.getBodyAsString());
+            } catch (JSONException ex) {
+                deliverFailure(AuthorizationException.fromTemplate(
+                        GeneralErrors.JSON_DESERIALIZATION_ERROR, ex));
+                return;
+            }
+
+            // the claims must be about the user identified by the ID token, if there is one
+            String expectedSubject = getExpectedSubject();
+            if (expectedSubject != null
+                    && !expectedSubject.equals(claims.optString(UserInfoRequest.CLAIM_SUBJECT))) {
+                deliverFailure(AuthorizationException.fromTemplate(
+                        GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                        new IllegalStateException("Userinfo subject does not match ID token")));
+                return;
+            }
+
+            if (mKey != null) {
+                mCache.put(mKey, claims, response.getHeader(CacheHeaders.HEADER_ETAG),
+                        cacheControl);
+            }
+            deliverClaims(claims, false);
+        }
+
+        @Override
+        void deliverFailure(@NonNull AuthorizationException ex) {
+            mCallback.onUserInfoRequestCompleted(null, ex);
+        }
+
+        private void deliverClaims(@NonNull JSONObject claims, boolean fromCache) {
+            UserInfoResponse response;
+            try {
+                response = UserInfoResponse.fromClaims(mRequest, claims, fromCache);
+            } catch (JSONException ex) {
+                deliverFailure(AuthorizationException.fromTemplate(
+                        GeneralErrors.JSON_DESERIALIZATION_ERROR, ex));
+                return;
+            }
+            mCallback.onUserInfoRequestCompleted(response, null);
+        }
+
+        @Nullable
+        private String getExpectedSubject() {
+            try {
+                IdToken idToken = getState().getIdTokenClaims();
+                return idToken != null ? idToken.subject : null;
+            } catch (JSONException ex) {
+                Logger.debugWithStack(ex, "Unable to parse ID token");
+                return null;
+            }
+        }
+    }
+
+    private class ResourceRequestTask
+            extends NetworkTask<ResourceResponse> {
+        private ResourceRequest mRequest;
+        private String mAccessToken;
+        private AuthenticatedRequest mAuthenticatedRequest;
+
+        private AuthorizationException mException;
+
+        ResourceRequestTask(ResourceRequest request,
+                            String accessToken,
+                            AuthenticatedRequest authenticatedRequest) {
+            super(mClientConfiguration.getNetworkExecutor(),
+                    mClientConfiguration.getCallbackExecutor());
+            mRequest = request;
+            mAccessToken = accessToken;
+            mAuthenticatedRequest = authenticatedRequest;
+        }
+
+        @Override
+        protected ResourceResponse doInBackground() {
+            InputStream is = null;
+            try {
+                HttpURLConnection conn = mClientConfiguration.getRetryPolicy().execute(
+                        mRequest.uri,
+                        mClientConfiguration.getConnectionBuilder(),
+                        new RetryPolicy.RequestWriter() {
+                            @Override
+                            public void writeRequest(@NonNull HttpURLConnection connection)
+                                    throws IOException {
+                                writeResourceRequest(connection);
+                            }
+                        },
+                        mRequest.isIdempotent(),
+                        this);
+
+                int responseCode = conn.getResponseCode();
+                if (responseCode >= HttpURLConnection.HTTP_OK
+                        && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
+                    is = conn.getInputStream();
+                } else {
+                    is = conn.getErrorStream();
+                }
+
+                Map<String, List<String>> headers = new LinkedHashMap<>();
+                for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+                    // the status line is reported as a header without a name
+                    if (header.getKey() != null) {
+                        headers.put(header.getKey(), header.getValue());
+                    }
+                }
+
+                return new ResourceResponse(
+                        mRequest,
+                        responseCode,
+                        headers,
+                        is != null ? Utils.readInputStreamBytes(is) : new byte[0]);
+            } catch (IOException ex) {
+                Logger.debugWithStack(ex, "Failed to complete authenticated request");
+                mException = AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR, ex);
+            } catch (AuthorizationException ex) {
+                mException = ex;
+            } finally {
+                Utils.closeQuietly(is);
+            }
+            return null;
+        }
+
+        private void writeResourceRequest(@NonNull HttpURLConnection conn) throws IOException {
+            onConnectionOpened(conn);
+            conn.setRequestMethod(mRequest.method);
+            // the access token must not be sent to any other resource
+            conn.setInstanceFollowRedirects(false);
+            for (Map.Entry<String, String> header : mRequest.headers.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+            conn.setRequestProperty(
+                    ResourceRequest.HEADER_AUTHORIZATION, "Bearer " + mAccessToken);
+
+            if (mRequest.body != null) {
+                conn.setRequestProperty(ResourceRequest.HEADER_CONTENT_TYPE, mRequest.contentType);
+                conn.setDoOutput(true);
+                conn.setFixedLengthStreamingMode(mRequest.body.length);
+                OutputStream os = conn.getOutputStream();
+                os.write(mRequest.body);
+                os.flush();
+            }
+        }
+
+        @Override
+        protected ResourceResponse onUnexpectedError(@NonNull AuthorizationException ex) {
+            mException = ex;
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(ResourceResponse response) {
+            if (mException == null) {
+                Logger.debug("Authenticated request to %s completed with status %d",
+                        mRequest.uri, response.statusCode);
+            }
+            mAuthenticatedRequest.onResponse(mAccessToken, response, mException);
+        }
+    }
+
+    /**
+     * Callback interface for token introspection requests.
+     *
+     * @see AuthorizationService#performTokenIntrospection
+     */
+    public interface TokenIntrospectionResponseCallback {
+        /**
+         * Invoked when the request completes successfully or fails.
+         * <p>Exactly one of {@code response} or {@code ex} will be non-null. If
+         * {@code response} is {@code null}, a failure occurred during the request, or the
+         * introspection endpoint returned an error response.</p>
+         *
+         * @param response the introspection response, if successful; {@code null} otherwise.
+         * @param ex a description of the failure, if one occurred: {@code null} otherwise.
+         */
+        void onTokenIntrospectionCompleted(@Nullable IntrospectionResponse response,
+                                           @Nullable AuthorizationException ex);
+    }
+
+    /**
+     * Callback interface for token revocation requests.
+     *
+     * @see AuthorizationService#performTokenRevocation
+     */
+    public interface TokenRevocationResponseCallback {
+        /**
+         * Invoked when the request completes successfully or fails.
+         * <p>A revocation request succeeds if the token was revoked, or was already invalid.</p>
+         *
+         * @param ex a description of the failure, if one occurred: {@code null} otherwise.
+         */
+        void onTokenRevocationCompleted(@Nullable AuthorizationException ex);
+    }
+
+    /**
+     * Callback interface for authenticated resource requests.
+     *
+     * @see AuthorizationService#performAuthenticatedRequest
+     */
+    public interface ResourceResponseCallback {
+        /**
+         * Invoked when the request completes successfully or fails.
+         * <p>Exactly one of {@code response} or {@code ex} will be non-null. A response is
+         * provided whenever the resource server responded, whatever its status code; if
+         * {@code response} is {@code null}, the request could not be sent, or fresh tokens
+         * could not be obtained.</p>
+         *
+         * @param response the response of the resource server, if one was received;
+         *     {@code null} otherwise.
+         * @param ex a description of the failure, if one occurred: {@code null} otherwise.
+         */
+        void onResourceRequestCompleted(@Nullable ResourceResponse response,
+                                        @Nullable AuthorizationException ex);
+    }
+
+    /**
+     * Callback interface for userinfo requests.
+     *
+     * @see AuthorizationService#performUserInfoRequest
+     */
+    public interface UserInfoResponseCallback {
+        /**
+         * Invoked when the request completes successfully or fails.
+         * <p>Exactly one of {@code response} or {@code ex} will be non-null. If
+         * {@code response} is {@code null}, a failure occurred during the request, or the
+         * userinfo endpoint did not provide the claims.</p>
+         *
+         * @param response the claims about the user, if successful; {@code null} otherwise.
+         * @param ex a description of the failure, if one occurred: {@code null} otherwise.
+         */
+        void onUserInfoRequestCompleted(@Nullable UserInfoResponse response,
+                                        @Nullable AuthorizationException ex);
+    }
+
     /**
      * Callback interface for token endpoint requests.
      *
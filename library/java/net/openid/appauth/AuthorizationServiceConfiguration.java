@@ -18,9 +18,9 @@ import static net.openid.appauth.Preconditions.checkArgument;
 import static net.openid.appauth.Preconditions.checkNotNull;
 
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 
 import net.openid.appauth.AuthorizationException.GeneralErrors;
 
@@ -32,6 +32,7 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.concurrent.Executor;
 
 /**
  * Configuration details required to interact with an authorization service.
@@ -196,6 +197,115 @@ public class AuthorizationServiceConfiguration {
         fetchFromUrl(buildConfigurationUriFromIssuer(openIdConnectIssuerUri), callback);
     }
 
+    /**
+     * Fetch an AuthorizationServiceConfiguration from an OpenID Connect issuer URI, using the
+     * connection builder and executors of the provided configuration.
+     * @param openIdConnectIssuerUri The issuer URI, e.g. "https://accounts.google.com"
+     * @param callback The callback to invoke upon completion.
+     * @param appAuthConfiguration The configuration that controls how the discovery document
+     *     is retrieved.
+     * @see <a href="https://openid.net/specs/openid-connect-discovery-1_0.html">"OpenID Connect
+     * discovery"</a>
+     */
+    public static void fetchFromIssuer(@NonNull Uri openIdConnectIssuerUri,
+            @NonNull RetrieveConfigurationCallback callback,
+            @NonNull AppAuthConfiguration appAuthConfiguration) {
+        fetchFromUrl(
+                buildConfigurationUriFromIssuer(openIdConnectIssuerUri),
+                callback,
+                appAuthConfiguration);
+    }
+
+    /**
+     * Fetch an AuthorizationServiceConfiguration from an OpenID Connect issuer URI, using the
+     * connection builder, network executor and {@link DiscoveryCache discovery cache} of the
+     * provided configuration. The returned future completes on the provided executor, rather
+     * than the callback executor of the configuration.
+     * @param openIdConnectIssuerUri The issuer URI, e.g. "https://accounts.google.com"
+     * @param appAuthConfiguration The configuration that controls how the discovery document
+     *     is retrieved.
+     * @param completionExecutor The executor on which the returned future is completed.
+     * @see <a href="https://openid.net/specs/openid-connect-discovery-1_0.html">"OpenID Connect
+     * discovery"</a>
+     */
+    @NonNull
+    public static RequestFuture<AuthorizationServiceConfiguration> fetchFromIssuer(
+            @NonNull Uri openIdConnectIssuerUri,
+            @NonNull AppAuthConfiguration appAuthConfiguration,
+            @NonNull Executor completionExecutor) {
+        checkNotNull(openIdConnectIssuerUri, "openIdConnectIssuerUri cannot be null");
+        checkNotNull(appAuthConfiguration, "appAuthConfiguration must not be null");
+        checkNotNull(completionExecutor, "completionExecutor must not be null");
+        final RequestFuture<AuthorizationServiceConfiguration> future = new RequestFuture<>();
+        ConfigurationRetrievalAsyncTask task = new ConfigurationRetrievalAsyncTask(
+                buildConfigurationUriFromIssuer(openIdConnectIssuerUri),
+                appAuthConfiguration.getConnectionBuilder(),
+                appAuthConfiguration.getDiscoveryCache(),
+                appAuthConfiguration.getNetworkExecutor(),
+                completionExecutor,
+                new RetrieveConfigurationCallback() {
+                    @Override
+                    public void onFetchConfigurationCompleted(
+                            @Nullable AuthorizationServiceConfiguration serviceConfiguration,
+                            @Nullable AuthorizationException ex) {
+                        future.complete(serviceConfiguration, ex);
+                    }
+                });
+        future.setHandle(task);
+        task.execute();
+        return future;
+    }
+
+    /**
+     * Fetch an AuthorizationServiceConfiguration from an OpenID Connect issuer URI, using the
+     * {@link AppAuthConfiguration#DEFAULT default configuration}. The discovery document is
+     * retrieved on the calling thread, which blocks until it completes; this must not be
+     * called on the main thread.
+     * @param openIdConnectIssuerUri The issuer URI, e.g. "https://accounts.google.com"
+     * @throws AuthorizationException if the discovery document could not be retrieved
+     *     or is invalid.
+     * @see <a href="https://openid.net/specs/openid-connect-discovery-1_0.html">"OpenID Connect
+     * discovery"</a>
+     */
+    @NonNull
+    @WorkerThread
+    public static AuthorizationServiceConfiguration fetchFromIssuerBlocking(
+            @NonNull Uri openIdConnectIssuerUri)
+            throws AuthorizationException {
+        return fetchFromIssuerBlocking(openIdConnectIssuerUri, AppAuthConfiguration.DEFAULT);
+    }
+
+    /**
+     * Fetch an AuthorizationServiceConfiguration from an OpenID Connect issuer URI, using the
+     * connection builder and {@link DiscoveryCache discovery cache} of the provided
+     * configuration. The discovery document is retrieved on the calling thread, which blocks
+     * until it completes; this must not be called on the main thread.
+     * @param openIdConnectIssuerUri The issuer URI, e.g. "https://accounts.google.com"
+     * @param appAuthConfiguration The configuration that controls how the discovery document
+     *     is retrieved.
+     * @throws AuthorizationException if the discovery document could not be retrieved
+     *     or is invalid.
+     * @see <a href="https://openid.net/specs/openid-connect-discovery-1_0.html">"OpenID Connect
+     * discovery"</a>
+     */
+    @NonNull
+    @WorkerThread
+    public static AuthorizationServiceConfiguration fetchFromIssuerBlocking(
+            @NonNull Uri openIdConnectIssuerUri,
+            @NonNull AppAuthConfiguration appAuthConfiguration)
+            throws AuthorizationException {
+        checkNotNull(openIdConnectIssuerUri, "openIdConnectIssuerUri cannot be null");
+        checkNotNull(appAuthConfiguration, "appAuthConfiguration must not be null");
+        return new ConfigurationRetrievalAsyncTask(
+                buildConfigurationUriFromIssuer(openIdConnectIssuerUri),
+                appAuthConfiguration.getConnectionBuilder(),
+                appAuthConfiguration.getDiscoveryCache(),
+                appAuthConfiguration.getNetworkExecutor(),
+                appAuthConfiguration.getCallbackExecutor(),
+                null)
+                .retrieve();
+    }
+
     static Uri buildConfigurationUriFromIssuer(Uri openIdConnectIssuerUri) {
         return openIdConnectIssuerUri.buildUpon()
                 .appendPath(WELL_KNOWN_PATH)
@@ -237,6 +347,37 @@ public class AuthorizationServiceConfiguration {
         new ConfigurationRetrievalAsyncTask(
                 openIdConnectDiscoveryUri,
                 connectionBuilder,
+                null,
+                DefaultExecutors.networkExecutor(),
+                DefaultExecutors.mainThreadExecutor(),
+                callback)
+                .execute();
+    }
+
+    /**
+     * Fetch a AuthorizationServiceConfiguration from an OpenID Connect discovery URI, using the
+     * connection builder, executors and {@link DiscoveryCache discovery cache} of the provided
+     * configuration.
+     * @param openIdConnectDiscoveryUri The OpenID Connect discovery URI
+     * @param callback A callback to invoke upon completion
+     * @param appAuthConfiguration The configuration that controls how the discovery document
+     *     is retrieved.
+     * @see <a href="https://openid.net/specs/openid-connect-discovery-1_0.html">"OpenID Connect
+     * discovery"</a>
+     */
+    public static void fetchFromUrl(
+            @NonNull Uri openIdConnectDiscoveryUri,
+            @NonNull RetrieveConfigurationCallback callback,
+            @NonNull AppAuthConfiguration appAuthConfiguration) {
+        checkNotNull(openIdConnectDiscoveryUri, "openIDConnectDiscoveryUri cannot be null");
+        checkNotNull(callback, "callback cannot be null");
+        checkNotNull(appAuthConfiguration, "appAuthConfiguration must not be null");
+        new ConfigurationRetrievalAsyncTask(
+                openIdConnectDiscoveryUri,
+                appAuthConfiguration.getConnectionBuilder(),
+                appAuthConfiguration.getDiscoveryCache(),
+                appAuthConfiguration.getNetworkExecutor(),
+                appAuthConfiguration.getCallbackExecutor(),
                 callback)
                 .execute();
     }
@@ -265,33 +406,60 @@ public class AuthorizationServiceConfiguration {
     }
 
     /**
-     * ASyncTask that tries to retrieve the discover document and gives the callback with the
+     * Task that tries to retrieve the discover document and gives the callback with the
      * values retrieved from the discovery document. In case of retrieval error, the exception
      * is handed back to the callback.
      */
     private static class ConfigurationRetrievalAsyncTask
-            extends AsyncTask<Void, Void, AuthorizationServiceConfiguration> {
+            extends NetworkTask<AuthorizationServiceConfiguration> {
 
         private Uri mUri;
         private ConnectionBuilder mConnectionBuilder;
+        private DiscoveryCache mDiscoveryCache;
+        private Executor mNetworkExecutor;
         private RetrieveConfigurationCallback mCallback;
         private AuthorizationException mException;
 
         ConfigurationRetrievalAsyncTask(
                 Uri uri,
                 ConnectionBuilder connectionBuilder,
+                @Nullable DiscoveryCache discoveryCache,
+                Executor networkExecutor,
+                Executor callbackExecutor,
                 RetrieveConfigurationCallback callback) {
+            super(networkExecutor, callbackExecutor);
             mUri = uri;
             mConnectionBuilder = connectionBuilder;
+            mDiscoveryCache = discoveryCache;
+            mNetworkExecutor = networkExecutor;
             mCallback = callback;
             mException = null;
         }
 
         @Override
-        protected AuthorizationServiceConfiguration doInBackground(Void... voids) {
+        protected AuthorizationServiceConfiguration doInBackground() {
+            try {
+                return retrieve();
+            } catch (AuthorizationException ex) {
+                mException = ex;
+                return null;
+            }
+        }
+
+        /**
+         * Retrieves the discovery document on the calling thread.
+         */
+        @NonNull
+        AuthorizationServiceConfiguration retrieve() throws AuthorizationException {
             InputStream is = null;
             try {
+                if (mDiscoveryCache != null) {
+                    return new AuthorizationServiceConfiguration(
+                            mDiscoveryCache.retrieve(mUri, mConnectionBuilder, mNetworkExecutor));
+                }
+
                 HttpURLConnection conn = mConnectionBuilder.openConnection(mUri);
+                onConnectionOpened(conn);
                 conn.setRequestMethod("GET");
                 conn.setDoInput(true);
                 conn.connect();
@@ -304,22 +472,28 @@ public class AuthorizationServiceConfiguration {
                 return new AuthorizationServiceConfiguration(discovery);
             } catch (IOException ex) {
                 Logger.errorWithStack(ex, "Network error when retrieving discovery document");
-                mException = AuthorizationException.fromTemplate(
+                throw AuthorizationException.fromTemplate(
                         GeneralErrors.NETWORK_ERROR,
                         ex);
             } catch (JSONException ex) {
                 Logger.errorWithStack(ex, "Error parsing discovery document");
-                mException = AuthorizationException.fromTemplate(
+                throw AuthorizationException.fromTemplate(
                         GeneralErrors.JSON_DESERIALIZATION_ERROR,
                         ex);
             } catch (AuthorizationServiceDiscovery.MissingArgumentException ex) {
                 Logger.errorWithStack(ex, "Malformed discovery document");
-                mException = AuthorizationException.fromTemplate(
+                throw AuthorizationException.fromTemplate(
                         GeneralErrors.INVALID_DISCOVERY_DOCUMENT,
                         ex);
             } finally {
                 Utils.closeQuietly(is);
             }
+        }
+
+        @Override
+        protected AuthorizationServiceConfiguration onUnexpectedError(
+                @NonNull AuthorizationException ex) {
+            mException = ex;
             return null;
         }
 
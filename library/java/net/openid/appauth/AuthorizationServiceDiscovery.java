@@ -63,6 +63,12 @@ public class AuthorizationServiceDiscovery {
     @VisibleForTesting
     static final UriField REGISTRATION_ENDPOINT = uri("registration_endpoint");
 
+    @VisibleForTesting
+    static final UriField INTROSPECTION_ENDPOINT = uri("introspection_endpoint");
+
+    @VisibleForTesting
+    static final UriField REVOCATION_ENDPOINT = uri("revocation_endpoint");
+
     @VisibleForTesting
     static final StringListField SCOPES_SUPPORTED = strList("scopes_supported");
 
@@ -308,6 +314,28 @@ public class AuthorizationServiceDiscovery {
         return get(REGISTRATION_ENDPOINT);
     }
 
+    /**
+     * The OAuth 2 token introspection endpoint URI, if the service supports introspection.
+     *
+     * @see <a href="https://tools.ietf.org/html/rfc8414#section-2">"OAuth 2.0 Authorization
+     * Server Metadata" (RFC 8414), Section 2</a>
+     */
+    @Nullable
+    public Uri getIntrospectionEndpoint() {
+        return get(INTROSPECTION_ENDPOINT);
+    }
+
+    /**
+     * The OAuth 2 token revocation endpoint URI, if the service supports revocation.
+     *
+     * @see <a href="https://tools.ietf.org/html/rfc8414#section-2">"OAuth 2.0 Authorization
+     * Server Metadata" (RFC 8414), Section 2</a>
+     */
+    @Nullable
+    public Uri getRevocationEndpoint() {
+        return get(REVOCATION_ENDPOINT);
+    }
+
     /**
      * The OAuth 2 scope values supported.
      *
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Decodes unpadded base64url, as used for the segments of JSON Web Tokens, directly from a
+ * range of a string. Unlike {@link android.util.Base64}, the segment does not need to be copied
+ * out of the token first, and the output can be written into a per-thread buffer that is
+ * reused between calls.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc4648#section-5">"The Base16, Base32, and Base64
+ * Data Encodings" (RFC 4648), Section 5</a>
+ */
+final class Base64Url {
+
+    private static final String ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private static final int BITS_PER_CHAR = 6;
+    private static final int BITS_PER_BYTE = 8;
+    private static final int CHARS_PER_QUANTUM = 4;
+    private static final int BYTES_PER_QUANTUM = 3;
+
+    /**
+     * The initial size of the per-thread buffers, which is sufficient for typical ID tokens.
+     */
+    @VisibleForTesting
+    static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /**
+     * Buffers larger than this are not retained, so that an unusually large token does not
+     * permanently increase the memory held by each thread.
+     */
+    @VisibleForTesting
+    static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int ASCII_LIMIT = 128;
+
+    private static final byte[] DECODE_TABLE = new byte[ASCII_LIMIT];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            DECODE_TABLE[ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+    };
+
+    private Base64Url() {
+        throw new IllegalStateException("This type is not intended to be instantiated");
+    }
+
+    /**
+     * Determines the number of bytes encoded by the specified number of unpadded base64url
+     * characters.
+     * @throws IllegalArgumentException if no sequence of bytes has an encoding of this length.
+     */
+    static int decodedLength(int encodedLength) {
+        int remainder = encodedLength % CHARS_PER_QUANTUM;
+        if (encodedLength < 0 || remainder == 1) {
+            throw new IllegalArgumentException("Invalid base64url length: " + encodedLength);
+        }
+
+        int length = encodedLength / CHARS_PER_QUANTUM * BYTES_PER_QUANTUM;
+        return remainder == 0 ? length : length + remainder - 1;
+    }
+
+    /**
+     * Decodes the unpadded base64url characters between {@code start} (inclusive) and
+     * {@code end} (exclusive) into {@code dst}, starting at {@code dstOffset}.
+     * @return the number of bytes written.
+     * @throws IllegalArgumentException if the range contains characters outside of the
+     *     base64url alphabet, or is of an invalid length.
+     */
+    static int decode(
+            @NonNull CharSequence src,
+            int start,
+            int end,
+            @NonNull byte[] dst,
+            int dstOffset) {
+        int length = decodedLength(end - start);
+        if (dst.length - dstOffset < length) {
+            throw new IndexOutOfBoundsException("Destination is too small");
+        }
+
+        int bits = 0;
+        int bitCount = 0;
+        int pos = dstOffset;
+        for (int i = start; i < end; i++) {
+            char ch = src.charAt(i);
+            int value = ch < ASCII_LIMIT ? DECODE_TABLE[ch] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid base64url character at " + i);
+            }
+
+            bits = (bits << BITS_PER_CHAR) | value;
+            bitCount += BITS_PER_CHAR;
+            if (bitCount >= BITS_PER_BYTE) {
+                bitCount -= BITS_PER_BYTE;
+                dst[pos++] = (byte) (bits >> bitCount);
+                bits &= (1 << bitCount) - 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the unpadded base64url characters between {@code start} (inclusive) and
+     * {@code end} (exclusive) into a new array of exactly the decoded length.
+     * @throws IllegalArgumentException if the range is not valid unpadded base64url.
+     */
+    @NonNull
+    static byte[] decode(@NonNull CharSequence src, int start, int end) {
+        byte[] decoded = new byte[decodedLength(end - start)];
+        decode(src, start, end, decoded, 0);
+        return decoded;
+    }
+
+    /**
+     * Decodes the unpadded base64url characters between {@code start} (inclusive) and
+     * {@code end} (exclusive), and interprets the result as UTF-8. The bytes are decoded into
+     * the per-thread buffer, so the returned string is the only allocation for typical input.
+     * @throws IllegalArgumentException if the range is not valid unpadded base64url.
+     */
+    @NonNull
+    static String decodeToString(@NonNull CharSequence src, int start, int end) {
+        byte[] buffer = getBuffer(decodedLength(end - start));
+        int length = decode(src, start, end, buffer, 0);
+        return new String(buffer, 0, length, UTF_8);
+    }
+
+    /**
+     * Provides a buffer of at least the specified length, which is owned by the calling thread.
+     * The contents are only valid until the next call on the same thread, to this method or to
+     * {@link #decodeToString}.
+     */
+    @NonNull
+    static byte[] getBuffer(int minLength) {
+        byte[] buffer = BUFFERS.get();
+        if (buffer.length >= minLength) {
+            return buffer;
+        }
+
+        buffer = new byte[Math.max(minLength, buffer.length * 2)];
+        if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+            BUFFERS.set(buffer);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Utility methods for interpreting the HTTP caching headers of responses from the
+ * authorization service.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7234">"Hypertext Transfer Protocol (HTTP/1.1):
+ * Caching" (RFC 7234)</a>
+ */
+final class CacheHeaders {
+
+    static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final Pattern MAX_AGE_PATTERN =
+            Pattern.compile("max-age\\s*=\\s*\"?(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern NO_CACHE_PATTERN =
+            Pattern.compile("no-cache|no-store", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern NO_STORE_PATTERN =
+            Pattern.compile("no-store", Pattern.CASE_INSENSITIVE);
+
+    private CacheHeaders() {
+        throw new IllegalStateException("This type is not intended to be instantiated");
+    }
+
+    /**
+     * Determines how long a response may be cached for, from its Cache-Control or Expires
+     * headers. Responses which do not specify a lifetime may be cached for the provided
+     * default; no response may be cached for longer than the provided maximum.
+     */
+    static long getTimeToLive(
+            @NonNull HttpURLConnection conn,
+            long now,
+            long defaultTtlMs,
+            long maxTtlMs) {
+        long ttl = defaultTtlMs;
+        if (conn.getExpiration() > 0) {
+            // the Expires header is relative to the server's clock, as given by the Date header
+            long serverDate = (conn.getDate() > 0) ? conn.getDate() : now;
+            ttl = conn.getExpiration() - serverDate;
+        }
+
+        return getTimeToLive(conn.getHeaderField(HEADER_CACHE_CONTROL), ttl, maxTtlMs);
+    }
+
+    /**
+     * Determines how long a response may be cached for, from the value of its Cache-Control
+     * header, if any. Responses which do not specify a lifetime may be cached for the provided
+     * default; no response may be cached for longer than the provided maximum.
+     */
+    static long getTimeToLive(
+            @Nullable String cacheControl,
+            long defaultTtlMs,
+            long maxTtlMs) {
+        Long maxAge = parseMaxAge(cacheControl);
+
+        long ttl = defaultTtlMs;
+        if (cacheControl != null && NO_CACHE_PATTERN.matcher(cacheControl).find()) {
+            ttl = 0L;
+        } else if (maxAge != null) {
+            ttl = maxAge;
+        }
+
+        return Math.max(0L, Math.min(ttl, maxTtlMs));
+    }
+
+    /**
+     * Determines whether a response must not be retained at all, as indicated by the
+     * {@code no-store} directive of its Cache-Control header. Unlike {@code no-cache}, this
+     * also precludes retaining the response for revalidation.
+     */
+    static boolean isNoStore(@Nullable String cacheControl) {
+        return cacheControl != null && NO_STORE_PATTERN.matcher(cacheControl).find();
+    }
+
+    @Nullable
+    private static Long parseMaxAge(@Nullable String cacheControl) {
+        if (cacheControl == null) {
+            return null;
+        }
+
+        Matcher matcher = MAX_AGE_PATTERN.matcher(cacheControl);
+        if (!matcher.find()) {
+            return null;
+        }
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1)));
+        } catch (NumberFormatException ex) {
+            Logger.debug("Ignoring malformed max-age in Cache-Control: %s", cacheControl);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Tracks consecutive failures of requests to a single endpoint. Once the failure threshold is
+ * reached the circuit opens, and requests are rejected without being attempted until the open
+ * duration has elapsed. A single trial request is then permitted: if it succeeds the circuit
+ * closes again, otherwise it reopens for another open duration.
+ */
+final class CircuitBreaker {
+
+    private final int mFailureThreshold;
+    private final long mOpenDurationMs;
+
+    @NonNull
+    private final Clock mClock;
+
+    private int mConsecutiveFailures;
+    private long mOpenUntil;
+    private boolean mTrialInFlight;
+
+    CircuitBreaker(int failureThreshold, long openDurationMs, @NonNull Clock clock) {
+        mFailureThreshold = failureThreshold;
+        mOpenDurationMs = openDurationMs;
+        mClock = clock;
+    }
+
+    /**
+     * Determines whether a request may be attempted. Every permitted request must be followed
+     * by a call to {@link #recordSuccess()}, {@link #recordFailure()} or {@link #release()}.
+     */
+    synchronized boolean tryAcquire() {
+        if (mConsecutiveFailures < mFailureThreshold) {
+            return true;
+        }
+
+        if (mTrialInFlight || mClock.getCurrentTimeMillis() < mOpenUntil) {
+            return false;
+        }
+
+        mTrialInFlight = true;
+        return true;
+    }
+
+    synchronized void recordSuccess() {
+        mConsecutiveFailures = 0;
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Records that a permitted request was abandoned without determining whether the endpoint
+     * is available.
+     */
+    synchronized void release() {
+        mTrialInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        mConsecutiveFailures++;
+        mTrialInFlight = false;
+        if (mConsecutiveFailures >= mFailureThreshold) {
+            mOpenUntil = mClock.getCurrentTimeMillis() + mOpenDurationMs;
+        }
+    }
+
+    /**
+     * Whether requests are currently being rejected.
+     */
+    synchronized boolean isOpen() {
+        return mConsecutiveFailures >= mFailureThreshold
+                && (mTrialInFlight || mClock.getCurrentTimeMillis() < mOpenUntil);
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.customtabs.CustomTabsClient;
+import android.support.customtabs.CustomTabsService;
+import android.support.customtabs.CustomTabsServiceConnection;
+import android.support.customtabs.CustomTabsSession;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connections to the custom tabs services of browsers, shared by all
+ * {@link CustomTabManager custom tab managers} in the process. There is at most one connection
+ * per browser package, which is bound using the application context and reference counted;
+ * once no manager uses a connection, it is unbound only after a grace period. Services which
+ * are created and disposed with each activity therefore keep a warmed-up browser, and any
+ * prefetched pages, across activity transitions.
+ */
+final class CustomTabConnectionPool {
+
+    /**
+     * Unused connections are retained for this amount of time before they are unbound.
+     */
+    @VisibleForTesting
+    static final long UNBIND_DELAY_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Wait for at most this amount of time for a browser connection to be established,
+     * before delivering requested sessions without one.
+     */
+    private static final long CLIENT_WAIT_TIME_MS = 1000L;
+
+    @NonNull
+    private final ScheduledExecutorService mScheduler;
+
+    @NonNull
+    private final Executor mMainThreadExecutor;
+
+    private final long mUnbindDelayMs;
+
+    @NonNull
+    private final Map<String, Connection> mConnections = new HashMap<>();
+
+    /**
+     * The pool shared by all custom tab managers in the process.
+     */
+    @NonNull
+    static CustomTabConnectionPool getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    @VisibleForTesting
+    CustomTabConnectionPool(
+            @NonNull ScheduledExecutorService scheduler,
+            @NonNull Executor mainThreadExecutor,
+            long unbindDelayMs) {
+        mScheduler = scheduler;
+        mMainThreadExecutor = mainThreadExecutor;
+        mUnbindDelayMs = unbindDelayMs;
+    }
+
+    /**
+     * Obtains the connection to the specified browser, binding to its custom tabs service if
+     * there is no connection already. Each acquired connection must be
+     * {@link #release(Connection) released} once it is no longer used.
+     */
+    @NonNull
+    synchronized Connection acquire(@NonNull Context context, @NonNull String browserPackage) {
+        Connection connection = mConnections.get(browserPackage);
+        if (connection == null) {
+            // the connection may outlive the component which acquired it
+            connection = new Connection(context.getApplicationContext(), browserPackage);
+            mConnections.put(browserPackage, connection);
+            connection.bind();
+        }
+
+        connection.mRefCount++;
+        if (connection.mPendingUnbind != null) {
+            connection.mPendingUnbind.cancel(false);
+            connection.mPendingUnbind = null;
+        }
+        return connection;
+    }
+
+    /**
+     * Releases a connection previously acquired. If the connection is no longer used, it is
+     * unbound after the grace period, unless it is acquired again first.
+     */
+    synchronized void release(@NonNull final Connection connection) {
+        if (connection.mRefCount <= 0) {
+            throw new IllegalStateException("connection is not acquired");
+        }
+
+        if (--connection.mRefCount > 0) {
+            return;
+        }
+
+        connection.mPendingUnbind = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mMainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        unbindIfUnused(connection);
+                    }
+                });
+            }
+        }, mUnbindDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The number of connections currently bound, including those awaiting unbinding.
+     */
+    @VisibleForTesting
+    synchronized int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    private void unbindIfUnused(@NonNull Connection connection) {
+        synchronized (this) {
+            if (connection.mRefCount > 0
+                    || mConnections.get(connection.mBrowserPackage) != connection) {
+                return;
+            }
+            mConnections.remove(connection.mBrowserPackage);
+        }
+        connection.unbind();
+    }
+
+    /**
+     * A connection to the custom tabs service of a browser, and the single session used
+     * with it. The session is used both for prefetch hints and to launch tabs, as the browser
+     * only uses a prefetched page for a tab launched with the session that requested it.
+     */
+    final class Connection {
+
+        @NonNull
+        private final Context mContext;
+
+        @NonNull
+        private final String mBrowserPackage;
+
+        @NonNull
+        private final CustomTabsServiceConnection mServiceConnection;
+
+        // guarded by the pool
+        private int mRefCount;
+
+        // guarded by the pool
+        @Nullable
+        private ScheduledFuture<?> mPendingUnbind;
+
+        @Nullable
+        private CustomTabsClient mClient;
+
+        /**
+         * Whether the outcome of binding to the browser is known, whether it connected or not.
+         */
+        private boolean mClientResolved;
+
+        @Nullable
+        private CustomTabsSession mSession;
+
+        @Nullable
+        private Uri mPendingUrl;
+
+        @Nullable
+        private List<Uri> mPendingOtherLikelyUrls;
+
+        @NonNull
+        private final List<SessionRequest> mSessionRequests = new ArrayList<>();
+
+        Connection(@NonNull Context context, @NonNull String browserPackage) {
+            mContext = context;
+            mBrowserPackage = browserPackage;
+            mServiceConnection = new CustomTabsServiceConnection() {
+                @Override
+                public void onServiceDisconnected(ComponentName componentName) {
+                    Logger.debug("CustomTabsService is disconnected");
+                    setClient(null);
+                }
+
+                @Override
+                public void onCustomTabsServiceConnected(ComponentName componentName,
+                                                         CustomTabsClient customTabsClient) {
+                    Logger.debug("CustomTabsService is connected");
+                    customTabsClient.warmup(0);
+                    setClient(customTabsClient);
+                    sendPendingMayLaunchUrl();
+                }
+            };
+        }
+
+        /**
+         * The session with the browser, if it is connected.
+         */
+        @Nullable
+        synchronized CustomTabsSession getSession() {
+            if (mSession == null && mClient != null) {
+                mSession = mClient.newSession(null);
+            }
+            return mSession;
+        }
+
+        /**
+         * Delivers the session with the browser to the callback via the specified executor,
+         * once the browser is connected, or without a session if the browser cannot be
+         * connected to within a short time. Pending requests may be delivered early via
+         * {@link #deliverSessionRequests(Object)}.
+         */
+        void requestSession(
+                @NonNull Object owner,
+                @NonNull Executor callbackExecutor,
+                @NonNull CustomTabManager.SessionCallback callback) {
+            final SessionRequest request = new SessionRequest(owner, callbackExecutor, callback);
+            synchronized (this) {
+                if (!mClientResolved) {
+                    mSessionRequests.add(request);
+                    mScheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (removeSessionRequest(request)) {
+                                Logger.debug("Timed out waiting for browser connection");
+                                request.deliver(getSession());
+                            }
+                        }
+                    }, CLIENT_WAIT_TIME_MS, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            }
+            request.deliver(getSession());
+        }
+
+        /**
+         * Delivers any pending session requests made by the specified owner, with the current
+         * session, if any.
+         */
+        void deliverSessionRequests(@NonNull Object owner) {
+            List<SessionRequest> requests = new ArrayList<>();
+            synchronized (this) {
+                for (Iterator<SessionRequest> it = mSessionRequests.iterator(); it.hasNext(); ) {
+                    SessionRequest request = it.next();
+                    if (request.mOwner == owner) {
+                        requests.add(request);
+                        it.remove();
+                    }
+                }
+            }
+            deliver(requests);
+        }
+
+        /**
+         * Tells the browser that the specified URL is likely to be launched, followed by
+         * other less likely URLs, so that it can be loaded in advance. If the browser is not
+         * yet connected, the hint is sent once it is, replacing any earlier hint.
+         */
+        synchronized void mayLaunchUrl(@NonNull Uri url, @Nullable List<Uri> otherLikelyUrls) {
+            CustomTabsSession session = getSession();
+            if (session == null) {
+                mPendingUrl = url;
+                mPendingOtherLikelyUrls = otherLikelyUrls;
+                return;
+            }
+
+            mPendingUrl = null;
+            mPendingOtherLikelyUrls = null;
+            if (!session.mayLaunchUrl(url, null, toBundles(otherLikelyUrls))) {
+                Logger.debug("Browser rejected prefetch of %s", url);
+            }
+        }
+
+        private void bind() {
+            if (!CustomTabsClient.bindCustomTabsService(
+                    mContext,
+                    mBrowserPackage,
+                    mServiceConnection)) {
+                // this is expected if the browser does not support custom tabs
+                Logger.info("Unable to bind custom tabs service");
+                synchronized (this) {
+                    mClientResolved = true;
+                }
+            }
+        }
+
+        private void unbind() {
+            mContext.unbindService(mServiceConnection);
+            setClient(null);
+            synchronized (this) {
+                mPendingUrl = null;
+                mPendingOtherLikelyUrls = null;
+            }
+            Logger.debug("CustomTabsService for %s is unbound", mBrowserPackage);
+        }
+
+        private void setClient(@Nullable CustomTabsClient client) {
+            List<SessionRequest> requests;
+            synchronized (this) {
+                mClient = client;
+                mSession = null;
+                mClientResolved = true;
+                requests = new ArrayList<>(mSessionRequests);
+                mSessionRequests.clear();
+            }
+            deliver(requests);
+        }
+
+        private synchronized void sendPendingMayLaunchUrl() {
+            if (mPendingUrl != null) {
+                mayLaunchUrl(mPendingUrl, mPendingOtherLikelyUrls);
+            }
+        }
+
+        private synchronized boolean removeSessionRequest(@NonNull SessionRequest request) {
+            return mSessionRequests.remove(request);
+        }
+
+        private void deliver(@NonNull List<SessionRequest> requests) {
+            if (requests.isEmpty()) {
+                return;
+            }
+
+            CustomTabsSession session = getSession();
+            for (SessionRequest request : requests) {
+                request.deliver(session);
+            }
+        }
+    }
+
+    @Nullable
+    private static List<Bundle> toBundles(@Nullable List<Uri> urls) {
+        if (urls == null || urls.isEmpty()) {
+            return null;
+        }
+
+        List<Bundle> bundles = new ArrayList<>(urls.size());
+        for (Uri url : urls) {
+            Bundle bundle = new Bundle();
+            bundle.putParcelable(CustomTabsService.KEY_URL, url);
+            bundles.add(bundle);
+        }
+        return bundles;
+    }
+
+    private static final class SessionRequest {
+        private final Object mOwner;
+        private final Executor mCallbackExecutor;
+        private final CustomTabManager.SessionCallback mCallback;
+
+        SessionRequest(
+                @NonNull Object owner,
+                @NonNull Executor callbackExecutor,
+                @NonNull CustomTabManager.SessionCallback callback) {
+            mOwner = owner;
+            mCallbackExecutor = callbackExecutor;
+            mCallback = callback;
+        }
+
+        void deliver(@Nullable final CustomTabsSession session) {
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onSessionAvailable(session);
+                }
+            });
+        }
+    }
+
+    private static final class InstanceHolder {
+        static final CustomTabConnectionPool INSTANCE = new CustomTabConnectionPool(
+                DefaultExecutors.scheduledExecutor(),
+                DefaultExecutors.mainThreadExecutor(),
+                UNBIND_DELAY_MS);
+    }
+}
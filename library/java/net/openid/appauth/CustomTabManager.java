@@ -14,46 +14,55 @@
 
 package net.openid.appauth;
 
-import android.content.ComponentName;
 import android.content.Context;
+import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.customtabs.CustomTabsClient;
+import android.support.annotation.VisibleForTesting;
 import android.support.customtabs.CustomTabsIntent;
-import android.support.customtabs.CustomTabsServiceConnection;
 import android.support.customtabs.CustomTabsSession;
 
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Hides the details of establishing connections and sessions with custom tabs, to make testing
- * easier.
+ * easier. Connections are shared with other managers in the process via the
+ * {@link CustomTabConnectionPool}, so binding a manager to a browser which is already
+ * connected reuses the warmed-up connection. Sessions are never waited for on the calling
+ * thread: they are either used if already available, or delivered asynchronously once the
+ * browser is connected.
  */
 class CustomTabManager {
 
-    /**
-     * Wait for at most this amount of time for the browser connection to be established.
-     */
-    private static final long CLIENT_WAIT_TIME = 1L;
-
     @NonNull
     private final Context mContext;
 
     @NonNull
-    private final AtomicReference<CustomTabsClient> mClient;
-
-    @NonNull
-    private final CountDownLatch mClientLatch;
+    private final CustomTabConnectionPool mPool;
 
     @Nullable
-    private CustomTabsServiceConnection mConnection;
+    private CustomTabConnectionPool.Connection mConnection;
+
+    /**
+     * Receives the session with the browser, once the connection is established.
+     */
+    interface SessionCallback {
+        /**
+         * Invoked with the session, or {@code null} if the browser could not be connected to
+         * within a reasonable time.
+         */
+        void onSessionAvailable(@Nullable CustomTabsSession session);
+    }
 
     CustomTabManager(@NonNull Context context) {
+        this(context, CustomTabConnectionPool.getInstance());
+    }
+
+    @VisibleForTesting
+    CustomTabManager(@NonNull Context context, @NonNull CustomTabConnectionPool pool) {
         mContext = context;
-        mClient = new AtomicReference<>();
-        mClientLatch = new CountDownLatch(1);
+        mPool = pool;
     }
 
     public synchronized void bind(@NonNull String browserPackage) {
@@ -61,64 +70,73 @@ class CustomTabManager {
             return;
         }
 
-        mConnection = new CustomTabsServiceConnection() {
-            @Override
-            public void onServiceDisconnected(ComponentName componentName) {
-                Logger.debug("CustomTabsService is disconnected");
-                setClient(null);
-            }
-
-            @Override
-            public void onCustomTabsServiceConnected(ComponentName componentName,
-                                                     CustomTabsClient customTabsClient) {
-                Logger.debug("CustomTabsService is connected");
-                customTabsClient.warmup(0);
-                setClient(customTabsClient);
-            }
-
-            private void setClient(@Nullable CustomTabsClient client) {
-                mClient.set(client);
-                mClientLatch.countDown();
-            }
-        };
-
-        if (!CustomTabsClient.bindCustomTabsService(
-                mContext,
-                browserPackage,
-                mConnection)) {
-            // this is expected if the browser does not support custom tabs
-            Logger.info("Unable to bind custom tabs service");
-            mClientLatch.countDown();
-        }
+        mConnection = mPool.acquire(mContext, browserPackage);
     }
 
+    /**
+     * Creates a custom tab builder without waiting for the browser connection. The builder
+     * uses the session with the browser if it is already connected, and has no session
+     * otherwise.
+     */
     public CustomTabsIntent.Builder createCustomTabsIntentBuilder() {
-        return new CustomTabsIntent.Builder(createSession());
+        CustomTabConnectionPool.Connection connection = getConnection();
+        return new CustomTabsIntent.Builder(
+                connection != null ? connection.getSession() : null);
     }
 
-    public synchronized void unbind() {
-        if (mConnection == null) {
+    /**
+     * Requests the session with the browser, which is delivered to the callback via the
+     * specified executor once the browser is connected, or without a session if the browser
+     * cannot be connected to within a short time. Requests which are still pending when the
+     * manager is unbound are delivered with the session available at that time. This never
+     * blocks the calling thread.
+     */
+    public void requestSession(
+            @NonNull Executor callbackExecutor,
+            @NonNull final SessionCallback callback) {
+        CustomTabConnectionPool.Connection connection = getConnection();
+        if (connection != null) {
+            connection.requestSession(this, callbackExecutor, callback);
             return;
         }
 
-        mContext.unbindService(mConnection);
-        mClient.set(null);
-        Logger.debug("CustomTabsService is disconnected");
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onSessionAvailable(null);
+            }
+        });
     }
 
-    private CustomTabsSession createSession() {
-        try {
-            mClientLatch.await(CLIENT_WAIT_TIME, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            Logger.info("Interrupted while waiting for browser connection");
-            mClientLatch.countDown();
+    /**
+     * Tells the browser that the specified URL is likely to be launched, followed by other
+     * less likely URLs, so that it can be loaded in advance. If the browser is not yet
+     * connected, the hint is sent once it is, replacing any earlier hint.
+     */
+    public void mayLaunchUrl(@NonNull Uri url, @Nullable List<Uri> otherLikelyUrls) {
+        CustomTabConnectionPool.Connection connection = getConnection();
+        if (connection != null) {
+            connection.mayLaunchUrl(url, otherLikelyUrls);
+        }
+    }
+
+    public void unbind() {
+        CustomTabConnectionPool.Connection connection;
+        synchronized (this) {
+            connection = mConnection;
+            mConnection = null;
         }
 
-        CustomTabsClient client = mClient.get();
-        if (client != null) {
-            return client.newSession(null);
+        if (connection == null) {
+            return;
         }
 
-        return null;
+        connection.deliverSessionRequests(this);
+        mPool.release(connection);
+    }
+
+    @Nullable
+    private synchronized CustomTabConnectionPool.Connection getConnection() {
+        return mConnection;
     }
 }
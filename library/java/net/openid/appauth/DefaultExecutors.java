@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executors used by {@link AppAuthConfiguration} when none are explicitly specified.
+ */
+final class DefaultExecutors {
+
+    /**
+     * The maximum number of network operations performed concurrently by the default
+     * network executor.
+     */
+    @VisibleForTesting
+    static final int NETWORK_POOL_SIZE = 4;
+
+    /**
+     * Idle network threads are released after this amount of time.
+     */
+    private static final long NETWORK_KEEP_ALIVE_SECONDS = 30L;
+
+    private DefaultExecutors() {
+        throw new IllegalStateException("This type is not intended to be instantiated");
+    }
+
+    /**
+     * A bounded pool of threads, shared by all users of the default configuration, on which
+     * blocking network operations are performed.
+     */
+    @NonNull
+    static Executor networkExecutor() {
+        return NetworkExecutorHolder.INSTANCE;
+    }
+
+    /**
+     * A single thread, shared by all users of the library, on which delayed work such as
+     * proactive token refreshes is timed. Tasks run on this executor must be short, and
+     * should hand off any real work to another executor.
+     */
+    @NonNull
+    static ScheduledExecutorService scheduledExecutor() {
+        return ScheduledExecutorHolder.INSTANCE;
+    }
+
+    /**
+     * Removes cancelled tasks from the queue of the specified scheduled executor, so that they
+     * and the objects they reference are not retained until their original deadline. On API 21
+     * and above the default scheduled executor removes cancelled tasks immediately, and this
+     * has no effect.
+     */
+    static void purgeCancelled(@NonNull ScheduledExecutorService executor) {
+        if (VERSION.SDK_INT < VERSION_CODES.LOLLIPOP
+                && executor instanceof ScheduledThreadPoolExecutor) {
+            ((ScheduledThreadPoolExecutor) executor).purge();
+        }
+    }
+
+    /**
+     * A single thread, shared by all users of the library, on which writes to persistent
+     * storage are performed in the order in which they were submitted.
+     */
+    @NonNull
+    static Executor storageExecutor() {
+        return StorageExecutorHolder.INSTANCE;
+    }
+
+    /**
+     * An executor which runs tasks on the main thread of the application.
+     */
+    @NonNull
+    static Executor mainThreadExecutor() {
+        return MainThreadExecutor.INSTANCE;
+    }
+
+    private static final class NetworkExecutorHolder {
+        static final Executor INSTANCE = createNetworkExecutor();
+
+        private static Executor createNetworkExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    NETWORK_POOL_SIZE,
+                    NETWORK_POOL_SIZE,
+                    NETWORK_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new NamedThreadFactory("AppAuth-network-"));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    private static final class ScheduledExecutorHolder {
+        static final ScheduledExecutorService INSTANCE = createScheduledExecutor();
+
+        private static ScheduledExecutorService createScheduledExecutor() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                    1,
+                    new NamedThreadFactory("AppAuth-scheduler-"));
+            if (VERSION.SDK_INT >= VERSION_CODES.LOLLIPOP) {
+                // cancelled refreshes would otherwise remain queued, and retain their
+                // services, until they were due
+                executor.setRemoveOnCancelPolicy(true);
+            }
+            return executor;
+        }
+    }
+
+    private static final class StorageExecutorHolder {
+        static final Executor INSTANCE =
+                Executors.newSingleThreadExecutor(new NamedThreadFactory("AppAuth-storage-"));
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, mPrefix + mThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final class MainThreadExecutor implements Executor {
+        static final MainThreadExecutor INSTANCE = new MainThreadExecutor();
+
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mHandler.post(command);
+        }
+    }
+}
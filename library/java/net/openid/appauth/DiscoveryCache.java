@@ -0,0 +1,433 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of OpenID Connect discovery documents, held in memory and persisted to the
+ * application's cache directory. Once a cached document reaches the end of the lifetime
+ * indicated by the HTTP caching headers of its response, it is revalidated with a conditional
+ * request, using the {@code ETag} and {@code Last-Modified} headers of the original response;
+ * if the server indicates the document has not been modified, the cached document is used
+ * without being downloaded or parsed again.
+ *
+ * <p>In stale-while-revalidate mode, a cached document is used even after its lifetime has
+ * ended, and is revalidated in the background for subsequent retrievals. This allows
+ * discovery to complete immediately on application start, after the first successful
+ * retrieval, at the cost of possibly using a slightly outdated document.
+ *
+ * <p>A cache is used by specifying it through
+ * {@link AppAuthConfiguration.Builder#setDiscoveryCache(DiscoveryCache)}, and retrieving
+ * the configuration via
+ * {@link AuthorizationServiceConfiguration#fetchFromUrl(Uri,
+ * AuthorizationServiceConfiguration.RetrieveConfigurationCallback, AppAuthConfiguration)}.
+ * Instances are thread-safe, and should be shared between all retrievals.
+ */
+public final class DiscoveryCache {
+
+    /**
+     * The lifetime of a document for which the server did not provide any caching headers.
+     */
+    @VisibleForTesting
+    static final long DEFAULT_TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The maximum lifetime of a document before it is revalidated, regardless of the caching
+     * headers provided.
+     */
+    @VisibleForTesting
+    static final long MAX_TTL_MS = TimeUnit.DAYS.toMillis(7);
+
+    @VisibleForTesting
+    static final String CACHE_DIRECTORY_NAME = "net.openid.appauth.discovery";
+
+    private static final String KEY_URI = "uri";
+    private static final String KEY_DOCUMENT = "document";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_EXPIRATION_TIME = "expirationTime";
+
+    private static final String CACHE_FILE_SUFFIX = ".json";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    @Nullable
+    private final File mDirectory;
+
+    @NonNull
+    private final Clock mClock;
+
+    private final boolean mStaleWhileRevalidate;
+
+    @NonNull
+    private final Map<Uri, Entry> mEntries = new HashMap<>();
+
+    @NonNull
+    private final Set<Uri> mRevalidating = new HashSet<>();
+
+    /**
+     * Creates a cache which persists documents to the cache directory of the application,
+     * and only uses documents within their lifetime.
+     */
+    public DiscoveryCache(@NonNull Context context) {
+        this(context, false);
+    }
+
+    /**
+     * Creates a cache which persists documents to the cache directory of the application.
+     *
+     * @param staleWhileRevalidate whether documents are used beyond their lifetime, while
+     *     they are revalidated in the background.
+     */
+    public DiscoveryCache(@NonNull Context context, boolean staleWhileRevalidate) {
+        this(new File(checkNotNull(context, "context cannot be null").getCacheDir(),
+                        CACHE_DIRECTORY_NAME),
+                SystemClock.INSTANCE,
+                staleWhileRevalidate);
+    }
+
+    /**
+     * Creates a cache which persists documents to the specified directory, or only holds
+     * them in memory if no directory is specified.
+     */
+    @VisibleForTesting
+    DiscoveryCache(@Nullable File directory, @NonNull Clock clock, boolean staleWhileRevalidate) {
+        mDirectory = directory;
+        mClock = clock;
+        mStaleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * Indicates whether cached documents are used beyond their lifetime, while they are
+     * revalidated in the background.
+     */
+    public boolean isStaleWhileRevalidate() {
+        return mStaleWhileRevalidate;
+    }
+
+    /**
+     * Removes all documents from the cache, including those persisted to disk.
+     * This performs disk I/O, and so should not be called on the main thread.
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+            if (mDirectory == null) {
+                return;
+            }
+
+            File[] files = mDirectory.listFiles();
+            if (files == null) {
+                return;
+            }
+
+            for (File file : files) {
+                if (!file.delete()) {
+                    Logger.warn("Unable to delete cached discovery document %s", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves the discovery document at the specified URI, from the cache if possible.
+     * Must be called on a background thread, as this may perform both disk and network I/O.
+     *
+     * @param revalidationExecutor the executor on which stale documents are revalidated in
+     *     stale-while-revalidate mode.
+     */
+    @NonNull
+    AuthorizationServiceDiscovery retrieve(
+            @NonNull Uri uri,
+            @NonNull ConnectionBuilder connectionBuilder,
+            @NonNull Executor revalidationExecutor)
+            throws IOException, JSONException,
+            AuthorizationServiceDiscovery.MissingArgumentException {
+        Entry entry = getEntry(uri);
+        if (entry != null && !entry.isExpired(mClock.getCurrentTimeMillis())) {
+            Logger.debug("Using cached discovery document for %s", uri);
+            return entry.mDiscovery;
+        }
+
+        if (entry != null && mStaleWhileRevalidate) {
+            Logger.debug("Using stale discovery document for %s, revalidating", uri);
+            revalidateAsync(uri, entry, connectionBuilder, revalidationExecutor);
+            return entry.mDiscovery;
+        }
+
+        return fetch(uri, entry, connectionBuilder).mDiscovery;
+    }
+
+    private void revalidateAsync(
+            @NonNull final Uri uri,
+            @NonNull final Entry entry,
+            @NonNull final ConnectionBuilder connectionBuilder,
+            @NonNull Executor executor) {
+        synchronized (mRevalidating) {
+            if (!mRevalidating.add(uri)) {
+                return;
+            }
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetch(uri, entry, connectionBuilder);
+                } catch (IOException ex) {
+                    Logger.debugWithStack(ex, "Network error when revalidating discovery document");
+                } catch (JSONException ex) {
+                    Logger.debugWithStack(ex, "Error parsing revalidated discovery document");
+                } catch (AuthorizationServiceDiscovery.MissingArgumentException ex) {
+                    Logger.debugWithStack(ex, "Revalidated discovery document is malformed");
+                } finally {
+                    synchronized (mRevalidating) {
+                        mRevalidating.remove(uri);
+                    }
+                }
+            }
+        });
+    }
+
+    @NonNull
+    private Entry fetch(
+            @NonNull Uri uri,
+            @Nullable Entry cachedEntry,
+            @NonNull ConnectionBuilder connectionBuilder)
+            throws IOException, JSONException,
+            AuthorizationServiceDiscovery.MissingArgumentException {
+        InputStream is = null;
+        try {
+            HttpURLConnection conn = connectionBuilder.openConnection(uri);
+            conn.setRequestMethod("GET");
+            conn.setDoInput(true);
+            if (cachedEntry != null && cachedEntry.mEtag != null) {
+                conn.setRequestProperty(CacheHeaders.HEADER_IF_NONE_MATCH, cachedEntry.mEtag);
+            }
+            if (cachedEntry != null && cachedEntry.mLastModified != null) {
+                conn.setRequestProperty(
+                        CacheHeaders.HEADER_IF_MODIFIED_SINCE,
+                        cachedEntry.mLastModified);
+            }
+            conn.connect();
+
+            long now = mClock.getCurrentTimeMillis();
+            long expirationTime = now
+                    + CacheHeaders.getTimeToLive(conn, now, DEFAULT_TTL_MS, MAX_TTL_MS);
+
+            Entry entry;
+            if (cachedEntry != null
+                    && conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Logger.debug("Discovery document for %s not modified", uri);
+                entry = new Entry(
+                        uri,
+                        cachedEntry.mDiscovery,
+                        cachedEntry.mEtag,
+                        cachedEntry.mLastModified,
+                        expirationTime);
+            } else {
+                is = conn.getInputStream();
+                JSONObject json = new JSONObject(Utils.readInputStream(is));
+                entry = new Entry(
+                        uri,
+                        new AuthorizationServiceDiscovery(json),
+                        conn.getHeaderField(CacheHeaders.HEADER_ETAG),
+                        conn.getHeaderField(CacheHeaders.HEADER_LAST_MODIFIED),
+                        expirationTime);
+            }
+
+            putEntry(entry);
+            return entry;
+        } finally {
+            Utils.closeQuietly(is);
+        }
+    }
+
+    @Nullable
+    private Entry getEntry(@NonNull Uri uri) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(uri);
+            if (entry == null) {
+                entry = readEntry(uri);
+                if (entry != null) {
+                    mEntries.put(uri, entry);
+                }
+            }
+            return entry;
+        }
+    }
+
+    private void putEntry(@NonNull Entry entry) {
+        synchronized (mEntries) {
+            mEntries.put(entry.mUri, entry);
+            writeEntry(entry);
+        }
+    }
+
+    @Nullable
+    private Entry readEntry(@NonNull Uri uri) {
+        if (mDirectory == null) {
+            return null;
+        }
+
+        File file = getCacheFile(uri);
+        if (!file.exists()) {
+            return null;
+        }
+
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            Entry entry = Entry.fromJson(new JSONObject(Utils.readInputStream(is)));
+            // the file name is derived from a hash of the URI, which may collide
+            return uri.equals(entry.mUri) ? entry : null;
+        } catch (IOException ex) {
+            Logger.warnWithStack(ex, "Unable to read cached discovery document %s", file);
+        } catch (JSONException ex) {
+            Logger.warnWithStack(ex, "Malformed cached discovery document %s", file);
+        } catch (AuthorizationServiceDiscovery.MissingArgumentException ex) {
+            Logger.warnWithStack(ex, "Incomplete cached discovery document %s", file);
+        } finally {
+            Utils.closeQuietly(is);
+        }
+        return null;
+    }
+
+    private void writeEntry(@NonNull Entry entry) {
+        if (mDirectory == null) {
+            return;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Logger.warn("Unable to create discovery cache directory %s", mDirectory);
+            return;
+        }
+
+        // the document is written to a temporary file first, so that a partially written
+        // file is never read if the process is killed
+        File file = getCacheFile(entry.mUri);
+        File tempFile = new File(mDirectory, file.getName() + TEMP_FILE_SUFFIX);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+            writer.write(entry.toJson().toString());
+            writer.close();
+            writer = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + file);
+            }
+        } catch (IOException ex) {
+            Logger.warnWithStack(ex, "Unable to write cached discovery document %s", file);
+            if (!tempFile.delete()) {
+                Logger.debug("Unable to delete %s", tempFile);
+            }
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // deliberately do nothing
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private File getCacheFile(@NonNull Uri uri) {
+        return new File(mDirectory,
+                Integer.toHexString(uri.toString().hashCode()) + CACHE_FILE_SUFFIX);
+    }
+
+    private static final class Entry {
+        @NonNull
+        final Uri mUri;
+
+        @NonNull
+        final AuthorizationServiceDiscovery mDiscovery;
+
+        @Nullable
+        final String mEtag;
+
+        @Nullable
+        final String mLastModified;
+
+        final long mExpirationTime;
+
+        Entry(
+                @NonNull Uri uri,
+                @NonNull AuthorizationServiceDiscovery discovery,
+                @Nullable String etag,
+                @Nullable String lastModified,
+                long expirationTime) {
+            mUri = uri;
+            mDiscovery = discovery;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mExpirationTime = expirationTime;
+        }
+
+        boolean isExpired(long now) {
+            return now >= mExpirationTime;
+        }
+
+        @NonNull
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            JsonUtil.put(json, KEY_URI, mUri.toString());
+            JsonUtil.put(json, KEY_DOCUMENT, mDiscovery.docJson);
+            JsonUtil.putIfNotNull(json, KEY_ETAG, mEtag);
+            JsonUtil.putIfNotNull(json, KEY_LAST_MODIFIED, mLastModified);
+            JsonUtil.putIfNotNull(json, KEY_EXPIRATION_TIME, mExpirationTime);
+            return json;
+        }
+
+        @NonNull
+        static Entry fromJson(@NonNull JSONObject json)
+                throws JSONException, AuthorizationServiceDiscovery.MissingArgumentException {
+            return new Entry(
+                    JsonUtil.getUri(json, KEY_URI),
+                    new AuthorizationServiceDiscovery(json.getJSONObject(KEY_DOCUMENT)),
+                    JsonUtil.getStringIfDefined(json, KEY_ETAG),
+                    JsonUtil.getStringIfDefined(json, KEY_LAST_MODIFIED),
+                    json.getLong(KEY_EXPIRATION_TIME));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encodes parameters as an {@code application/x-www-form-urlencoded} request body, writing the
+ * percent-encoded UTF-8 bytes directly into a buffer that is reused between requests on the
+ * same thread. The encoding is identical to that of {@link java.net.URLEncoder} with the
+ * UTF-8 charset: alphanumeric characters and {@code .-*_} are written as-is, spaces are written
+ * as {@code +}, and all other bytes are percent-encoded using upper-case hex digits.
+ *
+ * <p>Instances are not thread-safe; use {@link #forCurrentThread()}.
+ *
+ * @see <a href="https://www.w3.org/TR/html5/forms.html#url-encoded-form-data">
+ * "HTML5: URL-encoded form data"</a>
+ */
+final class FormUrlEncoder {
+
+    /**
+     * Buffers which grew beyond this size while encoding an unusually large request are
+     * discarded when the encoder is next used, rather than being retained indefinitely.
+     */
+    @VisibleForTesting
+    static final int MAX_RETAINED_CAPACITY = 8 * 1024;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int PERCENT_ENCODED_LENGTH = 3;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(ASCII);
+
+    private static final int BYTE_MASK = 0xFF;
+    private static final int NIBBLE_MASK = 0x0F;
+    private static final int NIBBLE_BITS = 4;
+
+    private static final int CONTINUATION_BYTE = 0x80;
+    private static final int CONTINUATION_MASK = 0x3F;
+    private static final int TWO_BYTE_LEAD = 0xC0;
+    private static final int THREE_BYTE_LEAD = 0xE0;
+    private static final int FOUR_BYTE_LEAD = 0xF0;
+    private static final int ONE_BYTE_LIMIT = 0x80;
+    private static final int TWO_BYTE_LIMIT = 0x800;
+    private static final int SIX_BITS = 6;
+    private static final int TWELVE_BITS = 12;
+    private static final int EIGHTEEN_BITS = 18;
+
+    private static final ThreadLocal<FormUrlEncoder> ENCODERS =
+            new ThreadLocal<FormUrlEncoder>() {
+                @Override
+                protected FormUrlEncoder initialValue() {
+                    return new FormUrlEncoder();
+                }
+            };
+
+    @NonNull
+    private byte[] mBuffer = new byte[INITIAL_CAPACITY];
+
+    private int mLength;
+
+    @VisibleForTesting
+    FormUrlEncoder() {}
+
+    /**
+     * Returns the encoder for the current thread. The encoded content of the returned instance
+     * is only valid until the next call to this method on the same thread.
+     */
+    @NonNull
+    static FormUrlEncoder forCurrentThread() {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Replaces the content of the encoder with the encoding of the provided parameters.
+     * Parameters with a {@code null} value are omitted.
+     */
+    @NonNull
+    FormUrlEncoder encode(@Nullable Map<String, String> parameters) {
+        if (mBuffer.length > MAX_RETAINED_CAPACITY) {
+            mBuffer = new byte[INITIAL_CAPACITY];
+        }
+        mLength = 0;
+
+        if (parameters == null) {
+            return this;
+        }
+
+        for (Map.Entry<String, String> param : parameters.entrySet()) {
+            if (param.getValue() == null) {
+                continue;
+            }
+
+            if (mLength > 0) {
+                append('&');
+            }
+            appendEncoded(param.getKey());
+            append('=');
+            appendEncoded(param.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * The number of bytes in the encoded content.
+     */
+    int length() {
+        return mLength;
+    }
+
+    /**
+     * Writes the encoded content to the provided stream.
+     */
+    void writeTo(@NonNull OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mLength);
+    }
+
+    /**
+     * Returns the encoded content as a string.
+     */
+    @Override
+    public String toString() {
+        return new String(mBuffer, 0, mLength, ASCII);
+    }
+
+    private void appendEncoded(@NonNull String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            if (isUnreserved(ch)) {
+                append(ch);
+            } else if (ch == ' ') {
+                append('+');
+            } else if (ch < ONE_BYTE_LIMIT) {
+                appendPercentEncoded(ch);
+            } else if (ch < TWO_BYTE_LIMIT) {
+                appendPercentEncoded(TWO_BYTE_LEAD | (ch >> SIX_BITS));
+                appendPercentEncoded(CONTINUATION_BYTE | (ch & CONTINUATION_MASK));
+            } else if (Character.isHighSurrogate(ch)
+                    && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(ch, value.charAt(++i));
+                appendPercentEncoded(FOUR_BYTE_LEAD | (codePoint >> EIGHTEEN_BITS));
+                appendPercentEncoded(
+                        CONTINUATION_BYTE | ((codePoint >> TWELVE_BITS) & CONTINUATION_MASK));
+                appendPercentEncoded(
+                        CONTINUATION_BYTE | ((codePoint >> SIX_BITS) & CONTINUATION_MASK));
+                appendPercentEncoded(CONTINUATION_BYTE | (codePoint & CONTINUATION_MASK));
+            } else if (ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE) {
+                // unpaired surrogates are replaced, as by the UTF-8 encoder of URLEncoder
+                appendPercentEncoded('?');
+            } else {
+                appendPercentEncoded(THREE_BYTE_LEAD | (ch >> TWELVE_BITS));
+                appendPercentEncoded(
+                        CONTINUATION_BYTE | ((ch >> SIX_BITS) & CONTINUATION_MASK));
+                appendPercentEncoded(CONTINUATION_BYTE | (ch & CONTINUATION_MASK));
+            }
+        }
+    }
+
+    private static boolean isUnreserved(char ch) {
+        return (ch >= 'a' && ch <= 'z')
+                || (ch >= 'A' && ch <= 'Z')
+                || (ch >= '0' && ch <= '9')
+                || ch == '.'
+                || ch == '-'
+                || ch == '*'
+                || ch == '_';
+    }
+
+    private void appendPercentEncoded(int byteValue) {
+        ensureCapacity(PERCENT_ENCODED_LENGTH);
+        mBuffer[mLength++] = '%';
+        mBuffer[mLength++] = HEX_DIGITS[(byteValue & BYTE_MASK) >> NIBBLE_BITS];
+        mBuffer[mLength++] = HEX_DIGITS[byteValue & NIBBLE_MASK];
+    }
+
+    private void append(char ch) {
+        ensureCapacity(1);
+        mBuffer[mLength++] = (byte) ch;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (mLength + additional > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + additional));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parsed header and standard claims of an OpenID Connect ID token. Instances are immutable,
+ * and are typically obtained from {@link TokenResponse#getIdTokenClaims()} or
+ * {@link AuthState#getIdTokenClaims()}, which parse the token once and retain the result.
+ *
+ * <p>Parsing an ID token does not verify its signature; see
+ * {@link AuthorizationService#performTokenValidation}.
+ *
+ * @see <a href="http://openid.net/specs/openid-connect-core-1_0.html#IDToken">"OpenID
+ * Connect Core 1.0", Section 2</a>
+ */
+public final class IdToken {
+
+    @VisibleForTesting
+    static final String KEY_ALGORITHM = "alg";
+
+    @VisibleForTesting
+    static final String KEY_KEY_ID = "kid";
+
+    @VisibleForTesting
+    static final String KEY_ISSUER = "iss";
+
+    @VisibleForTesting
+    static final String KEY_SUBJECT = "sub";
+
+    @VisibleForTesting
+    static final String KEY_AUDIENCE = "aud";
+
+    @VisibleForTesting
+    static final String KEY_EXPIRATION = "exp";
+
+    @VisibleForTesting
+    static final String KEY_ISSUED_AT = "iat";
+
+    @VisibleForTesting
+    static final String KEY_AUTH_TIME = "auth_time";
+
+    @VisibleForTesting
+    static final String KEY_NONCE = "nonce";
+
+    /**
+     * The encoded ID token from which the claims were parsed.
+     */
+    @NonNull
+    public final String token;
+
+    /**
+     * The JWS algorithm with which the token is signed, from the {@code alg} header parameter.
+     */
+    @Nullable
+    public final String algorithm;
+
+    /**
+     * The identifier of the key with which the token is signed, from the {@code kid} header
+     * parameter, if present.
+     */
+    @Nullable
+    public final String keyId;
+
+    /**
+     * The issuer of the token, from the {@code iss} claim.
+     */
+    @Nullable
+    public final String issuer;
+
+    /**
+     * The identifier of the authenticated user at the issuer, from the {@code sub} claim.
+     */
+    @Nullable
+    public final String subject;
+
+    /**
+     * The audiences for which the token is intended, from the {@code aud} claim. The claim may
+     * be provided as a single string or as an array; both forms are represented as a list.
+     */
+    @NonNull
+    public final List<String> audience;
+
+    /**
+     * The expiration time of the token in seconds since the epoch, from the {@code exp} claim.
+     */
+    @Nullable
+    public final Long expiration;
+
+    /**
+     * The time at which the token was issued in seconds since the epoch, from the {@code iat}
+     * claim.
+     */
+    @Nullable
+    public final Long issuedAt;
+
+    /**
+     * The time at which the user authenticated in seconds since the epoch, from the
+     * {@code auth_time} claim, if present.
+     */
+    @Nullable
+    public final Long authTime;
+
+    /**
+     * The nonce from the authorization request, from the {@code nonce} claim, if present.
+     */
+    @Nullable
+    public final String nonce;
+
+    private IdToken(
+            @NonNull String token,
+            @Nullable String algorithm,
+            @Nullable String keyId,
+            @Nullable String issuer,
+            @Nullable String subject,
+            @NonNull List<String> audience,
+            @Nullable Long expiration,
+            @Nullable Long issuedAt,
+            @Nullable Long authTime,
+            @Nullable String nonce) {
+        this.token = token;
+        this.algorithm = algorithm;
+        this.keyId = keyId;
+        this.issuer = issuer;
+        this.subject = subject;
+        this.audience = audience;
+        this.expiration = expiration;
+        this.issuedAt = issuedAt;
+        this.authTime = authTime;
+        this.nonce = nonce;
+    }
+
+    /**
+     * Parses the header and claims of an encoded ID token.
+     * @throws JSONException if the token is not a well-formed JSON Web Token, or a standard
+     *     claim has an incorrect value type.
+     */
+    @NonNull
+    public static IdToken parse(@NonNull String token) throws JSONException {
+        checkNotNull(token, "token cannot be null");
+
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = headerEnd < 0 ? -1 : token.indexOf('.', headerEnd + 1);
+        if (payloadEnd < 0) {
+            throw new JSONException("ID token is not a JSON Web Token");
+        }
+
+        JSONObject header = decodeSegment(token, 0, headerEnd);
+        JSONObject claims = decodeSegment(token, headerEnd + 1, payloadEnd);
+
+        return new IdToken(
+                token,
+                JsonUtil.getStringIfDefined(header, KEY_ALGORITHM),
+                JsonUtil.getStringIfDefined(header, KEY_KEY_ID),
+                JsonUtil.getStringIfDefined(claims, KEY_ISSUER),
+                JsonUtil.getStringIfDefined(claims, KEY_SUBJECT),
+                getAudience(claims),
+                JsonUtil.getLongIfDefined(claims, KEY_EXPIRATION),
+                JsonUtil.getLongIfDefined(claims, KEY_ISSUED_AT),
+                JsonUtil.getLongIfDefined(claims, KEY_AUTH_TIME),
+                JsonUtil.getStringIfDefined(claims, KEY_NONCE));
+    }
+
+    /**
+     * Determines whether the specified client is one of the audiences of the token.
+     */
+    public boolean hasAudience(@NonNull String clientId) {
+        return audience.contains(clientId);
+    }
+
+    /**
+     * Determines whether the token has expired at the specified time, in milliseconds since the
+     * epoch. A token without an expiration time is considered to have expired.
+     */
+    public boolean isExpired(long currentTimeMillis) {
+        return expiration == null
+                || TimeUnit.SECONDS.toMillis(expiration) <= currentTimeMillis;
+    }
+
+    @NonNull
+    private static JSONObject decodeSegment(@NonNull String token, int start, int end)
+            throws JSONException {
+        try {
+            return new JSONObject(Base64Url.decodeToString(token, start, end));
+        } catch (IllegalArgumentException ex) {
+            throw new JSONException("ID token segment is not valid base64url");
+        }
+    }
+
+    @NonNull
+    private static List<String> getAudience(@NonNull JSONObject claims) throws JSONException {
+        if (!claims.has(KEY_AUDIENCE)) {
+            return Collections.emptyList();
+        }
+
+        Object audience = claims.get(KEY_AUDIENCE);
+        if (audience instanceof JSONArray) {
+            return Collections.unmodifiableList(JsonUtil.toStringList((JSONArray) audience));
+        }
+        return Collections.singletonList(claims.getString(KEY_AUDIENCE));
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, least-recently-used cache of token introspection results, so that repeated
+ * checks of the same token do not each require a request to the introspection endpoint.
+ *
+ * <p>A result for an active token is retained until the expiration time reported for the
+ * token, and optionally for no longer than a maximum age, which bounds the time for which the
+ * revocation of a token may go unnoticed. Results for active tokens without an expiration time
+ * are not retained. Results for inactive tokens are retained for no longer than
+ * {@link #MAX_INACTIVE_AGE_MS}, or the maximum age if that is shorter, as a token may be
+ * reported as inactive before it becomes valid.
+ *
+ * <p>Results are cached per client, as identified by the client ID of the request, since the
+ * result of introspecting a token may depend on the client which requests it.
+ *
+ * <p>A cache is used by specifying it through
+ * {@link AppAuthConfiguration.Builder#setIntrospectionCache(IntrospectionCache)}. Instances
+ * are thread-safe, and may be shared between services.
+ */
+public final class IntrospectionCache {
+
+    /**
+     * The default maximum number of results held by a cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    /**
+     * Indicates that results for active tokens are retained until the tokens expire.
+     */
+    public static final long NO_MAX_AGE = Long.MAX_VALUE;
+
+    /**
+     * The maximum time for which a result for an inactive token is retained.
+     */
+    public static final long MAX_INACTIVE_AGE_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final long mMaxAgeMs;
+
+    @NonNull
+    private final Clock mClock;
+
+    @NonNull
+    private final LruCacheMap<Key, Entry> mEntries;
+
+    /**
+     * Creates a cache holding up to {@link #DEFAULT_MAX_ENTRIES} results, which retains results
+     * for active tokens until the tokens expire.
+     */
+    public IntrospectionCache() {
+        this(DEFAULT_MAX_ENTRIES, NO_MAX_AGE);
+    }
+
+    /**
+     * Creates a cache holding up to the specified number of results, which retains results for
+     * active tokens until the tokens expire, or until they reach the specified age.
+     */
+    public IntrospectionCache(int maxEntries, long maxAgeMs) {
+        this(maxEntries, maxAgeMs, SystemClock.INSTANCE);
+    }
+
+    @VisibleForTesting
+    IntrospectionCache(int maxEntries, long maxAgeMs, @NonNull Clock clock) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        checkArgument(maxAgeMs > 0, "maxAgeMs must be positive");
+        mMaxAgeMs = maxAgeMs;
+        mClock = checkNotNull(clock);
+        mEntries = new LruCacheMap<>(maxEntries);
+    }
+
+    /**
+     * Retrieves the cached result of introspecting the token of the specified request at its
+     * introspection endpoint, or {@code null} if there is no result which is still valid.
+     */
+    @Nullable
+    public synchronized IntrospectionResponse get(@NonNull IntrospectionRequest request) {
+        Key key = new Key(request);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.mExpirationTime <= mClock.getCurrentTimeMillis()) {
+            mEntries.remove(key);
+            return null;
+        }
+        return entry.mResponse;
+    }
+
+    /**
+     * Caches the result of an introspection request, if it may be retained.
+     */
+    public synchronized void put(@NonNull IntrospectionResponse response) {
+        checkNotNull(response, "response cannot be null");
+        Key key = new Key(response.request);
+
+        long expirationTime;
+        if (!response.active) {
+            expirationTime = mClock.getCurrentTimeMillis()
+                    + Math.min(mMaxAgeMs, MAX_INACTIVE_AGE_MS);
+        } else if (response.expirationTime != null) {
+            long now = mClock.getCurrentTimeMillis();
+            long maxExpirationTime = mMaxAgeMs > Long.MAX_VALUE - now
+                    ? Long.MAX_VALUE
+                    : now + mMaxAgeMs;
+            expirationTime = Math.min(response.expirationTime, maxExpirationTime);
+            if (expirationTime <= now) {
+                mEntries.remove(key);
+                return;
+            }
+        } else {
+            mEntries.remove(key);
+            return;
+        }
+
+        mEntries.put(key, new Entry(response, expirationTime));
+    }
+
+    /**
+     * Removes any cached results for the specified token, such as when the token is revoked.
+     */
+    public synchronized void invalidate(@NonNull String token) {
+        checkNotNull(token, "token cannot be null");
+        for (Iterator<Key> it = mEntries.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().mToken.equals(token)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * The number of results currently held, including those which are no longer valid but
+     * have not yet been removed.
+     */
+    @VisibleForTesting
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    private static final class Key {
+
+        @NonNull
+        final Uri mEndpoint;
+
+        @NonNull
+        final String mClientId;
+
+        @NonNull
+        final String mToken;
+
+        Key(@NonNull IntrospectionRequest request) {
+            mEndpoint = request.introspectionEndpoint;
+            mClientId = request.clientId;
+            mToken = request.token;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return mEndpoint.equals(other.mEndpoint)
+                    && mClientId.equals(other.mClientId)
+                    && mToken.equals(other.mToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return mEndpoint.hashCode() ^ mClientId.hashCode() ^ mToken.hashCode();
+        }
+    }
+
+    private static final class Entry {
+
+        @NonNull
+        final IntrospectionResponse mResponse;
+
+        final long mExpirationTime;
+
+        Entry(@NonNull IntrospectionResponse response, long expirationTime) {
+            mResponse = response;
+            mExpirationTime = expirationTime;
+        }
+    }
+}
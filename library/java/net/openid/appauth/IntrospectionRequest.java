@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.AdditionalParamsProcessor.checkAdditionalParams;
+import static net.openid.appauth.Preconditions.checkNotEmpty;
+import static net.openid.appauth.Preconditions.checkNotNull;
+import static net.openid.appauth.Preconditions.checkNullOrNotEmpty;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A request to determine the state of a token, such as whether it is active, from the
+ * introspection endpoint of an authorization service.
+ *
+ * @see AuthorizationService#performTokenIntrospection
+ * @see <a href="https://tools.ietf.org/html/rfc7662#section-2.1">"OAuth 2.0 Token
+ * Introspection" (RFC 7662), Section 2.1</a>
+ */
+public class IntrospectionRequest {
+
+    /**
+     * The token type hint for access tokens.
+     */
+    public static final String TOKEN_TYPE_HINT_ACCESS_TOKEN = "access_token";
+
+    /**
+     * The token type hint for refresh tokens.
+     */
+    public static final String TOKEN_TYPE_HINT_REFRESH_TOKEN = "refresh_token";
+
+    @VisibleForTesting
+    static final String PARAM_TOKEN = "token";
+
+    @VisibleForTesting
+    static final String PARAM_TOKEN_TYPE_HINT = "token_type_hint";
+
+    @VisibleForTesting
+    static final String PARAM_CLIENT_ID = "client_id";
+
+    private static final Set<String> BUILT_IN_PARAMS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(
+                    PARAM_CLIENT_ID,
+                    PARAM_TOKEN,
+                    PARAM_TOKEN_TYPE_HINT)));
+
+    /**
+     * The service's {@link AuthorizationServiceConfiguration configuration}.
+     */
+    @NonNull
+    public final AuthorizationServiceConfiguration configuration;
+
+    /**
+     * The introspection endpoint to which the request is sent.
+     */
+    @NonNull
+    public final Uri introspectionEndpoint;
+
+    /**
+     * The client identifier.
+     */
+    @NonNull
+    public final String clientId;
+
+    /**
+     * The token to be introspected.
+     */
+    @NonNull
+    public final String token;
+
+    /**
+     * A hint about the type of the token, which may help the service to look it up. Typically
+     * one of {@link #TOKEN_TYPE_HINT_ACCESS_TOKEN} or {@link #TOKEN_TYPE_HINT_REFRESH_TOKEN}.
+     */
+    @Nullable
+    public final String tokenTypeHint;
+
+    /**
+     * Additional parameters to be passed as part of the request.
+     */
+    @NonNull
+    public final Map<String, String> additionalParameters;
+
+    /**
+     * Creates instances of {@link IntrospectionRequest}.
+     */
+    public static final class Builder {
+
+        @NonNull
+        private AuthorizationServiceConfiguration mConfiguration;
+
+        @Nullable
+        private Uri mIntrospectionEndpoint;
+
+        @NonNull
+        private String mClientId;
+
+        @NonNull
+        private String mToken;
+
+        @Nullable
+        private String mTokenTypeHint;
+
+        @NonNull
+        private Map<String, String> mAdditionalParameters;
+
+        /**
+         * Creates an introspection request builder with the specified mandatory properties.
+         */
+        public Builder(
+                @NonNull AuthorizationServiceConfiguration configuration,
+                @NonNull String clientId,
+                @NonNull String token) {
+            setConfiguration(configuration);
+            setClientId(clientId);
+            setToken(token);
+            mAdditionalParameters = new LinkedHashMap<>();
+        }
+
+        /**
+         * Specifies the authorization service configuration for the request, which must not
+         * be null.
+         */
+        @NonNull
+        public Builder setConfiguration(@NonNull AuthorizationServiceConfiguration configuration) {
+            mConfiguration = checkNotNull(configuration);
+            return this;
+        }
+
+        /**
+         * Specifies the introspection endpoint for the request. If not specified, the
+         * endpoint is taken from the discovery document of the configuration.
+         */
+        @NonNull
+        public Builder setIntrospectionEndpoint(@Nullable Uri introspectionEndpoint) {
+            mIntrospectionEndpoint = introspectionEndpoint;
+            return this;
+        }
+
+        /**
+         * Specifies the client ID for the request, which must not be null or empty.
+         */
+        @NonNull
+        public Builder setClientId(@NonNull String clientId) {
+            mClientId = checkNotEmpty(clientId, "clientId cannot be null or empty");
+            return this;
+        }
+
+        /**
+         * Specifies the token to be introspected, which must not be null or empty.
+         */
+        @NonNull
+        public Builder setToken(@NonNull String token) {
+            mToken = checkNotEmpty(token, "token cannot be null or empty");
+            return this;
+        }
+
+        /**
+         * Specifies a hint about the type of the token, which must be null or non-empty.
+         */
+        @NonNull
+        public Builder setTokenTypeHint(@Nullable String tokenTypeHint) {
+            mTokenTypeHint = checkNullOrNotEmpty(tokenTypeHint,
+                    "tokenTypeHint must be null or not empty");
+            return this;
+        }
+
+        /**
+         * Specifies an additional set of parameters to be sent as part of the request.
+         */
+        @NonNull
+        public Builder setAdditionalParameters(@Nullable Map<String, String> additionalParameters) {
+            mAdditionalParameters = checkAdditionalParams(additionalParameters, BUILT_IN_PARAMS);
+            return this;
+        }
+
+        /**
+         * Produces an {@link IntrospectionRequest} instance.
+         *
+         * @throws IllegalStateException if no introspection endpoint was specified, and the
+         *     configuration does not provide one.
+         */
+        @NonNull
+        public IntrospectionRequest build() {
+            Uri endpoint = mIntrospectionEndpoint;
+            if (endpoint == null && mConfiguration.discoveryDoc != null) {
+                endpoint = mConfiguration.discoveryDoc.getIntrospectionEndpoint();
+            }
+
+            if (endpoint == null) {
+                throw new IllegalStateException("no introspection endpoint specified");
+            }
+
+            return new IntrospectionRequest(
+                    mConfiguration,
+                    endpoint,
+                    mClientId,
+                    mToken,
+                    mTokenTypeHint,
+                    Collections.unmodifiableMap(new HashMap<>(mAdditionalParameters)));
+        }
+    }
+
+    private IntrospectionRequest(
+            @NonNull AuthorizationServiceConfiguration configuration,
+            @NonNull Uri introspectionEndpoint,
+            @NonNull String clientId,
+            @NonNull String token,
+            @Nullable String tokenTypeHint,
+            @NonNull Map<String, String> additionalParameters) {
+        this.configuration = configuration;
+        this.introspectionEndpoint = introspectionEndpoint;
+        this.clientId = clientId;
+        this.token = token;
+        this.tokenTypeHint = tokenTypeHint;
+        this.additionalParameters = additionalParameters;
+    }
+
+    /**
+     * Produces the set of request parameters for this request, which can be further
+     * processed into a request body.
+     */
+    @NonNull
+    public Map<String, String> getRequestParameters() {
+        Map<String, String> params = new HashMap<>();
+        params.put(PARAM_CLIENT_ID, clientId);
+        params.put(PARAM_TOKEN, token);
+        if (tokenTypeHint != null) {
+            params.put(PARAM_TOKEN_TYPE_HINT, tokenTypeHint);
+        }
+        params.putAll(additionalParameters);
+        return params;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A response to a token introspection request, describing the state of the token.
+ *
+ * @see IntrospectionRequest
+ * @see <a href="https://tools.ietf.org/html/rfc7662#section-2.2">"OAuth 2.0 Token
+ * Introspection" (RFC 7662), Section 2.2</a>
+ */
+public class IntrospectionResponse {
+
+    @VisibleForTesting
+    static final String KEY_ACTIVE = "active";
+
+    @VisibleForTesting
+    static final String KEY_SCOPE = "scope";
+
+    @VisibleForTesting
+    static final String KEY_CLIENT_ID = "client_id";
+
+    @VisibleForTesting
+    static final String KEY_USERNAME = "username";
+
+    @VisibleForTesting
+    static final String KEY_TOKEN_TYPE = "token_type";
+
+    @VisibleForTesting
+    static final String KEY_EXPIRATION = "exp";
+
+    @VisibleForTesting
+    static final String KEY_ISSUED_AT = "iat";
+
+    @VisibleForTesting
+    static final String KEY_SUBJECT = "sub";
+
+    @VisibleForTesting
+    static final String KEY_AUDIENCE = "aud";
+
+    @VisibleForTesting
+    static final String KEY_ISSUER = "iss";
+
+    private static final Set<String> BUILT_IN_PARAMS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(
+                    KEY_ACTIVE,
+                    KEY_SCOPE,
+                    KEY_CLIENT_ID,
+                    KEY_USERNAME,
+                    KEY_TOKEN_TYPE,
+                    KEY_EXPIRATION,
+                    KEY_ISSUED_AT,
+                    KEY_SUBJECT,
+                    KEY_AUDIENCE,
+                    KEY_ISSUER)));
+
+    /**
+     * The introspection request associated with this response.
+     */
+    @NonNull
+    public final IntrospectionRequest request;
+
+    /**
+     * Whether the token is currently active. If it is not, the service provides no further
+     * information about the token, and the other fields are typically absent.
+     */
+    public final boolean active;
+
+    /**
+     * The space-delimited scopes associated with the token, if provided.
+     */
+    @Nullable
+    public final String scope;
+
+    /**
+     * The identifier of the client to which the token was issued, if provided.
+     */
+    @Nullable
+    public final String clientId;
+
+    /**
+     * A human-readable identifier of the resource owner who authorized the token, if provided.
+     */
+    @Nullable
+    public final String username;
+
+    /**
+     * The type of the token, if provided.
+     */
+    @Nullable
+    public final String tokenType;
+
+    /**
+     * The expiration time of the token in milliseconds since the epoch, if provided.
+     */
+    @Nullable
+    public final Long expirationTime;
+
+    /**
+     * The time at which the token was issued in milliseconds since the epoch, if provided.
+     */
+    @Nullable
+    public final Long issuedAt;
+
+    /**
+     * The subject of the token, typically the identifier of the resource owner, if provided.
+     */
+    @Nullable
+    public final String subject;
+
+    /**
+     * The intended audiences of the token. Empty if not provided.
+     */
+    @NonNull
+    public final List<String> audience;
+
+    /**
+     * The issuer of the token, if provided.
+     */
+    @Nullable
+    public final String issuer;
+
+    /**
+     * Additional, non-standard parameters in the response.
+     */
+    @NonNull
+    public final Map<String, String> additionalParameters;
+
+    /**
+     * Creates instances of {@link IntrospectionResponse}.
+     */
+    public static final class Builder {
+
+        @NonNull
+        private IntrospectionRequest mRequest;
+
+        private boolean mActive;
+
+        @Nullable
+        private String mScope;
+
+        @Nullable
+        private String mClientId;
+
+        @Nullable
+        private String mUsername;
+
+        @Nullable
+        private String mTokenType;
+
+        @Nullable
+        private Long mExpirationTime;
+
+        @Nullable
+        private Long mIssuedAt;
+
+        @Nullable
+        private String mSubject;
+
+        @NonNull
+        private List<String> mAudience = Collections.emptyList();
+
+        @Nullable
+        private String mIssuer;
+
+        @NonNull
+        private Map<String, String> mAdditionalParameters = Collections.emptyMap();
+
+        /**
+         * Creates an introspection response associated with the specified request.
+         */
+        public Builder(@NonNull IntrospectionRequest request) {
+            mRequest = checkNotNull(request, "request cannot be null");
+        }
+
+        /**
+         * Extracts introspection response fields from a JSON object.
+         * @throws JSONException if the JSON is malformed or has incorrect value types for
+         *     fields.
+         */
+        @NonNull
+        public Builder fromResponseJson(@NonNull JSONObject json) throws JSONException {
+            setActive(json.getBoolean(KEY_ACTIVE));
+            setScope(JsonUtil.getStringIfDefined(json, KEY_SCOPE));
+            setClientId(JsonUtil.getStringIfDefined(json, KEY_CLIENT_ID));
+            setUsername(JsonUtil.getStringIfDefined(json, KEY_USERNAME));
+            setTokenType(JsonUtil.getStringIfDefined(json, KEY_TOKEN_TYPE));
+            Long expiration = JsonUtil.getLongIfDefined(json, KEY_EXPIRATION);
+            setExpirationTime(expiration != null ? TimeUnit.SECONDS.toMillis(expiration) : null);
+            Long issuedAt = JsonUtil.getLongIfDefined(json, KEY_ISSUED_AT);
+            setIssuedAt(issuedAt != null ? TimeUnit.SECONDS.toMillis(issuedAt) : null);
+            setSubject(JsonUtil.getStringIfDefined(json, KEY_SUBJECT));
+            setIssuer(JsonUtil.getStringIfDefined(json, KEY_ISSUER));
+
+            if (json.has(KEY_AUDIENCE)) {
+                Object audience = json.get(KEY_AUDIENCE);
+                setAudience(audience instanceof JSONArray
+                        ? JsonUtil.toStringList((JSONArray) audience)
+                        : Collections.singletonList(json.getString(KEY_AUDIENCE)));
+            }
+
+            Map<String, String> additionalParameters = new LinkedHashMap<>();
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!BUILT_IN_PARAMS.contains(key)) {
+                    additionalParameters.put(key, json.get(key).toString());
+                }
+            }
+            setAdditionalParameters(additionalParameters);
+            return this;
+        }
+
+        /**
+         * Specifies whether the token is active.
+         */
+        @NonNull
+        public Builder setActive(boolean active) {
+            mActive = active;
+            return this;
+        }
+
+        /**
+         * Specifies the space-delimited scopes associated with the token.
+         */
+        @NonNull
+        public Builder setScope(@Nullable String scope) {
+            mScope = scope;
+            return this;
+        }
+
+        /**
+         * Specifies the identifier of the client to which the token was issued.
+         */
+        @NonNull
+        public Builder setClientId(@Nullable String clientId) {
+            mClientId = clientId;
+            return this;
+        }
+
+        /**
+         * Specifies the human-readable identifier of the resource owner.
+         */
+        @NonNull
+        public Builder setUsername(@Nullable String username) {
+            mUsername = username;
+            return this;
+        }
+
+        /**
+         * Specifies the type of the token.
+         */
+        @NonNull
+        public Builder setTokenType(@Nullable String tokenType) {
+            mTokenType = tokenType;
+            return this;
+        }
+
+        /**
+         * Specifies the expiration time of the token, in milliseconds since the epoch.
+         */
+        @NonNull
+        public Builder setExpirationTime(@Nullable Long expirationTime) {
+            mExpirationTime = expirationTime;
+            return this;
+        }
+
+        /**
+         * Specifies the time at which the token was issued, in milliseconds since the epoch.
+         */
+        @NonNull
+        public Builder setIssuedAt(@Nullable Long issuedAt) {
+            mIssuedAt = issuedAt;
+            return this;
+        }
+
+        /**
+         * Specifies the subject of the token.
+         */
+        @NonNull
+        public Builder setSubject(@Nullable String subject) {
+            mSubject = subject;
+            return this;
+        }
+
+        /**
+         * Specifies the intended audiences of the token.
+         */
+        @NonNull
+        public Builder setAudience(@Nullable List<String> audience) {
+            mAudience = audience != null
+                    ? Collections.unmodifiableList(audience)
+                    : Collections.<String>emptyList();
+            return this;
+        }
+
+        /**
+         * Specifies the issuer of the token.
+         */
+        @NonNull
+        public Builder setIssuer(@Nullable String issuer) {
+            mIssuer = issuer;
+            return this;
+        }
+
+        /**
+         * Specifies the additional, non-standard parameters received as part of the response.
+         */
+        @NonNull
+        public Builder setAdditionalParameters(
+                @Nullable Map<String, String> additionalParameters) {
+            mAdditionalParameters = additionalParameters != null
+                    ? Collections.unmodifiableMap(additionalParameters)
+                    : Collections.<String, String>emptyMap();
+            return this;
+        }
+
+        /**
+         * Creates the introspection response instance.
+         */
+        @NonNull
+        public IntrospectionResponse build() {
+            return new IntrospectionResponse(
+                    mRequest,
+                    mActive,
+                    mScope,
+                    mClientId,
+                    mUsername,
+                    mTokenType,
+                    mExpirationTime,
+                    mIssuedAt,
+                    mSubject,
+                    mAudience,
+                    mIssuer,
+                    mAdditionalParameters);
+        }
+    }
+
+    IntrospectionResponse(
+            @NonNull IntrospectionRequest request,
+            boolean active,
+            @Nullable String scope,
+            @Nullable String clientId,
+            @Nullable String username,
+            @Nullable String tokenType,
+            @Nullable Long expirationTime,
+            @Nullable Long issuedAt,
+            @Nullable String subject,
+            @NonNull List<String> audience,
+            @Nullable String issuer,
+            @NonNull Map<String, String> additionalParameters) {
+        this.request = request;
+        this.active = active;
+        this.scope = scope;
+        this.clientId = clientId;
+        this.username = username;
+        this.tokenType = tokenType;
+        this.expirationTime = expirationTime;
+        this.issuedAt = issuedAt;
+        this.subject = subject;
+        this.audience = audience;
+        this.issuer = issuer;
+        this.additionalParameters = additionalParameters;
+    }
+
+    /**
+     * Derives the set of scopes from the consolidated, space-delimited scopes in the
+     * {@link #scope} field, or {@code null} if no scopes were provided.
+     */
+    @Nullable
+    public Set<String> getScopeSet() {
+        return AsciiStringListUtil.stringToSet(scope);
+    }
+}
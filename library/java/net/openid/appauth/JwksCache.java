@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process-wide cache of the JSON Web Key Sets published by authorization services, keyed by
+ * issuer and indexed by key ID. Key sets are retained for the lifetime indicated by the
+ * HTTP caching headers of the response, and are only fetched again before then if a key ID
+ * is requested which is not in the cached set (e.g. after a key rotation).
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7517#section-5">"JSON Web Key (JWK)"
+ * (RFC 7517), Section 5</a>
+ */
+final class JwksCache {
+
+    /**
+     * The process-wide instance of the cache.
+     */
+    static final JwksCache INSTANCE = new JwksCache(SystemClock.INSTANCE);
+
+    /**
+     * The lifetime of a key set for which the server did not provide any caching headers.
+     */
+    @VisibleForTesting
+    static final long DEFAULT_TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The maximum lifetime of a key set, regardless of the caching headers provided.
+     */
+    @VisibleForTesting
+    static final long MAX_TTL_MS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * A key set is not re-fetched for an unknown key ID more often than this, so that tokens
+     * with bogus key IDs cannot cause a request to the server for each validation.
+     */
+    @VisibleForTesting
+    static final long MIN_REFETCH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    static final String KEY_KEY_ID = "kid";
+
+    static final String KEY_ALGORITHM = "alg";
+
+    private static final String KEY_KEYS = "keys";
+
+    @NonNull
+    private final Clock mClock;
+
+    @NonNull
+    private final Map<String, KeySet> mKeySets = new HashMap<>();
+
+    @VisibleForTesting
+    JwksCache(@NonNull Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Finds the key used to sign a JWS, retrieving the issuer's key set from the provided
+     * URI if it is not cached, the cached set has expired, or the cached set does not contain
+     * the requested key ID. If the JWS does not specify a key ID, the first key matching the
+     * algorithm is returned.
+     *
+     * @return the JWK, or {@code null} if the key set does not contain a matching key.
+     * @throws IOException if the key set could not be retrieved.
+     * @throws JSONException if the retrieved key set is malformed.
+     */
+    @Nullable
+    JSONObject findKey(
+            @NonNull String issuer,
+            @NonNull Uri jwksUri,
+            @Nullable String keyId,
+            @Nullable String algorithm,
+            @NonNull ConnectionBuilder connectionBuilder)
+            throws IOException, JSONException {
+        KeySet keySet = findKeySet(issuer, jwksUri, keyId, algorithm, connectionBuilder);
+        return (keySet != null) ? keySet.find(keyId, algorithm) : null;
+    }
+
+    /**
+     * Finds the key used to sign a JWS as per
+     * {@link #findKey(String, Uri, String, String, ConnectionBuilder) findKey}, and converts
+     * it to a public key. The public key is memoized with the cached key set, so that it is
+     * only constructed once per key set retrieval.
+     *
+     * @return the public key, or {@code null} if the key set does not contain a matching key.
+     * @throws IOException if the key set could not be retrieved.
+     * @throws JSONException if the retrieved key set or the matching key is malformed.
+     * @throws GeneralSecurityException if the matching key is of an unsupported type.
+     */
+    @Nullable
+    PublicKey findPublicKey(
+            @NonNull String issuer,
+            @NonNull Uri jwksUri,
+            @Nullable String keyId,
+            @Nullable String algorithm,
+            @NonNull ConnectionBuilder connectionBuilder)
+            throws IOException, JSONException, GeneralSecurityException {
+        KeySet keySet = findKeySet(issuer, jwksUri, keyId, algorithm, connectionBuilder);
+        if (keySet == null) {
+            return null;
+        }
+
+        JSONObject key = keySet.find(keyId, algorithm);
+        return (key != null) ? keySet.getPublicKey(key) : null;
+    }
+
+    /**
+     * Returns a current key set for the issuer which contains the requested key, or
+     * {@code null} if the key is not in the current key set and it cannot be re-fetched yet.
+     */
+    @Nullable
+    private KeySet findKeySet(
+            @NonNull String issuer,
+            @NonNull Uri jwksUri,
+            @Nullable String keyId,
+            @Nullable String algorithm,
+            @NonNull ConnectionBuilder connectionBuilder)
+            throws IOException, JSONException {
+        KeySet keySet = getKeySet(issuer);
+        long now = mClock.getCurrentTimeMillis();
+        if (keySet != null && !keySet.isExpired(now)) {
+            if (keySet.find(keyId, algorithm) != null) {
+                return keySet;
+            }
+
+            if (now - keySet.getFetchTime() < MIN_REFETCH_INTERVAL_MS) {
+                Logger.debug("Key %s not found in recently retrieved key set", keyId);
+                return null;
+            }
+            Logger.debug("Key %s not found in cached key set, re-fetching", keyId);
+        }
+
+        keySet = fetch(jwksUri, connectionBuilder);
+        synchronized (mKeySets) {
+            mKeySets.put(issuer, keySet);
+        }
+        return keySet;
+    }
+
+    /**
+     * Returns the cached key set of the issuer, if any, regardless of its expiration.
+     */
+    @Nullable
+    KeySet getKeySet(@NonNull String issuer) {
+        synchronized (mKeySets) {
+            return mKeySets.get(issuer);
+        }
+    }
+
+    /**
+     * Removes all cached key sets.
+     */
+    @VisibleForTesting
+    void clear() {
+        synchronized (mKeySets) {
+            mKeySets.clear();
+        }
+    }
+
+    private KeySet fetch(@NonNull Uri jwksUri, @NonNull ConnectionBuilder connectionBuilder)
+            throws IOException, JSONException {
+        InputStream is = null;
+        try {
+            HttpURLConnection conn = connectionBuilder.openConnection(jwksUri);
+            conn.setRequestMethod("GET");
+            conn.setDoInput(true);
+            conn.connect();
+
+            is = conn.getInputStream();
+            JSONObject json = new JSONObject(Utils.readInputStream(is));
+
+            long fetchTime = mClock.getCurrentTimeMillis();
+            long ttl = getTimeToLive(conn, fetchTime);
+            Logger.debug("Retrieved key set from %s, valid for %d ms", jwksUri, ttl);
+            return new KeySet(json.getJSONArray(KEY_KEYS), fetchTime, fetchTime + ttl);
+        } finally {
+            Utils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Determines how long a key set may be cached for, from the caching headers of the
+     * response.
+     */
+    @VisibleForTesting
+    static long getTimeToLive(@NonNull HttpURLConnection conn, long now) {
+        return CacheHeaders.getTimeToLive(conn, now, DEFAULT_TTL_MS, MAX_TTL_MS);
+    }
+
+    /**
+     * An immutable, indexed set of JSON Web Keys.
+     */
+    static final class KeySet {
+
+        private final long mFetchTime;
+
+        private final long mExpirationTime;
+
+        @NonNull
+        private final List<JSONObject> mKeys;
+
+        @NonNull
+        private final Map<String, JSONObject> mKeysById;
+
+        @NonNull
+        private final Map<JSONObject, PublicKey> mPublicKeys = new IdentityHashMap<>();
+
+        KeySet(@NonNull JSONArray keys, long fetchTime, long expirationTime)
+                throws JSONException {
+            mFetchTime = fetchTime;
+            mExpirationTime = expirationTime;
+
+            List<JSONObject> keyList = new ArrayList<>(keys.length());
+            Map<String, JSONObject> keysById = new HashMap<>();
+            for (int i = 0; i < keys.length(); i++) {
+                JSONObject key = keys.getJSONObject(i);
+                keyList.add(key);
+                String keyId = JsonUtil.getStringIfDefined(key, KEY_KEY_ID);
+                if (keyId != null) {
+                    keysById.put(keyId, key);
+                }
+            }
+            mKeys = Collections.unmodifiableList(keyList);
+            mKeysById = Collections.unmodifiableMap(keysById);
+        }
+
+        long getFetchTime() {
+            return mFetchTime;
+        }
+
+        boolean isExpired(long now) {
+            return now >= mExpirationTime;
+        }
+
+        /**
+         * Finds the key with the specified ID or, if no ID is specified, the first key for the
+         * specified algorithm. A key which declares an algorithm other than the one specified
+         * is never returned.
+         */
+        @Nullable
+        JSONObject find(@Nullable String keyId, @Nullable String algorithm) {
+            if (keyId != null) {
+                JSONObject key = mKeysById.get(keyId);
+                return (key != null && isAlgorithmCompatible(key, algorithm)) ? key : null;
+            }
+
+            for (JSONObject key : mKeys) {
+                if (algorithm != null && algorithm.equals(key.optString(KEY_ALGORITHM))) {
+                    return key;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the public key for a key in this set, constructing it on first use.
+         */
+        @NonNull
+        PublicKey getPublicKey(@NonNull JSONObject key)
+                throws JSONException, GeneralSecurityException {
+            synchronized (mPublicKeys) {
+                PublicKey publicKey = mPublicKeys.get(key);
+                if (publicKey == null) {
+                    publicKey = JwsVerifier.createPublicKey(key);
+                    mPublicKeys.put(key, publicKey);
+                }
+                return publicKey;
+            }
+        }
+
+        private static boolean isAlgorithmCompatible(
+                @NonNull JSONObject key,
+                @Nullable String algorithm) {
+            String keyAlgorithm = key.optString(KEY_ALGORITHM, null);
+            return keyAlgorithm == null || algorithm == null || keyAlgorithm.equals(algorithm);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Base64;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.EllipticCurve;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Verifies the signatures of JSON Web Signatures (such as ID tokens) in-process, using public
+ * keys constructed from JSON Web Keys. The RS256, RS384, RS512, ES256, ES384 and PS256
+ * algorithms are supported; PS256 additionally requires a security provider which implements
+ * RSASSA-PSS, which is only present by default on API 23 and above.
+ *
+ * <p>{@link Signature} and {@link KeyFactory} instances are not thread-safe, and are costly to
+ * look up from the security providers, so instances are cached per thread.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7515">"JSON Web Signature (JWS)" (RFC 7515)</a>
+ * @see <a href="https://tools.ietf.org/html/rfc7518#section-3">"JSON Web Algorithms (JWA)"
+ * (RFC 7518), Section 3</a>
+ */
+final class JwsVerifier {
+
+    @VisibleForTesting
+    static final String KEY_KEY_TYPE = "kty";
+
+    @VisibleForTesting
+    static final String KEY_MODULUS = "n";
+
+    @VisibleForTesting
+    static final String KEY_EXPONENT = "e";
+
+    @VisibleForTesting
+    static final String KEY_CURVE = "crv";
+
+    @VisibleForTesting
+    static final String KEY_X = "x";
+
+    @VisibleForTesting
+    static final String KEY_Y = "y";
+
+    @VisibleForTesting
+    static final String KEY_TYPE_RSA = "RSA";
+
+    @VisibleForTesting
+    static final String KEY_TYPE_EC = "EC";
+
+    private static final int BASE64URL_FLAGS =
+            Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+
+    private static final int DER_SEQUENCE = 0x30;
+    private static final int DER_INTEGER = 0x02;
+
+    private static final Map<String, Algorithm> ALGORITHMS;
+
+    static {
+        Map<String, Algorithm> algorithms = new HashMap<>();
+        addAlgorithm(algorithms, new Algorithm("RS256", "SHA256withRSA", KEY_TYPE_RSA, null));
+        addAlgorithm(algorithms, new Algorithm("RS384", "SHA384withRSA", KEY_TYPE_RSA, null));
+        addAlgorithm(algorithms, new Algorithm("RS512", "SHA512withRSA", KEY_TYPE_RSA, null));
+        addAlgorithm(algorithms, new Algorithm("PS256", "SHA256withRSA/PSS", KEY_TYPE_RSA, null));
+        addAlgorithm(algorithms, new Algorithm("ES256", "SHA256withECDSA", KEY_TYPE_EC,
+                EllipticCurves.P256));
+        addAlgorithm(algorithms, new Algorithm("ES384", "SHA384withECDSA", KEY_TYPE_EC,
+                EllipticCurves.P384));
+        ALGORITHMS = Collections.unmodifiableMap(algorithms);
+    }
+
+    private static final ThreadLocal<Map<String, Signature>> SIGNATURES =
+            new ThreadLocal<Map<String, Signature>>() {
+                @Override
+                protected Map<String, Signature> initialValue() {
+                    return new HashMap<>();
+                }
+            };
+
+    private static final ThreadLocal<Map<String, KeyFactory>> KEY_FACTORIES =
+            new ThreadLocal<Map<String, KeyFactory>>() {
+                @Override
+                protected Map<String, KeyFactory> initialValue() {
+                    return new HashMap<>();
+                }
+            };
+
+    private JwsVerifier() {
+        throw new IllegalStateException("This type is not intended to be instantiated");
+    }
+
+    /**
+     * Determines whether signatures using the specified JWS algorithm can be verified.
+     * Note that for PS256 this does not guarantee the availability of a suitable provider.
+     */
+    static boolean isSupportedAlgorithm(@Nullable String algorithm) {
+        return algorithm != null && ALGORITHMS.containsKey(algorithm);
+    }
+
+    /**
+     * Constructs a public key from a JSON Web Key. RSA keys and EC keys on the P-256 and P-384
+     * curves are supported.
+     *
+     * @throws JSONException if a required member of the key is missing.
+     * @throws GeneralSecurityException if the key is of an unsupported type or curve, if a
+     *     component of the key is not valid base64url, or if the key is otherwise invalid.
+     */
+    @NonNull
+    static PublicKey createPublicKey(@NonNull JSONObject jwk)
+            throws JSONException, GeneralSecurityException {
+        String keyType = jwk.getString(KEY_KEY_TYPE);
+        if (KEY_TYPE_RSA.equals(keyType)) {
+            RSAPublicKeySpec spec = new RSAPublicKeySpec(
+                    decodeUnsignedInteger(jwk.getString(KEY_MODULUS)),
+                    decodeUnsignedInteger(jwk.getString(KEY_EXPONENT)));
+            return getKeyFactory(KEY_TYPE_RSA).generatePublic(spec);
+        }
+
+        if (KEY_TYPE_EC.equals(keyType)) {
+            ECParameterSpec curve = EllipticCurves.byName(jwk.getString(KEY_CURVE));
+            if (curve == null) {
+                throw new NoSuchAlgorithmException(
+                        "Unsupported elliptic curve: " + jwk.getString(KEY_CURVE));
+            }
+
+            ECPoint point = new ECPoint(
+                    decodeUnsignedInteger(jwk.getString(KEY_X)),
+                    decodeUnsignedInteger(jwk.getString(KEY_Y)));
+            return getKeyFactory(KEY_TYPE_EC).generatePublic(new ECPublicKeySpec(point, curve));
+        }
+
+        throw new NoSuchAlgorithmException("Unsupported key type: " + keyType);
+    }
+
+    /**
+     * Verifies the signature of a JWS in compact serialization form.
+     *
+     * @param jws the JWS, in the form {@code header.payload.signature}.
+     * @param algorithm the algorithm specified by the {@code alg} header of the JWS.
+     * @param key the public key of the signer.
+     * @return {@code true} if the signature is valid, {@code false} otherwise.
+     * @throws GeneralSecurityException if the algorithm is not supported, or is incompatible
+     *     with the key.
+     */
+    static boolean verify(
+            @NonNull String jws,
+            @NonNull String algorithm,
+            @NonNull PublicKey key)
+            throws GeneralSecurityException {
+        Algorithm alg = ALGORITHMS.get(algorithm);
+        if (alg == null) {
+            throw new NoSuchAlgorithmException("Unsupported JWS algorithm: " + algorithm);
+        }
+
+        if (!alg.isCompatible(key)) {
+            throw new InvalidKeyException("Key is not suitable for JWS algorithm " + algorithm);
+        }
+
+        int signatureStart = jws.lastIndexOf('.');
+        if (signatureStart < 0 || jws.indexOf('.') == signatureStart) {
+            return false;
+        }
+
+        byte[] signature;
+        try {
+            signature = Base64Url.decode(jws, signatureStart + 1, jws.length());
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+
+        if (alg.mCurve != null) {
+            signature = concatToDer(signature, alg.getSignatureComponentLength());
+            if (signature == null) {
+                return false;
+            }
+        }
+
+        byte[] signingInput = getSigningInput(jws, signatureStart);
+        if (signingInput == null) {
+            return false;
+        }
+
+        Signature verifier = getSignature(alg.mJavaName);
+        verifier.initVerify(key);
+        verifier.update(signingInput, 0, signatureStart);
+        try {
+            return verifier.verify(signature);
+        } catch (SignatureException ex) {
+            // thrown for malformed signatures, which are simply invalid
+            Logger.debugWithStack(ex, "Malformed JWS signature");
+            return false;
+        }
+    }
+
+    /**
+     * Copies the signing input (the encoded header and payload) of a JWS into the per-thread
+     * buffer. A well-formed input consists only of base64url characters and a period, so
+     * each character corresponds to a single byte.
+     *
+     * @return the buffer, or {@code null} if the input contains any other character.
+     */
+    @Nullable
+    private static byte[] getSigningInput(@NonNull String jws, int length) {
+        byte[] buffer = Base64Url.getBuffer(length);
+        for (int i = 0; i < length; i++) {
+            char ch = jws.charAt(i);
+            if (!isSigningInputChar(ch)) {
+                return null;
+            }
+            buffer[i] = (byte) ch;
+        }
+        return buffer;
+    }
+
+    private static boolean isSigningInputChar(char ch) {
+        return (ch >= 'A' && ch <= 'Z')
+                || (ch >= 'a' && ch <= 'z')
+                || (ch >= '0' && ch <= '9')
+                || ch == '-'
+                || ch == '_'
+                || ch == '.';
+    }
+
+    /**
+     * Converts an ECDSA signature from the JWS representation, the concatenation of the
+     * fixed-length big-endian R and S values, to the DER-encoded ASN.1 sequence expected by
+     * {@link Signature}.
+     *
+     * @return the DER-encoded signature, or {@code null} if the signature is of the wrong
+     *     length.
+     */
+    @VisibleForTesting
+    @Nullable
+    static byte[] concatToDer(@NonNull byte[] signature, int componentLength) {
+        if (signature.length != 2 * componentLength) {
+            return null;
+        }
+
+        byte[] valueR = unsignedSlice(signature, 0, componentLength).toByteArray();
+        byte[] valueS = unsignedSlice(signature, componentLength, componentLength).toByteArray();
+
+        // the sequence is at most 2 * (2 + 49) = 102 bytes long for P-384, so the short form
+        // of the DER length encoding is always sufficient
+        int sequenceLength = 2 + valueR.length + 2 + valueS.length;
+        ByteArrayOutputStream der = new ByteArrayOutputStream(2 + sequenceLength);
+        der.write(DER_SEQUENCE);
+        der.write(sequenceLength);
+        der.write(DER_INTEGER);
+        der.write(valueR.length);
+        der.write(valueR, 0, valueR.length);
+        der.write(DER_INTEGER);
+        der.write(valueS.length);
+        der.write(valueS, 0, valueS.length);
+        return der.toByteArray();
+    }
+
+    private static BigInteger unsignedSlice(byte[] bytes, int offset, int length) {
+        byte[] slice = new byte[length];
+        System.arraycopy(bytes, offset, slice, 0, length);
+        return new BigInteger(1, slice);
+    }
+
+    private static BigInteger decodeUnsignedInteger(String base64url)
+            throws InvalidKeySpecException {
+        try {
+            return new BigInteger(1, Base64.decode(base64url, BASE64URL_FLAGS));
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidKeySpecException("Key component is not valid base64url", ex);
+        }
+    }
+
+    private static Signature getSignature(String javaName) throws NoSuchAlgorithmException {
+        Map<String, Signature> signatures = SIGNATURES.get();
+        Signature signature = signatures.get(javaName);
+        if (signature == null) {
+            signature = Signature.getInstance(javaName);
+            signatures.put(javaName, signature);
+        }
+        return signature;
+    }
+
+    private static KeyFactory getKeyFactory(String keyType) throws NoSuchAlgorithmException {
+        Map<String, KeyFactory> keyFactories = KEY_FACTORIES.get();
+        KeyFactory keyFactory = keyFactories.get(keyType);
+        if (keyFactory == null) {
+            keyFactory = KeyFactory.getInstance(keyType);
+            keyFactories.put(keyType, keyFactory);
+        }
+        return keyFactory;
+    }
+
+    private static void addAlgorithm(Map<String, Algorithm> algorithms, Algorithm algorithm) {
+        algorithms.put(algorithm.mName, algorithm);
+    }
+
+    private static final class Algorithm {
+        final String mName;
+        final String mJavaName;
+        final String mKeyType;
+        final ECParameterSpec mCurve;
+
+        Algorithm(String name, String javaName, String keyType, ECParameterSpec curve) {
+            mName = name;
+            mJavaName = javaName;
+            mKeyType = keyType;
+            mCurve = curve;
+        }
+
+        boolean isCompatible(PublicKey key) {
+            if (KEY_TYPE_RSA.equals(mKeyType)) {
+                return key instanceof RSAPublicKey;
+            }
+
+            // ECDSA algorithms in JWS are bound to a specific curve
+            return key instanceof ECPublicKey
+                    && ((ECPublicKey) key).getParams().getOrder().equals(mCurve.getOrder());
+        }
+
+        int getSignatureComponentLength() {
+            return (mCurve.getOrder().bitLength() + Byte.SIZE - 1) / Byte.SIZE;
+        }
+    }
+
+    /**
+     * The domain parameters of the NIST curves used by the supported ECDSA algorithms. These
+     * are defined here rather than looked up by name, as named curve lookup is not available
+     * on all supported API levels.
+     *
+     * @see <a href="http://csrc.nist.gov/groups/ST/toolkit/documents/dss/NISTReCur.pdf">
+     * "Recommended Elliptic Curves for Federal Government Use"</a>
+     */
+    private static final class EllipticCurves {
+        static final ECParameterSpec P256 = createCurve(
+                "ffffffff00000001000000000000000000000000ffffffffffffffffffffffff",
+                "ffffffff00000001000000000000000000000000fffffffffffffffffffffffc",
+                "5ac635d8aa3a93e7b3ebbd55769886bc651d06b0cc53b0f63bce3c3e27d2604b",
+                "6b17d1f2e12c4247f8bce6e563a440f277037d812deb33a0f4a13945d898c296",
+                "4fe342e2fe1a7f9b8ee7eb4a7c0f9e162bce33576b315ececbb6406837bf51f5",
+                "ffffffff00000000ffffffffffffffffbce6faada7179e84f3b9cac2fc632551");
+
+        static final ECParameterSpec P384 = createCurve(
+                "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffe"
+                        + "ffffffff0000000000000000ffffffff",
+                "fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffe"
+                        + "ffffffff0000000000000000fffffffc",
+                "b3312fa7e23ee7e4988e056be3f82d19181d9c6efe8141120314088f5013875a"
+                        + "c656398d8a2ed19d2a85c8edd3ec2aef",
+                "aa87ca22be8b05378eb1c71ef320ad746e1d3b628ba79b9859f741e082542a38"
+                        + "5502f25dbf55296c3a545e3872760ab7",
+                "3617de4a96262c6f5d9e98bf9292dc29f8f41dbd289a147ce9da3113b5f0b8c0"
+                        + "0a60b1ce1d7e819d7a431d7c90ea0e5f",
+                "ffffffffffffffffffffffffffffffffffffffffffffffffc7634d81f4372ddf"
+                        + "581a0db248b0a77aecec196accc52973");
+
+        private static final int HEX_RADIX = 16;
+
+        @Nullable
+        static ECParameterSpec byName(String curveName) {
+            if ("P-256".equals(curveName)) {
+                return P256;
+            } else if ("P-384".equals(curveName)) {
+                return P384;
+            }
+            return null;
+        }
+
+        private static ECParameterSpec createCurve(
+                String prime,
+                String coefficientA,
+                String coefficientB,
+                String generatorX,
+                String generatorY,
+                String order) {
+            EllipticCurve curve = new EllipticCurve(
+                    new ECFieldFp(new BigInteger(prime, HEX_RADIX)),
+                    new BigInteger(coefficientA, HEX_RADIX),
+                    new BigInteger(coefficientB, HEX_RADIX));
+            ECPoint generator = new ECPoint(
+                    new BigInteger(generatorX, HEX_RADIX),
+                    new BigInteger(generatorY, HEX_RADIX));
+            return new ECParameterSpec(curve, generator, new BigInteger(order, HEX_RADIX), 1);
+        }
+    }
+}
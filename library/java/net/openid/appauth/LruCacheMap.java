@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.openid.appauth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map which is ordered by access, and which removes its least recently used entry once it
+ * holds more than a fixed number of entries. Instances are not thread-safe; the in-memory
+ * caches which use this synchronize access themselves.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+final class LruCacheMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final int mMaxEntries;
+
+    LruCacheMap(int maxEntries) {
+        super(maxEntries, LOAD_FACTOR, true);
+        mMaxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > mMaxEntries;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * A unit of blocking work that is performed on a network executor, with the result delivered
+ * on a separate callback executor. This takes the place of {@link android.os.AsyncTask}, whose
+ * global serial executor would otherwise queue all requests behind each other, and behind
+ * any unrelated tasks of the application.
+ *
+ * <p>Tasks may be cancelled from any thread: the connection registered via
+ * {@link #onConnectionOpened(HttpURLConnection)} is closed, and {@link #onPostExecute(Object)}
+ * is not invoked.
+ *
+ * <p>A runtime exception thrown by {@link #doInBackground()} does not escape to the network
+ * executor: it is passed to {@link #onUnexpectedError(AuthorizationException)} as an
+ * {@link GeneralErrors#UNEXPECTED_ERROR}, so that the task still completes and its callback
+ * is invoked.
+ *
+ * @param <ResultT> The type of the result produced by the background work.
+ */
+abstract class NetworkTask<ResultT> implements Runnable, RequestHandle {
+
+    @NonNull
+    private final Executor mNetworkExecutor;
+
+    @NonNull
+    private final Executor mCallbackExecutor;
+
+    @Nullable
+    private Set<NetworkTask<?>> mOutstandingTasks;
+
+    @Nullable
+    private HttpURLConnection mConnection;
+
+    @Nullable
+    private Runnable mCancellationListener;
+
+    private boolean mCancelled;
+
+    private boolean mFinished;
+
+    NetworkTask(@NonNull Executor networkExecutor, @NonNull Executor callbackExecutor) {
+        mNetworkExecutor = networkExecutor;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Schedules the task for execution on the network executor.
+     */
+    final void execute() {
+        mNetworkExecutor.execute(this);
+    }
+
+    /**
+     * Schedules the task for execution on the network executor, adding it to the provided set
+     * until it either completes or is cancelled. The set is used as the lock for its contents.
+     */
+    final void execute(@NonNull Set<NetworkTask<?>> outstandingTasks) {
+        synchronized (this) {
+            mOutstandingTasks = outstandingTasks;
+        }
+        synchronized (outstandingTasks) {
+            outstandingTasks.add(this);
+        }
+        execute();
+    }
+
+    /**
+     * Sets a listener which is run on the cancelling thread if the task is cancelled.
+     */
+    final synchronized void setCancellationListener(@Nullable Runnable listener) {
+        mCancellationListener = listener;
+    }
+
+    @Override
+    public final void run() {
+        if (isCancelled()) {
+            return;
+        }
+
+        final ResultT result = performInBackground();
+        synchronized (this) {
+            mConnection = null;
+            if (mCancelled) {
+                return;
+            }
+        }
+
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (NetworkTask.this) {
+                    if (mCancelled) {
+                        return;
+                    }
+                    mFinished = true;
+                }
+                removeFromOutstandingTasks();
+                onPostExecute(result);
+            }
+        });
+    }
+
+    @Override
+    public final void cancel() {
+        HttpURLConnection conn;
+        Runnable listener;
+        synchronized (this) {
+            if (mCancelled || mFinished) {
+                return;
+            }
+            mCancelled = true;
+            conn = mConnection;
+            mConnection = null;
+            listener = mCancellationListener;
+        }
+
+        removeFromOutstandingTasks();
+        if (conn != null) {
+            conn.disconnect();
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public final synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Registers the connection currently used by the task, so that it can be closed if the
+     * task is cancelled. Invoked on the network executor.
+     *
+     * @throws InterruptedIOException if the task has already been cancelled, in which case
+     *     the connection is closed immediately.
+     */
+    protected final void onConnectionOpened(@NonNull HttpURLConnection conn)
+            throws InterruptedIOException {
+        synchronized (this) {
+            if (!mCancelled) {
+                mConnection = conn;
+                return;
+            }
+        }
+
+        conn.disconnect();
+        throw new InterruptedIOException("Request was cancelled");
+    }
+
+    /**
+     * Performs the blocking work of the task. Invoked on the network executor.
+     */
+    protected abstract ResultT doInBackground();
+
+    /**
+     * Records a failure of {@link #doInBackground()} due to a runtime exception. Invoked on the
+     * network executor.
+     *
+     * @return the result to pass to {@link #onPostExecute(Object)}.
+     */
+    protected abstract ResultT onUnexpectedError(@NonNull AuthorizationException ex);
+
+    /**
+     * Handles the result of {@link #doInBackground()}. Invoked on the callback executor.
+     */
+    protected abstract void onPostExecute(ResultT result);
+
+    private ResultT performInBackground() {
+        try {
+            return doInBackground();
+        } catch (RuntimeException ex) {
+            Logger.errorWithStack(ex, "Unexpected failure of network task");
+            return onUnexpectedError(AuthorizationException.fromTemplate(
+                    GeneralErrors.UNEXPECTED_ERROR, ex));
+        }
+    }
+
+    private void removeFromOutstandingTasks() {
+        Set<NetworkTask<?>> outstandingTasks;
+        synchronized (this) {
+            outstandingTasks = mOutstandingTasks;
+            mOutstandingTasks = null;
+        }
+
+        if (outstandingTasks != null) {
+            synchronized (outstandingTasks) {
+                outstandingTasks.remove(this);
+            }
+        }
+    }
+}
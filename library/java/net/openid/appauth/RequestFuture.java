@@ -0,0 +1,418 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of a request to the authorization service, returned by the future-based
+ * variants of the {@link AuthorizationService} request methods and of
+ * {@link AuthorizationServiceConfiguration#fetchFromIssuer(android.net.Uri,
+ * AppAuthConfiguration, Executor) fetchFromIssuer}.
+ *
+ * <p>Results can be consumed by {@link #addCallback(Callback, Executor) adding a callback},
+ * or by blocking with {@link #get()} on a background thread. Requests that depend on the
+ * result of another can be chained with {@link #then(Continuation)}, without returning to the
+ * main thread between them:
+ *
+ * <pre>
+ * AuthorizationServiceConfiguration.fetchFromIssuer(issuerUri, config, executor)
+ *     .then(new Continuation&lt;AuthorizationServiceConfiguration, RegistrationResponse&gt;() {
+ *         public RequestFuture&lt;RegistrationResponse&gt; then(
+ *                 AuthorizationServiceConfiguration serviceConfig) {
+ *             return service.performRegistrationRequest(
+ *                     createRegistrationRequest(serviceConfig), executor);
+ *         }
+ *     })
+ *     .addCallback(callback, mainThreadExecutor);
+ * </pre>
+ *
+ * <p>If the request fails, {@link #get()} throws an {@link ExecutionException} whose cause is
+ * the {@link AuthorizationException} describing the failure. Cancelling the future cancels the
+ * underlying request; callbacks are not invoked for cancelled futures.
+ *
+ * @param <V> The type of the result of the request.
+ */
+public final class RequestFuture<V> implements Future<V>, RequestHandle {
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_SUCCEEDED = 1;
+    private static final int STATE_FAILED = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private final Object mLock = new Object();
+
+    private int mState = STATE_PENDING;
+
+    @Nullable
+    private V mResult;
+
+    @Nullable
+    private AuthorizationException mException;
+
+    @Nullable
+    private RequestHandle mHandle;
+
+    @Nullable
+    private List<Runnable> mListeners = new ArrayList<>();
+
+    RequestFuture() {}
+
+    /**
+     * Receives the result of a {@link RequestFuture}.
+     *
+     * @param <V> The type of the result.
+     */
+    public interface Callback<V> {
+
+        /**
+         * Invoked when the request completes successfully.
+         */
+        void onSuccess(V result);
+
+        /**
+         * Invoked when the request fails.
+         */
+        void onFailure(@NonNull AuthorizationException ex);
+    }
+
+    /**
+     * Starts a request which depends upon the result of a previous request.
+     *
+     * @param <V> The type of the result of the previous request.
+     * @param <R> The type of the result of the request that is started.
+     */
+    public interface Continuation<V, R> {
+
+        /**
+         * Starts the dependent request. Invoked on the thread which completed the
+         * previous request.
+         */
+        @NonNull
+        RequestFuture<R> then(V result);
+    }
+
+    /**
+     * Adds a callback which will be invoked on the provided executor once the request completes,
+     * or immediately if it has already completed. The callback is not invoked if the future
+     * is cancelled.
+     */
+    public void addCallback(
+            @NonNull final Callback<? super V> callback,
+            @NonNull final Executor executor) {
+        checkNotNull(callback, "callback cannot be null");
+        checkNotNull(executor, "executor cannot be null");
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(callback);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns a future for a request which is started with the result of this request, once
+     * it completes successfully. If this request fails, the returned future fails with the same
+     * exception. Cancelling the returned future cancels whichever of the two requests is
+     * in progress.
+     *
+     * <p>If the continuation throws an exception, such as when the service used to start the
+     * request has been disposed, the returned future fails with
+     * {@link GeneralErrors#UNEXPECTED_ERROR}. If it returns {@code null}, the returned future
+     * is cancelled.
+     */
+    @NonNull
+    public <R> RequestFuture<R> then(@NonNull final Continuation<? super V, R> continuation) {
+        checkNotNull(continuation, "continuation cannot be null");
+        final RequestFuture<R> next = new RequestFuture<>();
+        next.setHandle(this);
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                int state;
+                synchronized (mLock) {
+                    state = mState;
+                }
+
+                if (state == STATE_CANCELLED) {
+                    next.cancel();
+                    return;
+                }
+
+                if (state == STATE_FAILED) {
+                    next.setException(mException);
+                    return;
+                }
+
+                if (next.isDone()) {
+                    return;
+                }
+
+                final RequestFuture<R> stage;
+                try {
+                    stage = continuation.then(mResult);
+                } catch (RuntimeException ex) {
+                    Logger.errorWithStack(ex, "Continuation failed to start request");
+                    next.setException(AuthorizationException.fromTemplate(
+                            GeneralErrors.UNEXPECTED_ERROR, ex));
+                    return;
+                }
+
+                if (stage == null) {
+                    next.cancel();
+                    return;
+                }
+
+                next.setHandle(stage);
+                stage.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        next.completeFrom(stage);
+                    }
+                });
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Cancels the underlying request. Equivalent to {@link #cancel(boolean) cancel(true)}.
+     */
+    @Override
+    public void cancel() {
+        cancel(true);
+    }
+
+    /**
+     * Cancels the underlying request, if it has not already completed. Any connection to the
+     * authorization service is closed regardless of the value of
+     * {@code mayInterruptIfRunning}.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        RequestHandle handle;
+        synchronized (mLock) {
+            if (mState != STATE_PENDING) {
+                return false;
+            }
+            mState = STATE_CANCELLED;
+            handle = mHandle;
+            mHandle = null;
+            mLock.notifyAll();
+        }
+
+        if (handle != null) {
+            handle.cancel();
+        }
+        runListeners();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (mLock) {
+            return mState == STATE_CANCELLED;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (mLock) {
+            return mState != STATE_PENDING;
+        }
+    }
+
+    /**
+     * Waits for the request to complete, and returns its result. This must not be called on
+     * the main thread, or on the executor on which the request completes.
+     *
+     * @throws ExecutionException if the request failed, with the
+     *     {@link AuthorizationException} as its cause.
+     * @throws CancellationException if the future was cancelled.
+     */
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        synchronized (mLock) {
+            while (mState == STATE_PENDING) {
+                mLock.wait();
+            }
+            return getResult();
+        }
+    }
+
+    /**
+     * Waits for up to the specified time for the request to complete, and returns its result.
+     *
+     * @throws ExecutionException if the request failed, with the
+     *     {@link AuthorizationException} as its cause.
+     * @throws CancellationException if the future was cancelled.
+     * @throws TimeoutException if the request did not complete in time.
+     */
+    @Override
+    public V get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mLock) {
+            while (mState == STATE_PENDING) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException("Request did not complete in time");
+                }
+                TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+            }
+            return getResult();
+        }
+    }
+
+    /**
+     * Sets the handle of the request which produces the result, so that it can be cancelled.
+     * If the future has already been cancelled, the request is cancelled immediately.
+     */
+    void setHandle(@NonNull RequestHandle handle) {
+        synchronized (mLock) {
+            if (mState == STATE_PENDING) {
+                mHandle = handle;
+                return;
+            }
+            if (mState != STATE_CANCELLED) {
+                return;
+            }
+        }
+        handle.cancel();
+    }
+
+    /**
+     * Completes the future with the result of a request, in the form delivered to the
+     * callback interfaces of {@link AuthorizationService}.
+     */
+    void complete(@Nullable V result, @Nullable AuthorizationException ex) {
+        if (ex != null) {
+            setException(ex);
+        } else {
+            set(result);
+        }
+    }
+
+    void set(@Nullable V result) {
+        synchronized (mLock) {
+            if (mState != STATE_PENDING) {
+                return;
+            }
+            mResult = result;
+            mState = STATE_SUCCEEDED;
+            mHandle = null;
+            mLock.notifyAll();
+        }
+        runListeners();
+    }
+
+    void setException(@NonNull AuthorizationException ex) {
+        synchronized (mLock) {
+            if (mState != STATE_PENDING) {
+                return;
+            }
+            mException = ex;
+            mState = STATE_FAILED;
+            mHandle = null;
+            mLock.notifyAll();
+        }
+        runListeners();
+    }
+
+    private void completeFrom(@NonNull RequestFuture<V> other) {
+        int state;
+        synchronized (other.mLock) {
+            state = other.mState;
+        }
+
+        if (state == STATE_SUCCEEDED) {
+            set(other.mResult);
+        } else if (state == STATE_FAILED) {
+            setException(other.mException);
+        } else {
+            cancel();
+        }
+    }
+
+    private V getResult() throws ExecutionException {
+        if (mState == STATE_CANCELLED) {
+            throw new CancellationException("Request was cancelled");
+        }
+        if (mState == STATE_FAILED) {
+            throw new ExecutionException(mException);
+        }
+        return mResult;
+    }
+
+    private void dispatch(@NonNull Callback<? super V> callback) {
+        int state;
+        synchronized (mLock) {
+            state = mState;
+        }
+
+        if (state == STATE_SUCCEEDED) {
+            callback.onSuccess(mResult);
+        } else if (state == STATE_FAILED) {
+            callback.onFailure(mException);
+        }
+    }
+
+    /**
+     * Adds a listener which is run on the completing thread once the future is done, including
+     * when it is cancelled, or immediately if it is already done.
+     */
+    private void addListener(@NonNull Runnable listener) {
+        synchronized (mLock) {
+            if (mListeners != null) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    private void runListeners() {
+        List<Runnable> listeners;
+        synchronized (mLock) {
+            listeners = mListeners;
+            mListeners = null;
+        }
+
+        if (listeners != null) {
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+}
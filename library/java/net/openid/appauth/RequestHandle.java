@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+/**
+ * A request to the authorization service that is in progress, returned by the
+ * {@code perform*} methods of {@link AuthorizationService}.
+ */
+public interface RequestHandle {
+
+    /**
+     * Cancels the request. Any connection to the authorization service is closed, and the
+     * callback of the request will not be invoked, unless it has already been invoked.
+     * Cancelling a request that has already completed or been cancelled has no effect.
+     *
+     * <p>This method may be called from any thread; to reliably suppress the callback,
+     * call it from the thread on which callbacks are delivered.
+     */
+    void cancel();
+
+    /**
+     * Whether the request was cancelled before its callback was invoked.
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotEmpty;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A request for a protected resource, which is authorized with the access token of an
+ * {@link AuthState}.
+ *
+ * @see AuthorizationService#performAuthenticatedRequest
+ * @see <a href="https://tools.ietf.org/html/rfc6750#section-2.1">"The OAuth 2.0 Authorization
+ * Framework: Bearer Token Usage" (RFC 6750), Section 2.1</a>
+ */
+public class ResourceRequest {
+
+    /**
+     * The HTTP {@code GET} method.
+     */
+    public static final String METHOD_GET = "GET";
+
+    /**
+     * The HTTP {@code POST} method.
+     */
+    public static final String METHOD_POST = "POST";
+
+    @VisibleForTesting
+    static final String HEADER_AUTHORIZATION = "Authorization";
+
+    @VisibleForTesting
+    static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    private static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE")));
+
+    /**
+     * The URI of the resource.
+     */
+    @NonNull
+    public final Uri uri;
+
+    /**
+     * The HTTP method of the request.
+     */
+    @NonNull
+    public final String method;
+
+    /**
+     * Additional headers to be sent with the request. The {@code Authorization} header is
+     * provided by the service, and cannot be specified.
+     */
+    @NonNull
+    public final Map<String, String> headers;
+
+    /**
+     * The body of the request, if any.
+     */
+    @Nullable
+    public final byte[] body;
+
+    /**
+     * The media type of the body, if there is a body.
+     */
+    @Nullable
+    public final String contentType;
+
+    /**
+     * Creates instances of {@link ResourceRequest}.
+     */
+    public static final class Builder {
+
+        @NonNull
+        private Uri mUri;
+
+        @NonNull
+        private String mMethod = METHOD_GET;
+
+        @NonNull
+        private Map<String, String> mHeaders = new LinkedHashMap<>();
+
+        @Nullable
+        private byte[] mBody;
+
+        @Nullable
+        private String mContentType;
+
+        /**
+         * Creates a builder for a {@code GET} request for the specified resource.
+         */
+        public Builder(@NonNull Uri uri) {
+            setUri(uri);
+        }
+
+        /**
+         * Specifies the URI of the resource, which must not be null.
+         */
+        @NonNull
+        public Builder setUri(@NonNull Uri uri) {
+            mUri = checkNotNull(uri, "uri cannot be null");
+            return this;
+        }
+
+        /**
+         * Specifies the HTTP method of the request, which must not be null or empty. The
+         * default is {@link #METHOD_GET}.
+         */
+        @NonNull
+        public Builder setMethod(@NonNull String method) {
+            mMethod = checkNotEmpty(method, "method cannot be null or empty")
+                    .toUpperCase(Locale.US);
+            return this;
+        }
+
+        /**
+         * Specifies an additional header to be sent with the request.
+         */
+        @NonNull
+        public Builder setHeader(@NonNull String name, @Nullable String value) {
+            checkNotEmpty(name, "name cannot be null or empty");
+            checkArgument(!HEADER_AUTHORIZATION.equalsIgnoreCase(name),
+                    "the Authorization header is provided by the service");
+            if (value == null) {
+                mHeaders.remove(name);
+            } else {
+                mHeaders.put(name, value);
+            }
+            return this;
+        }
+
+        /**
+         * Specifies the body of the request, and its media type. The body is not copied, and
+         * must not be modified once the request is built.
+         */
+        @NonNull
+        public Builder setBody(@Nullable byte[] body, @Nullable String contentType) {
+            checkArgument(body == null || contentType != null,
+                    "contentType must be specified with a body");
+            mBody = body;
+            mContentType = body != null ? contentType : null;
+            return this;
+        }
+
+        /**
+         * Produces a {@link ResourceRequest} instance.
+         */
+        @NonNull
+        public ResourceRequest build() {
+            return new ResourceRequest(
+                    mUri,
+                    mMethod,
+                    Collections.unmodifiableMap(new LinkedHashMap<>(mHeaders)),
+                    mBody,
+                    mContentType);
+        }
+    }
+
+    private ResourceRequest(
+            @NonNull Uri uri,
+            @NonNull String method,
+            @NonNull Map<String, String> headers,
+            @Nullable byte[] body,
+            @Nullable String contentType) {
+        this.uri = uri;
+        this.method = method;
+        this.headers = headers;
+        this.body = body;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Determines whether sending the request more than once has the same effect as sending it
+     * once, in which case it may be retried after a failure which occurred after it was sent.
+     */
+    public boolean isIdempotent() {
+        return IDEMPOTENT_METHODS.contains(method);
+    }
+}
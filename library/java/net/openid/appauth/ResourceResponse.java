@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response to a {@link ResourceRequest}. The complete body of the response is read
+ * before the response is provided, so it can be used on any thread.
+ *
+ * @see AuthorizationService#performAuthenticatedRequest
+ */
+public class ResourceResponse {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The request associated with this response.
+     */
+    @NonNull
+    public final ResourceRequest request;
+
+    /**
+     * The HTTP status code of the response.
+     */
+    public final int statusCode;
+
+    /**
+     * The headers of the response, by name. Names are as provided by the resource server.
+     */
+    @NonNull
+    public final Map<String, List<String>> headers;
+
+    /**
+     * The body of the response, which is empty if the response had no body.
+     */
+    @NonNull
+    public final byte[] body;
+
+    ResourceResponse(
+            @NonNull ResourceRequest request,
+            int statusCode,
+            @NonNull Map<String, List<String>> headers,
+            @NonNull byte[] body) {
+        this.request = request;
+        this.statusCode = statusCode;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.body = body;
+    }
+
+    /**
+     * Determines whether the status code of the response indicates success.
+     */
+    public boolean isSuccessful() {
+        return statusCode >= HttpURLConnection.HTTP_OK
+                && statusCode < HttpURLConnection.HTTP_MULT_CHOICE;
+    }
+
+    /**
+     * The first value of the specified header, ignoring the case of its name, or {@code null}
+     * if the header is not present.
+     */
+    @Nullable
+    public String getHeader(@NonNull String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The body of the response, decoded as UTF-8.
+     */
+    @NonNull
+    public String getBodyAsString() {
+        return new String(body, UTF_8);
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls how token and registration requests are retried when the authorization service
+ * cannot be reached or is temporarily unavailable, and when requests to an endpoint which is
+ * repeatedly failing are rejected without being attempted.
+ *
+ * <p>Failed requests are retried after an exponentially increasing delay, with full jitter
+ * applied so that clients which failed together do not retry together. If the service responds
+ * with HTTP status 429 or 503 and a {@code Retry-After} header, that delay is used instead.
+ * Requests which cannot safely be replayed, such as authorization code exchanges, are only
+ * retried if the connection to the service could not be established.
+ *
+ * <p>Each endpoint has a circuit breaker: after a number of consecutive failures, requests to
+ * the endpoint fail immediately with {@link GeneralErrors#SERVICE_UNAVAILABLE} for a period,
+ * after which a single trial request is permitted to determine whether the service
+ * has recovered.
+ *
+ * <p>Circuit breaker state is held by the policy instance, so the same instance should be
+ * used by all {@link AuthorizationService} instances that communicate with the same service.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc7231#section-7.1.3">"Hypertext Transfer
+ * Protocol (HTTP/1.1): Semantics and Content" (RFC 7231), Section 7.1.3</a>
+ */
+public final class RetryPolicy {
+
+    /**
+     * The default maximum number of attempts made for each request.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /**
+     * The default upper bound of the delay before the first retry.
+     */
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * The default maximum delay before any retry. Requests for which the service asks for a
+     * longer delay via {@code Retry-After} are not retried.
+     */
+    public static final long DEFAULT_MAX_BACKOFF_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The default number of consecutive failures after which requests to an endpoint
+     * are rejected.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * The default period for which requests to a failing endpoint are rejected.
+     */
+    public static final long DEFAULT_OPEN_DURATION_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * A policy under which requests are attempted exactly once, and never rejected.
+     * This is the policy used by {@link AppAuthConfiguration#DEFAULT}.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy.Builder()
+            .setMaxAttempts(1)
+            .setFailureThreshold(0)
+            .build();
+
+    @VisibleForTesting
+    static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    @VisibleForTesting
+    static final long NO_RETRY = -1L;
+
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Backoff is not increased further beyond this many doublings, to avoid overflow.
+     */
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    private final int mMaxAttempts;
+    private final long mInitialBackoffMs;
+    private final long mMaxBackoffMs;
+    private final int mFailureThreshold;
+    private final long mOpenDurationMs;
+
+    @NonNull
+    private final Clock mClock;
+
+    @NonNull
+    private final Random mRandom;
+
+    @NonNull
+    private final ConcurrentMap<Uri, CircuitBreaker> mCircuitBreakers =
+            new ConcurrentHashMap<>();
+
+    private RetryPolicy(
+            int maxAttempts,
+            long initialBackoffMs,
+            long maxBackoffMs,
+            int failureThreshold,
+            long openDurationMs,
+            @NonNull Clock clock,
+            @NonNull Random random) {
+        mMaxAttempts = maxAttempts;
+        mInitialBackoffMs = initialBackoffMs;
+        mMaxBackoffMs = maxBackoffMs;
+        mFailureThreshold = failureThreshold;
+        mOpenDurationMs = openDurationMs;
+        mClock = clock;
+        mRandom = random;
+    }
+
+    /**
+     * The maximum number of attempts made for each request, including the first.
+     */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * The upper bound of the delay before the first retry. The bound doubles for each
+     * subsequent retry, up to {@link #getMaxBackoffMs()}.
+     */
+    public long getInitialBackoffMs() {
+        return mInitialBackoffMs;
+    }
+
+    /**
+     * The maximum delay before any retry.
+     */
+    public long getMaxBackoffMs() {
+        return mMaxBackoffMs;
+    }
+
+    /**
+     * The number of consecutive failures after which requests to an endpoint are rejected,
+     * or zero if requests are never rejected.
+     */
+    public int getFailureThreshold() {
+        return mFailureThreshold;
+    }
+
+    /**
+     * The period for which requests to a failing endpoint are rejected.
+     */
+    public long getOpenDurationMs() {
+        return mOpenDurationMs;
+    }
+
+    /**
+     * Opens a connection to the endpoint, writes the request and waits for the response,
+     * retrying as permitted by the policy. The returned connection is that of the final
+     * attempt, which may still have an unsuccessful response code.
+     *
+     * @param replayable whether the request may be sent again after it may have been received
+     *     by the service. Requests which are not replayable are only retried when the
+     *     connection could not be established.
+     * @param handle the handle of the request, if it can be cancelled. Failures of a cancelled
+     *     request are neither retried nor counted against the endpoint.
+     * @throws AuthorizationException {@link GeneralErrors#SERVICE_UNAVAILABLE} if the circuit
+     *     breaker for the endpoint is open.
+     * @throws IOException if the final attempt failed.
+     */
+    @NonNull
+    HttpURLConnection execute(
+            @NonNull Uri endpoint,
+            @NonNull ConnectionBuilder connectionBuilder,
+            @NonNull RequestWriter requestWriter,
+            boolean replayable,
+            @Nullable RequestHandle handle)
+            throws AuthorizationException, IOException {
+        CircuitBreaker breaker = getCircuitBreaker(endpoint);
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            if (breaker != null && !breaker.tryAcquire()) {
+                Logger.debug("Rejecting request to %s, which is unavailable", endpoint);
+                throw AuthorizationException.fromTemplate(
+                        GeneralErrors.SERVICE_UNAVAILABLE, null);
+            }
+
+            HttpURLConnection conn = null;
+            long delay;
+            boolean recorded = false;
+            try {
+                conn = connectionBuilder.openConnection(endpoint);
+                requestWriter.writeRequest(conn);
+                int responseCode = conn.getResponseCode();
+                boolean failed = isFailure(responseCode);
+                record(breaker, failed);
+                recorded = true;
+
+                delay = (failed && replayable && isRetryable(responseCode))
+                        ? getRetryDelay(attempt, getRetryAfter(conn))
+                        : NO_RETRY;
+                if (delay == NO_RETRY) {
+                    return conn;
+                }
+                Logger.debug("Request to %s failed with status %d", endpoint, responseCode);
+            } catch (IOException ex) {
+                if (handle != null && handle.isCancelled()) {
+                    // the connection was closed by the cancellation; this is not a failure
+                    throw ex;
+                }
+                record(breaker, true);
+                recorded = true;
+                delay = (replayable || !isRequestSent(ex))
+                        ? getRetryDelay(attempt, NO_RETRY)
+                        : NO_RETRY;
+                if (delay == NO_RETRY) {
+                    throw ex;
+                }
+                Logger.debugWithStack(ex, "Request to %s failed", endpoint);
+            } finally {
+                // a permitted trial request which did not complete, such as one which was
+                // cancelled or threw a runtime exception, must not hold the circuit open
+                if (!recorded && breaker != null) {
+                    breaker.release();
+                }
+            }
+
+            if (conn != null) {
+                conn.disconnect();
+            }
+            Logger.debug("Retrying request to %s in %d ms", endpoint, delay);
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Determines the delay before the next attempt, or {@link #NO_RETRY} if no further
+     * attempts should be made.
+     *
+     * @param attempt the number of attempts made so far.
+     * @param retryAfterMs the delay requested by the service, or {@link #NO_RETRY} if
+     *     none was requested.
+     */
+    @VisibleForTesting
+    long getRetryDelay(int attempt, long retryAfterMs) {
+        if (attempt >= mMaxAttempts) {
+            return NO_RETRY;
+        }
+
+        if (retryAfterMs != NO_RETRY) {
+            return (retryAfterMs <= mMaxBackoffMs) ? retryAfterMs : NO_RETRY;
+        }
+
+        long backoff = Math.min(
+                mMaxBackoffMs,
+                mInitialBackoffMs << Math.min(attempt - 1, MAX_BACKOFF_SHIFT));
+        return (long) (mRandom.nextDouble() * backoff);
+    }
+
+    /**
+     * Whether requests to the endpoint are currently being rejected.
+     */
+    @VisibleForTesting
+    boolean isCircuitOpen(@NonNull Uri endpoint) {
+        CircuitBreaker breaker = mCircuitBreakers.get(endpoint);
+        return breaker != null && breaker.isOpen();
+    }
+
+    @Nullable
+    private CircuitBreaker getCircuitBreaker(@NonNull Uri endpoint) {
+        if (mFailureThreshold == 0) {
+            return null;
+        }
+
+        CircuitBreaker breaker = mCircuitBreakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(mFailureThreshold, mOpenDurationMs, mClock);
+            CircuitBreaker existing = mCircuitBreakers.putIfAbsent(endpoint, breaker);
+            if (existing != null) {
+                breaker = existing;
+            }
+        }
+        return breaker;
+    }
+
+    private static void record(@Nullable CircuitBreaker breaker, boolean failed) {
+        if (breaker == null) {
+            return;
+        }
+
+        if (failed) {
+            breaker.recordFailure();
+        } else {
+            breaker.recordSuccess();
+        }
+    }
+
+    /**
+     * Server errors and rate limiting indicate that the service is struggling; all other
+     * responses, including OAuth error responses, indicate that it is available.
+     */
+    private static boolean isFailure(int responseCode) {
+        return responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || responseCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * A generic server error may be deterministic, so only those statuses which indicate a
+     * transient condition are retried.
+     */
+    private static boolean isRetryable(int responseCode) {
+        return responseCode == HTTP_TOO_MANY_REQUESTS
+                || responseCode == HttpURLConnection.HTTP_BAD_GATEWAY
+                || responseCode == HttpURLConnection.HTTP_UNAVAILABLE
+                || responseCode == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Failures to resolve or connect to the host occur before any part of the request
+     * is sent. After any other failure, the service may have received the request.
+     */
+    private static boolean isRequestSent(@NonNull IOException ex) {
+        return !(ex instanceof ConnectException || ex instanceof UnknownHostException);
+    }
+
+    /**
+     * Reads the {@code Retry-After} header, which may either be a number of seconds or an
+     * HTTP date, returning the delay in milliseconds or {@link #NO_RETRY} if absent.
+     */
+    private long getRetryAfter(@NonNull HttpURLConnection conn) {
+        String retryAfter = conn.getHeaderField(HEADER_RETRY_AFTER);
+        if (retryAfter == null) {
+            return NO_RETRY;
+        }
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0L, Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException ex) {
+            long date = conn.getHeaderFieldDate(HEADER_RETRY_AFTER, 0L);
+            if (date <= 0L) {
+                Logger.debug("Ignoring malformed Retry-After: %s", retryAfter);
+                return NO_RETRY;
+            }
+            return Math.max(0L, date - mClock.getCurrentTimeMillis());
+        }
+    }
+
+    private static void sleep(long delayMs) throws InterruptedIOException {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry request");
+        }
+    }
+
+    /**
+     * Writes a request to a newly opened connection. Invoked once for each attempt.
+     */
+    interface RequestWriter {
+        void writeRequest(@NonNull HttpURLConnection conn) throws IOException;
+    }
+
+    /**
+     * Creates {@link RetryPolicy} instances.
+     */
+    public static final class Builder {
+
+        private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private long mInitialBackoffMs = DEFAULT_INITIAL_BACKOFF_MS;
+        private long mMaxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+        private int mFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+        private long mOpenDurationMs = DEFAULT_OPEN_DURATION_MS;
+        private Clock mClock = SystemClock.INSTANCE;
+        private Random mRandom = new Random();
+
+        /**
+         * Specifies the maximum number of attempts made for each request, including the first.
+         * Must be at least one.
+         */
+        @NonNull
+        public Builder setMaxAttempts(int maxAttempts) {
+            checkArgument(maxAttempts >= 1, "maxAttempts must be at least one");
+            mMaxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Specifies the upper bound of the delay before the first retry. The delay before each
+         * retry is chosen at random, up to a bound which doubles after each attempt.
+         */
+        @NonNull
+        public Builder setInitialBackoffMs(long initialBackoffMs) {
+            checkArgument(initialBackoffMs >= 0, "initialBackoffMs cannot be negative");
+            mInitialBackoffMs = initialBackoffMs;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum delay before any retry. Retries are not attempted if the
+         * service requests a longer delay via {@code Retry-After}, as the request would block
+         * a network thread for that time.
+         */
+        @NonNull
+        public Builder setMaxBackoffMs(long maxBackoffMs) {
+            checkArgument(maxBackoffMs >= 0, "maxBackoffMs cannot be negative");
+            mMaxBackoffMs = maxBackoffMs;
+            return this;
+        }
+
+        /**
+         * Specifies the number of consecutive failed requests to an endpoint after which
+         * further requests are rejected. Zero disables the circuit breaker.
+         */
+        @NonNull
+        public Builder setFailureThreshold(int failureThreshold) {
+            checkArgument(failureThreshold >= 0, "failureThreshold cannot be negative");
+            mFailureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * Specifies the period for which requests to a failing endpoint are rejected, before
+         * a trial request is permitted.
+         */
+        @NonNull
+        public Builder setOpenDurationMs(long openDurationMs) {
+            checkArgument(openDurationMs >= 0, "openDurationMs cannot be negative");
+            mOpenDurationMs = openDurationMs;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setClock(@NonNull Clock clock) {
+            mClock = checkNotNull(clock);
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setRandom(@NonNull Random random) {
+            mRandom = checkNotNull(random);
+            return this;
+        }
+
+        /**
+         * Creates the instance from the configured properties.
+         */
+        @NonNull
+        public RetryPolicy build() {
+            return new RetryPolicy(
+                    mMaxAttempts,
+                    mInitialBackoffMs,
+                    mMaxBackoffMs,
+                    mFailureThreshold,
+                    mOpenDurationMs,
+                    mClock,
+                    mRandom);
+        }
+    }
+}
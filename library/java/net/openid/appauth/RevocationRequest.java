@@ -0,0 +1,317 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.AdditionalParamsProcessor.checkAdditionalParams;
+import static net.openid.appauth.Preconditions.checkNotEmpty;
+import static net.openid.appauth.Preconditions.checkNotNull;
+import static net.openid.appauth.Preconditions.checkNullOrNotEmpty;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A request to revoke a token at the revocation endpoint of an authorization service, so that
+ * it can no longer be used. Revoking a refresh token typically also revokes the access tokens
+ * issued with it.
+ *
+ * @see AuthorizationService#performTokenRevocation
+ * @see TokenRevocationQueue
+ * @see <a href="https://tools.ietf.org/html/rfc7009#section-2.1">"OAuth 2.0 Token Revocation"
+ * (RFC 7009), Section 2.1</a>
+ */
+public class RevocationRequest {
+
+    /**
+     * The token type hint for access tokens.
+     */
+    public static final String TOKEN_TYPE_HINT_ACCESS_TOKEN = "access_token";
+
+    /**
+     * The token type hint for refresh tokens.
+     */
+    public static final String TOKEN_TYPE_HINT_REFRESH_TOKEN = "refresh_token";
+
+    @VisibleForTesting
+    static final String PARAM_TOKEN = "token";
+
+    @VisibleForTesting
+    static final String PARAM_TOKEN_TYPE_HINT = "token_type_hint";
+
+    @VisibleForTesting
+    static final String PARAM_CLIENT_ID = "client_id";
+
+    @VisibleForTesting
+    static final String KEY_CONFIGURATION = "configuration";
+
+    @VisibleForTesting
+    static final String KEY_REVOCATION_ENDPOINT = "revocationEndpoint";
+
+    @VisibleForTesting
+    static final String KEY_CLIENT_ID = "clientId";
+
+    @VisibleForTesting
+    static final String KEY_TOKEN = "token";
+
+    @VisibleForTesting
+    static final String KEY_TOKEN_TYPE_HINT = "tokenTypeHint";
+
+    @VisibleForTesting
+    static final String KEY_ADDITIONAL_PARAMETERS = "additionalParameters";
+
+    private static final Set<String> BUILT_IN_PARAMS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(
+                    PARAM_CLIENT_ID,
+                    PARAM_TOKEN,
+                    PARAM_TOKEN_TYPE_HINT)));
+
+    /**
+     * The service's {@link AuthorizationServiceConfiguration configuration}.
+     */
+    @NonNull
+    public final AuthorizationServiceConfiguration configuration;
+
+    /**
+     * The revocation endpoint to which the request is sent.
+     */
+    @NonNull
+    public final Uri revocationEndpoint;
+
+    /**
+     * The client identifier.
+     */
+    @NonNull
+    public final String clientId;
+
+    /**
+     * The token to be revoked.
+     */
+    @NonNull
+    public final String token;
+
+    /**
+     * A hint about the type of the token, which may help the service to look it up. Typically
+     * one of {@link #TOKEN_TYPE_HINT_ACCESS_TOKEN} or {@link #TOKEN_TYPE_HINT_REFRESH_TOKEN}.
+     */
+    @Nullable
+    public final String tokenTypeHint;
+
+    /**
+     * Additional parameters to be passed as part of the request.
+     */
+    @NonNull
+    public final Map<String, String> additionalParameters;
+
+    /**
+     * Creates instances of {@link RevocationRequest}.
+     */
+    public static final class Builder {
+
+        @NonNull
+        private AuthorizationServiceConfiguration mConfiguration;
+
+        @Nullable
+        private Uri mRevocationEndpoint;
+
+        @NonNull
+        private String mClientId;
+
+        @NonNull
+        private String mToken;
+
+        @Nullable
+        private String mTokenTypeHint;
+
+        @NonNull
+        private Map<String, String> mAdditionalParameters;
+
+        /**
+         * Creates a revocation request builder with the specified mandatory properties.
+         */
+        public Builder(
+                @NonNull AuthorizationServiceConfiguration configuration,
+                @NonNull String clientId,
+                @NonNull String token) {
+            setConfiguration(configuration);
+            setClientId(clientId);
+            setToken(token);
+            mAdditionalParameters = new LinkedHashMap<>();
+        }
+
+        /**
+         * Specifies the authorization service configuration for the request, which must not
+         * be null.
+         */
+        @NonNull
+        public Builder setConfiguration(@NonNull AuthorizationServiceConfiguration configuration) {
+            mConfiguration = checkNotNull(configuration);
+            return this;
+        }
+
+        /**
+         * Specifies the revocation endpoint for the request. If not specified, the endpoint is
+         * taken from the discovery document of the configuration.
+         */
+        @NonNull
+        public Builder setRevocationEndpoint(@Nullable Uri revocationEndpoint) {
+            mRevocationEndpoint = revocationEndpoint;
+            return this;
+        }
+
+        /**
+         * Specifies the client ID for the request, which must not be null or empty.
+         */
+        @NonNull
+        public Builder setClientId(@NonNull String clientId) {
+            mClientId = checkNotEmpty(clientId, "clientId cannot be null or empty");
+            return this;
+        }
+
+        /**
+         * Specifies the token to be revoked, which must not be null or empty.
+         */
+        @NonNull
+        public Builder setToken(@NonNull String token) {
+            mToken = checkNotEmpty(token, "token cannot be null or empty");
+            return this;
+        }
+
+        /**
+         * Specifies a hint about the type of the token, which must be null or non-empty.
+         */
+        @NonNull
+        public Builder setTokenTypeHint(@Nullable String tokenTypeHint) {
+            mTokenTypeHint = checkNullOrNotEmpty(tokenTypeHint,
+                    "tokenTypeHint must be null or not empty");
+            return this;
+        }
+
+        /**
+         * Specifies an additional set of parameters to be sent as part of the request.
+         */
+        @NonNull
+        public Builder setAdditionalParameters(@Nullable Map<String, String> additionalParameters) {
+            mAdditionalParameters = checkAdditionalParams(additionalParameters, BUILT_IN_PARAMS);
+            return this;
+        }
+
+        /**
+         * Produces a {@link RevocationRequest} instance.
+         *
+         * @throws IllegalStateException if no revocation endpoint was specified, and the
+         *     configuration does not provide one.
+         */
+        @NonNull
+        public RevocationRequest build() {
+            Uri endpoint = mRevocationEndpoint;
+            if (endpoint == null && mConfiguration.discoveryDoc != null) {
+                endpoint = mConfiguration.discoveryDoc.getRevocationEndpoint();
+            }
+
+            if (endpoint == null) {
+                throw new IllegalStateException("no revocation endpoint specified");
+            }
+
+            return new RevocationRequest(
+                    mConfiguration,
+                    endpoint,
+                    mClientId,
+                    mToken,
+                    mTokenTypeHint,
+                    Collections.unmodifiableMap(new HashMap<>(mAdditionalParameters)));
+        }
+    }
+
+    private RevocationRequest(
+            @NonNull AuthorizationServiceConfiguration configuration,
+            @NonNull Uri revocationEndpoint,
+            @NonNull String clientId,
+            @NonNull String token,
+            @Nullable String tokenTypeHint,
+            @NonNull Map<String, String> additionalParameters) {
+        this.configuration = configuration;
+        this.revocationEndpoint = revocationEndpoint;
+        this.clientId = clientId;
+        this.token = token;
+        this.tokenTypeHint = tokenTypeHint;
+        this.additionalParameters = additionalParameters;
+    }
+
+    /**
+     * Produces the set of request parameters for this request, which can be further
+     * processed into a request body.
+     */
+    @NonNull
+    public Map<String, String> getRequestParameters() {
+        Map<String, String> params = new HashMap<>();
+        params.put(PARAM_CLIENT_ID, clientId);
+        params.put(PARAM_TOKEN, token);
+        if (tokenTypeHint != null) {
+            params.put(PARAM_TOKEN_TYPE_HINT, tokenTypeHint);
+        }
+        params.putAll(additionalParameters);
+        return params;
+    }
+
+    /**
+     * Produces a JSON representation of the revocation request for persistent storage, such
+     * as by a {@link TokenRevocationQueue}. The representation contains the token to be revoked,
+     * and must be stored with the same care as the token itself.
+     */
+    @NonNull
+    public JSONObject jsonSerialize() {
+        JSONObject json = new JSONObject();
+        JsonUtil.put(json, KEY_CONFIGURATION, configuration.toJson());
+        JsonUtil.put(json, KEY_REVOCATION_ENDPOINT, revocationEndpoint.toString());
+        JsonUtil.put(json, KEY_CLIENT_ID, clientId);
+        JsonUtil.put(json, KEY_TOKEN, token);
+        JsonUtil.putIfNotNull(json, KEY_TOKEN_TYPE_HINT, tokenTypeHint);
+        JsonUtil.put(json, KEY_ADDITIONAL_PARAMETERS,
+                JsonUtil.mapToJsonObject(additionalParameters));
+        return json;
+    }
+
+    /**
+     * Reads a revocation request from a JSON representation produced by
+     * {@link #jsonSerialize()}.
+     * @throws JSONException if the provided JSON does not match the expected structure.
+     */
+    @NonNull
+    public static RevocationRequest jsonDeserialize(@NonNull JSONObject json)
+            throws JSONException {
+        checkNotNull(json, "json cannot be null");
+        return new Builder(
+                AuthorizationServiceConfiguration.fromJson(json.getJSONObject(KEY_CONFIGURATION)),
+                JsonUtil.getString(json, KEY_CLIENT_ID),
+                JsonUtil.getString(json, KEY_TOKEN))
+                .setRevocationEndpoint(JsonUtil.getUri(json, KEY_REVOCATION_ENDPOINT))
+                .setTokenTypeHint(JsonUtil.getStringIfDefined(json, KEY_TOKEN_TYPE_HINT))
+                .setAdditionalParameters(JsonUtil.getStringMap(json, KEY_ADDITIONAL_PARAMETERS))
+                .build();
+    }
+}
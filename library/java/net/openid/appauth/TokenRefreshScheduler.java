@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the access token of an {@link AuthState} in the background, shortly before it
+ * expires, so that the refresh does not have to be performed on demand by
+ * {@link AuthState#performActionWithFreshTokens(AuthorizationService,
+ * AuthState.AuthStateAction) performActionWithFreshTokens}.
+ *
+ * <p>Long-lived tokens are refreshed a fixed lead time before they expire. Short-lived tokens,
+ * for which the lead time would be a large part of their lifetime, are instead refreshed once
+ * a proportion of their lifetime has elapsed, and never sooner than a minimum delay, so that a
+ * provider issuing very short-lived tokens is not sent refreshes back-to-back.
+ *
+ * <p>The refresh itself is performed on the callback executor of the service, so that
+ * the authorization state is only ever modified from the same thread as any other
+ * token response callback. Refreshes are cancelled when the service is
+ * {@link AuthorizationService#dispose() disposed}.
+ */
+class TokenRefreshScheduler {
+
+    /**
+     * Refreshes are scheduled for at least this amount of time before the access token expires.
+     */
+    @VisibleForTesting
+    static final long REFRESH_LEAD_TIME_MS = 2 * AuthState.EXPIRY_TIME_TOLERANCE_MS;
+
+    /**
+     * A random amount of time, up to this value, is added to the lead time of each refresh, so
+     * that the refreshes of different accounts and installations do not all happen at once.
+     */
+    @VisibleForTesting
+    static final long MAX_JITTER_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Short-lived tokens are refreshed once at least this proportion of their remaining
+     * lifetime has elapsed.
+     */
+    @VisibleForTesting
+    static final double MIN_LIFETIME_FRACTION = 0.75;
+
+    /**
+     * Short-lived tokens are refreshed once at most this proportion of their remaining
+     * lifetime has elapsed; the proportion is jittered between the minimum and this value.
+     */
+    @VisibleForTesting
+    static final double MAX_LIFETIME_FRACTION = 0.9;
+
+    /**
+     * Refreshes are never scheduled sooner than this, even for tokens which have expired.
+     */
+    @VisibleForTesting
+    static final long MIN_REFRESH_DELAY_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Delay before retrying a refresh which failed due to a transient (e.g. network) error.
+     */
+    @VisibleForTesting
+    static final long RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+
+    @NonNull
+    private final AuthorizationService mService;
+
+    @NonNull
+    private final AuthState mState;
+
+    @NonNull
+    private final Clock mClock;
+
+    @NonNull
+    private final ScheduledExecutorService mTimer;
+
+    @NonNull
+    private final Executor mCallbackExecutor;
+
+    @NonNull
+    private final Random mRandom;
+
+    private final Object mLock = new Object();
+
+    @Nullable
+    private ScheduledFuture<?> mScheduledRefresh;
+
+    /**
+     * The expiration time of the access token for which the current refresh was scheduled.
+     */
+    @Nullable
+    private Long mScheduledExpirationTime;
+
+    private boolean mCancelled;
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private final Runnable mTimerRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mCallbackExecutor.execute(mRefreshRunnable);
+        }
+    };
+
+    TokenRefreshScheduler(@NonNull AuthorizationService service, @NonNull AuthState state) {
+        this(service, state, SystemClock.INSTANCE);
+    }
+
+    TokenRefreshScheduler(
+            @NonNull AuthorizationService service,
+            @NonNull AuthState state,
+            @NonNull Clock clock) {
+        this(service,
+                state,
+                clock,
+                DefaultExecutors.scheduledExecutor(),
+                service.getClientConfiguration().getCallbackExecutor(),
+                new Random());
+    }
+
+    @VisibleForTesting
+    TokenRefreshScheduler(
+            @NonNull AuthorizationService service,
+            @NonNull AuthState state,
+            @NonNull Clock clock,
+            @NonNull ScheduledExecutorService timer,
+            @NonNull Executor callbackExecutor,
+            @NonNull Random random) {
+        mService = service;
+        mState = state;
+        mClock = clock;
+        mTimer = timer;
+        mCallbackExecutor = callbackExecutor;
+        mRandom = random;
+    }
+
+    /**
+     * Schedules the first refresh, based on the current access token expiration time.
+     */
+    void start() {
+        mService.addTokenRefreshScheduler(this);
+        scheduleNextRefresh();
+    }
+
+    /**
+     * Cancels any scheduled refresh. A refresh which is already in flight will complete, but no
+     * further refreshes will be scheduled.
+     */
+    void cancel() {
+        synchronized (mLock) {
+            mCancelled = true;
+            if (mScheduledRefresh != null) {
+                mScheduledRefresh.cancel(false);
+                mScheduledRefresh = null;
+                DefaultExecutors.purgeCancelled(mTimer);
+            }
+        }
+        mService.removeTokenRefreshScheduler(this);
+    }
+
+    boolean isCancelled() {
+        synchronized (mLock) {
+            return mCancelled;
+        }
+    }
+
+    private void scheduleNextRefresh() {
+        Long expirationTime = mState.getAccessTokenExpirationTime();
+        if (expirationTime == null || mState.getRefreshToken() == null) {
+            Logger.debug("No refreshable access token, proactive refresh not scheduled");
+            return;
+        }
+
+        long remaining = expirationTime - mClock.getCurrentTimeMillis();
+        schedule(computeRefreshDelay(remaining, mRandom.nextDouble()), expirationTime);
+    }
+
+    /**
+     * Determines how long to wait before refreshing a token with the specified remaining
+     * lifetime, given a jitter factor between 0 and 1. The token is refreshed at the later of
+     * the fixed lead time before it expires, or the jittered proportion of its lifetime.
+     */
+    @VisibleForTesting
+    static long computeRefreshDelay(long remainingMs, double jitter) {
+        long fixedDelay = remainingMs - REFRESH_LEAD_TIME_MS - (long) (jitter * MAX_JITTER_MS);
+        double fraction = MIN_LIFETIME_FRACTION
+                + jitter * (MAX_LIFETIME_FRACTION - MIN_LIFETIME_FRACTION);
+        long proportionalDelay = (long) (remainingMs * fraction);
+        return Math.max(MIN_REFRESH_DELAY_MS, Math.max(fixedDelay, proportionalDelay));
+    }
+
+    private void schedule(long delayMs, @Nullable Long expirationTime) {
+        synchronized (mLock) {
+            if (mCancelled) {
+                return;
+            }
+
+            mScheduledExpirationTime = expirationTime;
+
+            Logger.debug("Scheduling proactive token refresh in %d ms", delayMs);
+            mScheduledRefresh = mTimer.schedule(mTimerRunnable, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void refresh() {
+        Long scheduledExpirationTime;
+        synchronized (mLock) {
+            if (mCancelled) {
+                return;
+            }
+            mScheduledRefresh = null;
+            scheduledExpirationTime = mScheduledExpirationTime;
+        }
+
+        // the token may have been refreshed by other means since this refresh was scheduled,
+        // in which case the refresh is scheduled for the new token instead. Retries are
+        // scheduled without an expiration time, and always performed.
+        Long expirationTime = mState.getAccessTokenExpirationTime();
+        if (scheduledExpirationTime != null
+                && expirationTime != null
+                && !expirationTime.equals(scheduledExpirationTime)) {
+            scheduleNextRefresh();
+            return;
+        }
+
+        mState.setNeedsTokenRefresh(true);
+        try {
+            mState.performActionWithFreshTokens(
+                    mService,
+                    Collections.<String, String>emptyMap(),
+                    mClock,
+                    new AuthState.AuthStateAction() {
+                        @Override
+                        public void execute(
+                                @Nullable String accessToken,
+                                @Nullable String idToken,
+                                @Nullable AuthorizationException ex) {
+                            onRefreshCompleted(ex);
+                        }
+                    });
+        } catch (IllegalStateException ex) {
+            // the service was disposed concurrently with the refresh being triggered
+            Logger.debugWithStack(ex, "Unable to perform proactive token refresh");
+        }
+    }
+
+    private void onRefreshCompleted(@Nullable AuthorizationException ex) {
+        if (ex == null) {
+            scheduleNextRefresh();
+        } else if (ex.type == AuthorizationException.TYPE_GENERAL_ERROR) {
+            Logger.debug("Proactive token refresh failed, retrying in %d ms", RETRY_DELAY_MS);
+            schedule(RETRY_DELAY_MS, null);
+        } else {
+            // the refresh token has been rejected; a new authorization is required
+            Logger.warn("Proactive token refresh failed, no further refreshes scheduled: %s", ex);
+        }
+    }
+}
@@ -153,6 +153,9 @@ public class TokenResponse {
     @NonNull
     public final Map<String, String> additionalParameters;
 
+    @Nullable
+    private volatile IdToken mIdTokenClaims;
+
     /**
      * Creates instances of {@link TokenResponse}.
      */
@@ -424,6 +427,25 @@ public class TokenResponse {
         return AsciiStringListUtil.stringToSet(scope);
     }
 
+    /**
+     * Parses the {@link #idToken ID token}, if provided. The parsed claims are retained, so the
+     * token is parsed at most once per response.
+     * @throws JSONException if the ID token is malformed.
+     */
+    @Nullable
+    public IdToken getIdTokenClaims() throws JSONException {
+        if (idToken == null) {
+            return null;
+        }
+
+        IdToken claims = mIdTokenClaims;
+        if (claims == null) {
+            claims = IdToken.parse(idToken);
+            mIdTokenClaims = claims;
+        }
+        return claims;
+    }
+
     /**
      * Produces a JSON string representation of the token response for persistent storage or
      * local transmission (e.g. between activities).
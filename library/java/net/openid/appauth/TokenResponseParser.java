@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import net.openid.appauth.AuthorizationException.TokenRequestErrors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads token endpoint responses directly from the response stream, without first reading the
+ * response into a string and parsing it into a {@link JSONObject}. The result is equivalent to
+ * that of {@link TokenResponse.Builder#fromResponseJson(JSONObject)} for successful responses,
+ * and to {@link AuthorizationException#fromOAuthTemplate} for error responses.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc6749#section-5">"The OAuth 2.0 Authorization
+ * Framework" (RFC 6749), Section 5</a>
+ */
+final class TokenResponseParser {
+
+    private static final String UTF_8 = "UTF-8";
+
+    private TokenResponseParser() {
+        throw new IllegalStateException("This type is not intended to be instantiated");
+    }
+
+    /**
+     * Reads a token response for the specified request from the provided stream.
+     *
+     * @throws AuthorizationException if the response is an OAuth error response.
+     * @throws JSONException if the response is not a JSON object, or fields have
+     *     an incorrect type.
+     * @throws IOException if the response could not be read.
+     * @throws IllegalArgumentException if the response contains invalid field values.
+     */
+    @NonNull
+    static TokenResponse parse(@NonNull TokenRequest request, @NonNull InputStream in)
+            throws AuthorizationException, JSONException, IOException {
+        String tokenType = null;
+        String accessToken = null;
+        Long expiresIn = null;
+        Long expiresAt = null;
+        String refreshToken = null;
+        String idToken = null;
+        String scope = null;
+        String error = null;
+        String errorDescription = null;
+        String errorUri = null;
+        Map<String, String> additionalParameters = new LinkedHashMap<>();
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, UTF_8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (TokenResponse.KEY_TOKEN_TYPE.equals(name)) {
+                    tokenType = nextString(reader);
+                } else if (TokenResponse.KEY_ACCESS_TOKEN.equals(name)) {
+                    accessToken = nextString(reader);
+                } else if (TokenResponse.KEY_EXPIRES_IN.equals(name)) {
+                    expiresIn = nextLong(reader);
+                } else if (TokenResponse.KEY_EXPIRES_AT.equals(name)) {
+                    expiresAt = nextLong(reader);
+                } else if (TokenResponse.KEY_REFRESH_TOKEN.equals(name)) {
+                    refreshToken = nextString(reader);
+                } else if (TokenResponse.KEY_ID_TOKEN.equals(name)) {
+                    idToken = nextString(reader);
+                } else if (TokenResponse.KEY_SCOPE.equals(name)) {
+                    scope = nextString(reader);
+                } else if (AuthorizationException.PARAM_ERROR.equals(name)) {
+                    error = nextString(reader);
+                } else if (AuthorizationException.PARAM_ERROR_DESCRIPTION.equals(name)) {
+                    errorDescription = nextString(reader);
+                } else if (AuthorizationException.PARAM_ERROR_URI.equals(name)) {
+                    errorUri = nextString(reader);
+                } else {
+                    additionalParameters.put(name, String.valueOf(readValue(reader)));
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException ex) {
+            throw malformedResponse(ex);
+        } catch (EOFException ex) {
+            // the response ended before the JSON object was complete
+            throw malformedResponse(ex);
+        } catch (IllegalStateException ex) {
+            // thrown by the reader when a value is not of the expected type
+            throw malformedResponse(ex);
+        } catch (NumberFormatException ex) {
+            throw malformedResponse(ex);
+        }
+
+        if (error != null) {
+            throw AuthorizationException.fromOAuthTemplate(
+                    TokenRequestErrors.byString(error),
+                    error,
+                    errorDescription,
+                    UriUtil.parseUriIfAvailable(errorUri));
+        }
+
+        if (tokenType == null) {
+            throw new JSONException(
+                    "field \"" + TokenResponse.KEY_TOKEN_TYPE + "\" not found in json object");
+        }
+
+        TokenResponse.Builder builder = new TokenResponse.Builder(request)
+                .setTokenType(tokenType)
+                .setAccessToken(accessToken)
+                .setRefreshToken(refreshToken)
+                .setIdToken(idToken)
+                .setScope(scope)
+                .setAdditionalParameters(additionalParameters);
+        if (expiresAt != null) {
+            builder.setAccessTokenExpirationTime(expiresAt);
+        }
+        if (expiresIn != null) {
+            builder.setAccessTokenExpiresIn(expiresIn);
+        }
+        return builder.build();
+    }
+
+    @NonNull
+    private static JSONException malformedResponse(@NonNull Exception cause) {
+        JSONException ex = new JSONException("Malformed token response: " + cause.getMessage());
+        ex.initCause(cause);
+        return ex;
+    }
+
+    /**
+     * Reads a string value, treating an explicit null as equivalent to an absent field.
+     */
+    @Nullable
+    private static String nextString(@NonNull JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Reads a numeric value, which may also be represented as a string, treating an explicit
+     * null as equivalent to an absent field.
+     */
+    @Nullable
+    private static Long nextLong(@NonNull JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextLong();
+    }
+
+    /**
+     * Reads an arbitrary value, such that its string representation matches that of the
+     * equivalent value read by {@link JSONObject}. Nested objects and arrays are the only values
+     * materialized as JSON objects, as their string representation is their JSON encoding.
+     */
+    @Nullable
+    private static Object readValue(@NonNull JsonReader reader)
+            throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    object.put(reader.nextName(), readValue(reader));
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            case NUMBER:
+                return readNumber(reader.nextString());
+            default:
+                return reader.nextString();
+        }
+    }
+
+    @NonNull
+    private static Object readNumber(@NonNull String literal) {
+        try {
+            return Long.valueOf(literal);
+        } catch (NumberFormatException ex) {
+            return Double.valueOf(literal);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import net.openid.appauth.AuthorizationService.TokenRevocationResponseCallback;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A persistent queue of token revocation requests, which allows the tokens of any number of
+ * authorization states to be revoked on sign-out without waiting for the requests to complete.
+ *
+ * <p>Requests are written to a file before they are sent, and are only removed once the
+ * authorization service has accepted them, or has rejected them with an error which would not
+ * be resolved by retrying. Requests which fail due to a network or server error remain queued,
+ * and are retried on the next call to {@link #process}, which is typically made when the
+ * application starts, or when connectivity is restored. Queued requests are sent concurrently,
+ * on the network executor of the service used to process them.
+ *
+ * <p>All reads and writes of the file are performed in order on a single background thread,
+ * shared with {@link AuthStateStore}, so all methods may be called from the main thread. The
+ * file contains the tokens to be revoked, and should be stored in the application's private
+ * storage. Client secrets are not written to the file, so client authentication is provided
+ * each time the queue is processed.
+ */
+public final class TokenRevocationQueue {
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final String KEY_REQUESTS = "requests";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @NonNull
+    private final File mQueueFile;
+
+    @NonNull
+    private final Executor mStorageExecutor;
+
+    // accessed only on the storage executor
+    @Nullable
+    private List<RevocationRequest> mPending;
+
+    // accessed only on the storage executor
+    @NonNull
+    private final Map<RevocationRequest, RequestHandle> mInFlight = new IdentityHashMap<>();
+
+    /**
+     * Creates a queue which persists pending revocation requests to the specified file.
+     */
+    public TokenRevocationQueue(@NonNull File queueFile) {
+        this(queueFile, DefaultExecutors.storageExecutor());
+    }
+
+    @VisibleForTesting
+    TokenRevocationQueue(@NonNull File queueFile, @NonNull Executor storageExecutor) {
+        mQueueFile = checkNotNull(queueFile, "queueFile cannot be null");
+        mStorageExecutor = checkNotNull(storageExecutor, "storageExecutor cannot be null");
+    }
+
+    /**
+     * Signs out of the specified authorization states: proactive token refreshes of the
+     * states are stopped, and requests to revoke their refresh and access tokens are queued
+     * and sent in the background. The states should be discarded by the caller once this
+     * method returns.
+     *
+     * <p>The tokens of states whose authorization service does not provide a revocation
+     * endpoint cannot be revoked, and are ignored.
+     *
+     * @see AuthState#createRevocationRequests()
+     */
+    public void signOut(
+            @NonNull AuthorizationService service,
+            @NonNull Collection<AuthState> states,
+            @NonNull ClientAuthentication clientAuthentication) {
+        checkNotNull(service, "service cannot be null");
+        checkNotNull(states, "states cannot be null");
+        checkNotNull(clientAuthentication, "clientAuthentication cannot be null");
+
+        List<RevocationRequest> requests = new ArrayList<>();
+        for (AuthState state : states) {
+            state.stopProactiveTokenRefresh();
+            try {
+                requests.addAll(state.createRevocationRequests());
+            } catch (IllegalStateException ex) {
+                Logger.warnWithStack(ex, "Unable to revoke tokens on sign-out");
+            }
+        }
+
+        enqueue(requests);
+        process(service, clientAuthentication);
+    }
+
+    /**
+     * Adds the specified revocation requests to the queue. The requests are not sent until the
+     * queue is next {@link #process processed}. Requests for tokens which are already queued
+     * for revocation at the same endpoint are ignored.
+     */
+    public void enqueue(@NonNull Collection<RevocationRequest> requests) {
+        checkNotNull(requests, "requests cannot be null");
+        final List<RevocationRequest> added = new ArrayList<>(requests);
+        if (added.isEmpty()) {
+            return;
+        }
+
+        mStorageExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<RevocationRequest> pending = getPending();
+                boolean changed = false;
+                for (RevocationRequest request : added) {
+                    if (!isQueued(pending, request)) {
+                        pending.add(request);
+                        changed = true;
+                    }
+                }
+
+                if (changed) {
+                    writeQueue();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends all queued revocation requests which are not already in progress, using the
+     * specified service and client authentication. If the service is disposed before the
+     * requests complete, they remain queued, and are sent again the next time the queue is
+     * processed.
+     */
+    public void process(
+            @NonNull final AuthorizationService service,
+            @NonNull final ClientAuthentication clientAuthentication) {
+        checkNotNull(service, "service cannot be null");
+        checkNotNull(clientAuthentication, "clientAuthentication cannot be null");
+
+        mStorageExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // completion may modify the queue if the service uses synchronous executors
+                for (RevocationRequest request : new ArrayList<>(getPending())) {
+                    RequestHandle handle = mInFlight.get(request);
+                    if (handle != null && !handle.isCancelled()) {
+                        continue;
+                    }
+
+                    CompletionCallback callback = new CompletionCallback(request);
+                    try {
+                        handle = service.performTokenRevocation(
+                                request,
+                                clientAuthentication,
+                                callback);
+                    } catch (IllegalStateException ex) {
+                        Logger.warnWithStack(ex, "Unable to process token revocation queue");
+                        return;
+                    }
+
+                    if (!callback.mCompleted) {
+                        mInFlight.put(request, handle);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * The number of requests in the queue, including those in progress. Must be called on the
+     * storage executor.
+     */
+    @VisibleForTesting
+    int getPendingCount() {
+        return getPending().size();
+    }
+
+    private void onRequestCompleted(
+            @NonNull RevocationRequest request,
+            @Nullable AuthorizationException ex) {
+        mInFlight.remove(request);
+        if (ex != null && isTransient(ex)) {
+            Logger.debug("Token revocation with %s failed, will retry: %s",
+                    request.revocationEndpoint, ex.errorDescription);
+            return;
+        }
+
+        if (ex != null) {
+            Logger.warn("Token revocation with %s was rejected: %s",
+                    request.revocationEndpoint, ex.error);
+        }
+
+        if (getPending().remove(request)) {
+            writeQueue();
+        }
+    }
+
+    private static boolean isTransient(@NonNull AuthorizationException ex) {
+        return GeneralErrors.NETWORK_ERROR.equals(ex)
+                || GeneralErrors.SERVER_ERROR.equals(ex)
+                || GeneralErrors.SERVICE_UNAVAILABLE.equals(ex);
+    }
+
+    private static boolean isQueued(
+            @NonNull List<RevocationRequest> pending,
+            @NonNull RevocationRequest request) {
+        for (RevocationRequest queued : pending) {
+            if (queued.token.equals(request.token)
+                    && queued.revocationEndpoint.equals(request.revocationEndpoint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    private List<RevocationRequest> getPending() {
+        if (mPending == null) {
+            mPending = readQueue();
+        }
+        return mPending;
+    }
+
+    @NonNull
+    private List<RevocationRequest> readQueue() {
+        List<RevocationRequest> pending = new ArrayList<>();
+        if (!mQueueFile.exists()) {
+            return pending;
+        }
+
+        JSONArray requests;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(mQueueFile);
+            requests = new JSONObject(Utils.readInputStream(in)).getJSONArray(KEY_REQUESTS);
+        } catch (IOException ex) {
+            Logger.errorWithStack(ex, "Unable to read token revocation queue %s", mQueueFile);
+            return pending;
+        } catch (JSONException ex) {
+            Logger.errorWithStack(ex, "Malformed token revocation queue %s", mQueueFile);
+            return pending;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+
+        for (int i = 0; i < requests.length(); i++) {
+            try {
+                pending.add(RevocationRequest.jsonDeserialize(requests.getJSONObject(i)));
+            } catch (JSONException ex) {
+                Logger.warnWithStack(ex, "Discarding malformed token revocation request");
+            }
+        }
+        return pending;
+    }
+
+    private void writeQueue() {
+        List<RevocationRequest> pending = getPending();
+        if (pending.isEmpty()) {
+            if (mQueueFile.exists() && !mQueueFile.delete()) {
+                Logger.warn("Unable to delete token revocation queue %s", mQueueFile);
+            }
+            return;
+        }
+
+        JSONArray requests = new JSONArray();
+        for (RevocationRequest request : pending) {
+            requests.put(request.jsonSerialize());
+        }
+        JSONObject json = new JSONObject();
+        JsonUtil.put(json, KEY_REQUESTS, requests);
+
+        File tempFile = new File(mQueueFile.getPath() + TEMP_FILE_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(json.toString().getBytes(UTF_8));
+            out.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(mQueueFile)) {
+                throw new IOException("Unable to rename " + tempFile + " to " + mQueueFile);
+            }
+        } catch (IOException ex) {
+            Logger.errorWithStack(ex, "Unable to write token revocation queue %s", mQueueFile);
+            if (!tempFile.delete()) {
+                Logger.debug("Unable to delete %s", tempFile);
+            }
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(@Nullable FileOutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                Logger.debugWithStack(ex, "Unable to close token revocation queue");
+            }
+        }
+    }
+
+    private final class CompletionCallback implements TokenRevocationResponseCallback {
+
+        @NonNull
+        private final RevocationRequest mRequest;
+
+        // accessed only on the storage executor
+        private boolean mCompleted;
+
+        CompletionCallback(@NonNull RevocationRequest request) {
+            mRequest = request;
+        }
+
+        @Override
+        public void onTokenRevocationCompleted(@Nullable final AuthorizationException ex) {
+            mStorageExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCompleted = true;
+                    onRequestCompleted(mRequest, ex);
+                }
+            });
+        }
+    }
+}
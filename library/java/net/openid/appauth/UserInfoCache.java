@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, least-recently-used, in-memory cache of userinfo responses, so that the claims
+ * about a user can be provided without a request to the userinfo endpoint, such as each time
+ * a profile screen is displayed.
+ *
+ * <p>Responses are cached per subject and access token, so that claims obtained with one
+ * token are never provided to a request made with another; only a hash of the token is
+ * retained. A response is used without a request for the lifetime indicated by the HTTP
+ * caching headers of the response, or for a default lifetime if there are none. It is then
+ * revalidated with a conditional request, using the {@code ETag} header of the response; if
+ * the claims have not been modified, the cached claims are used without being downloaded or
+ * parsed again.
+ *
+ * <p>A cache is used by specifying it through
+ * {@link AppAuthConfiguration.Builder#setUserInfoCache(UserInfoCache)}. Instances are
+ * thread-safe, and may be shared between services.
+ */
+public final class UserInfoCache {
+
+    /**
+     * The default maximum number of responses held by a cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    /**
+     * The default lifetime of a response for which the userinfo endpoint did not provide any
+     * caching headers.
+     */
+    public static final long DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * The maximum lifetime of a response before it is revalidated, regardless of the caching
+     * headers provided.
+     */
+    @VisibleForTesting
+    static final long MAX_TTL_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long mDefaultTtlMs;
+
+    @NonNull
+    private final Clock mClock;
+
+    @NonNull
+    private final LruCacheMap<Key, Entry> mEntries;
+
+    /**
+     * Creates a cache holding up to {@link #DEFAULT_MAX_ENTRIES} responses, which uses
+     * responses without caching headers for {@link #DEFAULT_TTL_MS}.
+     */
+    public UserInfoCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MS);
+    }
+
+    /**
+     * Creates a cache holding up to the specified number of responses, which uses responses
+     * without caching headers for the specified time before revalidating them.
+     */
+    public UserInfoCache(int maxEntries, long defaultTtlMs) {
+        this(maxEntries, defaultTtlMs, SystemClock.INSTANCE);
+    }
+
+    @VisibleForTesting
+    UserInfoCache(int maxEntries, long defaultTtlMs, @NonNull Clock clock) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        checkArgument(defaultTtlMs >= 0, "defaultTtlMs must not be negative");
+        mDefaultTtlMs = defaultTtlMs;
+        mClock = checkNotNull(clock);
+        mEntries = new LruCacheMap<>(maxEntries);
+    }
+
+    /**
+     * Removes any cached responses for the specified subject, such as when the user's profile
+     * is known to have changed.
+     */
+    public synchronized void invalidate(@NonNull String subject) {
+        checkNotNull(subject, "subject cannot be null");
+        for (Iterator<Key> it = mEntries.keySet().iterator(); it.hasNext(); ) {
+            if (subject.equals(it.next().mSubject)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached responses.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Retrieves the cached response for the specified key, including a response which is
+     * no longer fresh but may be revalidated.
+     */
+    @Nullable
+    synchronized Entry get(@NonNull Key key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Determines whether the specified response may be used without revalidating it.
+     */
+    boolean isFresh(@NonNull Entry entry) {
+        return entry.mExpirationTime > mClock.getCurrentTimeMillis();
+    }
+
+    /**
+     * Caches the claims returned by the userinfo endpoint, with the lifetime indicated by the
+     * Cache-Control header of the response. Claims which must not be stored, and claims which
+     * must be revalidated immediately but cannot be revalidated, are not retained.
+     */
+    synchronized void put(
+            @NonNull Key key,
+            @NonNull JSONObject claims,
+            @Nullable String etag,
+            @Nullable String cacheControl) {
+        if (CacheHeaders.isNoStore(cacheControl)) {
+            mEntries.remove(key);
+            return;
+        }
+
+        long ttl = CacheHeaders.getTimeToLive(cacheControl, mDefaultTtlMs, MAX_TTL_MS);
+        if (ttl == 0L && etag == null) {
+            mEntries.remove(key);
+            return;
+        }
+        mEntries.put(key, new Entry(claims, etag, mClock.getCurrentTimeMillis() + ttl));
+    }
+
+    /**
+     * The number of responses currently held, including those which are no longer fresh.
+     */
+    @VisibleForTesting
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Identifies a cached response by the userinfo endpoint, the subject, if known, and the
+     * access token with which it was requested.
+     */
+    static final class Key {
+
+        @NonNull
+        private final Uri mEndpoint;
+
+        @Nullable
+        private final String mSubject;
+
+        @NonNull
+        private final byte[] mTokenHash;
+
+        Key(@NonNull Uri endpoint, @Nullable String subject, @NonNull String accessToken) {
+            mEndpoint = endpoint;
+            mSubject = subject;
+            mTokenHash = hash(accessToken);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return mEndpoint.equals(other.mEndpoint)
+                    && (mSubject != null
+                            ? mSubject.equals(other.mSubject)
+                            : other.mSubject == null)
+                    && Arrays.equals(mTokenHash, other.mTokenHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return mEndpoint.hashCode() ^ Arrays.hashCode(mTokenHash);
+        }
+
+        @NonNull
+        private static byte[] hash(@NonNull String accessToken) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(accessToken.getBytes(UTF_8));
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("SHA-256 is not supported", ex);
+            }
+        }
+    }
+
+    static final class Entry {
+
+        @NonNull
+        private final JSONObject mClaims;
+
+        @Nullable
+        private final String mEtag;
+
+        private final long mExpirationTime;
+
+        Entry(@NonNull JSONObject claims, @Nullable String etag, long expirationTime) {
+            mClaims = claims;
+            mEtag = etag;
+            mExpirationTime = expirationTime;
+        }
+
+        @NonNull
+        JSONObject getClaims() {
+            return mClaims;
+        }
+
+        @Nullable
+        String getEtag() {
+            return mEtag;
+        }
+    }
+}
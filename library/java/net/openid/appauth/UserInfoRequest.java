@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A request for claims about the authenticated user from the userinfo endpoint of an OpenID
+ * Connect provider.
+ *
+ * @see AuthorizationService#performUserInfoRequest
+ * @see <a href="http://openid.net/specs/openid-connect-core-1_0.html#UserInfo">"OpenID
+ * Connect Core 1.0", Section 5.3</a>
+ */
+public class UserInfoRequest {
+
+    /**
+     * The claim identifying the user, which is always provided.
+     */
+    public static final String CLAIM_SUBJECT = "sub";
+
+    /**
+     * The userinfo endpoint to which the request is sent.
+     */
+    @NonNull
+    public final Uri userInfoEndpoint;
+
+    /**
+     * The claims to be provided in the response, or {@code null} if all claims returned by the
+     * userinfo endpoint are to be provided. This does not affect the claims requested from the
+     * endpoint, which are determined by the scopes of the access token.
+     */
+    @Nullable
+    public final Set<String> claims;
+
+    /**
+     * Creates instances of {@link UserInfoRequest}.
+     */
+    public static final class Builder {
+
+        @NonNull
+        private AuthorizationServiceConfiguration mConfiguration;
+
+        @Nullable
+        private Uri mUserInfoEndpoint;
+
+        @Nullable
+        private Set<String> mClaims;
+
+        /**
+         * Creates a userinfo request builder for the specified service.
+         */
+        public Builder(@NonNull AuthorizationServiceConfiguration configuration) {
+            setConfiguration(configuration);
+        }
+
+        /**
+         * Specifies the authorization service configuration for the request, which must not
+         * be null.
+         */
+        @NonNull
+        public Builder setConfiguration(@NonNull AuthorizationServiceConfiguration configuration) {
+            mConfiguration = checkNotNull(configuration);
+            return this;
+        }
+
+        /**
+         * Specifies the userinfo endpoint for the request. If not specified, the endpoint is
+         * taken from the discovery document of the configuration.
+         */
+        @NonNull
+        public Builder setUserInfoEndpoint(@Nullable Uri userInfoEndpoint) {
+            mUserInfoEndpoint = userInfoEndpoint;
+            return this;
+        }
+
+        /**
+         * Specifies the claims to be provided in the response. The {@link #CLAIM_SUBJECT
+         * subject} claim is always provided.
+         *
+         * @see #setClaims(Iterable)
+         */
+        @NonNull
+        public Builder setClaims(@Nullable String... claims) {
+            return setClaims(claims != null ? Arrays.asList(claims) : null);
+        }
+
+        /**
+         * Specifies the claims to be provided in the response, or {@code null} to provide
+         * all claims returned by the userinfo endpoint. The {@link #CLAIM_SUBJECT subject}
+         * claim is always provided.
+         */
+        @NonNull
+        public Builder setClaims(@Nullable Iterable<String> claims) {
+            if (claims == null) {
+                mClaims = null;
+                return this;
+            }
+
+            mClaims = new LinkedHashSet<>();
+            mClaims.add(CLAIM_SUBJECT);
+            for (String claim : claims) {
+                mClaims.add(checkNotNull(claim, "claims cannot contain null"));
+            }
+            return this;
+        }
+
+        /**
+         * Produces a {@link UserInfoRequest} instance.
+         *
+         * @throws IllegalStateException if no userinfo endpoint was specified, and the
+         *     configuration does not provide one.
+         */
+        @NonNull
+        public UserInfoRequest build() {
+            Uri endpoint = mUserInfoEndpoint;
+            if (endpoint == null && mConfiguration.discoveryDoc != null) {
+                endpoint = mConfiguration.discoveryDoc.getUserinfoEndpoint();
+            }
+
+            if (endpoint == null) {
+                throw new IllegalStateException("no userinfo endpoint specified");
+            }
+
+            return new UserInfoRequest(
+                    endpoint,
+                    mClaims != null
+                            ? Collections.unmodifiableSet(new LinkedHashSet<>(mClaims))
+                            : null);
+        }
+    }
+
+    private UserInfoRequest(@NonNull Uri userInfoEndpoint, @Nullable Set<String> claims) {
+        this.userInfoEndpoint = userInfoEndpoint;
+        this.claims = claims;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The claims about the authenticated user returned by the userinfo endpoint of an OpenID
+ * Connect provider, limited to the {@link UserInfoRequest#claims requested claims}.
+ *
+ * @see AuthorizationService#performUserInfoRequest
+ * @see <a href="http://openid.net/specs/openid-connect-core-1_0.html#UserInfoResponse">"OpenID
+ * Connect Core 1.0", Section 5.3.2</a>
+ */
+public class UserInfoResponse {
+
+    /**
+     * The userinfo request associated with this response.
+     */
+    @NonNull
+    public final UserInfoRequest request;
+
+    /**
+     * The identifier of the user at the provider, from the {@code sub} claim.
+     */
+    @NonNull
+    public final String subject;
+
+    /**
+     * The claims about the user. The object may be shared with the cache from which the
+     * response was provided, and must not be modified.
+     */
+    @NonNull
+    public final JSONObject claims;
+
+    /**
+     * Whether the claims were provided from the cache rather than downloaded from the userinfo
+     * endpoint, including claims which the endpoint confirmed had not been modified.
+     */
+    public final boolean fromCache;
+
+    UserInfoResponse(
+            @NonNull UserInfoRequest request,
+            @NonNull String subject,
+            @NonNull JSONObject claims,
+            boolean fromCache) {
+        this.request = request;
+        this.subject = subject;
+        this.claims = claims;
+        this.fromCache = fromCache;
+    }
+
+    /**
+     * Creates a response for the specified request from the complete set of claims returned
+     * by the userinfo endpoint, retaining only the requested claims.
+     *
+     * @throws JSONException if the claims do not include the subject.
+     */
+    @NonNull
+    static UserInfoResponse fromClaims(
+            @NonNull UserInfoRequest request,
+            @NonNull JSONObject allClaims,
+            boolean fromCache) throws JSONException {
+        String subject = allClaims.getString(UserInfoRequest.CLAIM_SUBJECT);
+        if (request.claims == null) {
+            return new UserInfoResponse(request, subject, allClaims, fromCache);
+        }
+
+        JSONObject claims = new JSONObject();
+        for (String claim : request.claims) {
+            Object value = allClaims.opt(claim);
+            if (value != null) {
+                claims.put(claim, value);
+            }
+        }
+        return new UserInfoResponse(request, subject, claims, fromCache);
+    }
+
+    /**
+     * The value of the specified claim as a string, or {@code null} if the claim was not
+     * provided.
+     */
+    @Nullable
+    public String getStringClaim(@NonNull String name) {
+        return claims.has(name) && !claims.isNull(name) ? claims.optString(name) : null;
+    }
+}
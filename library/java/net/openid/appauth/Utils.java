@@ -17,6 +17,7 @@ package net.openid.appauth;
 import android.util.Base64;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -46,6 +47,19 @@ class Utils {
         return sb.toString();
     }
 
+    /**
+     * Read the remaining bytes of an input stream.
+     */
+    public static byte[] readInputStreamBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_READ_BUFFER_SIZE);
+        byte[] buffer = new byte[INITIAL_READ_BUFFER_SIZE];
+        int readCount;
+        while ((readCount = in.read(buffer)) != -1) {
+            out.write(buffer, 0, readCount);
+        }
+        return out.toByteArray();
+    }
+
     /**
      * Close an input stream quietly, i.e. without throwing an exception.
      */
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static net.openid.appauth.TestValues.TEST_APP_REDIRECT_URI;
+import static net.openid.appauth.TestValues.TEST_AUTH_CODE;
+import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
+import static net.openid.appauth.TestValues.TEST_CLIENT_SECRET;
+import static net.openid.appauth.TestValues.TEST_CODE_VERIFIER;
+import static net.openid.appauth.TestValues.TEST_ID_TOKEN;
+import static net.openid.appauth.TestValues.TEST_REFRESH_TOKEN;
+import static net.openid.appauth.TestValues.TEST_STATE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import net.openid.appauth.AuthorizationException.TokenRequestErrors;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class AuthStateCodecTest {
+
+    private static final int TIMING_ROUNDS = 10;
+    private static final int TIMING_ITERATIONS = 200;
+
+    private AuthState mState;
+
+    @Before
+    public void setUp() throws Exception {
+        AuthorizationServiceConfiguration config = new AuthorizationServiceConfiguration(
+                new AuthorizationServiceDiscovery(
+                        new JSONObject(AuthorizationServiceConfigurationTest.TEST_JSON)));
+
+        AuthorizationRequest authRequest = new AuthorizationRequest.Builder(
+                config,
+                TEST_CLIENT_ID,
+                ResponseTypeValues.CODE,
+                TEST_APP_REDIRECT_URI,
+                TEST_STATE)
+                .setScopes(AuthorizationRequest.Scope.OPENID, AuthorizationRequest.Scope.EMAIL)
+                .setCodeVerifier(TEST_CODE_VERIFIER)
+                .setAdditionalParameters(Collections.singletonMap("prompt_hint", "value"))
+                .build();
+        AuthorizationResponse authResponse = new AuthorizationResponse.Builder(authRequest)
+                .setState(TEST_STATE)
+                .setAuthorizationCode(TEST_AUTH_CODE)
+                .build();
+        TokenResponse tokenResponse = new TokenResponse.Builder(
+                authResponse.createTokenExchangeRequest())
+                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                .setAccessToken(TEST_ACCESS_TOKEN)
+                .setAccessTokenExpirationTime(1478000000000L)
+                .setIdToken(TEST_ID_TOKEN)
+                .setRefreshToken(TEST_REFRESH_TOKEN)
+                .build();
+        RegistrationResponse regResponse = new RegistrationResponse.Builder(
+                new RegistrationRequest.Builder(config, Arrays.asList(TEST_APP_REDIRECT_URI))
+                        .build())
+                .setClientId(TEST_CLIENT_ID)
+                .setClientSecret(TEST_CLIENT_SECRET)
+                .setClientSecretExpiresAt(0L)
+                .build();
+
+        mState = new AuthState(regResponse);
+        mState.update(authResponse, null);
+        mState.update(tokenResponse, null);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        AuthState decoded = AuthStateCodec.decode(AuthStateCodec.encode(mState));
+        assertThat(decoded.jsonSerializeString()).isEqualTo(mState.jsonSerializeString());
+        assertThat(decoded.getAuthorizationServiceConfiguration().discoveryDoc.getIssuer())
+                .isEqualTo("test_issuer");
+    }
+
+    @Test
+    public void testRoundTrip_authorizationException() throws Exception {
+        mState.update((TokenResponse) null, TokenRequestErrors.INVALID_GRANT);
+        AuthState decoded = AuthStateCodec.decode(AuthStateCodec.encode(mState));
+        assertThat(decoded.getAuthorizationException())
+                .isEqualTo(TokenRequestErrors.INVALID_GRANT);
+        assertThat(decoded.jsonSerializeString()).isEqualTo(mState.jsonSerializeString());
+    }
+
+    @Test
+    public void testRoundTrip_emptyState() throws Exception {
+        AuthState decoded = AuthStateCodec.decode(AuthStateCodec.encode(new AuthState()));
+        assertThat(decoded.jsonSerializeString()).isEqualTo("{}");
+    }
+
+    @Test
+    public void testEncode_configurationIsStoredOnce() throws Exception {
+        byte[] encoded = AuthStateCodec.encode(mState);
+        byte[] json = mState.jsonSerializeString().getBytes("UTF-8");
+
+        // the configuration is repeated in each of the three requests in the JSON form
+        assertThat(encoded.length).isLessThan(json.length / 2);
+    }
+
+    @Test
+    public void testDecode_fasterThanJsonDeserialize() throws Exception {
+        byte[] encoded = AuthStateCodec.encode(mState);
+        String json = mState.jsonSerializeString();
+
+        // the fastest of several rounds is compared, to reduce the effect of warm-up and of
+        // other activity on the machine
+        long codecNanos = Long.MAX_VALUE;
+        long jsonNanos = Long.MAX_VALUE;
+        for (int round = 0; round < TIMING_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMING_ITERATIONS; i++) {
+                AuthStateCodec.decode(encoded);
+            }
+            codecNanos = Math.min(codecNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < TIMING_ITERATIONS; i++) {
+                AuthState.jsonDeserialize(json);
+            }
+            jsonNanos = Math.min(jsonNanos, System.nanoTime() - start);
+        }
+
+        assertThat(codecNanos).isLessThan(jsonNanos);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_notEncodedState() throws Exception {
+        AuthStateCodec.decode(mState.jsonSerializeString().getBytes("UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_unsupportedVersion() throws Exception {
+        byte[] encoded = AuthStateCodec.encode(mState);
+        encoded[4] = (byte) (AuthStateCodec.VERSION + 1);
+        AuthStateCodec.decode(encoded);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_truncated() throws Exception {
+        byte[] encoded = AuthStateCodec.encode(mState);
+        AuthStateCodec.decode(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
+import static net.openid.appauth.TestValues.TEST_ID_TOKEN;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import android.support.annotation.NonNull;
+import android.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import net.openid.appauth.AuthStateRegistry.AccountKey;
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class AuthStateRegistryTest {
+
+    private static final String TEST_ISSUER = "https://test.openid.com";
+    private static final long ONE_HOUR = 3600000L;
+
+    private TestClock mClock;
+    private AuthStateRegistry mRegistry;
+    private AuthorizationService mService;
+    private RecordingRefreshCallback mCallback;
+
+    @Before
+    public void setUp() {
+        mClock = new TestClock(0L);
+        mRegistry = new AuthStateRegistry(AuthStateRegistry.DEFAULT_LOCK_STRIPES, mClock);
+        mService = mock(AuthorizationService.class);
+        mCallback = new RecordingRefreshCallback();
+    }
+
+    @Test
+    public void testAccountKey_fromAuthState() throws Exception {
+        AccountKey key = AccountKey.fromAuthState(createState("alice", ONE_HOUR));
+        assertThat(key).isEqualTo(new AccountKey(TEST_ISSUER, TEST_CLIENT_ID, "alice"));
+    }
+
+    @Test
+    public void testAccountKey_fromAuthState_withoutIdTokenClaims() {
+        AuthState state = new AuthState(
+                getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder().setIdToken(TEST_ID_TOKEN).build(),
+                null);
+        assertThat(AccountKey.fromAuthState(state)).isNull();
+        assertThat(AccountKey.fromAuthState(new AuthState())).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPut_withoutAccountKey() {
+        mRegistry.put(new AuthState());
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        AuthState alice = createState("alice", ONE_HOUR);
+        AuthState bob = createState("bob", ONE_HOUR);
+        AccountKey aliceKey = mRegistry.put(alice);
+        AccountKey bobKey = mRegistry.put(bob);
+
+        assertThat(mRegistry.size()).isEqualTo(2);
+        assertThat(mRegistry.getAccounts()).containsOnly(aliceKey, bobKey);
+        assertThat(mRegistry.get(aliceKey)).isSameAs(alice);
+        assertThat(mRegistry.get(bobKey)).isSameAs(bob);
+
+        AuthState newAlice = createState("alice", ONE_HOUR);
+        assertThat(mRegistry.put(aliceKey, newAlice)).isSameAs(alice);
+        assertThat(mRegistry.get(aliceKey)).isSameAs(newAlice);
+
+        assertThat(mRegistry.remove(aliceKey)).isSameAs(newAlice);
+        assertThat(mRegistry.get(aliceKey)).isNull();
+        assertThat(mRegistry.getAccounts()).containsOnly(bobKey);
+    }
+
+    @Test
+    public void testGetLock_sameForEqualKeys() {
+        AccountKey key = new AccountKey(TEST_ISSUER, TEST_CLIENT_ID, "alice");
+        AccountKey equalKey = new AccountKey(TEST_ISSUER, TEST_CLIENT_ID, "alice");
+        assertThat(mRegistry.getLock(key)).isSameAs(mRegistry.getLock(equalKey));
+    }
+
+    @Test
+    public void testRefreshAll_nothingToRefresh() throws Exception {
+        mRegistry.put(createState("alice", ONE_HOUR));
+        mRegistry.refreshAll(mService, 1, mCallback);
+
+        verifyZeroInteractions(mService);
+        assertThat(mCallback.invocations.get()).isEqualTo(1);
+        assertThat(mCallback.refreshed.get()).isEmpty();
+        assertThat(mCallback.failures.get()).isEmpty();
+    }
+
+    @Test
+    public void testRefreshAll_boundedParallelism() throws Exception {
+        mRegistry.put(createState("alice", 0L));
+        mRegistry.put(createState("bob", 0L));
+        mRegistry.put(createState("carol", 0L));
+        AccountKey dave = mRegistry.put(createState("dave", ONE_HOUR));
+
+        mRegistry.refreshAll(mService, 2, mCallback);
+
+        ArgumentCaptor<TokenRequest> requestCaptor = ArgumentCaptor.forClass(TokenRequest.class);
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(mService, times(2)).performTokenRequest(
+                requestCaptor.capture(),
+                callbackCaptor.capture(),
+                any(Runnable.class));
+
+        // completing one refresh starts the next
+        completeRefresh(requestCaptor.getAllValues().get(0), callbackCaptor.getAllValues().get(0));
+        requestCaptor = ArgumentCaptor.forClass(TokenRequest.class);
+        callbackCaptor = ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(mService, times(3)).performTokenRequest(
+                requestCaptor.capture(),
+                callbackCaptor.capture(),
+                any(Runnable.class));
+        assertThat(mCallback.invocations.get()).isEqualTo(0);
+
+        completeRefresh(requestCaptor.getAllValues().get(1), callbackCaptor.getAllValues().get(1));
+        callbackCaptor.getAllValues().get(2).onTokenRequestCompleted(
+                null, GeneralErrors.NETWORK_ERROR);
+
+        assertThat(mCallback.invocations.get()).isEqualTo(1);
+        assertThat(mCallback.refreshed.get()).hasSize(2);
+        assertThat(mCallback.failures.get()).hasSize(1);
+        for (Map.Entry<AccountKey, AuthorizationException> failure
+                : mCallback.failures.get().entrySet()) {
+            assertThat(failure.getValue()).isEqualTo(GeneralErrors.NETWORK_ERROR);
+            assertThat(mCallback.refreshed.get()).doesNotContain(failure.getKey());
+        }
+        assertThat(mRegistry.get(dave).getNeedsTokenRefresh(mClock)).isFalse();
+    }
+
+    @Test
+    public void testRefreshAll_withoutRefreshToken() throws Exception {
+        AuthState state = new AuthState(
+                getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setRefreshToken(null)
+                        .setIdToken(createIdToken("alice"))
+                        .build(),
+                null);
+        AccountKey key = mRegistry.put(state);
+
+        mRegistry.refreshAll(mService, 1, mCallback);
+
+        verifyZeroInteractions(mService);
+        assertThat(mCallback.invocations.get()).isEqualTo(1);
+        assertThat(mCallback.failures.get()).hasSize(1);
+        assertThat(mCallback.failures.get()).containsKey(key);
+    }
+
+    @Test
+    public void testRefreshAll_disposedService() throws Exception {
+        AccountKey key = mRegistry.put(createState("alice", 0L));
+        doThrow(new IllegalStateException("Service has been disposed"))
+                .when(mService)
+                .performTokenRequest(
+                        any(TokenRequest.class),
+                        any(AuthorizationService.TokenResponseCallback.class),
+                        any(Runnable.class));
+
+        mRegistry.refreshAll(mService, 1, mCallback);
+
+        assertThat(mCallback.invocations.get()).isEqualTo(1);
+        assertThat(mCallback.refreshed.get()).isEmpty();
+        assertThat(mCallback.failures.get().get(key))
+                .isEqualTo(GeneralErrors.UNEXPECTED_ERROR);
+    }
+
+    private void completeRefresh(
+            TokenRequest request,
+            AuthorizationService.TokenResponseCallback callback) {
+        callback.onTokenRequestCompleted(
+                new TokenResponse.Builder(request)
+                        .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(mClock.getCurrentTimeMillis() + ONE_HOUR)
+                        .build(),
+                null);
+    }
+
+    private AuthState createState(String subject, long expirationTime) throws Exception {
+        return new AuthState(
+                getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(expirationTime)
+                        .setIdToken(createIdToken(subject))
+                        .build(),
+                null);
+    }
+
+    private static String createIdToken(String subject) throws Exception {
+        JSONObject claims = new JSONObject();
+        claims.put("iss", TEST_ISSUER);
+        claims.put("sub", subject);
+        int flags = Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+        return Base64.encodeToString("{\"alg\":\"none\"}".getBytes("UTF-8"), flags)
+                + "." + Base64.encodeToString(claims.toString().getBytes("UTF-8"), flags)
+                + ".";
+    }
+
+    private static class RecordingRefreshCallback implements AuthStateRegistry.RefreshCallback {
+        final AtomicInteger invocations = new AtomicInteger();
+        final AtomicReference<Set<AccountKey>> refreshed = new AtomicReference<>();
+        final AtomicReference<Map<AccountKey, AuthorizationException>> failures =
+                new AtomicReference<>();
+
+        @Override
+        public void onRefreshCompleted(
+                @NonNull Set<AccountKey> refreshedAccounts,
+                @NonNull Map<AccountKey, AuthorizationException> failedAccounts) {
+            invocations.incrementAndGet();
+            refreshed.set(refreshedAccounts);
+            failures.set(failedAccounts);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static net.openid.appauth.TestValues.TEST_REFRESH_TOKEN;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class AuthStateStoreTest {
+
+    private static final Long TEST_EXPIRATION_TIME = 3600000L;
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private File mJournalFile;
+    private AuthStateStore mStore;
+    private AuthState mState;
+
+    @Before
+    public void setUp() throws Exception {
+        mJournalFile = new File(mTempFolder.newFolder(), "authState");
+        mStore = createStore();
+        mState = new AuthState(
+                getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TEST_EXPIRATION_TIME)
+                        .build(),
+                null);
+    }
+
+    @Test
+    public void testLoad_noJournal() throws Exception {
+        assertThat(mStore.load()).isNull();
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        mStore.save(mState);
+        AuthState loaded = createStore().load();
+        assertThat(loaded.jsonSerializeString()).isEqualTo(mState.jsonSerializeString());
+    }
+
+    @Test
+    public void testSave_unchangedStateIsNotWritten() throws Exception {
+        mStore.save(mState);
+        long length = mJournalFile.length();
+        mStore.save(mState);
+        assertThat(mJournalFile.length()).isEqualTo(length);
+    }
+
+    @Test
+    public void testSave_refreshAppendsRecord() throws Exception {
+        mStore.save(mState);
+        long snapshotLength = mJournalFile.length();
+
+        refresh(mState, "access_token_2", "refresh_token_2");
+        mStore.save(mState);
+
+        assertThat(countRecords()).isEqualTo(2);
+        assertThat(mJournalFile.length() - snapshotLength).isLessThan(snapshotLength);
+
+        AuthState loaded = createStore().load();
+        assertThat(loaded.getAccessToken()).isEqualTo("access_token_2");
+        assertThat(loaded.getRefreshToken()).isEqualTo("refresh_token_2");
+        assertThat(loaded.getAccessTokenExpirationTime())
+                .isEqualTo(mState.getAccessTokenExpirationTime());
+    }
+
+    @Test
+    public void testSave_unsavedRefreshWritesSnapshot() throws Exception {
+        mStore.save(mState);
+        refresh(mState, "access_token_2", "refresh_token_2");
+        refresh(mState, "access_token_3", "refresh_token_3");
+        mStore.save(mState);
+
+        // the second refresh does not apply to the saved state, so it cannot be appended
+        assertThat(countRecords()).isEqualTo(1);
+        assertThat(createStore().load().getRefreshToken()).isEqualTo("refresh_token_3");
+    }
+
+    @Test
+    public void testSave_newAuthorizationWritesSnapshot() throws Exception {
+        mStore.save(mState);
+        mState.update(getTestAuthResponse(), null);
+        mStore.save(mState);
+
+        assertThat(countRecords()).isEqualTo(1);
+        assertThat(createStore().load().getRefreshToken()).isNull();
+    }
+
+    @Test
+    public void testSave_compactsJournal() throws Exception {
+        mStore.save(mState);
+        for (int i = 0; i < AuthStateStore.COMPACTION_THRESHOLD; i++) {
+            refresh(mState, "access_token_" + i, "refresh_token_" + i);
+            mStore.save(mState);
+        }
+
+        assertThat(countRecords()).isEqualTo(1);
+        String lastRefreshToken = "refresh_token_" + (AuthStateStore.COMPACTION_THRESHOLD - 1);
+        assertThat(createStore().load().getRefreshToken()).isEqualTo(lastRefreshToken);
+
+        // records can be appended to the compacted journal
+        refresh(mState, "access_token_next", "refresh_token_next");
+        mStore.save(mState);
+        assertThat(countRecords()).isEqualTo(2);
+        assertThat(createStore().load().getRefreshToken()).isEqualTo("refresh_token_next");
+    }
+
+    @Test
+    public void testLoad_discardsIncompleteRecord() throws Exception {
+        mStore.save(mState);
+        FileOutputStream out = new FileOutputStream(mJournalFile, true);
+        out.write("{\"type\":\"refresh\",\"respon".getBytes("UTF-8"));
+        out.close();
+
+        AuthStateStore store = createStore();
+        AuthState loaded = store.load();
+        assertThat(loaded.getRefreshToken()).isEqualTo(TEST_REFRESH_TOKEN);
+        assertThat(countRecords()).isEqualTo(1);
+
+        // the loaded state can subsequently be refreshed and saved
+        refresh(loaded, "access_token_2", "refresh_token_2");
+        store.save(loaded);
+        assertThat(countRecords()).isEqualTo(2);
+        assertThat(createStore().load().getRefreshToken()).isEqualTo("refresh_token_2");
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoad_malformedJournal() throws Exception {
+        FileOutputStream out = new FileOutputStream(mJournalFile);
+        out.write("not a journal\n".getBytes("UTF-8"));
+        out.close();
+        mStore.load();
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        mStore.save(mState);
+        mStore.clear();
+        assertThat(mJournalFile.exists()).isFalse();
+        assertThat(mStore.load()).isNull();
+
+        // the state is saved in full again after the journal is cleared
+        mStore.save(mState);
+        assertThat(createStore().load().jsonSerializeString())
+                .isEqualTo(mState.jsonSerializeString());
+    }
+
+    private AuthStateStore createStore() {
+        return new AuthStateStore(mJournalFile, new SameThreadExecutor());
+    }
+
+    private static void refresh(AuthState state, String accessToken, String refreshToken) {
+        TokenResponse response = new TokenResponse.Builder(state.createTokenRefreshRequest())
+                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                .setAccessToken(accessToken)
+                .setAccessTokenExpirationTime(TEST_EXPIRATION_TIME)
+                .setRefreshToken(refreshToken)
+                .build();
+        state.update(response, null);
+    }
+
+    private int countRecords() throws IOException {
+        FileInputStream in = new FileInputStream(mJournalFile);
+        try {
+            int count = 0;
+            for (char ch : Utils.readInputStream(in).toCharArray()) {
+                if (ch == '\n') {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -28,6 +28,7 @@ import static net.openid.appauth.TestValues.getTestAuthResponseBuilder;
 import static net.openid.appauth.TestValues.getTestRegistrationResponse;
 import static net.openid.appauth.TestValues.getTestRegistrationResponseBuilder;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
@@ -466,7 +467,8 @@ public class AuthStateTest {
                 ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
         verify(service, times(1)).performTokenRequest(
                 requestCaptor.capture(),
-                callbackCaptor.capture());
+                callbackCaptor.capture(),
+                any(Runnable.class));
 
         assertThat(requestCaptor.getValue().refreshToken).isEqualTo(tokenResp.refreshToken);
 
@@ -499,6 +501,70 @@ public class AuthStateTest {
         assertThat(state.getIdToken()).isEqualTo(freshIdToken);
     }
 
+    @Test
+    public void testPerformActionWithFreshTokens_concurrentActionsShareRefresh() {
+        AuthorizationRequest authReq = getMinimalAuthRequestBuilder("id_token token code")
+                .setScope("my_scope")
+                .build();
+
+        AuthorizationResponse authResp = new AuthorizationResponse.Builder(authReq)
+                .setAccessToken(TEST_ACCESS_TOKEN)
+                .setAccessTokenExpirationTime(TWO_MINUTES)
+                .setIdToken(TEST_ID_TOKEN)
+                .setAuthorizationCode(TEST_AUTH_CODE)
+                .setState(authReq.state)
+                .build();
+        TokenResponse tokenResp = getTestAuthCodeExchangeResponse();
+        AuthState state = new AuthState(authResp, tokenResp, null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateAction firstAction = mock(AuthState.AuthStateAction.class);
+        AuthState.AuthStateAction secondAction = mock(AuthState.AuthStateAction.class);
+
+        // at this point in time, the access token will be considered to be expired
+        mClock.currentTime.set(TWO_MINUTES - AuthState.EXPIRY_TIME_TOLERANCE_MS + ONE_SECOND);
+        state.performActionWithFreshTokens(
+                service,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                firstAction);
+        state.performActionWithFreshTokens(
+                service,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                secondAction);
+
+        // only a single refresh request is expected, despite both actions needing fresh tokens
+        ArgumentCaptor<TokenRequest> requestCaptor = ArgumentCaptor.forClass(TokenRequest.class);
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                requestCaptor.capture(),
+                callbackCaptor.capture(),
+                any(Runnable.class));
+
+        verifyZeroInteractions(firstAction, secondAction);
+
+        String freshAccessToken = "fresh_access_token";
+        TokenResponse freshResponse = new TokenResponse.Builder(requestCaptor.getValue())
+                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                .setAccessToken(freshAccessToken)
+                .setAccessTokenExpirationTime(mClock.currentTime.get() + TWO_MINUTES)
+                .build();
+
+        callbackCaptor.getValue().onTokenRequestCompleted(freshResponse, null);
+
+        // both actions receive the result of the single refresh
+        verify(firstAction, times(1)).execute(
+                eq(freshAccessToken),
+                eq(TEST_ID_TOKEN),
+                isNull(AuthorizationException.class));
+        verify(secondAction, times(1)).execute(
+                eq(freshAccessToken),
+                eq(TEST_ID_TOKEN),
+                isNull(AuthorizationException.class));
+    }
+
     @Test
     public void testJsonSerialization() throws Exception {
         AuthorizationRequest authReq = getMinimalAuthRequestBuilder("id_token token code")
@@ -548,6 +614,63 @@ public class AuthStateTest {
                 .isEqualTo(state.getAuthorizationException());
     }
 
+    @Test
+    public void testJsonDeserializeLazily() throws Exception {
+        AuthState state = new AuthState(
+                getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .setIdToken(TEST_ID_TOKEN)
+                        .build(),
+                null);
+        state.update(getTestRegistrationResponseBuilder()
+                .setClientSecret(TEST_CLIENT_SECRET)
+                .build());
+
+        String json = state.jsonSerializeString();
+        AuthState restoredState = AuthState.jsonDeserializeLazily(json);
+
+        // the state is serialized identically without the responses being materialized
+        assertThat(restoredState.jsonSerializeString()).isEqualTo(json);
+
+        assertThat(restoredState.isAuthorized()).isTrue();
+        assertThat(restoredState.getAccessToken()).isEqualTo(TEST_ACCESS_TOKEN);
+        assertThat(restoredState.getAccessTokenExpirationTime()).isEqualTo(TWO_MINUTES);
+        assertThat(restoredState.getIdToken()).isEqualTo(TEST_ID_TOKEN);
+        assertThat(restoredState.getRefreshToken()).isEqualTo(TEST_REFRESH_TOKEN);
+        assertThat(restoredState.getNeedsTokenRefresh(mClock)).isFalse();
+
+        assertThat(restoredState.getLastTokenResponse().accessToken)
+                .isEqualTo(TEST_ACCESS_TOKEN);
+        assertThat(restoredState.getLastAuthorizationResponse().authorizationCode)
+                .isEqualTo(state.getLastAuthorizationResponse().authorizationCode);
+        assertThat(restoredState.getClientSecret()).isEqualTo(TEST_CLIENT_SECRET);
+        assertThat(restoredState.jsonSerializeString()).isEqualTo(json);
+    }
+
+    @Test
+    public void testJsonDeserializeLazily_updateReplacesResponse() throws Exception {
+        AuthState state = new AuthState(
+                getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null);
+        AuthState restoredState = AuthState.jsonDeserializeLazily(state.jsonSerializeString());
+
+        restoredState.update(getTestAuthResponse(), null);
+        assertThat(restoredState.getLastTokenResponse()).isNull();
+        assertThat(restoredState.getAccessToken()).isNull();
+        assertThat(restoredState.jsonSerialize().has("mLastTokenResponse")).isFalse();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testJsonDeserializeLazily_malformedResponse() throws Exception {
+        AuthState state = AuthState.jsonDeserializeLazily(
+                "{\"mLastTokenResponse\":{\"access_token\":\"" + TEST_ACCESS_TOKEN + "\"}}");
+        assertThat(state.getAccessToken()).isEqualTo(TEST_ACCESS_TOKEN);
+        state.getLastTokenResponse();
+    }
+
     @Test
     public void testHasClientSecretExpired() {
         RegistrationResponse regResp = getTestRegistrationResponseBuilder()
@@ -18,6 +18,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -250,6 +251,57 @@ public class AuthorizationServiceConfigurationTest {
         assertEquals(GeneralErrors.NETWORK_ERROR, mCallback.error);
     }
 
+    @Test
+    public void testFetchFromIssuer_future() throws Exception {
+        InputStream is = new ByteArrayInputStream(TEST_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        SameThreadExecutor completionExecutor = new SameThreadExecutor();
+        RequestFuture<AuthorizationServiceConfiguration> future =
+                AuthorizationServiceConfiguration.fetchFromIssuer(
+                        Uri.parse("https://test.openid.com"),
+                        new AppAuthConfiguration.Builder()
+                                .setConnectionBuilder(mConnectionBuilder)
+                                .setNetworkExecutor(new SameThreadExecutor())
+                                .build(),
+                        completionExecutor);
+
+        AuthorizationServiceConfiguration result = future.get();
+        assertEquals(TEST_AUTH_ENDPOINT, result.authorizationEndpoint.toString());
+        assertThat(completionExecutor.executionCount.get()).isEqualTo(1);
+        verify(mConnectionBuilder).openConnection(
+                Uri.parse("https://test.openid.com/.well-known/openid-configuration"));
+    }
+
+    @Test
+    public void testFetchFromIssuerBlocking() throws Exception {
+        InputStream is = new ByteArrayInputStream(TEST_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        AuthorizationServiceConfiguration result =
+                AuthorizationServiceConfiguration.fetchFromIssuerBlocking(
+                        Uri.parse("https://test.openid.com"),
+                        new AppAuthConfiguration.Builder()
+                                .setConnectionBuilder(mConnectionBuilder)
+                                .build());
+        assertEquals(TEST_AUTH_ENDPOINT, result.authorizationEndpoint.toString());
+        assertEquals(TEST_TOKEN_ENDPOINT, result.tokenEndpoint.toString());
+    }
+
+    @Test
+    public void testFetchFromIssuerBlocking_malformedJson() throws Exception {
+        InputStream is = new ByteArrayInputStream(TEST_JSON_MALFORMED.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        try {
+            AuthorizationServiceConfiguration.fetchFromIssuerBlocking(
+                    Uri.parse("https://test.openid.com"),
+                    new AppAuthConfiguration.Builder()
+                            .setConnectionBuilder(mConnectionBuilder)
+                            .build());
+            fail("Expected AuthorizationException");
+        } catch (AuthorizationException ex) {
+            assertEquals(GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
+        }
+    }
+
     private void doFetch() {
         AuthorizationServiceConfiguration.fetchFromUrl(
                 TEST_DISCOVERY_URI,
@@ -23,17 +23,27 @@ import static net.openid.appauth.TestValues.TEST_IDP_TOKEN_ENDPOINT;
 import static net.openid.appauth.TestValues.TEST_ID_TOKEN;
 import static net.openid.appauth.TestValues.TEST_REFRESH_TOKEN;
 import static net.openid.appauth.TestValues.TEST_STATE;
+import static net.openid.appauth.TestValues.getMinimalTokenRequestBuilder;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
 import static net.openid.appauth.TestValues.getTestAuthCodeExchangeRequest;
 import static net.openid.appauth.TestValues.getTestAuthRequestBuilder;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static net.openid.appauth.TestValues.getTestIntrospectionRequestBuilder;
 import static net.openid.appauth.TestValues.getTestRegistrationRequest;
+import static net.openid.appauth.TestValues.getTestRevocationRequestBuilder;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.android.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -42,6 +52,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
 import android.net.Uri;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.customtabs.CustomTabsClient;
 import android.support.customtabs.CustomTabsIntent;
@@ -52,13 +63,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import net.openid.appauth.AuthorizationException.GeneralErrors;
+import net.openid.appauth.AuthorizationException.TokenRequestErrors;
 import net.openid.appauth.browser.Browsers;
 import net.openid.appauth.connectivity.ConnectionBuilder;
 import org.junit.Before;
@@ -68,6 +87,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
@@ -94,16 +115,43 @@ public class AuthorizationServiceTest {
             + " \"application_type\": " + RegistrationRequest.APPLICATION_TYPE_NATIVE + "\n"
             + "}";
 
+    // far in the future, so that the cached result remains valid
+    private static final long TEST_INTROSPECTION_EXP = 4102444800L;
+
+    private static final String INTROSPECTION_RESPONSE_JSON = "{\n"
+            + " \"active\": true,\n"
+            + " \"client_id\": \"" + TEST_CLIENT_ID + "\",\n"
+            + " \"aud\": \"" + TEST_CLIENT_ID + "\",\n"
+            + " \"exp\": " + TEST_INTROSPECTION_EXP + "\n"
+            + "}";
+
+    private static final Uri TEST_RESOURCE_URI = Uri.parse("https://api.example.com/resource");
+    private static final String TEST_STALE_ACCESS_TOKEN = "stale_access_token";
+    private static final String TEST_RESOURCE_JSON = "{\"name\": \"test\"}";
+
+    private static final String TEST_USERINFO_JSON =
+            "{\"sub\": \"user\", \"name\": \"Test User\", \"email\": \"user@example.com\"}";
+    private static final String TEST_ETAG = "\"v1\"";
+
+    private static final String REFRESH_RESPONSE_JSON = "{\n"
+            + "  \"access_token\": \"" + TEST_ACCESS_TOKEN + "\",\n"
+            + "  \"expires_in\": \"" + TEST_EXPIRES_IN + "\",\n"
+            + "  \"token_type\": \"" + AuthorizationResponse.TOKEN_TYPE_BEARER + "\"\n"
+            + "}";
+
     private AuthorizationCallback mAuthCallback;
     private RegistrationCallback mRegistrationCallback;
     private AuthorizationService mService;
     private OutputStream mOutputStream;
+    private SameThreadExecutor mNetworkExecutor;
+    private SameThreadExecutor mCallbackExecutor;
     @Mock ConnectionBuilder mConnectionBuilder;
     @Mock HttpURLConnection mHttpConnection;
     @Mock PendingIntent mPendingIntent;
     @Mock Context mContext;
     @Mock CustomTabsClient mClient;
     @Mock CustomTabManager mCustomTabManager;
+    @Mock HttpURLConnection mResourceConnection;
 
     @Before
     @SuppressWarnings("ResourceType")
@@ -111,17 +159,22 @@ public class AuthorizationServiceTest {
         MockitoAnnotations.initMocks(this);
         mAuthCallback = new AuthorizationCallback();
         mRegistrationCallback = new RegistrationCallback();
+        mNetworkExecutor = new SameThreadExecutor();
+        mCallbackExecutor = new SameThreadExecutor();
 
         mService = new AuthorizationService(
                 mContext,
                 new AppAuthConfiguration.Builder()
                         .setConnectionBuilder(mConnectionBuilder)
+                        .setNetworkExecutor(mNetworkExecutor)
+                        .setCallbackExecutor(mCallbackExecutor)
                         .build(),
                 Browsers.Chrome.customTab("46"),
                 mCustomTabManager);
         mOutputStream = new ByteArrayOutputStream();
         when(mConnectionBuilder.openConnection(any(Uri.class))).thenReturn(mHttpConnection);
         when(mHttpConnection.getOutputStream()).thenReturn(mOutputStream);
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
         when(mContext.bindService(serviceIntentEq(), any(CustomTabsServiceConnection.class),
                 anyInt())).thenReturn(true);
         when(mCustomTabManager.createCustomTabsIntentBuilder())
@@ -147,6 +200,25 @@ public class AuthorizationServiceTest {
         assertRequestIntent(intent, null);
     }
 
+    @Test
+    public void testPrepareAuthorizationRequest() throws Exception {
+        AuthorizationRequest request = getTestAuthRequestBuilder().build();
+        mService.prepareAuthorizationRequest(request);
+        verify(mCustomTabManager).mayLaunchUrl(request.toUri(), null);
+    }
+
+    @Test
+    public void testPrepareAuthorizationRequest_withOtherLikelyRequests() throws Exception {
+        AuthorizationRequest request = getTestAuthRequestBuilder().build();
+        AuthorizationRequest otherRequest = getTestAuthRequestBuilder()
+                .setState(TEST_STATE)
+                .build();
+        mService.prepareAuthorizationRequest(request, Collections.singletonList(otherRequest));
+        verify(mCustomTabManager).mayLaunchUrl(
+                request.toUri(),
+                Collections.singletonList(otherRequest.toUri()));
+    }
+
     @Test
     public void testAuthorizationRequest_customization() throws Exception {
         CustomTabsIntent customTabsIntent = new CustomTabsIntent.Builder()
@@ -176,6 +248,17 @@ public class AuthorizationServiceTest {
         assertTokenResponse(mAuthCallback.response, request);
         String postBody = mOutputStream.toString();
         assertThat(postBody).isEqualTo(UriUtil.formUrlEncode(request.getRequestParameters()));
+        verify(mHttpConnection).setFixedLengthStreamingMode(postBody.getBytes("UTF-8").length);
+    }
+
+    @Test
+    public void testTokenRequest_usesConfiguredExecutors() throws Exception {
+        InputStream is = new ByteArrayInputStream(AUTH_CODE_EXCHANGE_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        mService.performTokenRequest(getTestAuthCodeExchangeRequest(), mAuthCallback);
+        mAuthCallback.waitForCallback();
+        assertThat(mNetworkExecutor.executionCount.get()).isEqualTo(1);
+        assertThat(mCallbackExecutor.executionCount.get()).isEqualTo(1);
     }
 
     @Test
@@ -219,6 +302,46 @@ public class AuthorizationServiceTest {
         assertEquals(GeneralErrors.NETWORK_ERROR, mAuthCallback.error);
     }
 
+    @Test
+    public void testTokenRequest_errorResponse() throws Exception {
+        InputStream is = new ByteArrayInputStream(
+                "{\"error\": \"invalid_grant\", \"error_description\": \"expired\"}".getBytes());
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_BAD_REQUEST);
+        when(mHttpConnection.getErrorStream()).thenReturn(is);
+        mService.performTokenRequest(getTestAuthCodeExchangeRequest(), mAuthCallback);
+        mAuthCallback.waitForCallback();
+        assertEquals(TokenRequestErrors.INVALID_GRANT, mAuthCallback.error);
+        assertEquals("expired", mAuthCallback.error.errorDescription);
+    }
+
+    @Test
+    public void testTokenRequest_refreshRetried() throws Exception {
+        InputStream is = new ByteArrayInputStream(AUTH_CODE_EXCHANGE_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        when(mHttpConnection.getResponseCode())
+                .thenReturn(HttpURLConnection.HTTP_UNAVAILABLE, HttpURLConnection.HTTP_OK);
+        TokenRequest request = getMinimalTokenRequestBuilder()
+                .setRefreshToken(TEST_REFRESH_TOKEN)
+                .build();
+        createServiceWithRetryPolicy().performTokenRequest(request, mAuthCallback);
+        mAuthCallback.waitForCallback();
+        assertThat(mAuthCallback.response).isNotNull();
+        verify(mConnectionBuilder, times(2)).openConnection(TEST_IDP_TOKEN_ENDPOINT);
+    }
+
+    @Test
+    public void testTokenRequest_authorizationCodeNotReplayed() throws Exception {
+        InputStream is = new ByteArrayInputStream("{\"error\": \"temporarily_unavailable\"}"
+                .getBytes());
+        when(mHttpConnection.getErrorStream()).thenReturn(is);
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_UNAVAILABLE);
+        createServiceWithRetryPolicy()
+                .performTokenRequest(getTestAuthCodeExchangeRequest(), mAuthCallback);
+        mAuthCallback.waitForCallback();
+        assertThat(mAuthCallback.error).isNotNull();
+        verify(mConnectionBuilder, times(1)).openConnection(TEST_IDP_TOKEN_ENDPOINT);
+    }
+
     @Test
     public void testRegistrationRequest() throws Exception {
         InputStream is = new ByteArrayInputStream(REGISTRATION_RESPONSE_JSON.getBytes());
@@ -241,6 +364,513 @@ public class AuthorizationServiceTest {
         assertEquals(GeneralErrors.NETWORK_ERROR, mRegistrationCallback.error);
     }
 
+    @Test
+    public void testTokenRequest_cancelledBeforeExecution() throws Exception {
+        QueuedExecutor networkExecutor = new QueuedExecutor();
+        RequestHandle handle = createServiceWithNetworkExecutor(networkExecutor)
+                .performTokenRequest(getTestAuthCodeExchangeRequest(), mAuthCallback);
+        handle.cancel();
+        networkExecutor.runAll();
+
+        assertTrue(handle.isCancelled());
+        mAuthCallback.assertNoCallback();
+        verify(mConnectionBuilder, never()).openConnection(any(Uri.class));
+    }
+
+    @Test
+    public void testTokenRequest_cancelledInFlight() throws Exception {
+        QueuedExecutor networkExecutor = new QueuedExecutor();
+        final RequestHandle handle = createServiceWithNetworkExecutor(networkExecutor)
+                .performTokenRequest(getTestAuthCodeExchangeRequest(), mAuthCallback);
+        when(mHttpConnection.getResponseCode()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                handle.cancel();
+                throw new SocketException("Socket closed");
+            }
+        });
+        networkExecutor.runAll();
+
+        verify(mHttpConnection).disconnect();
+        mAuthCallback.assertNoCallback();
+        assertThat(mCallbackExecutor.executionCount.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testTokenRequest_cancelAfterCompletion() throws Exception {
+        InputStream is = new ByteArrayInputStream(AUTH_CODE_EXCHANGE_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        RequestHandle handle =
+                mService.performTokenRequest(getTestAuthCodeExchangeRequest(), mAuthCallback);
+        mAuthCallback.waitForCallback();
+        handle.cancel();
+        assertThat(handle.isCancelled()).isFalse();
+        verify(mHttpConnection, never()).disconnect();
+    }
+
+    @Test
+    public void testTokenRequest_future() throws Exception {
+        InputStream is = new ByteArrayInputStream(AUTH_CODE_EXCHANGE_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        SameThreadExecutor completionExecutor = new SameThreadExecutor();
+        TokenRequest request = getTestAuthCodeExchangeRequest();
+        RequestFuture<TokenResponse> future =
+                mService.performTokenRequest(request, completionExecutor);
+
+        assertTokenResponse(future.get(), request);
+        assertThat(completionExecutor.executionCount.get()).isEqualTo(1);
+        assertThat(mCallbackExecutor.executionCount.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testTokenRequest_futureFailure() throws Exception {
+        when(mHttpConnection.getInputStream()).thenThrow(new IOException());
+        RequestFuture<TokenResponse> future = mService.performTokenRequest(
+                getTestAuthCodeExchangeRequest(), new SameThreadExecutor());
+        try {
+            future.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertEquals(GeneralErrors.NETWORK_ERROR, ex.getCause());
+        }
+    }
+
+    @Test
+    public void testRegistrationRequest_future() throws Exception {
+        InputStream is = new ByteArrayInputStream(REGISTRATION_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        RegistrationRequest request = getTestRegistrationRequest();
+        RequestFuture<RegistrationResponse> future =
+                mService.performRegistrationRequest(request, new SameThreadExecutor());
+        assertRegistrationResponse(future.get(), request);
+    }
+
+    @Test
+    public void testExecuteTokenRequest() throws Exception {
+        InputStream is = new ByteArrayInputStream(AUTH_CODE_EXCHANGE_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        TokenRequest request = getTestAuthCodeExchangeRequest();
+        TokenResponse response = mService.executeTokenRequest(request);
+
+        assertTokenResponse(response, request);
+        assertThat(mNetworkExecutor.executionCount.get()).isEqualTo(0);
+        assertThat(mCallbackExecutor.executionCount.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testExecuteTokenRequest_errorResponse() throws Exception {
+        InputStream is = new ByteArrayInputStream("{\"error\": \"invalid_grant\"}".getBytes());
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_BAD_REQUEST);
+        when(mHttpConnection.getErrorStream()).thenReturn(is);
+        try {
+            mService.executeTokenRequest(getTestAuthCodeExchangeRequest());
+            fail("Expected AuthorizationException");
+        } catch (AuthorizationException ex) {
+            assertEquals(TokenRequestErrors.INVALID_GRANT, ex);
+        }
+    }
+
+    @Test
+    public void testExecuteRegistrationRequest() throws Exception {
+        InputStream is = new ByteArrayInputStream(REGISTRATION_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        RegistrationRequest request = getTestRegistrationRequest();
+        assertRegistrationResponse(mService.executeRegistrationRequest(request), request);
+        assertThat(mNetworkExecutor.executionCount.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testExecuteRegistrationRequest_IoException() throws Exception {
+        when(mHttpConnection.getInputStream()).thenThrow(new IOException());
+        try {
+            mService.executeRegistrationRequest(getTestRegistrationRequest());
+            fail("Expected AuthorizationException");
+        } catch (AuthorizationException ex) {
+            assertEquals(GeneralErrors.NETWORK_ERROR, ex);
+        }
+    }
+
+    @Test
+    public void testExecuteTokenIntrospection() throws Exception {
+        InputStream is = new ByteArrayInputStream(INTROSPECTION_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        IntrospectionRequest request = getTestIntrospectionRequestBuilder().build();
+        IntrospectionResponse response = mService.executeTokenIntrospection(
+                request,
+                new ClientSecretPost(TEST_CLIENT_SECRET));
+
+        assertThat(response.request).isSameAs(request);
+        assertThat(response.active).isTrue();
+        assertThat(response.expirationTime).isEqualTo(TEST_INTROSPECTION_EXP * 1000L);
+        assertThat(response.audience).containsExactly(TEST_CLIENT_ID);
+        assertThat(mOutputStream.toString()).contains("token=" + TEST_ACCESS_TOKEN);
+        assertThat(mOutputStream.toString()).contains("client_secret=" + TEST_CLIENT_SECRET);
+    }
+
+    @Test
+    public void testExecuteTokenIntrospection_cached() throws Exception {
+        AuthorizationService service = new AuthorizationService(
+                mContext,
+                new AppAuthConfiguration.Builder()
+                        .setConnectionBuilder(mConnectionBuilder)
+                        .setIntrospectionCache(new IntrospectionCache())
+                        .build(),
+                Browsers.Chrome.customTab("46"),
+                mCustomTabManager);
+        InputStream is = new ByteArrayInputStream(INTROSPECTION_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+
+        IntrospectionResponse response = service.executeTokenIntrospection(
+                getTestIntrospectionRequestBuilder().build(),
+                NoClientAuthentication.INSTANCE);
+        IntrospectionResponse cached = service.executeTokenIntrospection(
+                getTestIntrospectionRequestBuilder().build(),
+                NoClientAuthentication.INSTANCE);
+
+        assertThat(cached).isSameAs(response);
+        verify(mConnectionBuilder, times(1)).openConnection(any(Uri.class));
+    }
+
+    @Test
+    public void testExecuteTokenIntrospection_errorResponse() throws Exception {
+        InputStream is = new ByteArrayInputStream("{\"error\": \"invalid_client\"}".getBytes());
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_UNAUTHORIZED);
+        when(mHttpConnection.getErrorStream()).thenReturn(is);
+        try {
+            mService.executeTokenIntrospection(
+                    getTestIntrospectionRequestBuilder().build(),
+                    NoClientAuthentication.INSTANCE);
+            fail("Expected AuthorizationException");
+        } catch (AuthorizationException ex) {
+            assertEquals(TokenRequestErrors.INVALID_CLIENT, ex);
+        }
+    }
+
+    @Test
+    public void testExecuteTokenRevocation() throws Exception {
+        when(mHttpConnection.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        mService.executeTokenRevocation(
+                getTestRevocationRequestBuilder().build(),
+                new ClientSecretPost(TEST_CLIENT_SECRET));
+
+        assertThat(mOutputStream.toString()).contains("token=" + TEST_REFRESH_TOKEN);
+        assertThat(mOutputStream.toString()).contains("token_type_hint=refresh_token");
+        assertThat(mOutputStream.toString()).contains("client_secret=" + TEST_CLIENT_SECRET);
+    }
+
+    @Test
+    public void testExecuteTokenRevocation_invalidatesIntrospectionCache() throws Exception {
+        IntrospectionCache cache = new IntrospectionCache();
+        AuthorizationService service = new AuthorizationService(
+                mContext,
+                new AppAuthConfiguration.Builder()
+                        .setConnectionBuilder(mConnectionBuilder)
+                        .setIntrospectionCache(cache)
+                        .build(),
+                Browsers.Chrome.customTab("46"),
+                mCustomTabManager);
+        InputStream is = new ByteArrayInputStream(INTROSPECTION_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        IntrospectionRequest introspection = getTestIntrospectionRequestBuilder()
+                .setToken(TEST_REFRESH_TOKEN)
+                .build();
+        service.executeTokenIntrospection(introspection, NoClientAuthentication.INSTANCE);
+
+        service.executeTokenRevocation(
+                getTestRevocationRequestBuilder().build(),
+                NoClientAuthentication.INSTANCE);
+
+        assertThat(cache.get(introspection)).isNull();
+    }
+
+    @Test
+    public void testPerformTokenRevocation_errorResponse() throws Exception {
+        InputStream is = new ByteArrayInputStream(
+                "{\"error\": \"unsupported_token_type\"}".getBytes());
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_BAD_REQUEST);
+        when(mHttpConnection.getErrorStream()).thenReturn(is);
+        RevocationCallback callback = new RevocationCallback();
+        mService.performTokenRevocation(
+                getTestRevocationRequestBuilder().build(),
+                NoClientAuthentication.INSTANCE,
+                callback);
+
+        callback.waitForCallback();
+        assertNotNull(callback.error);
+        assertEquals(TokenRequestErrors.OTHER, callback.error);
+        assertEquals("unsupported_token_type", callback.error.error);
+    }
+
+    @Test
+    public void testPerformTokenRevocation_serverError() throws Exception {
+        when(mHttpConnection.getResponseCode())
+                .thenReturn(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        RevocationCallback callback = new RevocationCallback();
+        mService.performTokenRevocation(
+                getTestRevocationRequestBuilder().build(),
+                NoClientAuthentication.INSTANCE,
+                callback);
+
+        callback.waitForCallback();
+        assertEquals(GeneralErrors.SERVER_ERROR, callback.error);
+    }
+
+    @Test
+    public void testPerformTokenRevocation_unavailableWithErrorBody() throws Exception {
+        InputStream is = new ByteArrayInputStream(
+                "{\"error\": \"temporarily_unavailable\"}".getBytes());
+        when(mHttpConnection.getResponseCode())
+                .thenReturn(HttpURLConnection.HTTP_UNAVAILABLE);
+        when(mHttpConnection.getErrorStream()).thenReturn(is);
+        RevocationCallback callback = new RevocationCallback();
+        mService.performTokenRevocation(
+                getTestRevocationRequestBuilder().build(),
+                NoClientAuthentication.INSTANCE,
+                callback);
+
+        callback.waitForCallback();
+        assertEquals(GeneralErrors.SERVER_ERROR, callback.error);
+        assertEquals("temporarily_unavailable",
+                ((AuthorizationException) callback.error.getCause()).error);
+    }
+
+    @Test
+    public void testPerformTokenRevocation_tooManyRequests() throws Exception {
+        InputStream is = new ByteArrayInputStream(
+                "{\"error\": \"invalid_request\"}".getBytes());
+        when(mHttpConnection.getResponseCode())
+                .thenReturn(RetryPolicy.HTTP_TOO_MANY_REQUESTS);
+        when(mHttpConnection.getErrorStream()).thenReturn(is);
+        RevocationCallback callback = new RevocationCallback();
+        mService.performTokenRevocation(
+                getTestRevocationRequestBuilder().build(),
+                NoClientAuthentication.INSTANCE,
+                callback);
+
+        callback.waitForCallback();
+        assertEquals(GeneralErrors.SERVICE_UNAVAILABLE, callback.error);
+    }
+
+    @Test
+    public void testPerformTokenRevocation_unexpectedException() throws Exception {
+        IllegalStateException failure = new IllegalStateException();
+        when(mConnectionBuilder.openConnection(any(Uri.class))).thenThrow(failure);
+        RevocationCallback callback = new RevocationCallback();
+        mService.performTokenRevocation(
+                getTestRevocationRequestBuilder().build(),
+                NoClientAuthentication.INSTANCE,
+                callback);
+
+        callback.waitForCallback();
+        assertEquals(GeneralErrors.UNEXPECTED_ERROR, callback.error);
+        assertEquals(failure, callback.error.getCause());
+    }
+
+    @Test
+    public void testPerformAuthenticatedRequest() throws Exception {
+        AuthState state = createAuthorizedState(TEST_ACCESS_TOKEN);
+        mockResourceResponses(HttpURLConnection.HTTP_OK);
+        ResourceCallback callback = new ResourceCallback();
+        mService.performAuthenticatedRequest(
+                state,
+                new ResourceRequest.Builder(TEST_RESOURCE_URI).build(),
+                callback);
+
+        callback.waitForCallback();
+        assertNotNull(callback.response);
+        assertEquals(HttpURLConnection.HTTP_OK, callback.response.statusCode);
+        assertEquals(TEST_RESOURCE_JSON, callback.response.getBodyAsString());
+        verify(mResourceConnection).setRequestProperty(
+                "Authorization", "Bearer " + TEST_ACCESS_TOKEN);
+        verify(mConnectionBuilder, never()).openConnection(TEST_IDP_TOKEN_ENDPOINT);
+    }
+
+    @Test
+    public void testPerformAuthenticatedRequest_refreshesRejectedToken() throws Exception {
+        AuthState state = createAuthorizedState(TEST_STALE_ACCESS_TOKEN);
+        InputStream is = new ByteArrayInputStream(REFRESH_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        // each response code is read by the retry policy and by the request
+        mockResourceResponses(
+                HttpURLConnection.HTTP_UNAUTHORIZED,
+                HttpURLConnection.HTTP_UNAUTHORIZED,
+                HttpURLConnection.HTTP_OK);
+        ResourceCallback callback = new ResourceCallback();
+        mService.performAuthenticatedRequest(
+                state,
+                new ResourceRequest.Builder(TEST_RESOURCE_URI).build(),
+                callback);
+
+        callback.waitForCallback();
+        assertNotNull(callback.response);
+        assertEquals(HttpURLConnection.HTTP_OK, callback.response.statusCode);
+        assertEquals(TEST_ACCESS_TOKEN, state.getAccessToken());
+        verify(mResourceConnection).setRequestProperty(
+                "Authorization", "Bearer " + TEST_STALE_ACCESS_TOKEN);
+        verify(mResourceConnection).setRequestProperty(
+                "Authorization", "Bearer " + TEST_ACCESS_TOKEN);
+        verify(mConnectionBuilder, times(1)).openConnection(TEST_IDP_TOKEN_ENDPOINT);
+    }
+
+    @Test
+    public void testPerformAuthenticatedRequest_replaysOnlyOnce() throws Exception {
+        AuthState state = createAuthorizedState(TEST_STALE_ACCESS_TOKEN);
+        InputStream is = new ByteArrayInputStream(REFRESH_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        mockResourceResponses(HttpURLConnection.HTTP_UNAUTHORIZED);
+        ResourceCallback callback = new ResourceCallback();
+        mService.performAuthenticatedRequest(
+                state,
+                new ResourceRequest.Builder(TEST_RESOURCE_URI).build(),
+                callback);
+
+        callback.waitForCallback();
+        assertNotNull(callback.response);
+        assertEquals(HttpURLConnection.HTTP_UNAUTHORIZED, callback.response.statusCode);
+        verify(mConnectionBuilder, times(2)).openConnection(TEST_RESOURCE_URI);
+    }
+
+    @Test
+    public void testPerformUserInfoRequest_projectsClaims() throws Exception {
+        mockUserInfoResponses(null, HttpURLConnection.HTTP_OK);
+        UserInfoCallback callback = new UserInfoCallback();
+        mService.performUserInfoRequest(
+                createAuthorizedState(TEST_ACCESS_TOKEN),
+                createUserInfoRequestBuilder().setClaims("name").build(),
+                callback);
+
+        callback.waitForCallback();
+        assertNotNull(callback.response);
+        assertEquals("user", callback.response.subject);
+        assertEquals("Test User", callback.response.getStringClaim("name"));
+        assertThat(callback.response.getStringClaim("email")).isNull();
+        assertThat(callback.response.fromCache).isFalse();
+        verify(mResourceConnection).setRequestProperty("Accept", "application/json");
+    }
+
+    @Test
+    public void testPerformUserInfoRequest_usesFreshCachedClaims() throws Exception {
+        AuthorizationService service = createService(new AppAuthConfiguration.Builder()
+                .setConnectionBuilder(mConnectionBuilder)
+                .setNetworkExecutor(mNetworkExecutor)
+                .setCallbackExecutor(mCallbackExecutor)
+                .setUserInfoCache(new UserInfoCache())
+                .build());
+        mockUserInfoResponses("max-age=600", HttpURLConnection.HTTP_OK);
+        AuthState state = createAuthorizedState(TEST_ACCESS_TOKEN);
+        UserInfoCallback first = new UserInfoCallback();
+        service.performUserInfoRequest(state, createUserInfoRequestBuilder().build(), first);
+        first.waitForCallback();
+
+        UserInfoCallback second = new UserInfoCallback();
+        service.performUserInfoRequest(state, createUserInfoRequestBuilder().build(), second);
+        second.waitForCallback();
+
+        assertNotNull(second.response);
+        assertThat(second.response.fromCache).isTrue();
+        assertEquals("user@example.com", second.response.getStringClaim("email"));
+        verify(mConnectionBuilder, times(1)).openConnection(TEST_RESOURCE_URI);
+    }
+
+    @Test
+    public void testPerformUserInfoRequest_revalidatesStaleClaims() throws Exception {
+        AuthorizationService service = createService(new AppAuthConfiguration.Builder()
+                .setConnectionBuilder(mConnectionBuilder)
+                .setNetworkExecutor(mNetworkExecutor)
+                .setCallbackExecutor(mCallbackExecutor)
+                .setUserInfoCache(new UserInfoCache())
+                .build());
+        // each response code is read by the retry policy and by the request
+        mockUserInfoResponses("no-cache",
+                HttpURLConnection.HTTP_OK,
+                HttpURLConnection.HTTP_OK,
+                HttpURLConnection.HTTP_NOT_MODIFIED);
+        AuthState state = createAuthorizedState(TEST_ACCESS_TOKEN);
+        UserInfoCallback first = new UserInfoCallback();
+        service.performUserInfoRequest(state, createUserInfoRequestBuilder().build(), first);
+        first.waitForCallback();
+
+        UserInfoCallback second = new UserInfoCallback();
+        service.performUserInfoRequest(state, createUserInfoRequestBuilder().build(), second);
+        second.waitForCallback();
+
+        assertNotNull(second.response);
+        assertThat(second.response.fromCache).isTrue();
+        assertEquals("Test User", second.response.getStringClaim("name"));
+        verify(mResourceConnection).setRequestProperty("If-None-Match", TEST_ETAG);
+        verify(mConnectionBuilder, times(2)).openConnection(TEST_RESOURCE_URI);
+    }
+
+    @Test
+    public void testPerformUserInfoRequest_errorStatus() throws Exception {
+        mockUserInfoResponses(null, HttpURLConnection.HTTP_FORBIDDEN);
+        UserInfoCallback callback = new UserInfoCallback();
+        mService.performUserInfoRequest(
+                createAuthorizedState(TEST_ACCESS_TOKEN),
+                createUserInfoRequestBuilder().build(),
+                callback);
+
+        callback.waitForCallback();
+        assertEquals(GeneralErrors.SERVER_ERROR, callback.error);
+    }
+
+    @Test
+    public void testDispose_cancelsOutstandingFutures() throws Exception {
+        QueuedExecutor networkExecutor = new QueuedExecutor();
+        AuthorizationService service = createServiceWithNetworkExecutor(networkExecutor);
+        RequestFuture<TokenResponse> future = service.performTokenRequest(
+                getTestAuthCodeExchangeRequest(), new SameThreadExecutor());
+        service.dispose();
+        networkExecutor.runAll();
+
+        assertTrue(future.isCancelled());
+        verify(mConnectionBuilder, never()).openConnection(any(Uri.class));
+    }
+
+    @Test
+    public void testDispose_cancelsOutstandingRequests() throws Exception {
+        QueuedExecutor networkExecutor = new QueuedExecutor();
+        AuthorizationService service = createServiceWithNetworkExecutor(networkExecutor);
+        RequestHandle tokenHandle =
+                service.performTokenRequest(getTestAuthCodeExchangeRequest(), mAuthCallback);
+        RequestHandle registrationHandle = service.performRegistrationRequest(
+                getTestRegistrationRequest(), mRegistrationCallback);
+        service.dispose();
+        networkExecutor.runAll();
+
+        assertTrue(tokenHandle.isCancelled());
+        assertTrue(registrationHandle.isCancelled());
+        mAuthCallback.assertNoCallback();
+        mRegistrationCallback.assertNoCallback();
+        verify(mConnectionBuilder, never()).openConnection(any(Uri.class));
+    }
+
+    @Test
+    public void testDispose_releasesPendingTokenRefresh() throws Exception {
+        QueuedExecutor networkExecutor = new QueuedExecutor();
+        AuthorizationService service = createServiceWithNetworkExecutor(networkExecutor);
+        AuthState state = createAuthorizedState(TEST_STALE_ACCESS_TOKEN);
+        state.setNeedsTokenRefresh(true);
+        FreshTokensAction cancelledAction = new FreshTokensAction();
+        state.performActionWithFreshTokens(service, cancelledAction);
+        service.dispose();
+        networkExecutor.runAll();
+
+        cancelledAction.waitForCallback();
+        assertEquals(GeneralErrors.NETWORK_ERROR, cancelledAction.error);
+        verify(mConnectionBuilder, never()).openConnection(any(Uri.class));
+
+        // the cancelled refresh must not prevent a later one from being performed
+        InputStream is = new ByteArrayInputStream(REFRESH_RESPONSE_JSON.getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        FreshTokensAction action = new FreshTokensAction();
+        state.performActionWithFreshTokens(mService, action);
+
+        action.waitForCallback();
+        assertEquals(TEST_ACCESS_TOKEN, action.accessToken);
+        verify(mConnectionBuilder, times(1)).openConnection(TEST_IDP_TOKEN_ENDPOINT);
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testTokenRequest_afterDispose() throws Exception {
         mService.dispose();
@@ -253,6 +883,56 @@ public class AuthorizationServiceTest {
         mService.createCustomTabsIntentBuilder();
     }
 
+    @Test
+    public void testCreateCustomTabsIntentBuilder_pendingWhenDisposed() throws Exception {
+        final ArgumentCaptor<CustomTabManager.SessionCallback> sessionCallback =
+                ArgumentCaptor.forClass(CustomTabManager.SessionCallback.class);
+        AuthorizationService.CustomTabsIntentBuilderCallback callback =
+                mock(AuthorizationService.CustomTabsIntentBuilderCallback.class);
+        mService.createCustomTabsIntentBuilder(callback);
+        verify(mCustomTabManager).requestSession(any(Executor.class), sessionCallback.capture());
+
+        // pending session requests are delivered when the manager is unbound
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                sessionCallback.getValue().onSessionAvailable(null);
+                return null;
+            }
+        }).when(mCustomTabManager).unbind();
+        mService.dispose();
+
+        verify(callback, never())
+                .onCustomTabsIntentBuilderCreated(any(CustomTabsIntent.Builder.class));
+    }
+
+    private AuthorizationService createServiceWithRetryPolicy() {
+        return createService(new AppAuthConfiguration.Builder()
+                .setConnectionBuilder(mConnectionBuilder)
+                .setNetworkExecutor(mNetworkExecutor)
+                .setCallbackExecutor(mCallbackExecutor)
+                .setRetryPolicy(new RetryPolicy.Builder()
+                        .setInitialBackoffMs(0L)
+                        .build())
+                .build());
+    }
+
+    private AuthorizationService createServiceWithNetworkExecutor(Executor networkExecutor) {
+        return createService(new AppAuthConfiguration.Builder()
+                .setConnectionBuilder(mConnectionBuilder)
+                .setNetworkExecutor(networkExecutor)
+                .setCallbackExecutor(mCallbackExecutor)
+                .build());
+    }
+
+    private AuthorizationService createService(AppAuthConfiguration configuration) {
+        return new AuthorizationService(
+                mContext,
+                configuration,
+                Browsers.Chrome.customTab("46"),
+                mCustomTabManager);
+    }
+
     private Intent captureAuthRequestIntent() {
         ArgumentCaptor<Intent> intentCaptor = ArgumentCaptor.forClass(Intent.class);
         verify(mContext).startActivity(intentCaptor.capture());
@@ -309,6 +989,10 @@ public class AuthorizationServiceTest {
             assertTrue(mSemaphore.tryAcquire(CALLBACK_TIMEOUT_MILLIS,
                     TimeUnit.MILLISECONDS));
         }
+
+        public void assertNoCallback() {
+            assertEquals(0, mSemaphore.availablePermits());
+        }
     }
 
     private static class RegistrationCallback implements
@@ -331,6 +1015,154 @@ public class AuthorizationServiceTest {
             assertTrue(mSemaphore.tryAcquire(CALLBACK_TIMEOUT_MILLIS,
                     TimeUnit.MILLISECONDS));
         }
+
+        public void assertNoCallback() {
+            assertEquals(0, mSemaphore.availablePermits());
+        }
+    }
+
+    private static class RevocationCallback implements
+            AuthorizationService.TokenRevocationResponseCallback {
+        private Semaphore mSemaphore = new Semaphore(0);
+        public AuthorizationException error;
+
+        @Override
+        public void onTokenRevocationCompleted(@Nullable AuthorizationException ex) {
+            this.error = ex;
+            mSemaphore.release();
+        }
+
+        public void waitForCallback() throws Exception {
+            assertTrue(mSemaphore.tryAcquire(CALLBACK_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private AuthState createAuthorizedState(String accessToken) {
+        return new AuthState(
+                getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(accessToken)
+                        .setAccessTokenExpirationTime(
+                                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))
+                        .build(),
+                null);
+    }
+
+    private void mockResourceResponses(int responseCode, Integer... responseCodes)
+            throws Exception {
+        when(mConnectionBuilder.openConnection(TEST_RESOURCE_URI))
+                .thenReturn(mResourceConnection);
+        when(mResourceConnection.getResponseCode()).thenReturn(responseCode, responseCodes);
+        when(mResourceConnection.getHeaderFields())
+                .thenReturn(Collections.<String, List<String>>emptyMap());
+        when(mResourceConnection.getInputStream())
+                .thenReturn(new ByteArrayInputStream(TEST_RESOURCE_JSON.getBytes()));
+    }
+
+    private UserInfoRequest.Builder createUserInfoRequestBuilder() {
+        return new UserInfoRequest.Builder(getTestAuthResponse().request.configuration)
+                .setUserInfoEndpoint(TEST_RESOURCE_URI);
+    }
+
+    private void mockUserInfoResponses(
+            @Nullable String cacheControl,
+            int responseCode,
+            Integer... responseCodes) throws Exception {
+        mockResourceResponses(responseCode, responseCodes);
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("ETag", Collections.singletonList(TEST_ETAG));
+        if (cacheControl != null) {
+            headers.put("Cache-Control", Collections.singletonList(cacheControl));
+        }
+        when(mResourceConnection.getHeaderFields()).thenReturn(headers);
+        when(mResourceConnection.getInputStream())
+                .thenReturn(new ByteArrayInputStream(TEST_USERINFO_JSON.getBytes()));
+    }
+
+    private static class UserInfoCallback implements
+            AuthorizationService.UserInfoResponseCallback {
+        private Semaphore mSemaphore = new Semaphore(0);
+        public UserInfoResponse response;
+        public AuthorizationException error;
+
+        @Override
+        public void onUserInfoRequestCompleted(
+                @Nullable UserInfoResponse userInfoResponse,
+                @Nullable AuthorizationException ex) {
+            assertTrue((userInfoResponse == null) ^ (ex == null));
+            this.response = userInfoResponse;
+            this.error = ex;
+            mSemaphore.release();
+        }
+
+        public void waitForCallback() throws Exception {
+            assertTrue(mSemaphore.tryAcquire(CALLBACK_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static class ResourceCallback implements
+            AuthorizationService.ResourceResponseCallback {
+        private Semaphore mSemaphore = new Semaphore(0);
+        public ResourceResponse response;
+        public AuthorizationException error;
+
+        @Override
+        public void onResourceRequestCompleted(
+                @Nullable ResourceResponse resourceResponse,
+                @Nullable AuthorizationException ex) {
+            assertTrue((resourceResponse == null) ^ (ex == null));
+            this.response = resourceResponse;
+            this.error = ex;
+            mSemaphore.release();
+        }
+
+        public void waitForCallback() throws Exception {
+            assertTrue(mSemaphore.tryAcquire(CALLBACK_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static class FreshTokensAction implements AuthState.AuthStateAction {
+        private Semaphore mSemaphore = new Semaphore(0);
+        public String accessToken;
+        public AuthorizationException error;
+
+        @Override
+        public void execute(
+                @Nullable String accessToken,
+                @Nullable String idToken,
+                @Nullable AuthorizationException ex) {
+            assertTrue((accessToken == null) ^ (ex == null));
+            this.accessToken = accessToken;
+            this.error = ex;
+            mSemaphore.release();
+        }
+
+        public void waitForCallback() throws Exception {
+            assertTrue(mSemaphore.tryAcquire(CALLBACK_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Holds tasks until explicitly run, so that requests can be cancelled before they execute.
+     */
+    private static class QueuedExecutor implements Executor {
+        private final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable task : mTasks) {
+                task.run();
+            }
+            mTasks.clear();
+        }
     }
 
     private void assertRequestIntent(Intent intent, Integer color) {
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.util.Base64;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class Base64UrlTest {
+
+    private static final int BASE64URL_FLAGS =
+            Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+
+    @Test
+    public void testDecode_matchesPlatformDecoder() {
+        Random random = new Random(0L);
+        for (int length = 0; length < 64; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String encoded = "hdr." + Base64.encodeToString(data, BASE64URL_FLAGS) + ".sig";
+
+            byte[] decoded = Base64Url.decode(encoded, "hdr.".length(), encoded.length() - 4);
+            assertThat(decoded).isEqualTo(data);
+        }
+    }
+
+    @Test
+    public void testDecodeToString() throws Exception {
+        String json = "{\"sub\":\"\u00e9l\u00e8ve\"}";
+        String encoded = Base64.encodeToString(json.getBytes("UTF-8"), BASE64URL_FLAGS);
+        assertThat(Base64Url.decodeToString(encoded, 0, encoded.length())).isEqualTo(json);
+    }
+
+    @Test
+    public void testDecodeToString_largerThanRetainedBuffer() throws Exception {
+        byte[] data = new byte[Base64Url.MAX_RETAINED_BUFFER_SIZE + 1];
+        Arrays.fill(data, (byte) 'a');
+        String encoded = Base64.encodeToString(data, BASE64URL_FLAGS);
+        assertThat(Base64Url.decodeToString(encoded, 0, encoded.length()))
+                .isEqualTo(new String(data, "UTF-8"));
+        assertThat(Base64Url.getBuffer(0).length)
+                .isLessThanOrEqualTo(Base64Url.MAX_RETAINED_BUFFER_SIZE);
+    }
+
+    @Test
+    public void testDecodedLength() {
+        assertThat(Base64Url.decodedLength(0)).isEqualTo(0);
+        assertThat(Base64Url.decodedLength(2)).isEqualTo(1);
+        assertThat(Base64Url.decodedLength(3)).isEqualTo(2);
+        assertThat(Base64Url.decodedLength(4)).isEqualTo(3);
+        assertThat(Base64Url.decodedLength(6)).isEqualTo(4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecode_invalidLength() {
+        Base64Url.decode("abcde", 0, 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecode_standardAlphabet() {
+        Base64Url.decode("ab+/", 0, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecode_padded() {
+        Base64Url.decode("YQ==", 0, 4);
+    }
+}
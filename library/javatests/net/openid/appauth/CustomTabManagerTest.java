@@ -0,0 +1,206 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.support.annotation.Nullable;
+import android.support.customtabs.CustomTabsClient;
+import android.support.customtabs.CustomTabsServiceConnection;
+import android.support.customtabs.CustomTabsSession;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class CustomTabManagerTest {
+
+    private static final String TEST_BROWSER_PACKAGE = "com.browser.test";
+
+    @Mock Context mContext;
+    @Mock CustomTabsClient mClient;
+    @Mock ScheduledExecutorService mScheduler;
+    @Mock ScheduledFuture<?> mUnbindFuture;
+
+    private CustomTabConnectionPool mPool;
+    private CustomTabManager mManager;
+    private SessionCallback mCallback;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        doReturn(mUnbindFuture).when(mScheduler).schedule(
+                any(Runnable.class), anyLong(), any(TimeUnit.class));
+        mPool = new CustomTabConnectionPool(
+                mScheduler,
+                new SameThreadExecutor(),
+                CustomTabConnectionPool.UNBIND_DELAY_MS);
+        mManager = new CustomTabManager(mContext, mPool);
+        mCallback = new SessionCallback();
+    }
+
+    @Test
+    public void testRequestSession_deliveredWhenConnected() {
+        when(mContext.bindService(any(Intent.class), any(ServiceConnection.class), anyInt()))
+                .thenReturn(true);
+        mManager.bind(TEST_BROWSER_PACKAGE);
+        mManager.requestSession(new SameThreadExecutor(), mCallback);
+        assertThat(mCallback.deliveryCount).isEqualTo(0);
+
+        captureConnection().onCustomTabsServiceConnected(
+                new ComponentName(TEST_BROWSER_PACKAGE, "TestService"),
+                mClient);
+        assertThat(mCallback.deliveryCount).isEqualTo(1);
+        verify(mClient).warmup(0);
+        verify(mClient).newSession(null);
+    }
+
+    @Test
+    public void testRequestSession_deliveredImmediatelyWhenBindFails() {
+        when(mContext.bindService(any(Intent.class), any(ServiceConnection.class), anyInt()))
+                .thenReturn(false);
+        mManager.bind(TEST_BROWSER_PACKAGE);
+        mManager.requestSession(new SameThreadExecutor(), mCallback);
+        assertThat(mCallback.deliveryCount).isEqualTo(1);
+        assertThat(mCallback.session).isNull();
+    }
+
+    @Test
+    public void testRequestSession_deliveredWhenUnbound() {
+        when(mContext.bindService(any(Intent.class), any(ServiceConnection.class), anyInt()))
+                .thenReturn(true);
+        mManager.bind(TEST_BROWSER_PACKAGE);
+        mManager.requestSession(new SameThreadExecutor(), mCallback);
+        mManager.unbind();
+        assertThat(mCallback.deliveryCount).isEqualTo(1);
+        assertThat(mCallback.session).isNull();
+    }
+
+    @Test
+    public void testCreateCustomTabsIntentBuilder_doesNotWaitForConnection() {
+        when(mContext.bindService(any(Intent.class), any(ServiceConnection.class), anyInt()))
+                .thenReturn(true);
+        mManager.bind(TEST_BROWSER_PACKAGE);
+        assertThat(mManager.createCustomTabsIntentBuilder()).isNotNull();
+        verify(mClient, never()).newSession(null);
+    }
+
+    @Test
+    public void testBind_sharesConnectionBetweenManagers() {
+        when(mContext.bindService(any(Intent.class), any(ServiceConnection.class), anyInt()))
+                .thenReturn(true);
+        mManager.bind(TEST_BROWSER_PACKAGE);
+        new CustomTabManager(mContext, mPool).bind(TEST_BROWSER_PACKAGE);
+
+        verify(mContext, times(1))
+                .bindService(any(Intent.class), any(ServiceConnection.class), anyInt());
+        assertThat(mPool.getConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testUnbind_unbindsServiceAfterGracePeriod() {
+        when(mContext.bindService(any(Intent.class), any(ServiceConnection.class), anyInt()))
+                .thenReturn(true);
+        mManager.bind(TEST_BROWSER_PACKAGE);
+        CustomTabsServiceConnection connection = captureConnection();
+        mManager.unbind();
+        verify(mContext, never()).unbindService(any(ServiceConnection.class));
+
+        captureScheduledUnbind().run();
+        verify(mContext).unbindService(connection);
+        assertThat(mPool.getConnectionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testBind_withinGracePeriodReusesConnection() {
+        when(mContext.bindService(any(Intent.class), any(ServiceConnection.class), anyInt()))
+                .thenReturn(true);
+        mManager.bind(TEST_BROWSER_PACKAGE);
+        mManager.unbind();
+        Runnable scheduledUnbind = captureScheduledUnbind();
+
+        new CustomTabManager(mContext, mPool).bind(TEST_BROWSER_PACKAGE);
+        verify(mUnbindFuture).cancel(false);
+
+        // an unbind which was already running when the connection was reacquired is ignored
+        scheduledUnbind.run();
+        verify(mContext, never()).unbindService(any(ServiceConnection.class));
+        verify(mContext, times(1))
+                .bindService(any(Intent.class), any(ServiceConnection.class), anyInt());
+    }
+
+    @Test
+    public void testBind_usesApplicationContext() {
+        Context applicationContext = mock(Context.class);
+        when(mContext.getApplicationContext()).thenReturn(applicationContext);
+        mManager.bind(TEST_BROWSER_PACKAGE);
+
+        verify(applicationContext)
+                .bindService(any(Intent.class), any(ServiceConnection.class), anyInt());
+        verify(mContext, never())
+                .bindService(any(Intent.class), any(ServiceConnection.class), anyInt());
+    }
+
+    private Runnable captureScheduledUnbind() {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mScheduler).schedule(
+                captor.capture(),
+                eq(CustomTabConnectionPool.UNBIND_DELAY_MS),
+                eq(TimeUnit.MILLISECONDS));
+        return captor.getValue();
+    }
+
+    private CustomTabsServiceConnection captureConnection() {
+        ArgumentCaptor<ServiceConnection> captor =
+                ArgumentCaptor.forClass(ServiceConnection.class);
+        verify(mContext).bindService(any(Intent.class), captor.capture(), anyInt());
+        return (CustomTabsServiceConnection) captor.getValue();
+    }
+
+    private static class SessionCallback implements CustomTabManager.SessionCallback {
+        int deliveryCount;
+        CustomTabsSession session;
+
+        @Override
+        public void onSessionAvailable(@Nullable CustomTabsSession availableSession) {
+            deliveryCount++;
+            session = availableSession;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.HttpURLConnection;
+import net.openid.appauth.connectivity.ConnectionBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class DiscoveryCacheTest {
+
+    private static final Uri TEST_DISCOVERY_URI =
+            Uri.parse("https://test.openid.com/.well-known/openid-configuration");
+    private static final String TEST_ETAG = "\"abc123\"";
+    private static final String TEST_LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    private TestClock mClock;
+    private ConnectionBuilder mConnectionBuilder;
+    private HttpURLConnection mHttpConnection;
+    private SameThreadExecutor mRevalidationExecutor;
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new TestClock(0L);
+        mHttpConnection = mock(HttpURLConnection.class);
+        mConnectionBuilder = mock(ConnectionBuilder.class);
+        when(mConnectionBuilder.openConnection(any(Uri.class))).thenReturn(mHttpConnection);
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        when(mHttpConnection.getHeaderField(CacheHeaders.HEADER_ETAG)).thenReturn(TEST_ETAG);
+        when(mHttpConnection.getHeaderField(CacheHeaders.HEADER_LAST_MODIFIED))
+                .thenReturn(TEST_LAST_MODIFIED);
+        when(mHttpConnection.getInputStream()).thenReturn(new ByteArrayInputStream(
+                AuthorizationServiceConfigurationTest.TEST_JSON.getBytes("UTF-8")));
+        mRevalidationExecutor = new SameThreadExecutor();
+        mDirectory = mTempFolder.newFolder();
+    }
+
+    @Test
+    public void testRetrieve_freshDocumentIsNotRefetched() throws Exception {
+        DiscoveryCache cache = new DiscoveryCache(mDirectory, mClock, false);
+        AuthorizationServiceDiscovery first = retrieve(cache);
+
+        mClock.currentTime.set(DiscoveryCache.DEFAULT_TTL_MS - 1);
+        AuthorizationServiceDiscovery second = retrieve(cache);
+
+        assertThat(second).isSameAs(first);
+        verify(mConnectionBuilder, times(1)).openConnection(TEST_DISCOVERY_URI);
+    }
+
+    @Test
+    public void testRetrieve_expiredDocumentIsRevalidated() throws Exception {
+        DiscoveryCache cache = new DiscoveryCache(mDirectory, mClock, false);
+        AuthorizationServiceDiscovery first = retrieve(cache);
+
+        mClock.currentTime.set(DiscoveryCache.DEFAULT_TTL_MS);
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_NOT_MODIFIED);
+        AuthorizationServiceDiscovery second = retrieve(cache);
+
+        assertThat(second).isSameAs(first);
+        verify(mHttpConnection).setRequestProperty(CacheHeaders.HEADER_IF_NONE_MATCH, TEST_ETAG);
+        verify(mHttpConnection).setRequestProperty(
+                CacheHeaders.HEADER_IF_MODIFIED_SINCE,
+                TEST_LAST_MODIFIED);
+        // the not modified response is not read
+        verify(mHttpConnection, times(1)).getInputStream();
+    }
+
+    @Test
+    public void testRetrieve_persistedAcrossInstances() throws Exception {
+        retrieve(new DiscoveryCache(mDirectory, mClock, false));
+
+        DiscoveryCache cache = new DiscoveryCache(mDirectory, mClock, false);
+        AuthorizationServiceDiscovery discovery = retrieve(cache);
+
+        assertThat(discovery.getIssuer()).isEqualTo("test_issuer");
+        verify(mConnectionBuilder, times(1)).openConnection(TEST_DISCOVERY_URI);
+    }
+
+    @Test
+    public void testRetrieve_staleWhileRevalidate() throws Exception {
+        retrieve(new DiscoveryCache(mDirectory, mClock, true));
+
+        // simulate a cold start after the document has expired
+        mClock.currentTime.set(DiscoveryCache.DEFAULT_TTL_MS);
+        DiscoveryCache cache = new DiscoveryCache(mDirectory, mClock, true);
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_NOT_MODIFIED);
+        AuthorizationServiceDiscovery discovery = retrieve(cache);
+
+        assertThat(discovery.getIssuer()).isEqualTo("test_issuer");
+        assertThat(mRevalidationExecutor.executionCount.get()).isEqualTo(1);
+        verify(mConnectionBuilder, times(2)).openConnection(TEST_DISCOVERY_URI);
+
+        // the revalidated document is fresh again
+        retrieve(cache);
+        assertThat(mRevalidationExecutor.executionCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRetrieve_memoryOnly() throws Exception {
+        DiscoveryCache cache = new DiscoveryCache(null, mClock, false);
+        retrieve(cache);
+        retrieve(cache);
+        verify(mConnectionBuilder, times(1)).openConnection(TEST_DISCOVERY_URI);
+        verify(mHttpConnection, never())
+                .setRequestProperty(CacheHeaders.HEADER_IF_NONE_MATCH, TEST_ETAG);
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        DiscoveryCache cache = new DiscoveryCache(mDirectory, mClock, false);
+        retrieve(cache);
+        cache.clear();
+
+        assertThat(mDirectory.listFiles()).isEmpty();
+        when(mHttpConnection.getInputStream()).thenReturn(new ByteArrayInputStream(
+                AuthorizationServiceConfigurationTest.TEST_JSON.getBytes("UTF-8")));
+        retrieve(cache);
+        verify(mConnectionBuilder, times(2)).openConnection(TEST_DISCOVERY_URI);
+    }
+
+    private AuthorizationServiceDiscovery retrieve(DiscoveryCache cache) throws Exception {
+        return cache.retrieve(TEST_DISCOVERY_URI, mConnectionBuilder, mRevalidationExecutor);
+    }
+}
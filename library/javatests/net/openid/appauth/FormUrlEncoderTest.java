@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class FormUrlEncoderTest {
+
+    private static final String[] TEST_VALUES = {
+        "",
+        "plain.value-with_safe*chars",
+        "space separated value",
+        "reserved&=+/?#%chars",
+        "café über",
+        "日本語",
+        "emoji 😀",
+        "unpaired \ud83d surrogate",
+        "control\n\tchars"
+    };
+
+    @Test
+    public void testEncode_matchesUrlEncoder() throws Exception {
+        FormUrlEncoder encoder = new FormUrlEncoder();
+        for (String value : TEST_VALUES) {
+            String encoded = encoder.encode(Collections.singletonMap("key", value)).toString();
+            assertThat(encoded).isEqualTo("key=" + URLEncoder.encode(value, "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testEncode_lengthIsByteCount() throws Exception {
+        FormUrlEncoder encoder = new FormUrlEncoder()
+                .encode(Collections.singletonMap("key", "日本語"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        assertThat(encoder.length()).isEqualTo(out.size());
+        assertThat(out.toString("US-ASCII")).isEqualTo(encoder.toString());
+    }
+
+    @Test
+    public void testEncode_multipleParameters() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("grant_type", "authorization_code");
+        parameters.put("omitted", null);
+        parameters.put("redirect uri", "https://example.com/cb?a=b");
+        assertThat(new FormUrlEncoder().encode(parameters).toString())
+                .isEqualTo("grant_type=authorization_code"
+                        + "&redirect+uri=https%3A%2F%2Fexample.com%2Fcb%3Fa%3Db");
+    }
+
+    @Test
+    public void testEncode_replacesPreviousContent() {
+        FormUrlEncoder encoder = new FormUrlEncoder();
+        encoder.encode(Collections.singletonMap("first", "a much longer value than the next"));
+        assertThat(encoder.encode(Collections.singletonMap("second", "b")).toString())
+                .isEqualTo("second=b");
+        assertThat(encoder.encode(null).length()).isEqualTo(0);
+    }
+
+    @Test
+    public void testEncode_growsBeyondInitialCapacity() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < FormUrlEncoder.MAX_RETAINED_CAPACITY; i++) {
+            value.append('é');
+        }
+        FormUrlEncoder encoder = new FormUrlEncoder();
+        String encoded = encoder.encode(Collections.singletonMap("key", value.toString()))
+                .toString();
+        assertThat(encoded).isEqualTo("key=" + URLEncoder.encode(value.toString(), "UTF-8"));
+
+        // the oversized buffer is replaced on next use, without affecting the result
+        assertThat(encoder.encode(Collections.singletonMap("key", "value")).toString())
+                .isEqualTo("key=value");
+    }
+
+    @Test
+    public void testForCurrentThread_isReused() {
+        assertThat(FormUrlEncoder.forCurrentThread()).isSameAs(FormUrlEncoder.forCurrentThread());
+    }
+}
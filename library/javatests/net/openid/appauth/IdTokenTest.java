@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
+import static net.openid.appauth.TestValues.TEST_ID_TOKEN;
+import static net.openid.appauth.TestValues.encodeIdToken;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class IdTokenTest {
+
+    private static final String TEST_HEADER = "{\"alg\":\"RS256\",\"kid\":\"key1\"}";
+    private static final String TEST_CLAIMS = "{"
+            + "\"iss\":\"https://issuer.example.com\","
+            + "\"sub\":\"alice\","
+            + "\"aud\":\"" + TEST_CLIENT_ID + "\","
+            + "\"exp\":1478000120,"
+            + "\"iat\":1478000000,"
+            + "\"nonce\":\"n-0S6_WzA2Mj\""
+            + "}";
+
+    @Test
+    public void testParse() throws Exception {
+        String token = encodeIdToken(TEST_HEADER, TEST_CLAIMS);
+        IdToken idToken = IdToken.parse(token);
+
+        assertThat(idToken.token).isEqualTo(token);
+        assertThat(idToken.algorithm).isEqualTo("RS256");
+        assertThat(idToken.keyId).isEqualTo("key1");
+        assertThat(idToken.issuer).isEqualTo("https://issuer.example.com");
+        assertThat(idToken.subject).isEqualTo("alice");
+        assertThat(idToken.audience).containsExactly(TEST_CLIENT_ID);
+        assertThat(idToken.expiration).isEqualTo(1478000120L);
+        assertThat(idToken.issuedAt).isEqualTo(1478000000L);
+        assertThat(idToken.authTime).isNull();
+        assertThat(idToken.nonce).isEqualTo("n-0S6_WzA2Mj");
+        assertThat(idToken.hasAudience(TEST_CLIENT_ID)).isTrue();
+        assertThat(idToken.hasAudience("other_client")).isFalse();
+    }
+
+    @Test
+    public void testParse_audienceArray() throws Exception {
+        IdToken idToken = IdToken.parse(encodeIdToken(
+                TEST_HEADER,
+                "{\"aud\":[\"" + TEST_CLIENT_ID + "\",\"other_client\"]}"));
+        assertThat(idToken.audience).containsExactly(TEST_CLIENT_ID, "other_client");
+        assertThat(idToken.hasAudience("other_client")).isTrue();
+    }
+
+    @Test
+    public void testParse_noAudience() throws Exception {
+        IdToken idToken = IdToken.parse(encodeIdToken(TEST_HEADER, "{}"));
+        assertThat(idToken.audience).isEmpty();
+        assertThat(idToken.expiration).isNull();
+    }
+
+    @Test(expected = JSONException.class)
+    public void testParse_notJwt() throws Exception {
+        IdToken.parse("not_a_jwt");
+    }
+
+    @Test(expected = JSONException.class)
+    public void testParse_malformedSegments() throws Exception {
+        IdToken.parse(TEST_ID_TOKEN);
+    }
+
+    @Test
+    public void testIsExpired() throws Exception {
+        IdToken idToken = IdToken.parse(encodeIdToken(TEST_HEADER, TEST_CLAIMS));
+        assertThat(idToken.isExpired(1478000119000L)).isFalse();
+        assertThat(idToken.isExpired(1478000120000L)).isTrue();
+        assertThat(IdToken.parse(encodeIdToken(TEST_HEADER, "{}")).isExpired(0L)).isTrue();
+    }
+
+    @Test
+    public void testTokenResponse_claimsAreRetained() throws Exception {
+        TokenResponse response = getTestAuthCodeExchangeResponseBuilder()
+                .setIdToken(encodeIdToken(TEST_HEADER, TEST_CLAIMS))
+                .build();
+        assertThat(response.getIdTokenClaims()).isSameAs(response.getIdTokenClaims());
+        assertThat(getTestAuthCodeExchangeResponseBuilder().build().getIdTokenClaims()).isNull();
+    }
+
+    @Test
+    public void testAuthState_claimsFollowIdToken() throws Exception {
+        TokenResponse response = getTestAuthCodeExchangeResponseBuilder()
+                .setIdToken(encodeIdToken(TEST_HEADER, TEST_CLAIMS))
+                .build();
+        AuthState state = new AuthState(getTestAuthResponse(), response, null);
+
+        IdToken claims = state.getIdTokenClaims();
+        assertThat(claims).isSameAs(response.getIdTokenClaims());
+        assertThat(state.getIdTokenClaims()).isSameAs(claims);
+
+        state.update(
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setIdToken(encodeIdToken(TEST_HEADER, "{\"sub\":\"bob\"}"))
+                        .build(),
+                null);
+        assertThat(state.getIdTokenClaims().subject).isEqualTo("bob");
+
+        state.update(getTestAuthCodeExchangeResponseBuilder().build(), null);
+        assertThat(state.getIdTokenClaims()).isNull();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.getTestIntrospectionRequestBuilder;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class IntrospectionCacheTest {
+
+    private static final long ONE_MINUTE = 60000L;
+    private static final long ONE_HOUR = 3600000L;
+
+    private TestClock mClock;
+    private IntrospectionCache mCache;
+
+    @Before
+    public void setUp() {
+        mClock = new TestClock(0L);
+        mCache = new IntrospectionCache(2, IntrospectionCache.NO_MAX_AGE, mClock);
+    }
+
+    @Test
+    public void testGet_retainedUntilExpiration() {
+        IntrospectionResponse response = createResponse("token", true, ONE_HOUR);
+        mCache.put(response);
+
+        mClock.currentTime.set(ONE_HOUR - 1);
+        assertThat(mCache.get(response.request)).isSameAs(response);
+
+        mClock.currentTime.set(ONE_HOUR);
+        assertThat(mCache.get(response.request)).isNull();
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testGet_maxAge() {
+        mCache = new IntrospectionCache(2, ONE_MINUTE, mClock);
+        IntrospectionResponse response = createResponse("token", true, ONE_HOUR);
+        mCache.put(response);
+
+        mClock.currentTime.set(ONE_MINUTE);
+        assertThat(mCache.get(response.request)).isNull();
+    }
+
+    @Test
+    public void testPut_activeWithoutExpirationNotRetained() {
+        IntrospectionResponse response = createResponse("token", true, null);
+        mCache.put(response);
+        assertThat(mCache.get(response.request)).isNull();
+    }
+
+    @Test
+    public void testPut_inactiveRetainedForLimitedTime() {
+        IntrospectionResponse response = createResponse("token", false, null);
+        mCache.put(response);
+
+        mClock.currentTime.set(IntrospectionCache.MAX_INACTIVE_AGE_MS - 1);
+        assertThat(mCache.get(response.request)).isSameAs(response);
+
+        mClock.currentTime.set(IntrospectionCache.MAX_INACTIVE_AGE_MS);
+        assertThat(mCache.get(response.request)).isNull();
+    }
+
+    @Test
+    public void testPut_inactiveLimitedByMaxAge() {
+        mCache = new IntrospectionCache(2, ONE_MINUTE, mClock);
+        IntrospectionResponse response = createResponse("token", false, null);
+        mCache.put(response);
+
+        mClock.currentTime.set(ONE_MINUTE);
+        assertThat(mCache.get(response.request)).isNull();
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlyUsed() {
+        IntrospectionResponse first = createResponse("first", true, ONE_HOUR);
+        IntrospectionResponse second = createResponse("second", true, ONE_HOUR);
+        IntrospectionResponse third = createResponse("third", true, ONE_HOUR);
+        mCache.put(first);
+        mCache.put(second);
+
+        // accessing the first result makes the second the least recently used
+        mCache.get(first.request);
+        mCache.put(third);
+
+        assertThat(mCache.get(first.request)).isSameAs(first);
+        assertThat(mCache.get(second.request)).isNull();
+        assertThat(mCache.get(third.request)).isSameAs(third);
+    }
+
+    @Test
+    public void testGet_keyedByClient() {
+        IntrospectionResponse response = createResponse("token", true, ONE_HOUR);
+        mCache.put(response);
+
+        IntrospectionRequest otherClient = getTestIntrospectionRequestBuilder()
+                .setClientId("other_client")
+                .setToken("token")
+                .build();
+        assertThat(mCache.get(otherClient)).isNull();
+        assertThat(mCache.get(response.request)).isSameAs(response);
+    }
+
+    @Test
+    public void testInvalidate() {
+        IntrospectionResponse response = createResponse("token", true, ONE_HOUR);
+        IntrospectionResponse other = createResponse("other", true, ONE_HOUR);
+        mCache.put(response);
+        mCache.put(other);
+
+        mCache.invalidate("token");
+        assertThat(mCache.get(response.request)).isNull();
+        assertThat(mCache.get(other.request)).isSameAs(other);
+    }
+
+    @Test
+    public void testFromResponseJson() throws Exception {
+        JSONObject json = new JSONObject("{\"active\":true,\"exp\":3600,"
+                + "\"aud\":[\"a\",\"b\"],\"scope\":\"openid email\",\"ext\":\"value\"}");
+        IntrospectionResponse response =
+                new IntrospectionResponse.Builder(getTestIntrospectionRequestBuilder().build())
+                        .fromResponseJson(json)
+                        .build();
+
+        assertThat(response.active).isTrue();
+        assertThat(response.expirationTime).isEqualTo(ONE_HOUR);
+        assertThat(response.audience).containsExactly("a", "b");
+        assertThat(response.getScopeSet()).containsOnly("openid", "email");
+        assertThat(response.additionalParameters).containsEntry("ext", "value");
+        assertThat(response.additionalParameters).doesNotContainKey("active");
+    }
+
+    private static IntrospectionResponse createResponse(
+            String token,
+            boolean active,
+            Long expirationTime) {
+        return new IntrospectionResponse.Builder(
+                getTestIntrospectionRequestBuilder().setToken(token).build())
+                .setActive(active)
+                .setExpirationTime(expirationTime)
+                .build();
+    }
+}
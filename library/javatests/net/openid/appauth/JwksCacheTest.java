@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+import net.openid.appauth.connectivity.ConnectionBuilder;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class JwksCacheTest {
+
+    private static final String TEST_ISSUER = "https://idp.example.com";
+    private static final Uri TEST_JWKS_URI = Uri.parse("https://idp.example.com/jwks");
+
+    private static final String KEY_SET_JSON = "{\"keys\": ["
+            + "{\"kty\": \"RSA\", \"kid\": \"key1\", \"alg\": \"RS256\"},"
+            + "{\"kty\": \"EC\", \"kid\": \"key2\", \"alg\": \"ES256\"}"
+            + "]}";
+
+    private static final String ROTATED_KEY_SET_JSON = "{\"keys\": ["
+            + "{\"kty\": \"RSA\", \"kid\": \"key3\", \"alg\": \"RS256\"}"
+            + "]}";
+
+    private TestClock mClock;
+    private ConnectionBuilder mConnectionBuilder;
+    private HttpURLConnection mHttpConnection;
+    private JwksCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new TestClock(0L);
+        mHttpConnection = mock(HttpURLConnection.class);
+        mConnectionBuilder = mock(ConnectionBuilder.class);
+        when(mConnectionBuilder.openConnection(any(Uri.class))).thenReturn(mHttpConnection);
+        respondWith(KEY_SET_JSON);
+        mCache = new JwksCache(mClock);
+    }
+
+    @Test
+    public void testFindKey_cachedKeySetIsReused() throws Exception {
+        JSONObject key = findKey("key1", "RS256");
+        assertThat(key.getString("kid")).isEqualTo("key1");
+
+        key = findKey("key2", "ES256");
+        assertThat(key.getString("kid")).isEqualTo("key2");
+        verify(mConnectionBuilder, times(1)).openConnection(TEST_JWKS_URI);
+    }
+
+    @Test
+    public void testFindKey_withoutKeyIdMatchesAlgorithm() throws Exception {
+        JSONObject key = findKey(null, "ES256");
+        assertThat(key.getString("kid")).isEqualTo("key2");
+    }
+
+    @Test
+    public void testFindKey_algorithmMismatch() throws Exception {
+        assertThat(findKey("key1", "ES256")).isNull();
+    }
+
+    @Test
+    public void testFindKey_unknownKeyIdTriggersRefetch() throws Exception {
+        findKey("key1", "RS256");
+
+        mClock.currentTime.set(JwksCache.MIN_REFETCH_INTERVAL_MS);
+        respondWith(ROTATED_KEY_SET_JSON);
+        JSONObject key = findKey("key3", "RS256");
+        assertThat(key.getString("kid")).isEqualTo("key3");
+        verify(mConnectionBuilder, times(2)).openConnection(TEST_JWKS_URI);
+    }
+
+    @Test
+    public void testFindKey_unknownKeyIdWithinRefetchInterval() throws Exception {
+        findKey("key1", "RS256");
+
+        mClock.currentTime.set(JwksCache.MIN_REFETCH_INTERVAL_MS - 1);
+        assertThat(findKey("key3", "RS256")).isNull();
+        verify(mConnectionBuilder, times(1)).openConnection(TEST_JWKS_URI);
+    }
+
+    @Test
+    public void testFindKey_expiredKeySetIsRefetched() throws Exception {
+        findKey("key1", "RS256");
+
+        mClock.currentTime.set(JwksCache.DEFAULT_TTL_MS);
+        findKey("key1", "RS256");
+        verify(mConnectionBuilder, times(2)).openConnection(TEST_JWKS_URI);
+    }
+
+    @Test
+    public void testGetTimeToLive_maxAge() {
+        when(mHttpConnection.getHeaderField("Cache-Control")).thenReturn("public, max-age=600");
+        assertThat(JwksCache.getTimeToLive(mHttpConnection, 0L))
+                .isEqualTo(TimeUnit.SECONDS.toMillis(600));
+    }
+
+    @Test
+    public void testGetTimeToLive_noStore() {
+        when(mHttpConnection.getHeaderField("Cache-Control")).thenReturn("no-store, max-age=600");
+        assertThat(JwksCache.getTimeToLive(mHttpConnection, 0L)).isEqualTo(0L);
+    }
+
+    @Test
+    public void testGetTimeToLive_expires() {
+        long serverDate = TimeUnit.DAYS.toMillis(1000);
+        when(mHttpConnection.getDate()).thenReturn(serverDate);
+        when(mHttpConnection.getExpiration())
+                .thenReturn(serverDate + TimeUnit.MINUTES.toMillis(5));
+        assertThat(JwksCache.getTimeToLive(mHttpConnection, 0L))
+                .isEqualTo(TimeUnit.MINUTES.toMillis(5));
+    }
+
+    @Test
+    public void testGetTimeToLive_clampedToMaximum() {
+        when(mHttpConnection.getHeaderField("Cache-Control")).thenReturn("max-age=31536000");
+        assertThat(JwksCache.getTimeToLive(mHttpConnection, 0L))
+                .isEqualTo(JwksCache.MAX_TTL_MS);
+    }
+
+    @Test
+    public void testGetTimeToLive_default() {
+        assertThat(JwksCache.getTimeToLive(mHttpConnection, 0L))
+                .isEqualTo(JwksCache.DEFAULT_TTL_MS);
+    }
+
+    private JSONObject findKey(String keyId, String algorithm) throws Exception {
+        return mCache.findKey(TEST_ISSUER, TEST_JWKS_URI, keyId, algorithm, mConnectionBuilder);
+    }
+
+    private void respondWith(String json) throws Exception {
+        when(mHttpConnection.getInputStream())
+                .thenReturn(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.util.Base64;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import org.json.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class JwsVerifierTest {
+
+    private static final int BASE64URL_FLAGS =
+            Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+
+    private static final int RSA_KEY_SIZE = 2048;
+    private static final int P256_COMPONENT_LENGTH = 32;
+
+    private static final String TEST_PAYLOAD = "{\"iss\":\"https://idp.example.com\"}";
+
+    private static KeyPair sRsaKeyPair;
+    private static KeyPair sEcKeyPair;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(RSA_KEY_SIZE);
+        sRsaKeyPair = rsaGenerator.generateKeyPair();
+
+        KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance("EC");
+        ecGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        sEcKeyPair = ecGenerator.generateKeyPair();
+    }
+
+    @Test
+    public void testVerify_rs256() throws Exception {
+        PublicKey key = JwsVerifier.createPublicKey(rsaJwk((RSAPublicKey) sRsaKeyPair.getPublic()));
+        String jws = sign("RS256", "SHA256withRSA", sRsaKeyPair.getPrivate());
+        assertThat(JwsVerifier.verify(jws, "RS256", key)).isTrue();
+    }
+
+    @Test
+    public void testVerify_rs512() throws Exception {
+        PublicKey key = JwsVerifier.createPublicKey(rsaJwk((RSAPublicKey) sRsaKeyPair.getPublic()));
+        String jws = sign("RS512", "SHA512withRSA", sRsaKeyPair.getPrivate());
+        assertThat(JwsVerifier.verify(jws, "RS512", key)).isTrue();
+    }
+
+    @Test
+    public void testVerify_es256() throws Exception {
+        PublicKey key = JwsVerifier.createPublicKey(ecJwk((ECPublicKey) sEcKeyPair.getPublic()));
+        String jws = sign("ES256", "SHA256withECDSA", sEcKeyPair.getPrivate());
+        assertThat(JwsVerifier.verify(jws, "ES256", key)).isTrue();
+    }
+
+    @Test
+    public void testVerify_tamperedPayload() throws Exception {
+        PublicKey key = JwsVerifier.createPublicKey(rsaJwk((RSAPublicKey) sRsaKeyPair.getPublic()));
+        String jws = sign("RS256", "SHA256withRSA", sRsaKeyPair.getPrivate());
+        String[] parts = jws.split("\\.");
+        String tampered = parts[0] + "." + encode("{\"iss\":\"https://evil.example.com\"}")
+                + "." + parts[2];
+        assertThat(JwsVerifier.verify(tampered, "RS256", key)).isFalse();
+    }
+
+    @Test
+    public void testVerify_nonBase64UrlSigningInput() throws Exception {
+        PublicKey key = JwsVerifier.createPublicKey(rsaJwk((RSAPublicKey) sRsaKeyPair.getPublic()));
+        String jws = sign("RS256", "SHA256withRSA", sRsaKeyPair.getPrivate());
+        // a character whose low byte matches the original must not be accepted in its place
+        char original = jws.charAt(0);
+        String tampered = (char) (original | 0x100) + jws.substring(1);
+        assertThat(JwsVerifier.verify(tampered, "RS256", key)).isFalse();
+    }
+
+    @Test
+    public void testVerify_malformedEcSignature() throws Exception {
+        PublicKey key = JwsVerifier.createPublicKey(ecJwk((ECPublicKey) sEcKeyPair.getPublic()));
+        String jws = encode("{\"alg\":\"ES256\"}") + "." + encode(TEST_PAYLOAD) + ".AAAA";
+        assertThat(JwsVerifier.verify(jws, "ES256", key)).isFalse();
+    }
+
+    @Test(expected = InvalidKeyException.class)
+    public void testVerify_keyTypeMismatch() throws Exception {
+        PublicKey key = JwsVerifier.createPublicKey(ecJwk((ECPublicKey) sEcKeyPair.getPublic()));
+        String jws = sign("RS256", "SHA256withRSA", sRsaKeyPair.getPrivate());
+        JwsVerifier.verify(jws, "RS256", key);
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void testVerify_unsupportedAlgorithm() throws Exception {
+        PublicKey key = JwsVerifier.createPublicKey(rsaJwk((RSAPublicKey) sRsaKeyPair.getPublic()));
+        JwsVerifier.verify(encode("{\"alg\":\"none\"}") + "." + encode(TEST_PAYLOAD) + ".",
+                "none", key);
+    }
+
+    @Test
+    public void testIsSupportedAlgorithm() {
+        assertThat(JwsVerifier.isSupportedAlgorithm("RS256")).isTrue();
+        assertThat(JwsVerifier.isSupportedAlgorithm("ES384")).isTrue();
+        assertThat(JwsVerifier.isSupportedAlgorithm("PS256")).isTrue();
+        assertThat(JwsVerifier.isSupportedAlgorithm("HS256")).isFalse();
+        assertThat(JwsVerifier.isSupportedAlgorithm("none")).isFalse();
+        assertThat(JwsVerifier.isSupportedAlgorithm(null)).isFalse();
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void testCreatePublicKey_unsupportedCurve() throws Exception {
+        JSONObject jwk = ecJwk((ECPublicKey) sEcKeyPair.getPublic());
+        jwk.put(JwsVerifier.KEY_CURVE, "P-521");
+        JwsVerifier.createPublicKey(jwk);
+    }
+
+    @Test(expected = InvalidKeySpecException.class)
+    public void testCreatePublicKey_malformedModulus() throws Exception {
+        JSONObject jwk = rsaJwk((RSAPublicKey) sRsaKeyPair.getPublic());
+        // a single trailing character cannot encode a whole byte
+        jwk.put(JwsVerifier.KEY_MODULUS, "AAAAA");
+        JwsVerifier.createPublicKey(jwk);
+    }
+
+    @Test
+    public void testConcatToDer_wrongLength() {
+        assertThat(JwsVerifier.concatToDer(new byte[P256_COMPONENT_LENGTH],
+                P256_COMPONENT_LENGTH)).isNull();
+    }
+
+    private static String sign(String algorithm, String javaAlgorithm, PrivateKey key)
+            throws Exception {
+        String signingInput = encode("{\"alg\":\"" + algorithm + "\"}")
+                + "." + encode(TEST_PAYLOAD);
+        Signature signer = Signature.getInstance(javaAlgorithm);
+        signer.initSign(key);
+        signer.update(signingInput.getBytes("US-ASCII"));
+        byte[] signature = signer.sign();
+        if (algorithm.startsWith("ES")) {
+            signature = derToConcat(signature, P256_COMPONENT_LENGTH);
+        }
+        return signingInput + "." + Base64.encodeToString(signature, BASE64URL_FLAGS);
+    }
+
+    private static byte[] derToConcat(byte[] der, int componentLength) {
+        // SEQUENCE { INTEGER r, INTEGER s }, with short form lengths
+        int rLength = der[3];
+        byte[] r = Arrays.copyOfRange(der, 4, 4 + rLength);
+        int sOffset = 4 + rLength + 2;
+        byte[] s = Arrays.copyOfRange(der, sOffset, sOffset + der[sOffset - 1]);
+
+        byte[] concat = new byte[2 * componentLength];
+        copyUnsigned(r, concat, 0, componentLength);
+        copyUnsigned(s, concat, componentLength, componentLength);
+        return concat;
+    }
+
+    private static void copyUnsigned(byte[] signed, byte[] dest, int offset, int length) {
+        byte[] unsigned = new BigInteger(signed).toByteArray();
+        int start = Math.max(0, unsigned.length - length);
+        int count = unsigned.length - start;
+        System.arraycopy(unsigned, start, dest, offset + length - count, count);
+    }
+
+    private static JSONObject rsaJwk(RSAPublicKey key) throws Exception {
+        JSONObject jwk = new JSONObject();
+        jwk.put(JwsVerifier.KEY_KEY_TYPE, JwsVerifier.KEY_TYPE_RSA);
+        jwk.put(JwsVerifier.KEY_MODULUS, encodeUnsigned(key.getModulus()));
+        jwk.put(JwsVerifier.KEY_EXPONENT, encodeUnsigned(key.getPublicExponent()));
+        return jwk;
+    }
+
+    private static JSONObject ecJwk(ECPublicKey key) throws Exception {
+        JSONObject jwk = new JSONObject();
+        jwk.put(JwsVerifier.KEY_KEY_TYPE, JwsVerifier.KEY_TYPE_EC);
+        jwk.put(JwsVerifier.KEY_CURVE, "P-256");
+        jwk.put(JwsVerifier.KEY_X, encodeUnsigned(key.getW().getAffineX()));
+        jwk.put(JwsVerifier.KEY_Y, encodeUnsigned(key.getW().getAffineY()));
+        return jwk;
+    }
+
+    private static String encodeUnsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.encodeToString(bytes, BASE64URL_FLAGS);
+    }
+
+    private static String encode(String value) throws Exception {
+        return Base64.encodeToString(value.getBytes("UTF-8"), BASE64URL_FLAGS);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class RequestFutureTest {
+
+    private SameThreadExecutor mExecutor;
+    private RecordingCallback<String> mCallback;
+
+    @Before
+    public void setUp() {
+        mExecutor = new SameThreadExecutor();
+        mCallback = new RecordingCallback<>();
+    }
+
+    @Test
+    public void testSet() throws Exception {
+        RequestFuture<String> future = new RequestFuture<>();
+        future.addCallback(mCallback, mExecutor);
+        assertThat(future.isDone()).isFalse();
+
+        future.set("result");
+        assertThat(future.isDone()).isTrue();
+        assertThat(future.get()).isEqualTo("result");
+        assertThat(mCallback.result.get()).isEqualTo("result");
+        assertThat(mExecutor.executionCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSetException() throws Exception {
+        RequestFuture<String> future = new RequestFuture<>();
+        future.setException(GeneralErrors.NETWORK_ERROR);
+        future.addCallback(mCallback, mExecutor);
+
+        assertThat(mCallback.error.get()).isEqualTo(GeneralErrors.NETWORK_ERROR);
+        try {
+            future.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause()).isEqualTo(GeneralErrors.NETWORK_ERROR);
+        }
+    }
+
+    @Test
+    public void testComplete_onlyFirstResultIsKept() throws Exception {
+        RequestFuture<String> future = new RequestFuture<>();
+        future.complete("first", null);
+        future.complete(null, GeneralErrors.NETWORK_ERROR);
+        assertThat(future.get()).isEqualTo("first");
+    }
+
+    @Test
+    public void testCancel_cancelsHandleAndSuppressesCallbacks() throws Exception {
+        RequestHandle handle = mock(RequestHandle.class);
+        RequestFuture<String> future = new RequestFuture<>();
+        future.setHandle(handle);
+        future.addCallback(mCallback, mExecutor);
+
+        assertThat(future.cancel(false)).isTrue();
+        verify(handle).cancel();
+        assertThat(future.isCancelled()).isTrue();
+
+        future.set("result");
+        assertThat(mCallback.result.get()).isNull();
+        assertThat(mCallback.error.get()).isNull();
+        try {
+            future.get();
+            fail("Expected CancellationException");
+        } catch (CancellationException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSetHandle_afterCancel() {
+        RequestFuture<String> future = new RequestFuture<>();
+        future.cancel();
+        RequestHandle handle = mock(RequestHandle.class);
+        future.setHandle(handle);
+        verify(handle).cancel();
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testGet_timeout() throws Exception {
+        new RequestFuture<String>().get(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testThen() throws Exception {
+        RequestFuture<String> first = new RequestFuture<>();
+        final RequestFuture<Integer> second = new RequestFuture<>();
+        final AtomicReference<String> input = new AtomicReference<>();
+        RequestFuture<Integer> chained = first.then(
+                new RequestFuture.Continuation<String, Integer>() {
+                    @NonNull
+                    @Override
+                    public RequestFuture<Integer> then(String result) {
+                        input.set(result);
+                        return second;
+                    }
+                });
+
+        first.set("result");
+        assertThat(input.get()).isEqualTo("result");
+        assertThat(chained.isDone()).isFalse();
+
+        second.set(1);
+        assertThat(chained.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testThen_failurePropagates() throws Exception {
+        RequestFuture<String> first = new RequestFuture<>();
+        RequestFuture<Integer> chained = first.then(new FailingContinuation());
+        first.setException(GeneralErrors.NETWORK_ERROR);
+        try {
+            chained.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause()).isEqualTo(GeneralErrors.NETWORK_ERROR);
+        }
+    }
+
+    @Test
+    public void testThen_cancelPropagatesToCurrentStage() {
+        RequestFuture<String> first = new RequestFuture<>();
+        RequestFuture<Integer> chained = first.then(new FailingContinuation());
+        chained.cancel();
+        assertThat(first.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testThen_cancelledStageCancelsChain() {
+        RequestFuture<String> first = new RequestFuture<>();
+        RequestFuture<Integer> chained = first.then(new FailingContinuation());
+        first.cancel();
+        assertThat(chained.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testThen_throwingContinuationFailsChain() throws Exception {
+        RequestFuture<String> first = new RequestFuture<>();
+        RequestFuture<Integer> chained = first.then(
+                new RequestFuture.Continuation<String, Integer>() {
+                    @NonNull
+                    @Override
+                    public RequestFuture<Integer> then(String result) {
+                        throw new IllegalStateException("Service has been disposed");
+                    }
+                });
+
+        first.set("result");
+        try {
+            chained.get(1, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause()).isEqualTo(GeneralErrors.UNEXPECTED_ERROR);
+            assertThat(ex.getCause().getCause()).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    public void testThen_nullStageCancelsChain() {
+        RequestFuture<String> first = new RequestFuture<>();
+        RequestFuture<Integer> chained = first.then(
+                new RequestFuture.Continuation<String, Integer>() {
+                    @SuppressWarnings("ConstantConditions")
+                    @NonNull
+                    @Override
+                    public RequestFuture<Integer> then(String result) {
+                        return null;
+                    }
+                });
+
+        first.set("result");
+        assertThat(chained.isCancelled()).isTrue();
+    }
+
+    private static class RecordingCallback<V> implements RequestFuture.Callback<V> {
+        final AtomicReference<V> result = new AtomicReference<>();
+        final AtomicReference<AuthorizationException> error = new AtomicReference<>();
+
+        @Override
+        public void onSuccess(V value) {
+            result.set(value);
+        }
+
+        @Override
+        public void onFailure(@NonNull AuthorizationException ex) {
+            error.set(ex);
+        }
+    }
+
+    private static class FailingContinuation
+            implements RequestFuture.Continuation<String, Integer> {
+        @NonNull
+        @Override
+        public RequestFuture<Integer> then(String result) {
+            throw new AssertionError("Continuation should not be invoked");
+        }
+    }
+}
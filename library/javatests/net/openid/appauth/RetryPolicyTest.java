@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import net.openid.appauth.connectivity.ConnectionBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class RetryPolicyTest {
+
+    private static final Uri TEST_ENDPOINT = Uri.parse("https://test.openid.com/token");
+    private static final int TEST_FAILURE_THRESHOLD = 2;
+    private static final long TEST_OPEN_DURATION_MS = 30000L;
+
+    private TestClock mClock;
+    private ConnectionBuilder mConnectionBuilder;
+    private HttpURLConnection mHttpConnection;
+    private CountingRequestWriter mRequestWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new TestClock(0L);
+        mHttpConnection = mock(HttpURLConnection.class);
+        mConnectionBuilder = mock(ConnectionBuilder.class);
+        when(mConnectionBuilder.openConnection(any(Uri.class))).thenReturn(mHttpConnection);
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        mRequestWriter = new CountingRequestWriter();
+    }
+
+    @Test
+    public void testGetRetryDelay_exponentialBackoffWithJitter() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setMaxAttempts(5)
+                .setInitialBackoffMs(1000L)
+                .setMaxBackoffMs(3000L)
+                .setRandom(new FixedRandom(0.5))
+                .build();
+        assertThat(policy.getRetryDelay(1, RetryPolicy.NO_RETRY)).isEqualTo(500L);
+        assertThat(policy.getRetryDelay(2, RetryPolicy.NO_RETRY)).isEqualTo(1000L);
+        assertThat(policy.getRetryDelay(3, RetryPolicy.NO_RETRY)).isEqualTo(1500L);
+        assertThat(policy.getRetryDelay(4, RetryPolicy.NO_RETRY)).isEqualTo(1500L);
+        assertThat(policy.getRetryDelay(5, RetryPolicy.NO_RETRY))
+                .isEqualTo(RetryPolicy.NO_RETRY);
+    }
+
+    @Test
+    public void testGetRetryDelay_retryAfter() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setMaxBackoffMs(3000L)
+                .setRandom(new FixedRandom(0.5))
+                .build();
+        assertThat(policy.getRetryDelay(1, 3000L)).isEqualTo(3000L);
+        assertThat(policy.getRetryDelay(1, 3001L)).isEqualTo(RetryPolicy.NO_RETRY);
+    }
+
+    @Test
+    public void testExecute_retriesUnavailableResponse() throws Exception {
+        when(mHttpConnection.getResponseCode())
+                .thenReturn(HttpURLConnection.HTTP_UNAVAILABLE, HttpURLConnection.HTTP_OK);
+        when(mHttpConnection.getHeaderField(RetryPolicy.HEADER_RETRY_AFTER)).thenReturn("0");
+
+        HttpURLConnection conn = execute(createPolicy(), true);
+
+        assertThat(conn.getResponseCode()).isEqualTo(HttpURLConnection.HTTP_OK);
+        assertThat(mRequestWriter.count.get()).isEqualTo(2);
+        verify(mHttpConnection).disconnect();
+    }
+
+    @Test
+    public void testExecute_doesNotRetryClientError() throws Exception {
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_BAD_REQUEST);
+        HttpURLConnection conn = execute(createPolicy(), true);
+        assertThat(conn.getResponseCode()).isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+        assertThat(mRequestWriter.count.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testExecute_returnsFinalFailedResponse() throws Exception {
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_UNAVAILABLE);
+        HttpURLConnection conn = execute(createPolicy(), true);
+        assertThat(conn.getResponseCode()).isEqualTo(HttpURLConnection.HTTP_UNAVAILABLE);
+        assertThat(mRequestWriter.count.get()).isEqualTo(RetryPolicy.DEFAULT_MAX_ATTEMPTS);
+    }
+
+    @Test
+    public void testExecute_notReplayable_doesNotRetryAfterRequestSent() throws Exception {
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_UNAVAILABLE);
+        execute(createPolicy(), false);
+        assertThat(mRequestWriter.count.get()).isEqualTo(1);
+
+        mRequestWriter.failure = new SocketTimeoutException();
+        try {
+            execute(createPolicy(), false);
+            fail("Expected IOException");
+        } catch (SocketTimeoutException ex) {
+            assertThat(mRequestWriter.count.get()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testExecute_notReplayable_retriesConnectionFailure() throws Exception {
+        mRequestWriter.failure = new ConnectException();
+        try {
+            execute(createPolicy(), false);
+            fail("Expected IOException");
+        } catch (ConnectException ex) {
+            assertThat(mRequestWriter.count.get()).isEqualTo(RetryPolicy.DEFAULT_MAX_ATTEMPTS);
+        }
+    }
+
+    @Test
+    public void testExecute_circuitBreaker() throws Exception {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setMaxAttempts(1)
+                .setFailureThreshold(TEST_FAILURE_THRESHOLD)
+                .setOpenDurationMs(TEST_OPEN_DURATION_MS)
+                .setClock(mClock)
+                .build();
+        when(mHttpConnection.getResponseCode())
+                .thenReturn(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        execute(policy, true);
+        assertThat(policy.isCircuitOpen(TEST_ENDPOINT)).isFalse();
+        execute(policy, true);
+        assertThat(policy.isCircuitOpen(TEST_ENDPOINT)).isTrue();
+
+        try {
+            execute(policy, true);
+            fail("Expected AuthorizationException");
+        } catch (AuthorizationException ex) {
+            assertThat(ex).isEqualTo(GeneralErrors.SERVICE_UNAVAILABLE);
+        }
+        verify(mConnectionBuilder, times(TEST_FAILURE_THRESHOLD)).openConnection(TEST_ENDPOINT);
+
+        // a trial request is permitted once the open duration has elapsed
+        mClock.currentTime.set(TEST_OPEN_DURATION_MS);
+        assertThat(policy.isCircuitOpen(TEST_ENDPOINT)).isFalse();
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        execute(policy, true);
+        assertThat(policy.isCircuitOpen(TEST_ENDPOINT)).isFalse();
+    }
+
+    @Test
+    public void testExecute_circuitBreakerReopensAfterFailedTrial() throws Exception {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setMaxAttempts(1)
+                .setFailureThreshold(1)
+                .setOpenDurationMs(TEST_OPEN_DURATION_MS)
+                .setClock(mClock)
+                .build();
+        mRequestWriter.failure = new SocketTimeoutException();
+        executeIgnoringFailure(policy);
+        assertThat(policy.isCircuitOpen(TEST_ENDPOINT)).isTrue();
+
+        mClock.currentTime.set(TEST_OPEN_DURATION_MS);
+        executeIgnoringFailure(policy);
+        assertThat(policy.isCircuitOpen(TEST_ENDPOINT)).isTrue();
+        assertThat(mRequestWriter.count.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testExecute_circuitBreakerReleasedAfterTrialThrows() throws Exception {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setMaxAttempts(1)
+                .setFailureThreshold(1)
+                .setOpenDurationMs(TEST_OPEN_DURATION_MS)
+                .setClock(mClock)
+                .build();
+        mRequestWriter.failure = new SocketTimeoutException();
+        executeIgnoringFailure(policy);
+        assertThat(policy.isCircuitOpen(TEST_ENDPOINT)).isTrue();
+
+        mClock.currentTime.set(TEST_OPEN_DURATION_MS);
+        mRequestWriter.failure = null;
+        when(mConnectionBuilder.openConnection(any(Uri.class)))
+                .thenThrow(new IllegalStateException());
+        try {
+            execute(policy, true);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertThat(policy.isCircuitOpen(TEST_ENDPOINT)).isFalse();
+
+        // the abandoned trial does not prevent another from being attempted
+        when(mConnectionBuilder.openConnection(any(Uri.class))).thenReturn(mHttpConnection);
+        assertThat(execute(policy, true)).isSameAs(mHttpConnection);
+        assertThat(policy.isCircuitOpen(TEST_ENDPOINT)).isFalse();
+    }
+
+    @Test
+    public void testExecute_noneAttemptsOnce() throws Exception {
+        mRequestWriter.failure = new ConnectException();
+        for (int i = 0; i < RetryPolicy.DEFAULT_FAILURE_THRESHOLD + 1; i++) {
+            executeIgnoringFailure(RetryPolicy.NONE);
+        }
+        assertThat(mRequestWriter.count.get())
+                .isEqualTo(RetryPolicy.DEFAULT_FAILURE_THRESHOLD + 1);
+        assertThat(RetryPolicy.NONE.isCircuitOpen(TEST_ENDPOINT)).isFalse();
+    }
+
+    private RetryPolicy createPolicy() {
+        return new RetryPolicy.Builder()
+                .setInitialBackoffMs(0L)
+                .setClock(mClock)
+                .build();
+    }
+
+    private HttpURLConnection execute(RetryPolicy policy, boolean replayable) throws Exception {
+        return policy.execute(TEST_ENDPOINT, mConnectionBuilder, mRequestWriter, replayable, null);
+    }
+
+    private void executeIgnoringFailure(RetryPolicy policy) throws Exception {
+        try {
+            execute(policy, true);
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private static class CountingRequestWriter implements RetryPolicy.RequestWriter {
+        final AtomicInteger count = new AtomicInteger();
+        IOException failure;
+
+        @Override
+        public void writeRequest(@NonNull HttpURLConnection conn) throws IOException {
+            count.incrementAndGet();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static class FixedRandom extends Random {
+        private final double mValue;
+
+        FixedRandom(double value) {
+            mValue = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return mValue;
+        }
+    }
+}
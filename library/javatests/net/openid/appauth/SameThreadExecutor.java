@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes tasks immediately on the calling thread, counting the number of executed tasks.
+ */
+class SameThreadExecutor implements Executor {
+
+    public final AtomicInteger executionCount = new AtomicInteger();
+
+    @Override
+    public void execute(Runnable command) {
+        executionCount.incrementAndGet();
+        command.run();
+    }
+}
@@ -15,7 +15,9 @@
 package net.openid.appauth;
 
 import android.net.Uri;
+import android.util.Base64;
 
+import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 
 /**
@@ -34,6 +36,10 @@ class TestValues {
             Uri.parse("https://testidp.example.com/token");
     public static final Uri TEST_IDP_REGISTRATION_ENDPOINT =
             Uri.parse("https://testidp.example.com/token");
+    public static final Uri TEST_IDP_INTROSPECTION_ENDPOINT =
+            Uri.parse("https://testidp.example.com/introspect");
+    public static final Uri TEST_IDP_REVOCATION_ENDPOINT =
+            Uri.parse("https://testidp.example.com/revoke");
 
     public static final String TEST_CODE_VERIFIER = "0123456789_0123456789_0123456789_0123456789";
     public static final String TEST_AUTH_CODE = "zxcvbnmjk";
@@ -110,6 +116,23 @@ class TestValues {
         return getTestAuthCodeExchangeResponseBuilder().build();
     }
 
+    public static IntrospectionRequest.Builder getTestIntrospectionRequestBuilder() {
+        return new IntrospectionRequest.Builder(
+                getTestServiceConfig(),
+                TEST_CLIENT_ID,
+                TEST_ACCESS_TOKEN)
+                .setIntrospectionEndpoint(TEST_IDP_INTROSPECTION_ENDPOINT);
+    }
+
+    public static RevocationRequest.Builder getTestRevocationRequestBuilder() {
+        return new RevocationRequest.Builder(
+                getTestServiceConfig(),
+                TEST_CLIENT_ID,
+                TEST_REFRESH_TOKEN)
+                .setRevocationEndpoint(TEST_IDP_REVOCATION_ENDPOINT)
+                .setTokenTypeHint(RevocationRequest.TOKEN_TYPE_HINT_REFRESH_TOKEN);
+    }
+
     public static RegistrationRequest.Builder getTestRegistrationRequestBuilder() {
         return new RegistrationRequest.Builder(getTestServiceConfig(),
                 Arrays.asList(TEST_APP_REDIRECT_URI));
@@ -130,4 +153,15 @@ class TestValues {
                 .setClientSecretExpiresAt(TEST_CLIENT_SECRET_EXPIRES_AT)
                 .build();
     }
+
+    /**
+     * Encodes an unsigned JSON Web Token with the specified header and claims.
+     */
+    public static String encodeIdToken(String headerJson, String claimsJson)
+            throws UnsupportedEncodingException {
+        int flags = Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+        return Base64.encodeToString(headerJson.getBytes("UTF-8"), flags)
+                + "." + Base64.encodeToString(claimsJson.getBytes("UTF-8"), flags)
+                + ".";
+    }
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class TokenRefreshSchedulerTest {
+
+    private static final long ONE_MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long TEN_MINUTES = TimeUnit.MINUTES.toMillis(10);
+    private static final long TWENTY_MINUTES = TimeUnit.MINUTES.toMillis(20);
+    private static final double FIXED_JITTER_FRACTION = 0.5;
+
+    private TestClock mClock;
+    private AuthorizationService mService;
+    private ScheduledExecutorService mTimer;
+    private ScheduledFuture<?> mFuture;
+    private AuthState mState;
+    private TokenRefreshScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mClock = new TestClock(0L);
+        mService = mock(AuthorizationService.class);
+        mTimer = mock(ScheduledExecutorService.class);
+        mFuture = mock(ScheduledFuture.class);
+        doReturn(mFuture).when(mTimer)
+                .schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        TokenResponse tokenResponse = getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken(TEST_ACCESS_TOKEN)
+                .setAccessTokenExpirationTime(TEN_MINUTES)
+                .build();
+        mState = new AuthState(getTestAuthResponse(), tokenResponse, null);
+
+        Random fixedRandom = new Random() {
+            @Override
+            public double nextDouble() {
+                return FIXED_JITTER_FRACTION;
+            }
+        };
+
+        mScheduler = new TokenRefreshScheduler(
+                mService,
+                mState,
+                mClock,
+                mTimer,
+                new SameThreadExecutor(),
+                fixedRandom);
+    }
+
+    @Test
+    public void testStart_schedulesRefreshAheadOfExpiry() {
+        mScheduler.start();
+        verify(mService).addTokenRefreshScheduler(mScheduler);
+        verify(mTimer).schedule(
+                any(Runnable.class),
+                eq(expectedDelay(TEN_MINUTES)),
+                eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRefresh_performsRefreshAndReschedules() {
+        mScheduler.start();
+        Runnable timerTask = captureScheduledTask();
+
+        mClock.currentTime.set(expectedDelay(TEN_MINUTES));
+        timerTask.run();
+
+        ArgumentCaptor<TokenRequest> requestCaptor = ArgumentCaptor.forClass(TokenRequest.class);
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(mService).performTokenRequest(
+                requestCaptor.capture(), callbackCaptor.capture(), any(Runnable.class));
+
+        long freshExpirationTime = mClock.currentTime.get() + TWENTY_MINUTES;
+        TokenResponse freshResponse = new TokenResponse.Builder(requestCaptor.getValue())
+                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                .setAccessToken("fresh_access_token")
+                .setAccessTokenExpirationTime(freshExpirationTime)
+                .build();
+        callbackCaptor.getValue().onTokenRequestCompleted(freshResponse, null);
+
+        assertThat(mState.getAccessToken()).isEqualTo("fresh_access_token");
+        assertThat(mState.getNeedsTokenRefresh(mClock)).isFalse();
+        verify(mTimer).schedule(
+                any(Runnable.class),
+                eq(expectedDelay(TWENTY_MINUTES)),
+                eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRefresh_networkErrorIsRetried() {
+        mScheduler.start();
+        Runnable timerTask = captureScheduledTask();
+        mClock.currentTime.set(expectedDelay(TEN_MINUTES));
+        timerTask.run();
+
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(mService).performTokenRequest(
+                any(TokenRequest.class), callbackCaptor.capture(), any(Runnable.class));
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                null,
+                AuthorizationException.GeneralErrors.NETWORK_ERROR);
+
+        verify(mTimer).schedule(
+                any(Runnable.class),
+                eq(TokenRefreshScheduler.RETRY_DELAY_MS),
+                eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRefresh_skippedIfTokenAlreadyRefreshed() {
+        mScheduler.start();
+        Runnable timerTask = captureScheduledTask();
+
+        // the token is refreshed by other means before the scheduled refresh fires
+        mState.update(getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken("fresh_access_token")
+                .setAccessTokenExpirationTime(TWENTY_MINUTES)
+                .build(), null);
+        timerTask.run();
+
+        verify(mService, never()).performTokenRequest(
+                any(TokenRequest.class),
+                any(AuthorizationService.TokenResponseCallback.class),
+                any(Runnable.class));
+        verify(mTimer).schedule(
+                any(Runnable.class),
+                eq(expectedDelay(TWENTY_MINUTES)),
+                eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCancel_preventsRefresh() {
+        mScheduler.start();
+        Runnable timerTask = captureScheduledTask();
+
+        mScheduler.cancel();
+        verify(mFuture).cancel(false);
+        verify(mService).removeTokenRefreshScheduler(mScheduler);
+
+        // a timer task which was already running when cancelled must not perform the refresh
+        timerTask.run();
+        verify(mService, never()).performTokenRequest(
+                any(TokenRequest.class),
+                any(AuthorizationService.TokenResponseCallback.class),
+                any(Runnable.class));
+        assertThat(mScheduler.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testRefresh_shortLivedTokenIsNotRefreshedBackToBack() {
+        mState.update(getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken(TEST_ACCESS_TOKEN)
+                .setAccessTokenExpirationTime(ONE_MINUTE)
+                .build(), null);
+        mScheduler.start();
+
+        // refreshed part way through the token's lifetime, rather than immediately
+        long expectedDelay = (long) (ONE_MINUTE * (TokenRefreshScheduler.MIN_LIFETIME_FRACTION
+                + FIXED_JITTER_FRACTION * (TokenRefreshScheduler.MAX_LIFETIME_FRACTION
+                        - TokenRefreshScheduler.MIN_LIFETIME_FRACTION)));
+        assertThat(expectedDelay).isGreaterThan(ONE_MINUTE / 2);
+        verify(mTimer).schedule(
+                any(Runnable.class),
+                eq(expectedDelay),
+                eq(TimeUnit.MILLISECONDS));
+
+        Runnable timerTask = captureScheduledTask();
+        mClock.currentTime.set(expectedDelay);
+        timerTask.run();
+
+        ArgumentCaptor<TokenRequest> requestCaptor = ArgumentCaptor.forClass(TokenRequest.class);
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(mService).performTokenRequest(
+                requestCaptor.capture(), callbackCaptor.capture(), any(Runnable.class));
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                new TokenResponse.Builder(requestCaptor.getValue())
+                        .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                        .setAccessToken("fresh_access_token")
+                        .setAccessTokenExpirationTime(mClock.currentTime.get() + ONE_MINUTE)
+                        .build(),
+                null);
+
+        // the next refresh is scheduled for the new token, with the same delay
+        verify(mTimer, times(2)).schedule(
+                any(Runnable.class),
+                eq(expectedDelay),
+                eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCancel_removesScheduledRefreshFromQueue() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+        try {
+            TokenRefreshScheduler scheduler = new TokenRefreshScheduler(
+                    mService,
+                    mState,
+                    mClock,
+                    timer,
+                    new SameThreadExecutor(),
+                    new Random());
+            scheduler.start();
+            assertThat(timer.getQueue()).hasSize(1);
+
+            scheduler.cancel();
+            assertThat(timer.getQueue()).isEmpty();
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testComputeRefreshDelay_expiredTokenUsesMinimumDelay() {
+        assertThat(TokenRefreshScheduler.computeRefreshDelay(-ONE_MINUTE, 0.0))
+                .isEqualTo(TokenRefreshScheduler.MIN_REFRESH_DELAY_MS);
+        assertThat(TokenRefreshScheduler.computeRefreshDelay(0L, 1.0))
+                .isEqualTo(TokenRefreshScheduler.MIN_REFRESH_DELAY_MS);
+    }
+
+    @Test
+    public void testComputeRefreshDelay_longLivedTokenUsesFixedLeadTime() {
+        long oneHour = TimeUnit.HOURS.toMillis(1);
+        assertThat(TokenRefreshScheduler.computeRefreshDelay(oneHour, 0.0))
+                .isEqualTo(oneHour - TokenRefreshScheduler.REFRESH_LEAD_TIME_MS);
+    }
+
+    private long expectedDelay(long remainingLifetime) {
+        return TokenRefreshScheduler.computeRefreshDelay(remainingLifetime, FIXED_JITTER_FRACTION);
+    }
+
+    private Runnable captureScheduledTask() {
+        ArgumentCaptor<Runnable> taskCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mTimer, times(1)).schedule(
+                taskCaptor.capture(),
+                anyLong(),
+                any(TimeUnit.class));
+        return taskCaptor.getValue();
+    }
+}
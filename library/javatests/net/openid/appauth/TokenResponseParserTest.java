@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static net.openid.appauth.TestValues.TEST_ID_TOKEN;
+import static net.openid.appauth.TestValues.TEST_REFRESH_TOKEN;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeRequest;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import net.openid.appauth.AuthorizationException.TokenRequestErrors;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class TokenResponseParserTest {
+
+    private static final String TEST_RESPONSE_JSON = "{\n"
+            + "  \"token_type\": \"Bearer\",\n"
+            + "  \"access_token\": \"" + TEST_ACCESS_TOKEN + "\",\n"
+            + "  \"expires_in\": \"3600\",\n"
+            + "  \"refresh_token\": \"" + TEST_REFRESH_TOKEN + "\",\n"
+            + "  \"id_token\": \"" + TEST_ID_TOKEN + "\",\n"
+            + "  \"scope\": \"openid email\",\n"
+            + "  \"session_state\": \"abc\",\n"
+            + "  \"numeric_param\": 42,\n"
+            + "  \"boolean_param\": true,\n"
+            + "  \"object_param\": {\"nested\": [1, \"two\"]}\n"
+            + "}";
+
+    @Test
+    public void testParse() throws Exception {
+        TokenResponse response = parse(TEST_RESPONSE_JSON);
+        assertThat(response.tokenType).isEqualTo("Bearer");
+        assertThat(response.accessToken).isEqualTo(TEST_ACCESS_TOKEN);
+        assertThat(response.accessTokenExpirationTime).isNotNull();
+        assertThat(response.refreshToken).isEqualTo(TEST_REFRESH_TOKEN);
+        assertThat(response.idToken).isEqualTo(TEST_ID_TOKEN);
+        assertThat(response.scope).isEqualTo("openid email");
+    }
+
+    @Test
+    public void testParse_matchesJsonObjectParsing() throws Exception {
+        TokenResponse streamed = parse(TEST_RESPONSE_JSON);
+        TokenResponse parsed = new TokenResponse.Builder(getTestAuthCodeExchangeRequest())
+                .fromResponseJson(new JSONObject(TEST_RESPONSE_JSON))
+                .build();
+        assertThat(streamed.additionalParameters).isEqualTo(parsed.additionalParameters);
+        assertThat(new JSONObject(streamed.additionalParameters.get("object_param")).toString())
+                .isEqualTo(new JSONObject(parsed.additionalParameters.get("object_param"))
+                        .toString());
+    }
+
+    @Test
+    public void testParse_nullValuesTreatedAsAbsent() throws Exception {
+        TokenResponse response = parse(
+                "{\"token_type\": \"Bearer\", \"refresh_token\": null, \"expires_in\": null}");
+        assertThat(response.refreshToken).isNull();
+        assertThat(response.accessTokenExpirationTime).isNull();
+    }
+
+    @Test
+    public void testParse_errorResponse() throws Exception {
+        try {
+            parse("{\"error\": \"invalid_grant\", "
+                    + "\"error_description\": \"Refresh token expired\", "
+                    + "\"error_uri\": \"https://idp.example.com/errors/invalid_grant\"}");
+            fail("Expected AuthorizationException");
+        } catch (AuthorizationException ex) {
+            assertThat(ex).isEqualTo(TokenRequestErrors.INVALID_GRANT);
+            assertThat(ex.errorDescription).isEqualTo("Refresh token expired");
+            assertThat(ex.errorUri.toString())
+                    .isEqualTo("https://idp.example.com/errors/invalid_grant");
+        }
+    }
+
+    @Test(expected = JSONException.class)
+    public void testParse_missingTokenType() throws Exception {
+        parse("{\"access_token\": \"" + TEST_ACCESS_TOKEN + "\"}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void testParse_malformed() throws Exception {
+        parse("{\"token_type\" \"Bearer\"}");
+    }
+
+    @Test(expected = JSONException.class)
+    public void testParse_truncated() throws Exception {
+        parse("{\"token_type\": \"Bearer\",");
+    }
+
+    @Test(expected = JSONException.class)
+    public void testParse_wrongValueType() throws Exception {
+        parse("{\"token_type\": [\"Bearer\"]}");
+    }
+
+    private static TokenResponse parse(String json) throws Exception {
+        return TokenResponseParser.parse(
+                getTestAuthCodeExchangeRequest(),
+                new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponse;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static net.openid.appauth.TestValues.getTestRevocationRequestBuilder;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import net.openid.appauth.AuthorizationException.TokenRequestErrors;
+import net.openid.appauth.AuthorizationService.TokenRevocationResponseCallback;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class TokenRevocationQueueTest {
+
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
+    @Mock AuthorizationService mService;
+
+    private File mQueueFile;
+    private TokenRevocationQueue mQueue;
+    private RevocationRequest mRefreshTokenRequest;
+    private RevocationRequest mAccessTokenRequest;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mQueueFile = new File(mTempFolder.newFolder(), "revocationQueue");
+        mQueue = createQueue();
+        mRefreshTokenRequest = getTestRevocationRequestBuilder().build();
+        mAccessTokenRequest = getTestRevocationRequestBuilder()
+                .setToken(TEST_ACCESS_TOKEN)
+                .setTokenTypeHint(RevocationRequest.TOKEN_TYPE_HINT_ACCESS_TOKEN)
+                .build();
+    }
+
+    @Test
+    public void testEnqueue_persistsRequests() throws Exception {
+        mQueue.enqueue(Arrays.asList(mRefreshTokenRequest, mAccessTokenRequest));
+        assertThat(mQueueFile.exists()).isTrue();
+        assertThat(createQueue().getPendingCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEnqueue_ignoresQueuedTokens() throws Exception {
+        mQueue.enqueue(Collections.singletonList(mRefreshTokenRequest));
+        mQueue.enqueue(Collections.singletonList(getTestRevocationRequestBuilder().build()));
+        assertThat(mQueue.getPendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testProcess_success() throws Exception {
+        completeRevocationsWith(null);
+        mQueue.enqueue(Arrays.asList(mRefreshTokenRequest, mAccessTokenRequest));
+        mQueue.process(mService, NoClientAuthentication.INSTANCE);
+
+        verify(mService, times(2)).performTokenRevocation(
+                any(RevocationRequest.class),
+                any(ClientAuthentication.class),
+                any(TokenRevocationResponseCallback.class));
+        assertThat(mQueue.getPendingCount()).isEqualTo(0);
+        assertThat(mQueueFile.exists()).isFalse();
+    }
+
+    @Test
+    public void testProcess_networkErrorIsRetained() throws Exception {
+        completeRevocationsWith(GeneralErrors.NETWORK_ERROR);
+        mQueue.enqueue(Collections.singletonList(mRefreshTokenRequest));
+        mQueue.process(mService, NoClientAuthentication.INSTANCE);
+
+        assertThat(mQueue.getPendingCount()).isEqualTo(1);
+        assertThat(createQueue().getPendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testProcess_errorResponseIsDiscarded() throws Exception {
+        completeRevocationsWith(TokenRequestErrors.INVALID_CLIENT);
+        mQueue.enqueue(Collections.singletonList(mRefreshTokenRequest));
+        mQueue.process(mService, NoClientAuthentication.INSTANCE);
+
+        assertThat(mQueue.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testProcess_inProgressRequestsAreNotResent() throws Exception {
+        // the request never completes
+        doAnswer(new Answer<RequestHandle>() {
+            @Override
+            public RequestHandle answer(InvocationOnMock invocation) {
+                return mock(RequestHandle.class);
+            }
+        }).when(mService).performTokenRevocation(
+                any(RevocationRequest.class),
+                any(ClientAuthentication.class),
+                any(TokenRevocationResponseCallback.class));
+        mQueue.enqueue(Collections.singletonList(mRefreshTokenRequest));
+        mQueue.process(mService, NoClientAuthentication.INSTANCE);
+        mQueue.process(mService, NoClientAuthentication.INSTANCE);
+
+        verify(mService, times(1)).performTokenRevocation(
+                any(RevocationRequest.class),
+                any(ClientAuthentication.class),
+                any(TokenRevocationResponseCallback.class));
+        assertThat(mQueue.getPendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSignOut_ignoresStatesWithoutRevocationEndpoint() throws Exception {
+        AuthState state = new AuthState(
+                getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null);
+        mQueue.signOut(mService, Collections.singletonList(state),
+                NoClientAuthentication.INSTANCE);
+
+        assertThat(mQueue.getPendingCount()).isEqualTo(0);
+        assertThat(mQueueFile.exists()).isFalse();
+    }
+
+    private TokenRevocationQueue createQueue() {
+        return new TokenRevocationQueue(mQueueFile, new SameThreadExecutor());
+    }
+
+    private void completeRevocationsWith(final AuthorizationException ex) {
+        doAnswer(new Answer<RequestHandle>() {
+            @Override
+            public RequestHandle answer(InvocationOnMock invocation) {
+                TokenRevocationResponseCallback callback =
+                        (TokenRevocationResponseCallback) invocation.getArguments()[2];
+                callback.onTokenRevocationCompleted(ex);
+                return mock(RequestHandle.class);
+            }
+        }).when(mService).performTokenRevocation(
+                any(RevocationRequest.class),
+                any(ClientAuthentication.class),
+                any(TokenRevocationResponseCallback.class));
+    }
+}
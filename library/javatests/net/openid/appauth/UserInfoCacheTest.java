@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.net.Uri;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=16)
+public class UserInfoCacheTest {
+
+    private static final long ONE_MINUTE = 60000L;
+    private static final long ONE_HOUR = 3600000L;
+
+    private static final Uri TEST_USERINFO_ENDPOINT =
+            Uri.parse("https://testidp.example.com/userinfo");
+    private static final String TEST_ETAG = "\"v1\"";
+
+    private TestClock mClock;
+    private UserInfoCache mCache;
+    private JSONObject mClaims;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new TestClock(0L);
+        mCache = new UserInfoCache(2, ONE_MINUTE, mClock);
+        mClaims = new JSONObject("{\"sub\": \"user\"}");
+    }
+
+    @Test
+    public void testPut_freshForDefaultTtl() {
+        UserInfoCache.Key key = createKey("user", "token");
+        mCache.put(key, mClaims, null, null);
+
+        mClock.currentTime.set(ONE_MINUTE - 1);
+        assertThat(mCache.isFresh(mCache.get(key))).isTrue();
+
+        mClock.currentTime.set(ONE_MINUTE);
+        assertThat(mCache.isFresh(mCache.get(key))).isFalse();
+    }
+
+    @Test
+    public void testPut_maxAge() {
+        UserInfoCache.Key key = createKey("user", "token");
+        mCache.put(key, mClaims, null, "private, max-age=3600");
+
+        mClock.currentTime.set(ONE_HOUR - 1);
+        assertThat(mCache.isFresh(mCache.get(key))).isTrue();
+    }
+
+    @Test
+    public void testPut_noStoreWithoutEtagNotRetained() {
+        UserInfoCache.Key key = createKey("user", "token");
+        mCache.put(key, mClaims, null, "no-store");
+        assertThat(mCache.get(key)).isNull();
+    }
+
+    @Test
+    public void testPut_noStoreWithEtagNotRetained() {
+        UserInfoCache.Key key = createKey("user", "token");
+        mCache.put(key, mClaims, TEST_ETAG, null);
+        mCache.put(key, mClaims, TEST_ETAG, "private, no-store");
+        assertThat(mCache.get(key)).isNull();
+    }
+
+    @Test
+    public void testPut_noCacheWithEtagRetainedForRevalidation() {
+        UserInfoCache.Key key = createKey("user", "token");
+        mCache.put(key, mClaims, TEST_ETAG, "no-cache");
+
+        UserInfoCache.Entry entry = mCache.get(key);
+        assertThat(entry).isNotNull();
+        assertThat(entry.getEtag()).isEqualTo(TEST_ETAG);
+        assertThat(mCache.isFresh(entry)).isFalse();
+    }
+
+    @Test
+    public void testGet_keyedByAccessToken() {
+        mCache.put(createKey("user", "token"), mClaims, null, null);
+        assertThat(mCache.get(createKey("user", "token"))).isNotNull();
+        assertThat(mCache.get(createKey("user", "other_token"))).isNull();
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlyUsed() {
+        UserInfoCache.Key first = createKey("user1", "token1");
+        UserInfoCache.Key second = createKey("user2", "token2");
+        mCache.put(first, mClaims, null, null);
+        mCache.put(second, mClaims, null, null);
+        mCache.get(first);
+        mCache.put(createKey("user3", "token3"), mClaims, null, null);
+
+        assertThat(mCache.size()).isEqualTo(2);
+        assertThat(mCache.get(first)).isNotNull();
+        assertThat(mCache.get(second)).isNull();
+    }
+
+    @Test
+    public void testInvalidate() {
+        mCache.put(createKey("user1", "token1"), mClaims, null, null);
+        mCache.put(createKey("user2", "token2"), mClaims, null, null);
+        mCache.invalidate("user1");
+
+        assertThat(mCache.size()).isEqualTo(1);
+        assertThat(mCache.get(createKey("user2", "token2"))).isNotNull();
+    }
+
+    private static UserInfoCache.Key createKey(String subject, String accessToken) {
+        return new UserInfoCache.Key(TEST_USERINFO_ENDPOINT, subject, accessToken);
+    }
+}